@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.benchmarks;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for every configured thread count, to show how the token processing
+ * pipeline scales with concurrent requests sharing one FedizContext.
+ *
+ * <pre>
+ * mvn -Pbenchmarks install
+ * java -Dfediz.benchmark.threads=1,4,16 -jar plugins/benchmarks/target/benchmarks.jar [JMH options]
+ * </pre>
+ *
+ * All the usual JMH command line options (benchmark regexp, -p, -f, -wi, -i, -rf ...) are
+ * supported. If the thread count is set on the command line with -t, only this value is used.
+ */
+public final class BenchmarkRunner {
+
+    public static final String THREADS_PROPERTY = "fediz.benchmark.threads";
+
+    private BenchmarkRunner() {
+        // complete
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        if (cmdOptions.shouldHelp() || cmdOptions.shouldList()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        if (cmdOptions.getThreads().hasValue()) {
+            new Runner(cmdOptions).run();
+            return;
+        }
+
+        for (String threads : System.getProperty(THREADS_PROPERTY, "1,4,16").split(",")) {
+            Options options = new OptionsBuilder()
+                .parent(cmdOptions)
+                .threads(Integer.parseInt(threads.trim()))
+                .build();
+            new Runner(options).run();
+        }
+    }
+
+}
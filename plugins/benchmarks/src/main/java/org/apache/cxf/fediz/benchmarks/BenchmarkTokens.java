@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.benchmarks;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.security.auth.callback.CallbackHandler;
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.common.STSUtil;
+import org.apache.cxf.fediz.core.AbstractSAMLCallbackHandler;
+import org.apache.cxf.fediz.core.AbstractSAMLCallbackHandler.MultiValue;
+import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.KeystoreCallbackHandler;
+import org.apache.cxf.fediz.core.SAML1CallbackHandler;
+import org.apache.cxf.fediz.core.SAML2CallbackHandler;
+import org.apache.cxf.fediz.core.config.FedizConfigurator;
+import org.apache.cxf.fediz.core.federation.FederationResponseTest;
+import org.apache.cxf.fediz.core.samlsso.CompressionUtils;
+import org.apache.cxf.fediz.core.samlsso.SAML2PResponseComponentBuilder;
+import org.apache.wss4j.common.WSEncryptionPart;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.ext.WSPasswordCallback;
+import org.apache.wss4j.common.saml.OpenSAMLUtil;
+import org.apache.wss4j.common.saml.SAMLCallback;
+import org.apache.wss4j.common.saml.SAMLUtil;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.apache.wss4j.common.saml.bean.AudienceRestrictionBean;
+import org.apache.wss4j.common.saml.bean.ConditionsBean;
+import org.apache.wss4j.common.saml.bean.SubjectConfirmationDataBean;
+import org.apache.wss4j.common.saml.builder.SAML1Constants;
+import org.apache.wss4j.common.saml.builder.SAML2Constants;
+import org.apache.wss4j.common.util.DOM2Writer;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.message.WSSecEncrypt;
+import org.apache.xml.security.utils.Base64;
+import org.joda.time.DateTime;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.Status;
+
+/**
+ * Creates the signed (and encrypted) tokens and the configurations used by the benchmarks. The
+ * tokens are signed with the STS key of the fediz-core test keystores.
+ */
+public final class BenchmarkTokens {
+
+    public static final String USER = "alice";
+    public static final String STS_ISSUER = "FedizSTSIssuer";
+    public static final String IDP_ISSUER = "http://url_to_the_issuer";
+    public static final String AUDIENCE = "https://localhost/fedizhelloworld";
+    public static final String REQUEST_URL = "https://localhost/fedizhelloworld/";
+    public static final String CONTEXT_PATH = "/fedizhelloworld";
+    public static final String CLIENT_ADDRESS = "https://127.0.0.1";
+
+    public static final String FEDERATION_CONFIG = "fediz_test_config.xml";
+    public static final String SAML_CONFIG = "fediz_test_config_saml.xml";
+    public static final String FEDERATION_META_CONFIG = "fediz_meta_test_config.xml";
+    public static final String SAML_META_CONFIG = "fediz_meta_test_config_saml.xml";
+
+    private static final String SIGNING_ALIAS = "mystskey";
+    private static final int TOKEN_PERIOD_MINUTES = 24 * 60;
+
+    private static Crypto crypto;
+    private static CallbackHandler passwordHandler = new KeystoreCallbackHandler();
+
+    private BenchmarkTokens() {
+    }
+
+    public static FedizConfigurator loadConfig(String resource) throws Exception {
+        FedizConfigurator configurator = new FedizConfigurator();
+        InputStream is = BenchmarkTokens.class.getClassLoader().getResourceAsStream(resource);
+        if (is == null) {
+            throw new IllegalArgumentException("Configuration '" + resource + "' not found");
+        }
+        try (Reader reader = new InputStreamReader(is, "UTF-8")) {
+            configurator.loadConfig(reader);
+        }
+        return configurator;
+    }
+
+    /**
+     * Create a list of role names. Every role is sent as separate attribute, so the number of roles
+     * defines the number of claims and together with the length of the names the size of the token.
+     */
+    public static List<String> createRoles(int count, int length) {
+        List<String> roles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder(length).append("Role").append(i);
+            while (sb.length() < length) {
+                sb.append('x');
+            }
+            roles.add(sb.toString());
+        }
+        return roles;
+    }
+
+    /**
+     * Create an unsigned SAML 1.1 or SAML 2.0 bearer assertion with an attribute statement. An
+     * authentication statement is added as well if SubjectConfirmationData is provided.
+     */
+    public static SamlAssertionWrapper createAssertion(
+        boolean saml2, List<String> roles, String issuer, String audience,
+        SubjectConfirmationDataBean subjectConfirmationData
+    ) throws Exception {
+        AbstractSAMLCallbackHandler callbackHandler;
+        if (saml2) {
+            callbackHandler = new SAML2CallbackHandler();
+            callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        } else {
+            callbackHandler = new SAML1CallbackHandler();
+            callbackHandler.setConfirmationMethod(SAML1Constants.CONF_BEARER);
+        }
+        callbackHandler.setStatement(AbstractSAMLCallbackHandler.Statement.ATTR);
+        callbackHandler.setIssuer(issuer);
+        callbackHandler.setSubjectName(USER);
+        callbackHandler.setRoles(roles);
+        callbackHandler.setMultiValueType(MultiValue.MULTI_ATTR);
+        if (subjectConfirmationData != null) {
+            // SAML SSO
+            callbackHandler.setAlsoAddAuthnStatement(true);
+            callbackHandler.setSubjectConfirmationData(subjectConfirmationData);
+        }
+
+        ConditionsBean cp = new ConditionsBean();
+        cp.setTokenPeriodMinutes(TOKEN_PERIOD_MINUTES);
+        AudienceRestrictionBean audienceRestriction = new AudienceRestrictionBean();
+        audienceRestriction.getAudienceURIs().add(audience);
+        cp.setAudienceRestrictions(Collections.singletonList(audienceRestriction));
+        callbackHandler.setConditions(cp);
+
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        return new SamlAssertionWrapper(samlCallback);
+    }
+
+    /**
+     * Sign the assertion and return the wresult parameter of a WS-Federation sign-in response.
+     */
+    public static String createRSTR(SamlAssertionWrapper assertion) throws Exception {
+        Element token = createRSTRToken(assertion);
+        return DOM2Writer.nodeToString(token.getOwnerDocument());
+    }
+
+    /**
+     * Sign and encrypt the assertion and return the wresult parameter of a WS-Federation
+     * sign-in response.
+     */
+    public static String createEncryptedRSTR(SamlAssertionWrapper assertion) throws Exception {
+        Element token = createRSTRToken(assertion);
+        Document doc = token.getOwnerDocument();
+
+        WSSecEncrypt builder = new WSSecEncrypt();
+        builder.setUserInfo(SIGNING_ALIAS);
+        builder.setKeyIdentifierType(WSConstants.ISSUER_SERIAL);
+        builder.setSymmetricEncAlgorithm(WSConstants.AES_128);
+        builder.setKeyEncAlgo(WSConstants.KEYTRANSPORT_RSAOEP);
+        builder.setEmbedEncryptedKey(true);
+
+        WSEncryptionPart encryptionPart = new WSEncryptionPart(assertion.getId(), "Element");
+        encryptionPart.setElement(token);
+
+        builder.prepare(doc, getCrypto());
+        builder.encryptForRef(null, Collections.singletonList(encryptionPart));
+        return DOM2Writer.nodeToString(doc);
+    }
+
+    /**
+     * Sign the assertion and return the deflated and encoded SAMLResponse parameter of a
+     * SAML SSO response.
+     */
+    public static String createSAMLResponse(SamlAssertionWrapper assertion, String requestId)
+        throws Exception {
+        signAssertion(assertion);
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        Document doc = dbf.newDocumentBuilder().newDocument();
+
+        Status status = SAML2PResponseComponentBuilder.createStatus(
+            "urn:oasis:names:tc:SAML:2.0:status:Success", null);
+        Response response = SAML2PResponseComponentBuilder.createSAMLResponse(
+            requestId, assertion.getIssuerString(), status);
+        response.getAssertions().add(assertion.getSaml2());
+
+        Element responseElement = OpenSAMLUtil.toDom(response, doc);
+        doc.appendChild(responseElement);
+
+        String responseMessage = DOM2Writer.nodeToString(responseElement);
+        return Base64.encode(CompressionUtils.deflate(responseMessage.getBytes("UTF-8")));
+    }
+
+    /**
+     * Create the SubjectConfirmationData required by the SAML SSO profile.
+     */
+    public static SubjectConfirmationDataBean createSubjectConfirmationData(String requestId) {
+        SubjectConfirmationDataBean subjectConfirmationData = new SubjectConfirmationDataBean();
+        subjectConfirmationData.setAddress(CLIENT_ADDRESS);
+        subjectConfirmationData.setInResponseTo(requestId);
+        subjectConfirmationData.setNotAfter(new DateTime().plusMinutes(TOKEN_PERIOD_MINUTES));
+        subjectConfirmationData.setRecipient(REQUEST_URL);
+        return subjectConfirmationData;
+    }
+
+    /**
+     * Create a read-only HttpServletRequest which only provides the request URL, the context
+     * path and the remote address. All other methods return null.
+     */
+    public static HttpServletRequest createRequest() {
+        return (HttpServletRequest)Proxy.newProxyInstance(
+            BenchmarkTokens.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    switch (method.getName()) {
+                    case "getRequestURL":
+                        return new StringBuffer(REQUEST_URL);
+                    case "getContextPath":
+                        return CONTEXT_PATH;
+                    case "getRemoteAddr":
+                        return CLIENT_ADDRESS;
+                    default:
+                        return null;
+                    }
+                }
+            });
+    }
+
+    /**
+     * Sign the assertion, add it to a RequestSecurityTokenResponseCollection and return the
+     * assertion element.
+     */
+    private static Element createRSTRToken(SamlAssertionWrapper assertion) throws Exception {
+        signAssertion(assertion);
+        Document doc = STSUtil.toSOAPPart(STSUtil.SAMPLE_RSTR_COLL_MSG);
+        Element token = assertion.toDOM(doc);
+        Element e = FederationResponseTest.findElement(doc, "RequestedSecurityToken",
+                                                       FederationConstants.WS_TRUST_13_NS);
+        e.appendChild(token);
+        return token;
+    }
+
+    private static void signAssertion(SamlAssertionWrapper assertion) throws Exception {
+        WSPasswordCallback[] cb = {
+            new WSPasswordCallback(SIGNING_ALIAS, WSPasswordCallback.SIGNATURE)
+        };
+        passwordHandler.handle(cb);
+        assertion.signAssertion(SIGNING_ALIAS, cb[0].getPassword(), getCrypto(), false);
+    }
+
+    private static synchronized Crypto getCrypto() throws Exception {
+        if (crypto == null) {
+            crypto = CryptoFactory.getInstance("signature.properties");
+        }
+        return crypto;
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.processor.FederationProcessorImpl;
+import org.apache.cxf.fediz.core.processor.FedizProcessor;
+import org.apache.cxf.fediz.core.processor.FedizRequest;
+import org.apache.cxf.fediz.core.processor.FedizResponse;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the processing of a WS-Federation sign-in response with an encrypted SAML token
+ * (decryption with the configured tokenDecryptionKey, signature and trust validation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptedTokenBenchmark {
+
+    @Param({"SAML11", "SAML20" })
+    protected String tokenType;
+
+    @Param({"2", "20", "100" })
+    protected int claimCount;
+
+    protected FedizContext config;
+    protected FedizRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        config = BenchmarkTokens.loadConfig(BenchmarkTokens.FEDERATION_CONFIG)
+            .getFedizContext("ROOT_DECRYPTION");
+        config.setDetectReplayedTokens(false);
+
+        SamlAssertionWrapper assertion = BenchmarkTokens.createAssertion(
+            "SAML20".equals(tokenType), BenchmarkTokens.createRoles(claimCount, 16),
+            BenchmarkTokens.STS_ISSUER, BenchmarkTokens.AUDIENCE, null);
+
+        request = new FedizRequest();
+        request.setAction(FederationConstants.ACTION_SIGNIN);
+        request.setResponseToken(BenchmarkTokens.createEncryptedRSTR(assertion));
+
+        // Fail early if the token isn't accepted
+        processRequest();
+    }
+
+    @Benchmark
+    public FedizResponse processRequest() throws Exception {
+        FedizProcessor processor = new FederationProcessorImpl();
+        return processor.processRequest(request, config);
+    }
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cxf.fediz.core.cache.StripedReplayCache;
+import org.apache.wss4j.common.cache.MemoryReplayCache;
+import org.apache.wss4j.common.cache.ReplayCache;
+import org.apache.wss4j.common.cache.ReplayCacheFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the token replay detection of the default EHCache based ReplayCache, the
+ * MemoryReplayCache of WSS4J and the StripedReplayCache (contains followed by add for a new
+ * token, contains for a replayed token).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplayCacheBenchmark {
+
+    private static final int REPLAYED_TOKENS = 1024;
+
+    @Param({"EHCACHE", "MEMORY", "STRIPED" })
+    protected String cacheType;
+
+    /**
+     * The time to live of the cached token ids in seconds.
+     */
+    @Param({"10" })
+    protected long timeToLive;
+
+    protected ReplayCache replayCache;
+    protected String[] replayedTokens;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        if ("EHCACHE".equals(cacheType)) {
+            replayCache = ReplayCacheFactory.newInstance().newReplayCache(
+                "fediz-replay-benchmark-" + UUID.randomUUID(), "/fediz-ehcache.xml");
+        } else if ("MEMORY".equals(cacheType)) {
+            replayCache = new MemoryReplayCache();
+        } else {
+            replayCache = new StripedReplayCache();
+        }
+        replayedTokens = new String[REPLAYED_TOKENS];
+        for (int i = 0; i < REPLAYED_TOKENS; i++) {
+            replayedTokens[i] = "_" + UUID.randomUUID();
+            replayCache.add(replayedTokens[i], StripedReplayCache.MAX_TTL);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        replayCache.close();
+    }
+
+    @Benchmark
+    public boolean newToken(TokenIds ids) {
+        String tokenId = ids.next();
+        if (replayCache.contains(tokenId)) {
+            return false;
+        }
+        replayCache.add(tokenId, timeToLive);
+        return true;
+    }
+
+    @Benchmark
+    public boolean replayedToken(TokenIds ids) {
+        return replayCache.contains(replayedTokens[ids.nextIndex() & (REPLAYED_TOKENS - 1)]);
+    }
+
+    @State(Scope.Thread)
+    public static class TokenIds {
+        private final String prefix = "_" + UUID.randomUUID() + "-";
+        private int count;
+
+        String next() {
+            return prefix + count++;
+        }
+
+        int nextIndex() {
+            return count++;
+        }
+    }
+
+}
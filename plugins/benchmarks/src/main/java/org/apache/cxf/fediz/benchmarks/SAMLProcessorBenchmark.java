@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.benchmarks;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cxf.fediz.core.RequestState;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.processor.FedizProcessor;
+import org.apache.cxf.fediz.core.processor.FedizRequest;
+import org.apache.cxf.fediz.core.processor.FedizResponse;
+import org.apache.cxf.fediz.core.processor.SAMLProcessorImpl;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the processing of a SAML SSO response (SAMLProcessorImpl): decoding and inflating
+ * the SAMLResponse, protocol and SSO profile validation and the validation of the SAML token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SAMLProcessorBenchmark {
+
+    @Param({"2", "20", "100" })
+    protected int claimCount;
+
+    @Param({"16", "512" })
+    protected int claimValueLength;
+
+    protected FedizContext config;
+    protected FedizRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        config = BenchmarkTokens.loadConfig(BenchmarkTokens.SAML_CONFIG).getFedizContext("ROOT");
+        config.setDetectReplayedTokens(false);
+
+        String requestId = UUID.randomUUID().toString();
+        String relayState = UUID.randomUUID().toString();
+        RequestState requestState = new RequestState(BenchmarkTokens.REQUEST_URL,
+                                                     BenchmarkTokens.IDP_ISSUER,
+                                                     requestId,
+                                                     BenchmarkTokens.REQUEST_URL,
+                                                     (String)config.getProtocol().getIssuer(),
+                                                     null,
+                                                     relayState,
+                                                     System.currentTimeMillis());
+
+        SamlAssertionWrapper assertion = BenchmarkTokens.createAssertion(
+            true, BenchmarkTokens.createRoles(claimCount, claimValueLength),
+            BenchmarkTokens.IDP_ISSUER, BenchmarkTokens.REQUEST_URL,
+            BenchmarkTokens.createSubjectConfirmationData(requestId));
+
+        request = new FedizRequest();
+        request.setResponseToken(BenchmarkTokens.createSAMLResponse(assertion, requestId));
+        request.setState(relayState);
+        request.setRequest(BenchmarkTokens.createRequest());
+        request.setRequestState(requestState);
+
+        // Fail early if the response isn't accepted
+        processRequest();
+    }
+
+    @Benchmark
+    public FedizResponse processRequest() throws Exception {
+        FedizProcessor processor = new SAMLProcessorImpl();
+        return processor.processRequest(request, config);
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.processor.FedizProcessor;
+import org.apache.cxf.fediz.core.processor.RedirectionResponse;
+import org.apache.cxf.fediz.core.processor.SAMLProcessorImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the creation of the redirect to the IdP (SAMLProcessorImpl.createSignInRequest) from
+ * the AuthnRequest template, compared with marshalling a new AuthnRequest each time (which the
+ * processor does when encodeAuthnRequest is overridden).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SAMLSignInRequestBenchmark {
+
+    @Param({"TEMPLATE", "MARSHAL" })
+    protected String authnRequest;
+
+    protected FedizContext config;
+    protected FedizProcessor processor;
+    protected HttpServletRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        config = BenchmarkTokens.loadConfig(BenchmarkTokens.SAML_CONFIG).getFedizContext("ROOT");
+        request = BenchmarkTokens.createRequest();
+        if ("MARSHAL".equals(authnRequest)) {
+            processor = new SAMLProcessorImpl() {
+                @Override
+                protected String encodeAuthnRequest(Element element) throws IOException {
+                    return super.encodeAuthnRequest(element);
+                }
+            };
+        } else {
+            processor = new SAMLProcessorImpl();
+        }
+
+        // Fail early if no redirect can be created
+        if (createSignInRequest().getRedirectionURL() == null) {
+            throw new IllegalStateException("No redirection URL");
+        }
+    }
+
+    @Benchmark
+    public RedirectionResponse createSignInRequest() throws Exception {
+        return processor.createSignInRequest(request, config);
+    }
+
+}
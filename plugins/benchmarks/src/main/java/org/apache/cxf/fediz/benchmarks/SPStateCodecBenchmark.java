@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.ClaimTypes;
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.cxf.fediz.cxf.plugin.state.ResponseState;
+import org.apache.cxf.fediz.cxf.plugin.state.SPStateCodec;
+import org.apache.wss4j.common.util.DOM2Writer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares Java serialization of a ResponseState (one per session) with the SPStateCodec, with
+ * and without compression of the assertion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SPStateCodecBenchmark {
+
+    @Param({"JAVA", "COMPACT", "COMPACT_UNCOMPRESSED" })
+    protected String encoding;
+
+    /**
+     * The number of roles, i.e. the size of the assertion.
+     */
+    @Param({"10", "100" })
+    protected int roleCount;
+
+    protected ResponseState responseState;
+    protected SPStateCodec codec;
+    protected byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        List<String> roles = BenchmarkTokens.createRoles(roleCount, 20);
+        String rstr = BenchmarkTokens.createRSTR(BenchmarkTokens.createAssertion(
+            true, roles, BenchmarkTokens.STS_ISSUER, BenchmarkTokens.AUDIENCE, null));
+        Document doc = DOMUtils.readXml(new ByteArrayInputStream(rstr.getBytes("UTF-8")));
+        Element assertion = (Element)doc.getElementsByTagNameNS("*", "Assertion").item(0);
+
+        long now = System.currentTimeMillis();
+        responseState = new ResponseState(DOM2Writer.nodeToString(assertion), "relay-state",
+                                          BenchmarkTokens.CONTEXT_PATH, null, now, now + 3600000L);
+        responseState.setSubject(BenchmarkTokens.USER);
+        responseState.setIssuer(BenchmarkTokens.STS_ISSUER);
+        responseState.setRoles(roles);
+        List<Claim> claims = new ArrayList<>();
+        Claim claim = new Claim();
+        claim.setClaimType(ClaimTypes.EMAILADDRESS);
+        claim.setIssuer(BenchmarkTokens.STS_ISSUER);
+        claim.setValue("alice@example.com");
+        claims.add(claim);
+        claim = new Claim();
+        claim.setClaimType(URI.create(ClaimTypes.URI_BASE + "/role"));
+        claim.setIssuer(BenchmarkTokens.STS_ISSUER);
+        claim.setValue(roles);
+        claims.add(claim);
+        responseState.setClaims(claims);
+
+        if ("COMPACT".equals(encoding)) {
+            codec = new SPStateCodec();
+        } else if ("COMPACT_UNCOMPRESSED".equals(encoding)) {
+            codec = new SPStateCodec(-1);
+        }
+        encoded = encode();
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        if (codec != null) {
+            return codec.encode(responseState);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(responseState);
+        }
+        return bos.toByteArray();
+    }
+
+    @Benchmark
+    public ResponseState decode() throws Exception {
+        if (codec != null) {
+            return codec.decodeResponseState(encoded);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(encoded))) {
+            return (ResponseState)ois.readObject();
+        }
+    }
+
+}
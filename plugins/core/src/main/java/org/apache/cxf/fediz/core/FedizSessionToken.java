@@ -0,0 +1,201 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import org.apache.cxf.fediz.core.processor.FedizResponse;
+import org.apache.cxf.fediz.core.samlsso.CompressionUtils;
+import org.apache.cxf.fediz.core.util.ClaimTypeUtils;
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.wss4j.common.util.DOM2Writer;
+
+/**
+ * The compact and serializable form of a FedizResponse, as kept in the HTTP session of an
+ * authenticated user. The security token is held as deflated bytes instead of a DOM tree, it is
+ * only parsed again (and then cached) once an application asks for it via getToken().
+ */
+public class FedizSessionToken implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final String XMLNS_NS = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+
+    private final String username;
+    private final String issuer;
+    private final String audience;
+    private final String uniqueTokenId;
+    private final List<String> roles;
+    private final ClaimCollection claims;
+    private final long tokenExpires;
+    private final byte[] compressedToken;
+    private transient volatile Element token;
+
+    public FedizSessionToken(FedizResponse response) {
+        this(response, response.getRoles());
+    }
+
+    /**
+     * @param roles the roles of the user, which may differ from the roles of the response
+     *        (e.g. a default role if the response has none)
+     */
+    public FedizSessionToken(FedizResponse response, List<String> roles) {
+        this.username = response.getUsername();
+        this.issuer = intern(response.getIssuer());
+        this.audience = intern(response.getAudience());
+        this.uniqueTokenId = response.getUniqueTokenId();
+        this.roles = roles == null ? Collections.<String>emptyList() 
+            : Collections.unmodifiableList(new ArrayList<>(roles));
+        this.claims = internClaims(response.getClaims());
+        Date expires = response.getTokenExpires();
+        this.tokenExpires = expires == null ? 0L : expires.getTime();
+        this.compressedToken = response.getToken() == null ? null : compress(response.getToken());
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    public String getAudience() {
+        return audience;
+    }
+
+    public String getUniqueTokenId() {
+        return uniqueTokenId;
+    }
+
+    public List<String> getRoles() {
+        return roles;
+    }
+
+    public ClaimCollection getClaims() {
+        return claims;
+    }
+
+    /**
+     * Return the expiry of the token in milliseconds since the epoch, or 0 if it doesn't expire.
+     */
+    public long getTokenExpires() {
+        return tokenExpires;
+    }
+
+    /**
+     * Return true if the token expires before the given time (in milliseconds since the epoch).
+     */
+    public boolean isExpired(long currentTime) {
+        return tokenExpires > 0 && currentTime > tokenExpires;
+    }
+
+    /**
+     * Return the security token, it is parsed on the first call.
+     */
+    public Element getToken() {
+        Element element = token;
+        if (element == null && compressedToken != null) {
+            try (InputStream in = CompressionUtils.inflate(new ByteArrayInputStream(compressedToken), true, 0)) {
+                element = DOMUtils.readXml(in).getDocumentElement();
+            } catch (Exception ex) {
+                throw new IllegalStateException("Failed to parse the security token: " + ex.getMessage(), ex);
+            }
+            token = element;
+        }
+        return element;
+    }
+
+    /**
+     * Return the size of the deflated token in bytes.
+     */
+    public int getCompressedTokenSize() {
+        return compressedToken == null ? 0 : compressedToken.length;
+    }
+
+    @Override
+    public String toString() {
+        return username;
+    }
+
+    private static byte[] compress(Element element) {
+        // The namespaces declared on the ancestors of the token are declared on the token itself,
+        // so that it can be parsed on its own
+        Element copy = (Element)element.cloneNode(true);
+        for (Node parent = element.getParentNode(); parent instanceof Element; parent = parent.getParentNode()) {
+            NamedNodeMap attributes = parent.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attribute = (Attr)attributes.item(i);
+                if (XMLNS_NS.equals(attribute.getNamespaceURI())
+                    && !copy.hasAttributeNS(XMLNS_NS, attribute.getLocalName())) {
+                    copy.setAttributeNS(XMLNS_NS, attribute.getName(), attribute.getValue());
+                }
+            }
+        }
+        byte[] bytes = DOM2Writer.nodeToString(copy).getBytes(StandardCharsets.UTF_8);
+        return CompressionUtils.deflate(bytes);
+    }
+
+    /**
+     * Copy the claims with interned claim types and issuers, the claims of the response are not modified.
+     */
+    private static ClaimCollection internClaims(List<Claim> claims) {
+        if (claims == null || claims.isEmpty()) {
+            return new ClaimCollection(0);
+        }
+        List<Claim> copies = new ArrayList<>(claims.size());
+        for (Claim claim : claims) {
+            copies.add(internClaim(claim));
+        }
+        return new ClaimCollection(copies);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Claim internClaim(Claim claim) {
+        Claim copy = new Claim();
+        if (claim.getClaimType() != null) {
+            copy.setClaimType(ClaimTypeUtils.getClaimType(claim.getClaimType().toString()));
+        }
+        copy.setIssuer(intern(claim.getIssuer()));
+        copy.setOriginalIssuer(intern(claim.getOriginalIssuer()));
+        copy.setPrincipal(claim.getPrincipal());
+        copy.setValue(claim.getValue());
+        copy.setNamespace(claim.getNamespace());
+        return copy;
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : value.intern();
+    }
+
+}
@@ -27,8 +27,9 @@ import org.w3c.dom.Element;
  */
 public final class SecurityTokenThreadLocal {
 
-    private static final ThreadLocal<Element> TLS = 
-        new ThreadLocal<Element>();
+    // Either the token Element or the FedizPrincipal providing it
+    private static final ThreadLocal<Object> TLS = 
+        new ThreadLocal<Object>();
 
     private SecurityTokenThreadLocal() {
     }    
@@ -41,8 +42,26 @@ public final class SecurityTokenThreadLocal {
         }
     }
 
+    /**
+     * Set the principal whose login token is returned by {@link #getToken()}. The token is only
+     * requested from the principal when it is actually used, it is then kept for the thread.
+     */
+    public static void setPrincipal(FedizPrincipal principal) {
+        if (principal == null) { 
+            TLS.remove();
+        } else {
+            TLS.set(principal);
+        }
+    }
+
     public static Element getToken() {
-        return TLS.get();
+        Object token = TLS.get();
+        if (token instanceof FedizPrincipal) {
+            Element element = ((FedizPrincipal)token).getLoginToken();
+            setToken(element);
+            return element;
+        }
+        return (Element)token;
     }
     
 
@@ -27,10 +27,20 @@ public class TokenValidatorRequest {
 
     private final Element token;
     private final Certificate[] certs;
+    private final byte[] contentDigest;
 
     public TokenValidatorRequest(Element token, Certificate[] certs) {
+        this(token, certs, null);
+    }
+
+    /**
+     * @param contentDigest the digest (see ValidatedTokenCache.createDigest()) of the raw response
+     *        the token was parsed from, or null
+     */
+    public TokenValidatorRequest(Element token, Certificate[] certs, byte[] contentDigest) {
         this.token = token;
         this.certs = certs;
+        this.contentDigest = contentDigest;
     }
 
     public Element getToken() {
@@ -41,6 +51,13 @@ public class TokenValidatorRequest {
         return certs;
     }
 
+    /**
+     * Return the digest of the raw response the token was parsed from, or null if it isn't known.
+     */
+    public byte[] getContentDigest() {
+        return contentDigest;
+    }
+
 
 
 }
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRL;
+import java.security.cert.CertStore;
+import java.security.cert.CertStoreException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache of successful certificate path validations (Crypto.verifyTrust). An entry is keyed
+ * by the fingerprint of the certificate chain and the Crypto instance which has established
+ * trust and is valid until the configured time to live has elapsed, a certificate of the chain
+ * has expired or, if revocation checking is enabled, the next update of a CRL of the Crypto is
+ * due. Entries verified with revocation checking enabled are dropped if the CRL store of the
+ * Crypto has been replaced.
+ */
+public class CertificateTrustCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(CertificateTrustCache.class);
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final long timeToLive;
+    private final int maxEntries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param timeToLive the time to live of an entry in milliseconds
+     */
+    public CertificateTrustCache(long timeToLive) {
+        this(timeToLive, DEFAULT_MAX_ENTRIES);
+    }
+
+    public CertificateTrustCache(long timeToLive, int maxEntries) {
+        if (timeToLive < 1) {
+            throw new IllegalArgumentException("Time to live must be greater than zero");
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be greater than zero");
+        }
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Return true if trust in the certificate chain has been established by the Crypto before
+     * and the result is still valid.
+     */
+    public boolean isTrusted(X509Certificate[] certs, Crypto crypto, boolean enableRevocation) {
+        Key key = new Key(getFingerprint(certs), crypto, enableRevocation);
+        Entry entry = entries.get(key);
+        if (entry != null
+            && (entry.expires <= System.currentTimeMillis()
+                || enableRevocation && entry.crlStore != getCRLCertStore(crypto))) {
+            entries.remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Add the certificate chain which has been successfully verified by the Crypto.
+     */
+    public void setTrusted(X509Certificate[] certs, Crypto crypto, boolean enableRevocation) {
+        long now = System.currentTimeMillis();
+        long expires = now + timeToLive;
+        for (X509Certificate cert : certs) {
+            expires = Math.min(expires, cert.getNotAfter().getTime());
+        }
+        CertStore crlStore = null;
+        if (enableRevocation) {
+            crlStore = getCRLCertStore(crypto);
+            expires = Math.min(expires, getNextCRLUpdate(crlStore, expires));
+        }
+        if (expires <= now) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            purge(now);
+        }
+        entries.put(new Key(getFingerprint(certs), crypto, enableRevocation),
+                    new Entry(expires, crlStore));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void purge(long now) {
+        for (java.util.Map.Entry<Key, Entry> e : entries.entrySet()) {
+            if (e.getValue().expires <= now) {
+                entries.remove(e.getKey(), e.getValue());
+            }
+        }
+        if (entries.size() >= maxEntries) {
+            // Only a handful of signing certificates is expected, start from scratch
+            LOG.debug("Certificate trust cache is full, all entries are removed");
+            entries.clear();
+        }
+    }
+
+    private static CertStore getCRLCertStore(Crypto crypto) {
+        if (crypto instanceof Merlin) {
+            return ((Merlin)crypto).getCRLCertStore();
+        }
+        return null;
+    }
+
+    private static long getNextCRLUpdate(CertStore crlStore, long expires) {
+        if (crlStore == null) {
+            return expires;
+        }
+        long nextUpdate = expires;
+        try {
+            for (CRL crl : crlStore.getCRLs(null)) {
+                if (crl instanceof X509CRL && ((X509CRL)crl).getNextUpdate() != null) {
+                    nextUpdate = Math.min(nextUpdate, ((X509CRL)crl).getNextUpdate().getTime());
+                }
+            }
+        } catch (CertStoreException ex) {
+            LOG.debug("Failed to read CRLs: {}", ex.getMessage());
+            return 0L;
+        }
+        return nextUpdate;
+    }
+
+    private static byte[] getFingerprint(X509Certificate[] certs) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (X509Certificate cert : certs) {
+                md.update(cert.getEncoded());
+            }
+            return md.digest();
+        } catch (NoSuchAlgorithmException | CertificateEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static final class Key {
+        private final byte[] fingerprint;
+        private final Crypto crypto;
+        private final boolean enableRevocation;
+        private final int hashCode;
+
+        Key(byte[] fingerprint, Crypto crypto, boolean enableRevocation) {
+            this.fingerprint = fingerprint;
+            this.crypto = crypto;
+            this.enableRevocation = enableRevocation;
+            this.hashCode = Arrays.hashCode(fingerprint) * 31 + System.identityHashCode(crypto);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return crypto == other.crypto && enableRevocation == other.enableRevocation
+                && Arrays.equals(fingerprint, other.fingerprint);
+        }
+    }
+
+    private static final class Entry {
+        private final long expires;
+        private final CertStore crlStore;
+
+        Entry(long expires, CertStore crlStore) {
+            this.expires = expires;
+            this.crlStore = crlStore;
+        }
+    }
+
+}
@@ -0,0 +1,357 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.util.Arrays;
+
+import org.apache.wss4j.common.cache.MemoryReplayCache;
+import org.apache.wss4j.common.cache.ReplayCache;
+
+/**
+ * An in-memory ReplayCache which is split into lock stripes. Each stripe keeps the identifiers in
+ * an open addressing table and their expiry timestamps in a parallel long array. Expired entries
+ * are evicted by a time wheel: an entry is registered in the bucket of the tick in which it
+ * expires and only the buckets of the ticks which have passed since the last access of a stripe
+ * are visited, so eviction never scans the whole table.
+ *
+ * It can be configured with
+ * &lt;tokenReplayCache&gt;org.apache.cxf.fediz.core.cache.StripedReplayCache&lt;/tokenReplayCache&gt;.
+ * The time to live semantics are the same as for the MemoryReplayCache of WSS4J.
+ */
+public class StripedReplayCache implements ReplayCache {
+
+    public static final long DEFAULT_TTL = MemoryReplayCache.DEFAULT_TTL;
+    public static final long MAX_TTL = MemoryReplayCache.MAX_TTL;
+
+    public static final int DEFAULT_STRIPES = 16;
+    public static final long DEFAULT_TICK = 5000L;
+    public static final int DEFAULT_WHEEL_SIZE = 1024;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+
+    public StripedReplayCache() {
+        this(DEFAULT_STRIPES, DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param stripes the number of lock stripes, rounded up to a power of two
+     * @param tick the resolution of the time wheel in milliseconds
+     * @param wheelSize the number of buckets of the time wheel, rounded up to a power of two
+     */
+    public StripedReplayCache(int stripes, long tick, int wheelSize) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be greater than zero");
+        }
+        if (tick < 1) {
+            throw new IllegalArgumentException("Tick must be greater than zero");
+        }
+        if (wheelSize < 1) {
+            throw new IllegalArgumentException("Wheel size must be greater than zero");
+        }
+        int stripeCount = powerOfTwo(stripes);
+        this.stripes = new Stripe[stripeCount];
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(tick, powerOfTwo(wheelSize));
+        }
+    }
+
+    @Override
+    public void add(String identifier) {
+        add(identifier, DEFAULT_TTL);
+    }
+
+    @Override
+    public void add(String identifier, long timeToLive) {
+        if (identifier == null) {
+            return;
+        }
+        int hash = hash(identifier);
+        long now = currentTime();
+        getStripe(hash).add(identifier, hash, expiry(now, timeToLive), now, false);
+    }
+
+    /**
+     * Add the identifier unless it is already contained in the cache. Returns false if the
+     * identifier is already contained. Unlike {@link #contains(String)} followed by
+     * {@link #add(String, long)} this is atomic.
+     */
+    public boolean addIfAbsent(String identifier, long timeToLive) {
+        if (identifier == null) {
+            return false;
+        }
+        int hash = hash(identifier);
+        long now = currentTime();
+        return getStripe(hash).add(identifier, hash, expiry(now, timeToLive), now, true);
+    }
+
+    @Override
+    public boolean contains(String identifier) {
+        if (identifier == null) {
+            return false;
+        }
+        int hash = hash(identifier);
+        return getStripe(hash).contains(identifier, hash, currentTime());
+    }
+
+    /**
+     * Return the number of entries including the expired ones which have not been evicted yet.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    protected long currentTime() {
+        return System.currentTimeMillis();
+    }
+
+    private Stripe getStripe(int hash) {
+        return stripes.length == 1 ? stripes[0] : stripes[hash >>> stripeShift];
+    }
+
+    private static long expiry(long now, long timeToLive) {
+        long ttl = timeToLive;
+        if (ttl < 0 || ttl > MAX_TTL) {
+            ttl = DEFAULT_TTL;
+        }
+        return now + ttl * 1000L;
+    }
+
+    private static int hash(String identifier) {
+        // The high bits select the stripe and the low bits the slot within the stripe
+        return identifier.hashCode() * 0x9E3779B9;
+    }
+
+    private static int powerOfTwo(int value) {
+        int result = Integer.highestOneBit(value);
+        return result == value ? result : result << 1;
+    }
+
+    /**
+     * A stripe of the cache. A slot is free if its key is null and removed if its expiry is 0.
+     * Removed slots keep a key, so that the probe sequences of the other keys stay intact, and
+     * are reused by the following insertions or dropped when the table is rebuilt.
+     */
+    private static final class Stripe {
+        private static final int MIN_CAPACITY = 16;
+        private static final int MIN_BUCKET = 4;
+        private static final int MAX_RETAINED_BUCKET = 64;
+        private static final String REMOVED = "";
+
+        private final long tick;
+        private final int[][] wheel;
+        private final int[] bucketSizes;
+        private String[] keys;
+        private long[] expiries;
+        private int size;
+        private int used;
+        private long sweptTick;
+
+        Stripe(long tick, int wheelSize) {
+            this.tick = tick;
+            this.wheel = new int[wheelSize][];
+            this.bucketSizes = new int[wheelSize];
+            this.keys = new String[MIN_CAPACITY];
+            this.expiries = new long[MIN_CAPACITY];
+            this.sweptTick = -1;
+        }
+
+        synchronized boolean contains(String identifier, int hash, long now) {
+            sweep(now);
+            int slot = find(identifier, hash);
+            return slot >= 0 && expiries[slot] > now;
+        }
+
+        synchronized boolean add(String identifier, int hash, long expiry, long now, boolean ifAbsent) {
+            sweep(now);
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            int removed = -1;
+            while (keys[index] != null) {
+                if (expiries[index] == 0) {
+                    if (removed < 0) {
+                        removed = index;
+                    }
+                } else if (keys[index].equals(identifier)) {
+                    if (ifAbsent && expiries[index] > now) {
+                        return false;
+                    }
+                    expiries[index] = expiry;
+                    schedule(index);
+                    return true;
+                }
+                index = (index + 1) & mask;
+            }
+            if (removed < 0 && (used + 1) * 2 > keys.length) {
+                rebuild(size + 1);
+                insert(identifier, hash, expiry);
+            } else if (removed < 0) {
+                used++;
+                put(index, identifier, expiry);
+            } else {
+                put(removed, identifier, expiry);
+            }
+            return true;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void clear() {
+            keys = new String[MIN_CAPACITY];
+            expiries = new long[MIN_CAPACITY];
+            Arrays.fill(wheel, null);
+            Arrays.fill(bucketSizes, 0);
+            size = 0;
+            used = 0;
+            sweptTick = -1;
+        }
+
+        private int find(String identifier, int hash) {
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            while (keys[index] != null) {
+                if (expiries[index] != 0 && keys[index].equals(identifier)) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(String identifier, int hash, long expiry) {
+            int mask = keys.length - 1;
+            int index = hash & mask;
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            used++;
+            put(index, identifier, expiry);
+        }
+
+        private void put(int slot, String identifier, long expiry) {
+            keys[slot] = identifier;
+            expiries[slot] = expiry;
+            size++;
+            schedule(slot);
+        }
+
+        private void remove(int slot) {
+            keys[slot] = REMOVED;
+            expiries[slot] = 0;
+            size--;
+        }
+
+        /**
+         * Rebuild the table without the removed slots and register the remaining entries again.
+         */
+        private void rebuild(int expectedSize) {
+            String[] oldKeys = keys;
+            long[] oldExpiries = expiries;
+            int capacity = Math.max(MIN_CAPACITY, powerOfTwo(expectedSize * 4));
+            keys = new String[capacity];
+            expiries = new long[capacity];
+            size = 0;
+            used = 0;
+            Arrays.fill(bucketSizes, 0);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null && oldExpiries[i] != 0) {
+                    insert(oldKeys[i], hash(oldKeys[i]), oldExpiries[i]);
+                }
+            }
+        }
+
+        private void schedule(int slot) {
+            int bucket = bucket(expiries[slot]);
+            int[] slots = wheel[bucket];
+            int count = bucketSizes[bucket];
+            if (slots == null) {
+                slots = new int[MIN_BUCKET];
+                wheel[bucket] = slots;
+            } else if (count == slots.length) {
+                slots = Arrays.copyOf(slots, count * 2);
+                wheel[bucket] = slots;
+            }
+            slots[count] = slot;
+            bucketSizes[bucket] = count + 1;
+        }
+
+        /**
+         * Evict the entries of the buckets of all ticks which have completely passed since the
+         * last sweep.
+         */
+        private void sweep(long now) {
+            long nowTick = now / tick;
+            if (nowTick <= sweptTick) {
+                return;
+            } else if (sweptTick < 0) {
+                // First access, there is nothing to evict yet
+                sweptTick = nowTick;
+                return;
+            }
+            long from = Math.max(sweptTick, nowTick - wheel.length);
+            for (long t = from; t < nowTick; t++) {
+                sweepBucket((int)(t & (wheel.length - 1)), now);
+            }
+            sweptTick = nowTick;
+        }
+
+        private void sweepBucket(int bucket, long now) {
+            int[] slots = wheel[bucket];
+            int count = bucketSizes[bucket];
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int slot = slots[i];
+                long expiry = expiries[slot];
+                if (expiry == 0) {
+                    continue;
+                } else if (expiry <= now) {
+                    remove(slot);
+                } else if (bucket(expiry) == bucket) {
+                    // Expires in a later round of the wheel
+                    slots[kept++] = slot;
+                }
+                // Otherwise the slot has been re-scheduled in another bucket
+            }
+            bucketSizes[bucket] = kept;
+            if (kept == 0 && slots != null && slots.length > MAX_RETAINED_BUCKET) {
+                wheel[bucket] = null;
+            }
+        }
+
+        private int bucket(long expiry) {
+            return (int)((expiry / tick) & (wheel.length - 1));
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.TokenValidatorResponse;
+
+/**
+ * A bounded, in-memory cache of TokenValidatorResponse objects of tokens which have been
+ * successfully validated (signature and trust). An entry is valid until the expiry date of the
+ * token. The least recently used entry is evicted if the maximum size is reached.
+ *
+ * Every entry stores a digest of the token content. A lookup only succeeds if the digest of the
+ * received token matches the digest of the token which has been validated. The digest is usually
+ * taken from the raw response which contains the token (see createDigest()).
+ *
+ * The cache stores and returns copies of the TokenValidatorResponse, a response (its roles and
+ * claims) can be modified by the caller without affecting other requests.
+ */
+public class ValidatedTokenCache {
+
+    private final Map<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ValidatedTokenCache(final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be greater than zero");
+        }
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Return the cached TokenValidatorResponse or null if the token isn't cached, the token content
+     * doesn't match or the token has expired.
+     */
+    public TokenValidatorResponse get(String key, byte[] contentDigest) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expires <= System.currentTimeMillis()) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null || !Arrays.equals(entry.contentDigest, contentDigest)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copy(entry.response);
+    }
+
+    /**
+     * Add a validated token. Tokens without an expiry date are not cached.
+     */
+    public void put(String key, byte[] contentDigest, TokenValidatorResponse response) {
+        if (response.getExpires() == null) {
+            return;
+        }
+        long expires = response.getExpires().getTime();
+        if (expires <= System.currentTimeMillis()) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry(copy(response), contentDigest, expires));
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Return a new SHA-256 digest for the content of a token.
+     */
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static TokenValidatorResponse copy(TokenValidatorResponse response) {
+        List<String> roles = response.getRoles() == null ? null : new ArrayList<>(response.getRoles());
+        List<Claim> claims = null;
+        if (response.getClaims() != null) {
+            claims = new ArrayList<>(response.getClaims().size());
+            for (Claim claim : response.getClaims()) {
+                claims.add(copy(claim));
+            }
+        }
+        TokenValidatorResponse copy = new TokenValidatorResponse(response.getUniqueTokenId(), 
+            response.getUsername(), response.getIssuer(), roles, claims, response.getAudience());
+        copy.setCreated(copy(response.getCreated()));
+        copy.setExpires(copy(response.getExpires()));
+        return copy;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Claim copy(Claim claim) {
+        if (claim == null) {
+            return null;
+        }
+        Claim copy = new Claim();
+        copy.setClaimType(claim.getClaimType());
+        copy.setNamespace(claim.getNamespace());
+        copy.setIssuer(claim.getIssuer());
+        copy.setOriginalIssuer(claim.getOriginalIssuer());
+        copy.setPrincipal(claim.getPrincipal());
+        Object value = claim.getValue();
+        copy.setValue(value instanceof List<?> ? new ArrayList<Object>((List<?>)value) : value);
+        return copy;
+    }
+
+    private static Date copy(Date date) {
+        return date == null ? null : new Date(date.getTime());
+    }
+
+    private static final class Entry {
+        private final TokenValidatorResponse response;
+        private final byte[] contentDigest;
+        private final long expires;
+
+        Entry(TokenValidatorResponse response, byte[] contentDigest, long expires) {
+            this.response = response;
+            this.contentDigest = contentDigest;
+            this.expires = expires;
+        }
+    }
+
+}
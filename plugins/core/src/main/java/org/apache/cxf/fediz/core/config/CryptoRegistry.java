@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.cxf.fediz.core.util.CertsUtils;
+import org.apache.wss4j.common.crypto.CertificateStore;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.CryptoFactory;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.util.Loader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A process-wide, reference-counted registry of the Crypto instances of the configured keystores
+ * and certificates. FedizContext instances which refer to the same keystore (same crypto
+ * properties and same file content) share one Crypto instance instead of each loading their
+ * own copy. The checksum of the keystore file is part of the key, so a modified keystore is
+ * loaded again. A Crypto is dropped from the registry when the last FedizContext using it is
+ * closed.
+ */
+public final class CryptoRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CryptoRegistry.class);
+
+    private static final CryptoRegistry INSTANCE = new CryptoRegistry();
+
+    private static final String PEM_TYPE = "PEM";
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+    private final Map<Crypto, Entry> cryptos = new IdentityHashMap<>();
+
+    public static CryptoRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the (shared) Crypto for the given crypto properties. The caller must release the
+     * Crypto via {@link #release(Crypto)} once it is no longer used.
+     */
+    public synchronized Crypto getCrypto(Properties properties) throws WSSecurityException {
+        ClassLoader loader = Loader.getClassLoader(CryptoFactory.class);
+        Key key = new Key(properties, checksum(properties, loader));
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = register(key, CryptoFactory.getInstance(properties));
+        }
+        entry.references++;
+        return entry.crypto;
+    }
+
+    /**
+     * Get the (shared) CertificateStore for the given PEM certificate. The caller must release the
+     * Crypto via {@link #release(Crypto)} once it is no longer used.
+     */
+    public synchronized Crypto getCertificateStore(String location, ClassLoader classLoader) {
+        ClassLoader loader = classLoader;
+        if (loader == null) {
+            loader = Thread.currentThread().getContextClassLoader();
+        }
+        Properties properties = new Properties();
+        properties.put(PEM_TYPE, location);
+        Key key = new Key(properties, checksum(properties, loader));
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            X509Certificate[] certificates = new X509Certificate[] {
+                CertsUtils.getX509Certificate(location, loader)
+            };
+            entry = register(key, new CertificateStore(certificates));
+        }
+        entry.references++;
+        return entry.crypto;
+    }
+
+    /**
+     * Release a Crypto obtained from this registry. Unknown instances are ignored.
+     */
+    public synchronized void release(Crypto crypto) {
+        Entry entry = cryptos.get(crypto);
+        if (entry == null) {
+            return;
+        }
+        entry.references--;
+        if (entry.references <= 0) {
+            cryptos.remove(crypto);
+            entries.remove(entry.key);
+            LOG.debug("Crypto released: {}", entry.key);
+        }
+    }
+
+    public synchronized int getReferenceCount(Crypto crypto) {
+        Entry entry = cryptos.get(crypto);
+        return entry == null ? 0 : entry.references;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private Entry register(Key key, Crypto crypto) {
+        Entry entry = new Entry(key, crypto);
+        entries.put(key, entry);
+        cryptos.put(crypto, entry);
+        LOG.debug("Crypto loaded: {}", key);
+        return entry;
+    }
+
+    /**
+     * Calculate the checksum over the files referenced in the crypto properties. Files which can't
+     * be read are skipped, the Crypto will report the actual error when it is loaded.
+     */
+    private static byte[] checksum(Properties properties, ClassLoader loader) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        for (String name : properties.stringPropertyNames()) {
+            if (name.endsWith(".file") || PEM_TYPE.equals(name)) {
+                String location = properties.getProperty(name);
+                try (InputStream is = Merlin.loadInputStream(loader, location)) {
+                    if (is == null) {
+                        continue;
+                    }
+                    byte[] buffer = new byte[4096];
+                    int read = is.read(buffer);
+                    while (read != -1) {
+                        digest.update(buffer, 0, read);
+                        read = is.read(buffer);
+                    }
+                } catch (IOException | WSSecurityException e) {
+                    LOG.debug("Failed to read '{}': {}", location, e.getMessage());
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    private static final class Key {
+        private final Properties properties;
+        private final byte[] checksum;
+        private final int hashCode;
+
+        Key(Properties properties, byte[] checksum) {
+            this.properties = new Properties();
+            this.properties.putAll(properties);
+            this.checksum = checksum;
+            this.hashCode = 31 * this.properties.hashCode() + Arrays.hashCode(checksum);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return properties.equals(other.properties) && Arrays.equals(checksum, other.checksum);
+        }
+
+        @Override
+        public String toString() {
+            String location = properties.getProperty(PEM_TYPE);
+            for (String name : properties.stringPropertyNames()) {
+                if (name.endsWith(".file")) {
+                    location = properties.getProperty(name);
+                }
+            }
+            return location;
+        }
+    }
+
+    private static final class Entry {
+        private final Key key;
+        private final Crypto crypto;
+        private int references;
+
+        Entry(Key key, Crypto crypto) {
+            this.key = key;
+            this.crypto = crypto;
+        }
+    }
+
+}
@@ -19,66 +19,277 @@
 
 package org.apache.cxf.fediz.core.config;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 
 import org.apache.cxf.fediz.core.config.jaxb.ContextConfig;
 import org.apache.cxf.fediz.core.config.jaxb.FedizConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class FedizConfigurator {
+/**
+ * Loads the Fediz configuration. The FedizContext of a contextConfig is only created when it is
+ * first requested. {@link #warmUp(int)} loads the keystores of all contexts in the background.
+ * {@link #watch()} reloads the configuration file when it is modified. Only the contexts whose
+ * configuration has changed are replaced. The replaced contexts may still be used by in-flight
+ * requests and the caches of the plugins, so they are closed after a delay (see
+ * {@link #setContextCloseDelay(long)}) in the background.
+ */
+public class FedizConfigurator implements Closeable {
+
+    public static final long DEFAULT_CONTEXT_CLOSE_DELAY = 60000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FedizConfigurator.class);
+
+    private static volatile JAXBContext jaxbContext;
+
+    private volatile FedizConfig rootConfig;
+
+    private volatile Map<String, ContextConfig> contextConfigs = Collections.emptyMap();
+
+    private final ConcurrentMap<String, FedizContext> fedizContexts = new ConcurrentHashMap<>();
+
+    private final Set<FedizContext> retiredContexts =
+        Collections.newSetFromMap(new ConcurrentHashMap<FedizContext, Boolean>());
+
+    private volatile long contextCloseDelay = DEFAULT_CONTEXT_CLOSE_DELAY;
+
+    private ScheduledThreadPoolExecutor closeExecutor;
+
+    private volatile long generation;
 
-    private FedizConfig rootConfig;
+    private File configFile;
 
-    private JAXBContext jaxbContext;
-    
-    private List<FedizContext> fedizContextList;
+    private Thread watcher;
+
+    private WatchService watchService;
 
     public FedizConfig loadConfig(File f) throws JAXBException {
-        rootConfig = (FedizConfig) getJaxbContext().createUnmarshaller().unmarshal(f);
-        parseFedizContextList();
-        return rootConfig;
+        FedizConfig config = (FedizConfig) getJaxbContext().createUnmarshaller().unmarshal(f);
+        configFile = f;
+        setRootConfig(config);
+        return config;
     }
 
     public FedizConfig loadConfig(Reader reader) throws JAXBException {
-        rootConfig = (FedizConfig) getJaxbContext().createUnmarshaller().unmarshal(reader);
-        parseFedizContextList();
-        return rootConfig;
+        FedizConfig config = (FedizConfig) getJaxbContext().createUnmarshaller().unmarshal(reader);
+        setRootConfig(config);
+        return config;
     }
-    
-    private void parseFedizContextList() {
-        fedizContextList = new ArrayList<>();
-        for (ContextConfig config : rootConfig.getContextConfig()) {
-            fedizContextList.add(new FedizContext(config));            
+
+    /**
+     * Load the configuration file again. The FedizContexts of contextConfigs which haven't
+     * changed are kept, the others are created again on the next request and closed after the
+     * context close delay.
+     * Returns the names of the contexts which were modified, added or removed.
+     */
+    public synchronized List<String> reloadConfig() throws JAXBException {
+        if (configFile == null) {
+            throw new IllegalStateException("Configuration not loaded from a file");
+        }
+        FedizConfig config = (FedizConfig) getJaxbContext().createUnmarshaller().unmarshal(configFile);
+        Map<String, ContextConfig> oldConfigs = contextConfigs;
+        Map<String, ContextConfig> newConfigs = createContextConfigMap(config);
+
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, ContextConfig> entry : newConfigs.entrySet()) {
+            ContextConfig oldConfig = oldConfigs.get(entry.getKey());
+            if (oldConfig == null || !marshal(oldConfig).equals(marshal(entry.getValue()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String name : oldConfigs.keySet()) {
+            if (!newConfigs.containsKey(name)) {
+                changed.add(name);
+            }
+        }
+        // Keep the unchanged contexts, their configuration object is the same instance as before
+        for (String name : oldConfigs.keySet()) {
+            if (!changed.contains(name)) {
+                newConfigs.put(name, oldConfigs.get(name));
+            }
+        }
+
+        rootConfig = config;
+        contextConfigs = newConfigs;
+        List<FedizContext> replaced = new ArrayList<>();
+        for (String name : changed) {
+            FedizContext fedContext = fedizContexts.remove(name);
+            if (fedContext != null) {
+                replaced.add(fedContext);
+            }
+        }
+        // Only increment the generation once the replaced contexts can't be returned anymore,
+        // otherwise a caller could cache a replaced context with the new generation
+        if (!changed.isEmpty()) {
+            generation++;
+        }
+        for (FedizContext fedContext : replaced) {
+            retire(fedContext);
+        }
+        LOG.info("Fediz configuration reloaded from {}, modified contexts: {}", configFile, changed);
+        return changed;
+    }
+
+    /**
+     * Watch the configuration file and reload it once it is modified.
+     */
+    public synchronized void watch() throws IOException {
+        if (configFile == null) {
+            throw new IllegalStateException("Configuration not loaded from a file");
+        }
+        if (watcher != null) {
+            return;
+        }
+        final Path file = configFile.getAbsoluteFile().toPath();
+        watchService = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_MODIFY,
+                                  StandardWatchEventKinds.ENTRY_CREATE);
+        final WatchService service = watchService;
+        watcher = new Thread(new Runnable() {
+            public void run() {
+                watchConfig(service, file);
+            }
+        }, "fediz-config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Initialize all contexts and load their keystores in the background using the given number
+     * of threads. Failures are logged only, the same error is reported when the context is used.
+     */
+    public List<Future<FedizContext>> warmUp(int threads) {
+        List<FedizContext> contexts = getFedizContextList();
+        if (contexts.isEmpty() || threads < 1) {
+            return Collections.emptyList();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, contexts.size()),
+                                                                new DaemonThreadFactory("fediz-warmup-"));
+        List<Future<FedizContext>> futures = new ArrayList<>(contexts.size());
+        try {
+            for (final FedizContext fedContext : contexts) {
+                futures.add(executor.submit(new Callable<FedizContext>() {
+                    public FedizContext call() {
+                        warmUp(fedContext);
+                        return fedContext;
+                    }
+                }));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return futures;
+    }
+
+    /**
+     * Stop watching the configuration file. The FedizContexts are not closed, see
+     * {@link #closeFedizContexts()}.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+        }
+        watcher = null;
+    }
+
+    /**
+     * Close the FedizContexts which have been created, including the replaced contexts whose
+     * close is still pending. Contexts which have never been requested are not created.
+     */
+    public synchronized void closeFedizContexts() {
+        for (String name : new ArrayList<>(fedizContexts.keySet())) {
+            FedizContext fedContext = fedizContexts.remove(name);
+            if (fedContext != null) {
+                close(fedContext);
+            }
+        }
+        for (FedizContext fedContext : new ArrayList<>(retiredContexts)) {
+            if (retiredContexts.remove(fedContext)) {
+                close(fedContext);
+            }
         }
     }
 
+    public long getContextCloseDelay() {
+        return contextCloseDelay;
+    }
+
+    /**
+     * Set the delay in milliseconds after which a replaced FedizContext is closed, it must exceed
+     * the duration of the requests using it. A value less than 1 closes it immediately.
+     */
+    public void setContextCloseDelay(long contextCloseDelay) {
+        this.contextCloseDelay = contextCloseDelay;
+    }
+
     public void saveConfiguration(File f) throws JAXBException {
         if (f.canWrite()) {
-            jaxbContext.createMarshaller().marshal(rootConfig, f);
+            getJaxbContext().createMarshaller().marshal(rootConfig, f);
         }
     }
 
     public void saveConfiguration(Writer writer) throws JAXBException {
-        jaxbContext.createMarshaller().marshal(rootConfig, writer);
+        getJaxbContext().createMarshaller().marshal(rootConfig, writer);
     }
 
-    private JAXBContext getJaxbContext() throws JAXBException {
+    private static JAXBContext getJaxbContext() throws JAXBException {
         if (jaxbContext == null) {
-            jaxbContext = JAXBContext.newInstance(FedizConfig.class);
+            synchronized (FedizConfigurator.class) {
+                if (jaxbContext == null) {
+                    jaxbContext = JAXBContext.newInstance(FedizConfig.class);
+                }
+            }
         }
         return jaxbContext;
     }
 
     public List<FedizContext> getFedizContextList() {
-        return fedizContextList;
+        if (rootConfig == null) {
+            return null;
+        }
+        List<FedizContext> contexts = new ArrayList<>();
+        for (String name : contextConfigs.keySet()) {
+            FedizContext fedContext = getOrCreateFedizContext(name);
+            if (fedContext != null) {
+                contexts.add(fedContext);
+            }
+        }
+        return contexts;
     }
-    
+
     public FedizContext getFedizContext(String contextName) {
         if (contextName == null) {
             throw new IllegalArgumentException("Context Name cannot be 'null'.");
@@ -89,14 +300,11 @@ public class FedizConfigurator {
         if (rootConfig == null) {
             throw new IllegalArgumentException("No configuration loaded");
         }
-        for (FedizContext fedContext : fedizContextList) {
-            if (fedContext.getName().equals(contextName)) {
-                fedContext.init();
-                return fedContext;
-            }
+        FedizContext fedContext = getOrCreateFedizContext(contextName);
+        if (fedContext != null) {
+            fedContext.init();
         }
-        
-        return null;
+        return fedContext;
     }
 
     public ContextConfig getContextConfig(String contextName) throws IllegalArgumentException {
@@ -109,13 +317,143 @@ public class FedizConfigurator {
         if (rootConfig == null) {
             throw new IllegalArgumentException("No configuration loaded");
         }
+        return contextConfigs.get(contextName);
+    }
 
-        for (ContextConfig config : rootConfig.getContextConfig()) {
-            if (contextName.equals(config.getName())) {
-                return config;
+    private FedizContext getOrCreateFedizContext(String contextName) {
+        FedizContext fedContext = fedizContexts.get(contextName);
+        if (fedContext != null) {
+            return fedContext;
+        }
+        ContextConfig config = contextConfigs.get(contextName);
+        if (config == null) {
+            return null;
+        }
+        fedContext = new FedizContext(config);
+        FedizContext existing = fedizContexts.putIfAbsent(contextName, fedContext);
+        return existing != null ? existing : fedContext;
+    }
+
+    /**
+     * Return the generation of the configuration. It is incremented whenever a configuration is
+     * loaded or a reload modifies a context, so that callers caching FedizContexts know when to
+     * resolve them again.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    private synchronized void setRootConfig(FedizConfig config) {
+        rootConfig = config;
+        contextConfigs = createContextConfigMap(config);
+        List<FedizContext> replaced = new ArrayList<>(fedizContexts.values());
+        fedizContexts.clear();
+        generation++;
+        for (FedizContext fedContext : replaced) {
+            retire(fedContext);
+        }
+    }
+
+    /**
+     * Close the replaced context once the context close delay has elapsed.
+     */
+    private synchronized void retire(final FedizContext fedContext) {
+        long delay = contextCloseDelay;
+        if (delay < 1) {
+            close(fedContext);
+            return;
+        }
+        retiredContexts.add(fedContext);
+        if (closeExecutor == null) {
+            closeExecutor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("fediz-context-closer-"));
+            // The thread terminates once no close is pending
+            closeExecutor.setKeepAliveTime(delay, TimeUnit.MILLISECONDS);
+            closeExecutor.allowCoreThreadTimeOut(true);
+        }
+        closeExecutor.schedule(new Runnable() {
+            public void run() {
+                if (retiredContexts.remove(fedContext)) {
+                    close(fedContext);
+                }
             }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void watchConfig(WatchService service, Path file) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean modified = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (file.getFileName().equals(event.context())) {
+                        modified = true;
+                    }
+                }
+                key.reset();
+                if (modified) {
+                    try {
+                        reloadConfig();
+                    } catch (JAXBException | RuntimeException e) {
+                        LOG.error("Failed to reload Fediz configuration from " + file, e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOG.debug("Stopped watching Fediz configuration {}", file);
+        }
+    }
+
+    private static Map<String, ContextConfig> createContextConfigMap(FedizConfig config) {
+        // The first contextConfig of a name wins, as with the former sequential lookup
+        Map<String, ContextConfig> configs = new LinkedHashMap<>();
+        for (ContextConfig contextConfig : config.getContextConfig()) {
+            if (!configs.containsKey(contextConfig.getName())) {
+                configs.put(contextConfig.getName(), contextConfig);
+            }
+        }
+        return configs;
+    }
+
+    private static String marshal(ContextConfig config) throws JAXBException {
+        StringWriter writer = new StringWriter();
+        getJaxbContext().createMarshaller().marshal(config, writer);
+        return writer.toString();
+    }
+
+    private static void warmUp(FedizContext fedContext) {
+        try {
+            fedContext.init();
+            fedContext.getCertificateStores();
+            if (fedContext.hasSigningKey()) {
+                fedContext.getSigningKey();
+            }
+            fedContext.getDecryptionKey();
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to initialize Fediz context '" + fedContext.getName() + "': " + e.getMessage());
+        }
+    }
+
+    private static void close(FedizContext fedContext) {
+        try {
+            fedContext.close();
+        } catch (IOException e) {
+            LOG.debug("Failed to close Fediz context '" + fedContext.getName() + "'", e);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String prefix;
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
-        return null;
     }
 
 }
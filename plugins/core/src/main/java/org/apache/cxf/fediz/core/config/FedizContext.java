@@ -23,11 +23,12 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
+import org.apache.cxf.fediz.core.cache.CertificateTrustCache;
+import org.apache.cxf.fediz.core.cache.ValidatedTokenCache;
 import org.apache.cxf.fediz.core.config.jaxb.CertificateStores;
 import org.apache.cxf.fediz.core.config.jaxb.ContextConfig;
 import org.apache.cxf.fediz.core.config.jaxb.FederationProtocolType;
@@ -39,12 +40,10 @@ import org.apache.cxf.fediz.core.config.jaxb.TrustManagersType;
 import org.apache.cxf.fediz.core.config.jaxb.TrustedIssuerType;
 import org.apache.cxf.fediz.core.config.jaxb.TrustedIssuers;
 import org.apache.cxf.fediz.core.exception.IllegalConfigurationException;
-import org.apache.cxf.fediz.core.util.CertsUtils;
+import org.apache.cxf.fediz.core.metadata.MetadataCache;
 import org.apache.wss4j.common.cache.ReplayCache;
 import org.apache.wss4j.common.cache.ReplayCacheFactory;
-import org.apache.wss4j.common.crypto.CertificateStore;
 import org.apache.wss4j.common.crypto.Crypto;
-import org.apache.wss4j.common.crypto.CryptoFactory;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.util.Loader;
 import org.slf4j.Logger;
@@ -61,10 +60,16 @@ public class FedizContext implements Closeable {
     private boolean detectReplayedTokens = true;
     private String relativePath;
     private ReplayCache replayCache;
+    private ValidatedTokenCache validatedTokenCache;
+    private CertificateTrustCache certificateTrustCache;
+    private final MetadataCache metadataCache = new MetadataCache();
     private Protocol protocol;
-    private List<TrustManager> certificateStores;
-    private KeyManager keyManager;
-    private KeyManager decryptionKeyManager;
+    private List<TrustedIssuer> trustedIssuers;
+    private volatile List<TrustManager> certificateStores;
+    private TrustIndex trustIndex;
+    private volatile KeyManager keyManager;
+    private volatile KeyManager decryptionKeyManager;
+    private volatile boolean closed;
     private ClassLoader classloader;
     
 
@@ -86,9 +91,12 @@ public class FedizContext implements Closeable {
     }
 
     public List<TrustedIssuer> getTrustedIssuers() {
+        if (trustedIssuers != null) {
+            return trustedIssuers;
+        }
         TrustedIssuers issuers = config.getTrustedIssuers();
         List<TrustedIssuerType> trustManagers =  issuers.getIssuer();
-        List<TrustedIssuer> trustedIssuers = new ArrayList<>();
+        trustedIssuers = new ArrayList<>();
         for (TrustedIssuerType manager:trustManagers) {
             trustedIssuers.add(new TrustedIssuer(manager));
         }
@@ -96,10 +104,20 @@ public class FedizContext implements Closeable {
     }
     
     public List<TrustManager> getCertificateStores() {
-        if (certificateStores != null) {
+        List<TrustManager> stores = certificateStores;
+        if (stores != null) {
+            return stores;
+        }
+        synchronized (this) {
+            if (certificateStores == null) {
+                certificateStores = loadCertificateStores();
+            }
             return certificateStores;
         }
-        certificateStores = new ArrayList<>();
+    }
+
+    private List<TrustManager> loadCertificateStores() {
+        List<TrustManager> stores = new ArrayList<>();
         CertificateStores certStores = config.getCertificateStores();
         List<TrustManagersType> trustManagers = certStores.getTrustManager();
         for (TrustManagersType manager : trustManagers) {
@@ -108,21 +126,35 @@ public class FedizContext implements Closeable {
             Crypto crypto = null;
             try {
                 if (manager.getKeyStore().getType().equalsIgnoreCase("PEM")) {
-                    X509Certificate[] certificates = new X509Certificate[1];
-                    certificates[0] = CertsUtils.getX509Certificate(tm.getName(), classloader);
-                    crypto = new CertificateStore(certificates);
+                    crypto = CryptoRegistry.getInstance().getCertificateStore(tm.getName(), classloader);
                 } else {
                     Properties sigProperties = createCryptoProperties(manager);
-                    crypto = CryptoFactory.getInstance(sigProperties);
+                    crypto = CryptoRegistry.getInstance().getCrypto(sigProperties);
                 }
                 tm.setCrypto(crypto);
-                certificateStores.add(tm);
+                stores.add(tm);
             } catch (WSSecurityException e) {
+                release(stores);
                 LOG.error("Failed to load keystore '" + tm.getName() + "'", e);
                 throw new IllegalConfigurationException("Failed to load keystore '" + tm.getName() + "'");
+            } catch (RuntimeException e) {
+                release(stores);
+                throw e;
             }
         }
-        return certificateStores; 
+        return stores;
+    }
+
+    /**
+     * Get the index of the trusted issuers and certificate stores which is used to look up
+     * the certificate store which establishes trust in a signing certificate.
+     */
+    public TrustIndex getTrustIndex() {
+        if (trustIndex != null) {
+            return trustIndex;
+        }
+        trustIndex = new TrustIndex(getTrustedIssuers(), getCertificateStores());
+        return trustIndex;
     }
 
     public BigInteger getMaximumClockSkew() {
@@ -167,54 +199,53 @@ public class FedizContext implements Closeable {
     }
     
     
+    public boolean hasSigningKey() {
+        return config.getSigningKey() != null;
+    }
+
     public KeyManager getSigningKey() {
-        
-        if (keyManager != null) {
-            return keyManager;
+        KeyManager km = keyManager;
+        if (km != null) {
+            return km;
         }
         if (config.getSigningKey() == null) {
             LOG.error("No signing key has been configured");
             throw new IllegalConfigurationException("No signing key has been configured");
         }
-        keyManager = new KeyManager(config.getSigningKey());
-        Properties sigProperties = createCryptoProperties(config.getSigningKey());
-        Crypto crypto;
-        try {
-            crypto = CryptoFactory.getInstance(sigProperties);
-            keyManager.setCrypto(crypto);
-        } catch (WSSecurityException e) {
-            String name = keyManager.getName();
-            keyManager = null;
-            LOG.error("Failed to load keystore '" + name + "'", e);
-            throw new IllegalConfigurationException("Failed to load keystore '" + name + "'");
+        synchronized (this) {
+            if (keyManager == null) {
+                keyManager = loadKeyManager(config.getSigningKey());
+            }
+            return keyManager;
         }
-        
-        return keyManager; 
-        
     }
     
     public KeyManager getDecryptionKey() {
-        if (decryptionKeyManager != null) {
-            return decryptionKeyManager;
+        KeyManager km = decryptionKeyManager;
+        if (km != null) {
+            return km;
         }
         if (config.getTokenDecryptionKey() == null) {
             return null;
         }
-        decryptionKeyManager = new KeyManager(config.getTokenDecryptionKey());
-        Properties decProperties = createCryptoProperties(config.getTokenDecryptionKey());
-        Crypto crypto;
+        synchronized (this) {
+            if (decryptionKeyManager == null) {
+                decryptionKeyManager = loadKeyManager(config.getTokenDecryptionKey());
+            }
+            return decryptionKeyManager;
+        }
+    }
+
+    private KeyManager loadKeyManager(KeyManagersType keyManagerType) {
+        KeyManager km = new KeyManager(keyManagerType);
+        Properties properties = createCryptoProperties(keyManagerType);
         try {
-            crypto = CryptoFactory.getInstance(decProperties);
-            decryptionKeyManager.setCrypto(crypto);
+            km.setCrypto(CryptoRegistry.getInstance().getCrypto(properties));
         } catch (WSSecurityException e) {
-            String name = decryptionKeyManager.getName();
-            decryptionKeyManager = null;
-            LOG.error("Failed to load keystore '" + name + "'", e);
-            throw new IllegalConfigurationException("Failed to load keystore '" + name + "'");
+            LOG.error("Failed to load keystore '" + km.getName() + "'", e);
+            throw new IllegalConfigurationException("Failed to load keystore '" + km.getName() + "'");
         }
-        
-        return decryptionKeyManager; 
-        
+        return km;
     }
 
     public ReplayCache getTokenReplayCache() {
@@ -241,6 +272,45 @@ public class FedizContext implements Closeable {
         return replayCache;
     }
 
+    /**
+     * Get the cache of successfully validated tokens or null if the cache is disabled
+     * (tokenValidationCacheSize is not configured or 0).
+     */
+    public ValidatedTokenCache getValidatedTokenCache() {
+        if (validatedTokenCache != null) {
+            return validatedTokenCache;
+        }
+        BigInteger cacheSize = config.getTokenValidationCacheSize();
+        if (cacheSize == null || cacheSize.signum() <= 0) {
+            return null;
+        }
+        validatedTokenCache = new ValidatedTokenCache(cacheSize.intValue());
+        return validatedTokenCache;
+    }
+
+    /**
+     * Get the cache of successful certificate path validations or null if the cache is disabled
+     * (certificateTrustCacheTimeToLive is not configured or 0).
+     */
+    public CertificateTrustCache getCertificateTrustCache() {
+        if (certificateTrustCache != null) {
+            return certificateTrustCache;
+        }
+        BigInteger timeToLive = config.getCertificateTrustCacheTimeToLive();
+        if (timeToLive == null || timeToLive.signum() <= 0) {
+            return null;
+        }
+        certificateTrustCache = new CertificateTrustCache(timeToLive.longValue() * 1000L);
+        return certificateTrustCache;
+    }
+
+    /**
+     * Get the cache of the serialized metadata documents of this context.
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
     public String getName() {
         return config.getName();
     }
@@ -273,11 +343,51 @@ public class FedizContext implements Closeable {
 
     @Override
     public void close() throws IOException {
+        closed = true;
         if (replayCache != null) {
             replayCache.close();
         }
+        if (validatedTokenCache != null) {
+            validatedTokenCache.clear();
+        }
+        metadataCache.clear();
+        if (certificateTrustCache != null) {
+            certificateTrustCache.clear();
+        }
+        releaseCryptos();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Hand the keystores back to the CryptoRegistry. They are loaded again if the context is
+     * used after it has been closed.
+     */
+    private synchronized void releaseCryptos() {
+        CryptoRegistry registry = CryptoRegistry.getInstance();
+        if (certificateStores != null) {
+            release(certificateStores);
+            certificateStores = null;
+            trustIndex = null;
+        }
+        if (keyManager != null) {
+            registry.release(keyManager.getCrypto());
+            keyManager = null;
+        }
+        if (decryptionKeyManager != null) {
+            registry.release(decryptionKeyManager.getCrypto());
+            decryptionKeyManager = null;
+        }
     }
     
+    private static void release(List<TrustManager> stores) {
+        for (TrustManager tm : stores) {
+            CryptoRegistry.getInstance().release(tm.getCrypto());
+        }
+    }
+
     private Properties createCryptoProperties(TrustManagersType tm) {
         String trustStoreFile = null;
         String trustStorePw = null;
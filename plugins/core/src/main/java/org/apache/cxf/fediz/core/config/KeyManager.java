@@ -20,6 +20,7 @@
 package org.apache.cxf.fediz.core.config;
 
 import org.apache.cxf.fediz.core.config.jaxb.KeyManagersType;
+import org.apache.cxf.fediz.core.samlsso.RedirectBindingSigner;
 import org.apache.wss4j.common.crypto.Crypto;
 
 public class KeyManager {
@@ -27,6 +28,7 @@ public class KeyManager {
     private KeyManagersType keyManagerType;
     private Crypto crypto;
     private String name;
+    private volatile RedirectBindingSigner redirectBindingSigner;
 
     public KeyManager(KeyManagersType keyManager) {
         super();
@@ -63,5 +65,16 @@ public class KeyManager {
         return keyManagerType.getKeyPassword();
     }
     
+    /**
+     * Return the signer created for the private key of this KeyManager, or null.
+     */
+    public RedirectBindingSigner getRedirectBindingSigner() {
+        return redirectBindingSigner;
+    }
+
+    public void setRedirectBindingSigner(RedirectBindingSigner redirectBindingSigner) {
+        this.redirectBindingSigner = redirectBindingSigner;
+    }
+    
 
 }
@@ -19,20 +19,28 @@
 
 package org.apache.cxf.fediz.core.config;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.cxf.fediz.core.config.jaxb.ProtocolType;
 import org.apache.cxf.fediz.core.config.jaxb.SamlProtocolType;
 import org.apache.cxf.fediz.core.saml.SAMLTokenValidator;
+import org.apache.cxf.fediz.core.samlsso.AuthnRequestTemplate;
 import org.apache.cxf.fediz.core.samlsso.DefaultSAMLPRequestBuilder;
 import org.apache.cxf.fediz.core.samlsso.SAMLPRequestBuilder;
 import org.apache.wss4j.common.util.Loader;
+import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class SAMLProtocol extends Protocol {
 
     private static final Logger LOG = LoggerFactory.getLogger(SAMLProtocol.class);
+    private static final int MAX_AUTHN_REQUEST_TEMPLATES = 16;
     
     private SAMLPRequestBuilder samlpRequestBuilder;
+    private final ConcurrentMap<String, AuthnRequestTemplate> authnRequestTemplates = 
+        new ConcurrentHashMap<>();
     
     public SAMLProtocol(ProtocolType protocolType) {
         super(protocolType);
@@ -88,6 +96,40 @@ public class SAMLProtocol extends Protocol {
 
     public void setSAMLPRequestBuilder(SAMLPRequestBuilder requestBuilder) {
         this.samlpRequestBuilder = requestBuilder;
+        authnRequestTemplates.clear();
+    }
+    
+    /**
+     * Return the template of the AuthnRequests of the given issuer and destination, or null if a
+     * custom SAMLPRequestBuilder is used (which may create a different request each time). The
+     * settings of the (mutable) DefaultSAMLPRequestBuilder are part of the template key, so
+     * changing them after the first request creates a new template. Null is also returned for
+     * new keys once MAX_AUTHN_REQUEST_TEMPLATES templates are cached, as a template which isn't
+     * cached costs more than marshalling the request.
+     */
+    public AuthnRequestTemplate getAuthnRequestTemplate(String issuerId, String destination) 
+        throws Exception {
+        SAMLPRequestBuilder requestBuilder = getSAMLPRequestBuilder();
+        if (requestBuilder.getClass() != DefaultSAMLPRequestBuilder.class) {
+            return null;
+        }
+        DefaultSAMLPRequestBuilder defaultBuilder = (DefaultSAMLPRequestBuilder)requestBuilder;
+        String key = issuerId + "\n" + destination + "\n" + defaultBuilder.isForceAuthn() 
+            + "\n" + defaultBuilder.isPassive() + "\n" + defaultBuilder.getProtocolBinding();
+        AuthnRequestTemplate template = authnRequestTemplates.get(key);
+        if (template == null) {
+            if (authnRequestTemplates.size() >= MAX_AUTHN_REQUEST_TEMPLATES) {
+                return null;
+            }
+            AuthnRequest authnRequest = requestBuilder.createAuthnRequest(issuerId, "http://localhost");
+            authnRequest.setDestination(destination);
+            template = new AuthnRequestTemplate(authnRequest);
+            AuthnRequestTemplate existing = authnRequestTemplates.putIfAbsent(key, template);
+            if (existing != null) {
+                template = existing;
+            }
+        }
+        return template;
     }
     
     public boolean isDisableDeflateEncoding() {
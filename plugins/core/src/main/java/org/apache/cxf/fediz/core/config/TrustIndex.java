@@ -0,0 +1,232 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.apache.wss4j.common.crypto.Merlin;
+import org.apache.xml.security.utils.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An index of the trusted issuers and certificate stores of a FedizContext. The index maps the
+ * subject DN of every certificate in a (JKS/PKCS12) certificate store to the store so that the
+ * trust of a signing certificate is verified against the store which contains the certificate
+ * or its issuer first. The trusted issuer and the store which have established trust in a
+ * certificate are remembered per certificate fingerprint and are tried first next time.
+ *
+ * The index only defines the order in which the trusted issuers and certificate stores are tried.
+ * Trust is still verified with the trust type of every issuer and all remaining issuers and stores
+ * are tried if the verification fails.
+ */
+public class TrustIndex {
+
+    public static final int DEFAULT_TRUSTED_CERTS_SIZE = 100;
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrustIndex.class);
+
+    private final List<TrustedIssuer> trustedIssuers;
+    private final List<TrustManager> certificateStores;
+    private final Map<X500Principal, List<TrustManager>> storesBySubject = new HashMap<>();
+    private final Map<String, TrustedCert> trustedCerts;
+
+    public TrustIndex(List<TrustedIssuer> trustedIssuers, List<TrustManager> certificateStores) {
+        this(trustedIssuers, certificateStores, DEFAULT_TRUSTED_CERTS_SIZE);
+    }
+
+    public TrustIndex(List<TrustedIssuer> trustedIssuers, List<TrustManager> certificateStores,
+                      final int trustedCertsSize) {
+        this.trustedIssuers = trustedIssuers;
+        this.certificateStores = certificateStores;
+        this.trustedCerts = new LinkedHashMap<String, TrustedCert>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TrustedCert> eldest) {
+                return size() > trustedCertsSize;
+            }
+        };
+        for (TrustManager tm : certificateStores) {
+            Crypto crypto = tm.getCrypto();
+            if (crypto instanceof Merlin) {
+                addToIndex(((Merlin)crypto).getKeyStore(), tm);
+                addToIndex(((Merlin)crypto).getTrustStore(), tm);
+            }
+        }
+    }
+
+    /**
+     * Get the trusted issuers whose subject constraint matches the signing certificate, the
+     * issuer which has established trust in the certificate before first. Issuers with peer
+     * trust or without a subject constraint match every certificate. Every issuer must be tried
+     * with its own trust type, an empty list is returned if no trusted issuer matches.
+     */
+    public List<TrustedIssuer> getTrustedIssuers(X509Certificate[] certs) {
+        if (certs == null || certs.length == 0) {
+            return trustedIssuers;
+        }
+        TrustedCert trustedCert = getTrustedCert(certs);
+        String subjectName = certs[0].getSubjectX500Principal().getName();
+        List<TrustedIssuer> issuers = new ArrayList<>(trustedIssuers.size());
+        if (trustedCert != null) {
+            issuers.add(trustedCert.issuer);
+        }
+        for (TrustedIssuer ti : trustedIssuers) {
+            // TrustedIssuer doesn't implement equals, the remembered issuer is the same instance
+            if (trustedCert != null && ti == trustedCert.issuer) {
+                continue;
+            }
+            Pattern subjectConstraint = ti.getCompiledSubject();
+            if (CertificateValidationMethod.PEER_TRUST.equals(ti.getCertificateValidationMethod())
+                || subjectConstraint == null || subjectConstraint.matcher(subjectName).matches()) {
+                issuers.add(ti);
+            }
+        }
+        if (issuers.isEmpty()) {
+            LOG.debug("No trusted issuer matches the certificate subject '{}'", subjectName);
+        }
+        return issuers;
+    }
+
+    /**
+     * Get all certificate stores ordered by the likelihood that they establish trust in the
+     * certificate chain: the store which has established trust in the certificate before, the
+     * stores which contain a certificate of the chain or its issuer and then the other stores.
+     */
+    public List<TrustManager> getCertificateStores(X509Certificate[] certs) {
+        if (certs == null || certs.length == 0 || certificateStores.size() < 2) {
+            return certificateStores;
+        }
+        Set<TrustManager> stores = new LinkedHashSet<>();
+        TrustedCert trustedCert = getTrustedCert(certs);
+        if (trustedCert != null) {
+            stores.add(trustedCert.store);
+        }
+        for (X509Certificate cert : certs) {
+            addStores(stores, cert.getSubjectX500Principal());
+            addStores(stores, cert.getIssuerX500Principal());
+        }
+        stores.addAll(certificateStores);
+        return new ArrayList<>(stores);
+    }
+
+    /**
+     * Remember the trusted issuer and the certificate store which have established trust in the
+     * certificate chain.
+     */
+    public void setTrusted(X509Certificate[] certs, TrustedIssuer issuer, TrustManager store) {
+        if (certs == null || certs.length == 0 || !isOrdered()) {
+            return;
+        }
+        String fingerprint = getFingerprint(certs[0]);
+        synchronized (trustedCerts) {
+            trustedCerts.put(fingerprint, new TrustedCert(issuer, store));
+        }
+    }
+
+    private TrustedCert getTrustedCert(X509Certificate[] certs) {
+        if (!isOrdered()) {
+            return null;
+        }
+        String fingerprint = getFingerprint(certs[0]);
+        synchronized (trustedCerts) {
+            return trustedCerts.get(fingerprint);
+        }
+    }
+
+    /**
+     * Nothing needs to be remembered if there's only one trusted issuer and certificate store.
+     */
+    private boolean isOrdered() {
+        return trustedIssuers.size() > 1 || certificateStores.size() > 1;
+    }
+
+    private void addStores(Set<TrustManager> stores, X500Principal subject) {
+        List<TrustManager> indexed = storesBySubject.get(subject);
+        if (indexed != null) {
+            stores.addAll(indexed);
+        }
+    }
+
+    private void addToIndex(KeyStore keyStore, TrustManager tm) {
+        if (keyStore == null) {
+            return;
+        }
+        try {
+            Enumeration<String> aliases = keyStore.aliases();
+            while (aliases.hasMoreElements()) {
+                Certificate cert = keyStore.getCertificate(aliases.nextElement());
+                if (cert instanceof X509Certificate) {
+                    X500Principal subject = ((X509Certificate)cert).getSubjectX500Principal();
+                    List<TrustManager> stores = storesBySubject.get(subject);
+                    if (stores == null) {
+                        stores = new ArrayList<>(1);
+                        storesBySubject.put(subject, stores);
+                    }
+                    // TrustManager doesn't implement a usable equals, the same store is added in sequence
+                    if (stores.isEmpty() || stores.get(stores.size() - 1) != tm) {
+                        stores.add(tm);
+                    }
+                }
+            }
+        } catch (KeyStoreException ex) {
+            LOG.warn("Failed to index keystore '" + tm.getName() + "': " + ex.getMessage());
+        }
+    }
+
+    private static String getFingerprint(X509Certificate cert) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return Base64.encode(md.digest(cert.getEncoded()));
+        } catch (NoSuchAlgorithmException | CertificateEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static final class TrustedCert {
+        private final TrustedIssuer issuer;
+        private final TrustManager store;
+
+        TrustedCert(TrustedIssuer issuer, TrustManager store) {
+            this.issuer = issuer;
+            this.store = store;
+        }
+    }
+
+}
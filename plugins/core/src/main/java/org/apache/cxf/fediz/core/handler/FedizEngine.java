@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.handler;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.FedizSessionToken;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.metadata.MetadataDocumentHandler;
+import org.apache.cxf.fediz.core.processor.FedizProcessor;
+import org.apache.cxf.fediz.core.processor.FedizProcessorFactory;
+import org.apache.cxf.fediz.core.processor.RedirectionResponse;
+import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The container independent part of the request processing of a FedizContext. The engine
+ * classifies the requests (see RequestRouter), serves the (cached) metadata document, handles
+ * logout requests and redirects unauthenticated users to the IdP. The processor and handlers
+ * are created once per engine and shared between requests, the container plugins create one
+ * engine per (reloaded) FedizContext and only implement the session handling and the login of
+ * the container.
+ * <p>
+ * The engine counts the requests per route and the redirects to the IdP.
+ * </p>
+ */
+public class FedizEngine extends RequestRouter {
+
+    /**
+     * The session attribute which holds the FedizSessionToken of the authenticated user. It held the
+     * token Element in earlier releases, applications which read the attribute should use
+     * getToken(Object) to get the Element.
+     */
+    public static final String SECURITY_TOKEN_ATTR = "org.apache.fediz.SECURITY_TOKEN";
+
+    private static final Logger LOG = LoggerFactory.getLogger(FedizEngine.class);
+
+    private final FedizProcessor processor;
+    private final MetadataDocumentHandler metadataHandler;
+    private final LogoutHandler logoutHandler;
+    private final AtomicLongArray routeCounts = new AtomicLongArray(Route.values().length);
+    private final AtomicLong signInRedirects = new AtomicLong();
+    private final AtomicLong signOutRedirects = new AtomicLong();
+
+    /**
+     * Create an engine whose logout handler reads the token of the user from the
+     * SECURITY_TOKEN_ATTR session attribute.
+     */
+    public FedizEngine(FedizContext fedizContext, String servletContextPath) {
+        this(fedizContext, servletContextPath, new SessionLogoutHandler(fedizContext, servletContextPath));
+    }
+
+    /**
+     * @param logoutHandler the logout handler of the container, which is shared between requests
+     */
+    public FedizEngine(FedizContext fedizContext, String servletContextPath, LogoutHandler logoutHandler) {
+        super(fedizContext, servletContextPath);
+        this.processor = FedizProcessorFactory.newFedizProcessor(fedizContext.getProtocol());
+        this.metadataHandler = new MetadataDocumentHandler(fedizContext);
+        this.logoutHandler = logoutHandler;
+    }
+
+    @Override
+    public Route route(HttpServletRequest request) {
+        Route route = super.route(request);
+        routeCounts.incrementAndGet(route.ordinal());
+        return route;
+    }
+
+    /**
+     * Handle a metadata or logout request.
+     *
+     * @return true if the request has been handled, false if the container must handle it
+     */
+    public boolean handle(Route route, HttpServletRequest request, HttpServletResponse response) {
+        if (route == Route.METADATA) {
+            metadataHandler.handleRequest(request, response);
+            return true;
+        } else if (route == Route.LOGOUT) {
+            logoutHandler.handleRequest(request, response);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write the (cached) metadata document, or an error if it can't be created.
+     *
+     * @return true if the metadata document has been written
+     */
+    public boolean handleMetadata(HttpServletRequest request, HttpServletResponse response) {
+        return metadataHandler.handleRequest(request, response);
+    }
+
+    public RedirectionResponse createSignInRequest(HttpServletRequest request) throws ProcessingException {
+        return processor.createSignInRequest(request, getFedizContext());
+    }
+
+    /**
+     * @param token the token of the user or null
+     */
+    public RedirectionResponse createSignOutRequest(HttpServletRequest request, SamlAssertionWrapper token)
+        throws ProcessingException {
+        return processor.createSignOutRequest(request, token, getFedizContext());
+    }
+
+    /**
+     * Redirect the user to the IdP to sign in, an error is sent if the SignInRequest can't be created.
+     *
+     * @return true if the user has been redirected
+     */
+    public boolean signInRedirect(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            if (redirect(response, createSignInRequest(request))) {
+                signInRedirects.incrementAndGet();
+                return true;
+            }
+            LOG.warn("Failed to create SignInRequest.");
+        } catch (ProcessingException ex) {
+            LOG.warn("Failed to create SignInRequest: {}", ex.getMessage());
+        }
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to create SignInRequest.");
+        return false;
+    }
+
+    /**
+     * Redirect the user to the IdP to sign out, an error is sent if the SignOutRequest can't be created.
+     *
+     * @param token the token of the user or null
+     * @return true if the user has been redirected
+     */
+    public boolean signOutRedirect(HttpServletRequest request, HttpServletResponse response,
+                                   SamlAssertionWrapper token) throws IOException {
+        try {
+            if (redirect(response, createSignOutRequest(request, token))) {
+                signOutRedirects.incrementAndGet();
+                return true;
+            }
+            LOG.warn("Failed to create SignOutRequest.");
+        } catch (ProcessingException ex) {
+            LOG.warn("Failed to create SignOutRequest: {}", ex.getMessage());
+        }
+        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to create SignOutRequest.");
+        return false;
+    }
+
+    /**
+     * Add the headers of the RedirectionResponse and redirect to its URL.
+     *
+     * @return false if the RedirectionResponse has no URL, nothing has been sent then
+     */
+    public static boolean redirect(HttpServletResponse response, RedirectionResponse redirectionResponse)
+        throws IOException {
+        String redirectURL = redirectionResponse.getRedirectionURL();
+        if (redirectURL == null) {
+            return false;
+        }
+        for (Map.Entry<String, String> header : redirectionResponse.getHeaders().entrySet()) {
+            response.addHeader(header.getKey(), header.getValue());
+        }
+        response.sendRedirect(redirectURL);
+        return true;
+    }
+
+    /**
+     * Return true if the token has expired and expired tokens are detected for this context.
+     */
+    public boolean isExpired(FedizSessionToken token, long now) {
+        return getFedizContext().isDetectExpiredTokens() && token.isExpired(now);
+    }
+
+    /**
+     * Return the token of the SECURITY_TOKEN_ATTR session attribute, which holds the compact
+     * FedizSessionToken (or the token itself, if it was set by an application).
+     */
+    public static Element getToken(Object securityToken) {
+        if (securityToken instanceof FedizSessionToken) {
+            return ((FedizSessionToken)securityToken).getToken();
+        }
+        return (Element)securityToken;
+    }
+
+    public FedizProcessor getProcessor() {
+        return processor;
+    }
+
+    public LogoutHandler getLogoutHandler() {
+        return logoutHandler;
+    }
+
+    public long getRequestCount(Route route) {
+        return routeCounts.get(route.ordinal());
+    }
+
+    public long getSignInRedirects() {
+        return signInRedirects.get();
+    }
+
+    public long getSignOutRedirects() {
+        return signOutRedirects.get();
+    }
+
+    /**
+     * A logout handler which can be shared between requests, the token is read from the session.
+     */
+    private static class SessionLogoutHandler extends LogoutHandler {
+
+        SessionLogoutHandler(FedizContext fedConfig, String servletContextPath) {
+            super(fedConfig, servletContextPath);
+        }
+
+        @Override
+        protected Element getToken(HttpServletRequest request) {
+            HttpSession session = request.getSession(false);
+            return session == null ? null : FedizEngine.getToken(session.getAttribute(SECURITY_TOKEN_ATTR));
+        }
+    }
+
+}
@@ -105,13 +105,22 @@ public class LogoutHandler implements RequestHandler<Boolean> {
         this.token = token;
     }
 
+    /**
+     * Return the token of the user who signs out. Handlers which are shared between requests
+     * override this method instead of calling setToken.
+     */
+    protected Element getToken(HttpServletRequest request) {
+        return token;
+    }
+
     protected boolean signout(HttpServletRequest request, HttpServletResponse response) {
         LOG.debug("SignOut request found. Redirecting to IDP...");
         //TODO make direct cleanup (session termination) optional via configuration
         try {
             SamlAssertionWrapper assertionToken = null;
-            if (token != null) {
-                assertionToken = new SamlAssertionWrapper(token);
+            Element signoutToken = getToken(request);
+            if (signoutToken != null) {
+                assertionToken = new SamlAssertionWrapper(signoutToken);
             }
             FedizProcessor wfProc = FedizProcessorFactory.newFedizProcessor(fedizConfig.getProtocol());
             RedirectionResponse redirectionResponse = wfProc.createSignOutRequest(request, assertionToken, fedizConfig);
@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.handler;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.SAMLSSOConstants;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.SAMLProtocol;
+import org.apache.cxf.fediz.core.metadata.MetadataDocumentHandler;
+
+/**
+ * Classifies the requests of a FedizContext as metadata, logout or sign-in requests. The paths
+ * are resolved once when the router is created. Requests are classified by their URI and query
+ * string, the parameters are only read for form-encoded POST requests, as a sign-in response
+ * is always posted as a form. Other requests (e.g. uploads or JSON requests) are not parsed.
+ */
+public class RequestRouter {
+
+    public enum Route {
+        METADATA,
+        LOGOUT,
+        SIGNIN,
+        NONE
+    }
+
+    private static final String FORM_ENCODED = "application/x-www-form-urlencoded";
+
+    private final FedizContext fedizContext;
+    private final String metadataURI;
+    private final String logoutURI;
+    private final String signinParameter;
+    private final String signinValue;
+
+    /**
+     * @param servletContextPath the context path of the application, which prefixes the logout URL
+     */
+    public RequestRouter(FedizContext fedizContext, String servletContextPath) {
+        this.fedizContext = fedizContext;
+        this.metadataURI = MetadataDocumentHandler.getMetadataURI(fedizContext);
+        String logoutUrl = fedizContext.getLogoutURL();
+        this.logoutURI = logoutUrl == null || logoutUrl.isEmpty() || servletContextPath == null 
+            ? null : servletContextPath + logoutUrl;
+        if (fedizContext.getProtocol() instanceof SAMLProtocol) {
+            signinParameter = SAMLSSOConstants.RELAY_STATE;
+            signinValue = null;
+        } else {
+            signinParameter = FederationConstants.PARAM_ACTION;
+            signinValue = FederationConstants.ACTION_SIGNIN;
+        }
+    }
+
+    public FedizContext getFedizContext() {
+        return fedizContext;
+    }
+
+    public Route route(HttpServletRequest request) {
+        if (isMetadataRequest(request)) {
+            return Route.METADATA;
+        }
+        String uri = request.getRequestURI();
+
+        boolean form = isFormPost(request);
+        String action = getParameter(request, FederationConstants.PARAM_ACTION, form);
+        if (FederationConstants.ACTION_SIGNOUT.equals(action)
+            || FederationConstants.ACTION_SIGNOUT_CLEANUP.equals(action)
+            || logoutURI != null && logoutURI.equals(uri)) {
+            return Route.LOGOUT;
+        }
+
+        String signin = FederationConstants.PARAM_ACTION.equals(signinParameter) ? action
+            : getParameter(request, signinParameter, form);
+        if (signin != null && (signinValue == null || signinValue.equals(signin))) {
+            return Route.SIGNIN;
+        }
+        return Route.NONE;
+    }
+
+    public boolean isMetadataRequest(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return uri != null && uri.indexOf(metadataURI) != -1;
+    }
+
+    /**
+     * Return true if the request is for the metadata URI of the context or for the default
+     * WS-Federation metadata path (FederationConstants.METADATA_PATH_URI), which the Jetty and
+     * Spring plugins serve in addition to the configured metadata URI.
+     */
+    public boolean isAnyMetadataRequest(HttpServletRequest request) {
+        return isAnyMetadataPath(request.getRequestURI());
+    }
+
+    /**
+     * Return true if the path contains the metadata URI of the context or the default WS-Federation
+     * metadata path, for plugins which don't process an HttpServletRequest (e.g. JAX-RS filters).
+     */
+    public boolean isAnyMetadataPath(String path) {
+        return path != null 
+            && (path.indexOf(FederationConstants.METADATA_PATH_URI) != -1 || path.indexOf(metadataURI) != -1);
+    }
+
+    /**
+     * Return the value of the parameter, the parameters are only parsed for form-encoded POST
+     * requests, otherwise the value is read from the query string.
+     */
+    public static String getParameter(HttpServletRequest request, String name) {
+        return getParameter(request, name, isFormPost(request));
+    }
+
+    private static String getParameter(HttpServletRequest request, String name, boolean form) {
+        return form ? request.getParameter(name) : getQueryParameter(request.getQueryString(), name);
+    }
+
+    private static boolean isFormPost(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return "POST".equals(request.getMethod()) && contentType != null
+            && contentType.regionMatches(true, 0, FORM_ENCODED, 0, FORM_ENCODED.length());
+    }
+
+    /**
+     * Return the (first) value of the parameter in the query string without parsing the other
+     * parameters, or null if the query string doesn't contain the parameter.
+     */
+    static String getQueryParameter(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        int start = 0;
+        while (start < query.length()) {
+            int end = query.indexOf('&', start);
+            if (end == -1) {
+                end = query.length();
+            }
+            if (query.startsWith(name, start)) {
+                int nameEnd = start + name.length();
+                if (nameEnd == end) {
+                    return "";
+                } else if (query.charAt(nameEnd) == '=') {
+                    return decode(query.substring(nameEnd + 1, end));
+                }
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private static String decode(String value) {
+        if (value.indexOf('%') == -1 && value.indexOf('+') == -1) {
+            return value;
+        }
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            return value;
+        }
+    }
+
+}
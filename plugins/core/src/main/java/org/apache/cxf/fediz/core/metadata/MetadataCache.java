@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.metadata;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.w3c.dom.Document;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.processor.FedizProcessor;
+import org.apache.cxf.fediz.core.processor.FedizProcessorFactory;
+import org.apache.wss4j.common.util.DOM2Writer;
+
+/**
+ * Caches the serialized, signed metadata document of a FedizContext. The document only depends on
+ * the configuration and on the full context path of the request (if no application service URL
+ * or an absolute logout URL is configured), so it is written and signed once per context path.
+ * The cache belongs to the FedizContext and is dropped along with it when the configuration (and
+ * with it the signing key) is reloaded. The number of entries is bounded, since the context path
+ * includes the requested host.
+ */
+public class MetadataCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+
+    /**
+     * Caches may keep the document for five minutes before they have to revalidate it
+     */
+    public static final String DEFAULT_CACHE_CONTROL = "public, max-age=300";
+
+    private final ConcurrentMap<String, MetadataDocument> documents = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private volatile String cacheControl = DEFAULT_CACHE_CONTROL;
+
+    public MetadataCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public MetadataCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be greater than zero");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Return the metadata document of the given context for the request, writing and signing it
+     * if it is not cached yet.
+     */
+    public MetadataDocument getDocument(HttpServletRequest request, FedizContext config)
+        throws ProcessingException {
+        String key;
+        try {
+            key = MetadataWriter.extractFullContextPath(request);
+        } catch (Exception ex) {
+            throw new ProcessingException("Failed to determine the context path", ex);
+        }
+        MetadataDocument document = documents.get(key);
+        if (document == null) {
+            FedizProcessor processor = FedizProcessorFactory.newFedizProcessor(config.getProtocol());
+            Document metadata = processor.getMetaData(request, config);
+            document = new MetadataDocument(DOM2Writer.nodeToString(metadata));
+            if (documents.size() < maxEntries) {
+                MetadataDocument existing = documents.putIfAbsent(key, document);
+                if (existing != null) {
+                    document = existing;
+                }
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Return the value of the Cache-Control header sent with the metadata document or null.
+     */
+    public String getCacheControl() {
+        return cacheControl;
+    }
+
+    public void setCacheControl(String cacheControl) {
+        this.cacheControl = cacheControl;
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public void clear() {
+        documents.clear();
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.metadata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A serialized (and signed) metadata document together with its entity tag. The document is
+ * served conditionally: a request whose If-None-Match header matches the entity tag is answered
+ * with 304 (Not Modified) instead of the document.
+ */
+public class MetadataDocument {
+
+    public static final String CONTENT_TYPE = "text/xml;charset=UTF-8";
+    public static final String ETAG = "ETag";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String CACHE_CONTROL = "Cache-Control";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] content;
+    private final String etag;
+
+    public MetadataDocument(String document) {
+        this.content = document.getBytes(StandardCharsets.UTF_8);
+        this.etag = createETag(content);
+    }
+
+    /**
+     * Return the UTF-8 encoded document. The array is shared and must not be modified.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Return the (quoted) entity tag of the document.
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    /**
+     * Return true if the value of an If-None-Match header matches the entity tag of the document.
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the document, or 304 (Not Modified) if the request already has the current version.
+     *
+     * @param cacheControl the value of the Cache-Control header or null
+     */
+    public void write(HttpServletRequest request, HttpServletResponse response, String cacheControl)
+        throws IOException {
+        response.setHeader(ETAG, etag);
+        if (cacheControl != null) {
+            response.setHeader(CACHE_CONTROL, cacheControl);
+        }
+        if (matches(request.getHeader(IF_NONE_MATCH))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(CONTENT_TYPE);
+        response.setContentLength(content.length);
+        try (OutputStream out = response.getOutputStream()) {
+            out.write(content);
+        }
+    }
+
+    private static String createETag(byte[] content) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        // 128 bits of the digest are plenty to tell versions of the document apart
+        StringBuilder sb = new StringBuilder(34).append('"');
+        for (int i = 0; i < 16; i++) {
+            sb.append(HEX[(digest[i] >> 4) & 0xF]).append(HEX[digest[i] & 0xF]);
+        }
+        return sb.append('"').toString();
+    }
+
+}
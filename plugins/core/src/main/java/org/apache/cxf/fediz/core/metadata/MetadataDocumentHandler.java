@@ -19,22 +19,16 @@
 package org.apache.cxf.fediz.core.metadata;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.w3c.dom.Document;
-
 import org.apache.cxf.fediz.core.FederationConstants;
 import org.apache.cxf.fediz.core.SAMLSSOConstants;
 import org.apache.cxf.fediz.core.config.FederationProtocol;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.config.SAMLProtocol;
 import org.apache.cxf.fediz.core.handler.RequestHandler;
-import org.apache.cxf.fediz.core.processor.FedizProcessor;
-import org.apache.cxf.fediz.core.processor.FedizProcessorFactory;
-import org.apache.wss4j.common.util.DOM2Writer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,13 +60,10 @@ public class MetadataDocumentHandler implements RequestHandler<Boolean> {
     @Override
     public Boolean handleRequest(HttpServletRequest request, HttpServletResponse response) {
         LOG.debug("Metadata document requested");
-        FedizProcessor wfProc = FedizProcessorFactory.newFedizProcessor(fedizConfig.getProtocol());
-        PrintWriter out = null;
         try {
-            out = response.getWriter();
-            Document metadata = wfProc.getMetaData(request, fedizConfig);
-            out.write(DOM2Writer.nodeToString(metadata));
-            response.setContentType("text/xml");
+            MetadataCache cache = fedizConfig.getMetadataCache();
+            MetadataDocument metadata = cache.getDocument(request, fedizConfig);
+            metadata.write(request, response, cache.getCacheControl());
             return true;
         } catch (Exception ex) {
             LOG.error("Failed to get metadata document: {}", ex.getMessage());
@@ -82,10 +73,6 @@ public class MetadataDocumentHandler implements RequestHandler<Boolean> {
                 LOG.error("Failed to send error response: {}", e.getMessage());
             }
             return false;
-        } finally {
-            if (out != null) {
-                out.close();
-            }
         }
     }
 }
@@ -319,7 +319,7 @@ public class MetadataWriter {
         writer.writeEndElement(); // SPSSODescriptor
     }
 
-    private String extractFullContextPath(HttpServletRequest request) throws MalformedURLException {
+    static String extractFullContextPath(HttpServletRequest request) throws MalformedURLException {
         String result = null;
         String contextPath = request.getContextPath();
         String requestUrl = request.getRequestURL().toString();
@@ -29,11 +29,13 @@ import javax.security.auth.callback.CallbackHandler;
 import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.servlet.http.HttpServletRequest;
 
+import org.apache.cxf.fediz.core.cache.StripedReplayCache;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
 import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
 import org.apache.cxf.fediz.core.spi.IDPCallback;
 import org.apache.cxf.fediz.core.spi.RealmCallback;
+import org.apache.wss4j.common.cache.ReplayCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -79,18 +81,25 @@ public abstract class AbstractFedizProcessor implements FedizProcessor {
         throws ProcessingException {
         // Check whether token already used for signin
         if (tokenId != null && config.isDetectReplayedTokens()) {
+            ReplayCache replayCache = config.getTokenReplayCache();
+            long ttl = -1L;
+            if (expires != null) {
+                ttl = (expires.getTime() - System.currentTimeMillis()) / 1000L;
+            }
             // Check whether token has already been processed once, prevent
             // replay attack
-            if (!config.getTokenReplayCache().contains(tokenId)) {
-                // not cached
-                if (expires != null) {
-                    Date currentTime = new Date();
-                    long ttl = expires.getTime() - currentTime.getTime();
-                    config.getTokenReplayCache().add(tokenId, ttl / 1000L);
-                } else {
-                    config.getTokenReplayCache().add(tokenId);
-                }
+            boolean replayed;
+            if (replayCache instanceof StripedReplayCache) {
+                replayed = !((StripedReplayCache)replayCache).addIfAbsent(tokenId, ttl);
             } else {
+                replayed = replayCache.contains(tokenId);
+                if (!replayed && expires != null) {
+                    replayCache.add(tokenId, ttl);
+                } else if (!replayed) {
+                    replayCache.add(tokenId);
+                }
+            }
+            if (replayed) {
                 LOG.error("Replay attack with token id: " + tokenId);
                 throw new ProcessingException("Replay attack with token id: "
                         + tokenId, TYPE.TOKEN_REPLAY);
@@ -20,14 +20,12 @@
 package org.apache.cxf.fediz.core.processor;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.security.cert.Certificate;
-import java.text.DateFormat;
-import java.text.ParseException;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -46,6 +44,7 @@ import org.apache.cxf.fediz.core.RequestState;
 import org.apache.cxf.fediz.core.TokenValidator;
 import org.apache.cxf.fediz.core.TokenValidatorRequest;
 import org.apache.cxf.fediz.core.TokenValidatorResponse;
+import org.apache.cxf.fediz.core.cache.ValidatedTokenCache;
 import org.apache.cxf.fediz.core.config.FederationProtocol;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.config.KeyManager;
@@ -57,7 +56,6 @@ import org.apache.cxf.fediz.core.spi.HomeRealmCallback;
 import org.apache.cxf.fediz.core.spi.SignInQueryCallback;
 import org.apache.cxf.fediz.core.spi.WAuthCallback;
 import org.apache.cxf.fediz.core.spi.WReqCallback;
-import org.apache.cxf.fediz.core.util.DOMUtils;
 import org.apache.wss4j.common.ext.WSPasswordCallback;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.SamlAssertionWrapper;
@@ -71,7 +69,6 @@ import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.processor.EncryptedDataProcessor;
 import org.apache.wss4j.dom.processor.Processor;
 import org.apache.wss4j.dom.util.XmlSchemaDateFormat;
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -113,76 +110,23 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
 
     protected FedizResponse processSignInRequest(FedizRequest request, FedizContext config) throws ProcessingException {
 
-        Document doc = null;
-        Element el = null;
-        try {
-            doc = DOMUtils.readXml(new StringReader(request.getResponseToken()));
-            el = doc.getDocumentElement();
-
-        } catch (Exception e) {
-            LOG.warn("Failed to parse wresult: " + e.getMessage());
-            throw new ProcessingException(TYPE.INVALID_REQUEST);
-        }
+        WResultParser parser = new WResultParser(request.getResponseToken(), config);
+        parser.parse();
+        Element rst = parser.getToken();
+        String tt = parser.getTokenType();
 
-        if ("RequestSecurityTokenResponseCollection".equals(el.getLocalName())) {
-            el = DOMUtils.getFirstElement(el);
-        }
-        if (!"RequestSecurityTokenResponse".equals(el.getLocalName())) {
-            LOG.warn("Unexpected root element of wresult: '" + el.getLocalName() + "'");
-            throw new ProcessingException(TYPE.INVALID_REQUEST);
-        }
-        el = DOMUtils.getFirstElement(el);
-        Element rst = null;
-        Element lifetimeElem = null;
-        String tt = null;
-
-        while (el != null) {
-            String ln = el.getLocalName();
-            if (FederationConstants.WS_TRUST_13_NS.equals(el.getNamespaceURI())
-                || FederationConstants.WS_TRUST_2005_02_NS.equals(el.getNamespaceURI())) {
-                if ("Lifetime".equals(ln)) {
-                    lifetimeElem = el;
-                } else if ("RequestedSecurityToken".equals(ln)) {
-                    rst = DOMUtils.getFirstElement(el);
-                } else if ("TokenType".equals(ln)) {
-                    tt = DOMUtils.getContent(el);
-                }
-            }
-            el = DOMUtils.getNextElement(el);
-        }
         if (LOG.isDebugEnabled()) {
-            LOG.debug("RST: " + ((rst != null)
-                ? rst.toString()
-                : "null"));
-            LOG.debug("Lifetime: " + ((lifetimeElem != null)
-                ? lifetimeElem.toString()
+            LOG.debug("RST: " + rst.toString());
+            LOG.debug("Lifetime: " + ((parser.getExpires() != null)
+                ? parser.getCreated() + " - " + parser.getExpires()
                 : "null"));
             LOG.debug("Tokentype: " + ((tt != null)
                 ? tt.toString()
                 : "null"));
         }
-        if (rst == null) {
-            LOG.warn("RequestedSecurityToken element not found in wresult");
-            throw new ProcessingException(TYPE.BAD_REQUEST);
-        }
         LifeTime lifeTime = null;
-        if (lifetimeElem != null) {
-            lifeTime = processLifeTime(lifetimeElem);
-        }
-
-        if (config.isDetectExpiredTokens() && lifeTime != null) {
-            Date currentDate = new Date();
-            if (currentDate.after(lifeTime.getExpires())) {
-                LOG.warn("RSTR Lifetime expired");
-                throw new ProcessingException(TYPE.TOKEN_EXPIRED);
-            }
-            DateTime currentTime = new DateTime();
-            DateTime validFrom = new DateTime(lifeTime.created);
-            currentTime = currentTime.plusSeconds(config.getMaximumClockSkew().intValue());
-            if (validFrom.isAfter(currentTime)) {
-                LOG.debug("RSTR Lifetime not yet valid");
-                throw new ProcessingException(TYPE.TOKEN_INVALID);
-            }
+        if (parser.getExpires() != null) {
+            lifeTime = new LifeTime(parser.getCreated(), parser.getExpires());
         }
 
         // Check to see if RST is encrypted
@@ -193,7 +137,14 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
             }
         }
 
-        TokenValidatorResponse validatorResponse = validateToken(rst, tt, config, request.getCerts());
+        // The digest of the raw response identifies the token in the ValidatedTokenCache
+        byte[] contentDigest = null;
+        if (config.getValidatedTokenCache() != null) {
+            contentDigest = ValidatedTokenCache.createDigest()
+                .digest(request.getResponseToken().getBytes(StandardCharsets.UTF_8));
+        }
+        TokenValidatorResponse validatorResponse = 
+            validateToken(rst, tt, config, request.getCerts(), contentDigest);
 
         // Check whether token already used for signin
         Date expires = null;
@@ -218,7 +169,7 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
     }
 
     private TokenValidatorResponse validateToken(Element token, String tokenType, FedizContext config,
-        Certificate[] certs) throws ProcessingException {
+        Certificate[] certs, byte[] contentDigest) throws ProcessingException {
         TokenValidatorResponse validatorResponse = null;
         List<TokenValidator> validators = ((FederationProtocol)config.getProtocol()).getTokenValidators();
         for (TokenValidator validator : validators) {
@@ -230,7 +181,8 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
             }
             if (canHandle) {
                 try {
-                    TokenValidatorRequest validatorRequest = new TokenValidatorRequest(token, certs);
+                    TokenValidatorRequest validatorRequest = 
+                        new TokenValidatorRequest(token, certs, contentDigest);
                     validatorResponse = validator.validateAndProcessToken(validatorRequest, config);
                 } catch (ProcessingException ex) {
                     throw ex;
@@ -290,26 +242,6 @@ public class FederationProcessorImpl extends AbstractFedizProcessor {
         return null;
     }
 
-    private LifeTime processLifeTime(Element lifetimeElem) throws ProcessingException {
-        try {
-            Element createdElem = DOMUtils.getFirstChildWithName(lifetimeElem, WSConstants.WSU_NS,
-                                                                 WSConstants.CREATED_LN);
-            DateFormat zulu = new XmlSchemaDateFormat();
-
-            Date created = zulu.parse(DOMUtils.getContent(createdElem));
-
-            Element expiresElem = DOMUtils.getFirstChildWithName(lifetimeElem, WSConstants.WSU_NS,
-                                                                 WSConstants.EXPIRES_LN);
-            Date expires = zulu.parse(DOMUtils.getContent(expiresElem));
-
-            return new LifeTime(created, expires);
-
-        } catch (ParseException e) {
-            LOG.error("Failed to parse lifetime element in wresult: " + e.getMessage());
-            throw new ProcessingException(TYPE.BAD_REQUEST);
-        }
-    }
-
     public class LifeTime {
 
         private Date created;
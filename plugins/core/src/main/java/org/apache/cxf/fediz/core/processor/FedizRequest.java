@@ -19,6 +19,7 @@
 
 package org.apache.cxf.fediz.core.processor;
 
+import java.io.InputStream;
 import java.io.Serializable;
 import java.security.cert.Certificate;
 
@@ -32,6 +33,7 @@ public class FedizRequest implements Serializable {
     
     private String action;
     private String responseToken;
+    private transient InputStream responseTokenStream;
     private String freshness;
     private String state;
     private Certificate[] certs;
@@ -50,6 +52,16 @@ public class FedizRequest implements Serializable {
     public void setResponseToken(String responseToken) {
         this.responseToken = responseToken;
     }
+    /**
+     * The decoded response token, e.g. a SAMLResponse which has been Base64-decoded while the
+     * form was read. It takes precedence over the response token String.
+     */
+    public InputStream getResponseTokenStream() {
+        return responseTokenStream;
+    }
+    public void setResponseTokenStream(InputStream responseTokenStream) {
+        this.responseTokenStream = responseTokenStream;
+    }
     public String getAction() {
         return action;
     }
@@ -23,8 +23,9 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.security.PrivateKey;
-import java.security.Signature;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -40,12 +41,16 @@ import org.apache.cxf.fediz.core.SAMLSSOConstants;
 import org.apache.cxf.fediz.core.TokenValidator;
 import org.apache.cxf.fediz.core.TokenValidatorRequest;
 import org.apache.cxf.fediz.core.TokenValidatorResponse;
+import org.apache.cxf.fediz.core.cache.ValidatedTokenCache;
 import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.KeyManager;
 import org.apache.cxf.fediz.core.config.SAMLProtocol;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
 import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
 import org.apache.cxf.fediz.core.metadata.MetadataWriter;
+import org.apache.cxf.fediz.core.samlsso.AuthnRequestTemplate;
 import org.apache.cxf.fediz.core.samlsso.CompressionUtils;
+import org.apache.cxf.fediz.core.samlsso.RedirectBindingSigner;
 import org.apache.cxf.fediz.core.samlsso.SAMLPRequestBuilder;
 import org.apache.cxf.fediz.core.samlsso.SAMLProtocolResponseValidator;
 import org.apache.cxf.fediz.core.samlsso.SAMLSSOResponseValidator;
@@ -56,7 +61,6 @@ import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.OpenSAMLUtil;
 import org.apache.wss4j.common.saml.SamlAssertionWrapper;
 import org.apache.wss4j.common.util.DOM2Writer;
-import org.apache.wss4j.dom.WSConstants;
 import org.apache.xml.security.exceptions.Base64DecodingException;
 import org.apache.xml.security.utils.Base64;
 import org.opensaml.core.xml.XMLObject;
@@ -70,6 +74,8 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(SAMLProcessorImpl.class);
     
+    private final boolean defaultEncoding = !overridesEncodeAuthnRequest(getClass());
+    
     static {
         OpenSAMLUtil.initSamlEngine();
     }
@@ -91,7 +97,8 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
             throw new IllegalStateException("Unsupported protocol");
         }
         
-        if (request.getResponseToken() == null || request.getState() == null) {
+        if (request.getResponseToken() == null && request.getResponseTokenStream() == null
+            || request.getState() == null) {
             LOG.error("Missing response token or RelayState parameters");
             throw new ProcessingException(TYPE.INVALID_REQUEST);
         }
@@ -125,18 +132,35 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
         RequestState requestState = 
             processRelayState(request.getState(), request.getRequestState());
         
+        // The digest of the raw response identifies the token in the ValidatedTokenCache
+        MessageDigest responseDigest = 
+            config.getValidatedTokenCache() != null ? ValidatedTokenCache.createDigest() : null;
         InputStream tokenStream = null;
-        try {
-            byte[] deflatedToken = Base64.decode(request.getResponseToken());
-            if (protocol.isDisableDeflateEncoding()) {
-                tokenStream = new ByteArrayInputStream(deflatedToken);
-            } else {
-                tokenStream = CompressionUtils.inflate(deflatedToken);
+        if (request.getResponseTokenStream() != null) {
+            // Already Base64-decoded, inflate it while it is parsed
+            tokenStream = request.getResponseTokenStream();
+            if (responseDigest != null) {
+                tokenStream = new DigestInputStream(tokenStream, responseDigest);
+            }
+            if (!protocol.isDisableDeflateEncoding()) {
+                tokenStream = CompressionUtils.inflate(tokenStream);
+            }
+        } else {
+            try {
+                byte[] deflatedToken = Base64.decode(request.getResponseToken());
+                if (responseDigest != null) {
+                    responseDigest.update(deflatedToken);
+                }
+                if (protocol.isDisableDeflateEncoding()) {
+                    tokenStream = new ByteArrayInputStream(deflatedToken);
+                } else {
+                    tokenStream = CompressionUtils.inflate(deflatedToken);
+                }
+            } catch (DataFormatException ex) {
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            } catch (Base64DecodingException e) {
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
             }
-        } catch (DataFormatException ex) {
-            throw new ProcessingException(TYPE.INVALID_REQUEST);
-        } catch (Base64DecodingException e) {
-            throw new ProcessingException(TYPE.INVALID_REQUEST);
         }
         
         Document doc = null;
@@ -148,9 +172,17 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
         } catch (Exception e) {
             LOG.warn("Failed to parse token: " + e.getMessage());
             throw new ProcessingException(TYPE.INVALID_REQUEST);
+        } finally {
+            try {
+                tokenStream.close();
+            } catch (IOException e) {
+                LOG.debug(e.getMessage(), e);
+            }
         }
         
-        LOG.debug("Received response: " + DOM2Writer.nodeToString(el));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Received response: " + DOM2Writer.nodeToString(el));
+        }
         
         XMLObject responseObject = null;
         try {
@@ -180,6 +212,7 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
             throw new ProcessingException(TYPE.INVALID_REQUEST);
         }
         Element token = assertions.get(0);
+        byte[] contentDigest = responseDigest != null ? responseDigest.digest() : null;
             
         List<TokenValidator> validators = protocol.getTokenValidators();
         for (TokenValidator validator : validators) {
@@ -187,7 +220,7 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
             if (canHandle) {
                 try {
                     TokenValidatorRequest validatorRequest = 
-                        new TokenValidatorRequest(token, request.getCerts());
+                        new TokenValidatorRequest(token, request.getCerts(), contentDigest);
                     validatorResponse = validator.validateAndProcessToken(validatorRequest, config);
                 } catch (ProcessingException ex) {
                     throw ex;
@@ -288,32 +321,18 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
                 redirectURL = issuerURL;
             }
             
-            SAMLPRequestBuilder samlpRequestBuilder = 
-                ((SAMLProtocol)config.getProtocol()).getSAMLPRequestBuilder();
-            
-            Document doc = DOMUtils.createDocument();
-            doc.appendChild(doc.createElement("root"));
-     
             // Create the AuthnRequest
             String requestURL = request.getRequestURL().toString();
             String realm = resolveWTRealm(request, config);
-            AuthnRequest authnRequest = 
-                samlpRequestBuilder.createAuthnRequest(realm, requestURL);
-            
-            if (((SAMLProtocol)config.getProtocol()).isSignRequest()) {
-                authnRequest.setDestination(redirectURL);
-            }
-            
-            Element authnRequestElement = OpenSAMLUtil.toDom(authnRequest, doc);
-            String authnRequestEncoded = encodeAuthnRequest(authnRequestElement);
             
             String relayState = URLEncoder.encode(UUID.randomUUID().toString(), "UTF-8");
             RequestState requestState = new RequestState();
             requestState.setTargetAddress(requestURL);
             requestState.setIdpServiceAddress(redirectURL);
-            requestState.setRequestId(authnRequest.getID());
             requestState.setIssuerId(realm);
-            requestState.setWebAppContext(authnRequest.getIssuer().getValue());
+            String authnRequestEncoded = 
+                createAuthnRequest((SAMLProtocol)config.getProtocol(), realm, requestURL, redirectURL, 
+                                   requestState);
             requestState.setState(relayState);
             requestState.setCreatedAt(System.currentTimeMillis());
             
@@ -344,6 +363,53 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
         }
     }
     
+    /**
+     * Create the encoded AuthnRequest and set its ID and issuer on the RequestState. The request
+     * is created from the template of the SAMLProtocol, unless a custom SAMLPRequestBuilder is
+     * configured or encodeAuthnRequest is overridden.
+     */
+    private String createAuthnRequest(
+        SAMLProtocol protocol,
+        String realm,
+        String requestURL,
+        String redirectURL,
+        RequestState requestState
+    ) throws Exception {
+        String destination = protocol.isSignRequest() ? redirectURL : null;
+        AuthnRequestTemplate template = 
+            defaultEncoding ? protocol.getAuthnRequestTemplate(realm, destination) : null;
+        if (template != null) {
+            String requestId = UUID.randomUUID().toString();
+            requestState.setRequestId(requestId);
+            requestState.setWebAppContext(realm);
+            return template.encodeRequest(requestId, requestURL);
+        }
+        
+        Document doc = DOMUtils.createDocument();
+        doc.appendChild(doc.createElement("root"));
+        AuthnRequest authnRequest = 
+            protocol.getSAMLPRequestBuilder().createAuthnRequest(realm, requestURL);
+        if (destination != null) {
+            authnRequest.setDestination(destination);
+        }
+        Element authnRequestElement = OpenSAMLUtil.toDom(authnRequest, doc);
+        requestState.setRequestId(authnRequest.getID());
+        requestState.setWebAppContext(authnRequest.getIssuer().getValue());
+        return encodeAuthnRequest(authnRequestElement);
+    }
+    
+    private static boolean overridesEncodeAuthnRequest(Class<?> processorClass) {
+        for (Class<?> c = processorClass; c != SAMLProcessorImpl.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("encodeAuthnRequest", Element.class);
+                return true;
+            } catch (NoSuchMethodException ex) {
+                // check the superclass
+            }
+        }
+        return false;
+    }
+    
     /**
      * Sign a request according to the redirect binding spec for Web SSO
      */
@@ -351,17 +417,36 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
         FedizContext config,
         StringBuilder sb
     ) throws Exception {
-        Crypto crypto = config.getSigningKey().getCrypto();
+        RedirectBindingSigner signer = getRedirectBindingSigner(config.getSigningKey());
+        LOG.debug("Using Signature algorithm " + signer.getSignatureAlgorithm());
+        
+        // Sign the request
+        sb.append("&" + SAMLSSOConstants.SIG_ALG).append('=').append(signer.getEncodedSignatureAlgorithm());
+        String encodedSignature = signer.sign(sb.toString());
+        
+        return URLEncoder.encode(encodedSignature, "UTF-8");
+    }
+    
+    /**
+     * Return the signer of the signing key. The private key is only read from the keystore once,
+     * a new key is used once the context is reloaded (or closed).
+     */
+    private RedirectBindingSigner getRedirectBindingSigner(KeyManager signingKey) throws Exception {
+        RedirectBindingSigner signer = signingKey.getRedirectBindingSigner();
+        if (signer != null) {
+            return signer;
+        }
+        Crypto crypto = signingKey.getCrypto();
         if (crypto == null) {
             LOG.debug("No crypto instance of properties file configured for signature");
             throw new ProcessingException("Failed to Sign Request");
         }
-        String signatureUser = config.getSigningKey().getKeyAlias();
+        String signatureUser = signingKey.getKeyAlias();
         if (signatureUser == null) {
             LOG.debug("No user configured for signature");
             throw new ProcessingException("Failed to Sign Request");
         }
-        String signaturePassword = config.getSigningKey().getKeyPassword();
+        String signaturePassword = signingKey.getKeyPassword();
         if (signaturePassword == null) {
             LOG.debug("No signature password available");
             throw new ProcessingException("Failed to Sign Request");
@@ -373,29 +458,11 @@ public class SAMLProcessorImpl extends AbstractFedizProcessor {
             LOG.debug("No private key available");
             throw new ProcessingException("Failed to Sign Request");
         }
-        
-        String sigAlgo = WSConstants.RSA_SHA1;
-        String jceSigAlgo = "SHA1withRSA";
         LOG.debug("automatic sig algo detection: " + privateKey.getAlgorithm());
-        if (privateKey.getAlgorithm().equalsIgnoreCase("DSA")) {
-            sigAlgo = WSConstants.DSA;
-            jceSigAlgo = "SHA1withDSA";
-        }
-        LOG.debug("Using Signature algorithm " + sigAlgo);
-        
-        // Sign the request
-        Signature signature = Signature.getInstance(jceSigAlgo);
-        signature.initSign(privateKey);
-       
-        sb.append("&" + SAMLSSOConstants.SIG_ALG).append('=').append(URLEncoder.encode(sigAlgo, "UTF-8"));
-        String requestToSign = sb.toString();
-
-        signature.update(requestToSign.getBytes("UTF-8"));
-        byte[] signBytes = signature.sign();
-        
-        String encodedSignature = Base64.encode(signBytes);
         
-        return URLEncoder.encode(encodedSignature, "UTF-8");
+        signer = new RedirectBindingSigner(privateKey);
+        signingKey.setRedirectBindingSigner(signer);
+        return signer;
     }
     
     protected String encodeAuthnRequest(Element authnRequest) throws IOException {
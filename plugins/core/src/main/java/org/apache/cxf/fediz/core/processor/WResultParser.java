@@ -0,0 +1,415 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.processor;
+
+import java.io.StringReader;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+
+import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.util.XmlSchemaDateFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A streaming (StAX) parser for the wresult parameter of a WS-Federation sign-in response.
+ * The structure of the RequestSecurityTokenResponse is checked, and the TokenType and Lifetime are
+ * read, without building a DOM. An expired or malformed response is rejected before any DOM is
+ * built. Only the first element in the RequestedSecurityToken is materialized as a DOM. This is the
+ * token that is decrypted and whose signature is verified. It is placed in a RequestedSecurityToken
+ * element that declares all the namespaces in scope in the wresult.
+ *
+ * If expired tokens are detected and the Lifetime follows the RequestedSecurityToken (the order
+ * the STS uses), the token is skipped in the first pass. It is read in a second pass that stops at
+ * the end of the token, once the Lifetime is known to be valid.
+ */
+public final class WResultParser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WResultParser.class);
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final String wresult;
+    private final boolean detectExpiredTokens;
+    private final long maximumClockSkew;
+
+    private String tokenType;
+    private Date created;
+    private Date expires;
+    private boolean lifetimeValidated;
+    private boolean tokenFound;
+    private Element token;
+
+    public WResultParser(String wresult, FedizContext config) {
+        this.wresult = wresult;
+        this.detectExpiredTokens = config.isDetectExpiredTokens();
+        this.maximumClockSkew = config.getMaximumClockSkew().longValue() * 1000L;
+    }
+
+    /**
+     * Parse the wresult. Afterwards the token is available via {@link #getToken()}.
+     */
+    public void parse() throws ProcessingException {
+        if (wresult == null) {
+            LOG.warn("Failed to parse wresult: no response token");
+            throw new ProcessingException(TYPE.INVALID_REQUEST);
+        }
+        read(false);
+        if (!tokenFound) {
+            LOG.warn("RequestedSecurityToken element not found in wresult");
+            throw new ProcessingException(TYPE.BAD_REQUEST);
+        }
+        if (token == null) {
+            tokenFound = false;
+            read(true);
+        }
+    }
+
+    /**
+     * The first element in the RequestedSecurityToken
+     */
+    public Element getToken() {
+        return token;
+    }
+
+    public String getTokenType() {
+        return tokenType;
+    }
+
+    /**
+     * The Created date of the Lifetime or null if the wresult doesn't contain a Lifetime
+     */
+    public Date getCreated() {
+        return created;
+    }
+
+    /**
+     * The Expires date of the Lifetime or null if the wresult doesn't contain a Lifetime
+     */
+    public Date getExpires() {
+        return expires;
+    }
+
+    private void read(boolean secondPass) throws ProcessingException {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(new StringReader(wresult));
+            Map<String, String> namespaces = new HashMap<>();
+
+            nextElement(reader);
+            addNamespaces(reader, namespaces);
+            if ("RequestSecurityTokenResponseCollection".equals(reader.getLocalName())) {
+                if (!nextElement(reader)) {
+                    LOG.warn("No RequestSecurityTokenResponse in wresult");
+                    throw new ProcessingException(TYPE.INVALID_REQUEST);
+                }
+                addNamespaces(reader, namespaces);
+            }
+            if (!"RequestSecurityTokenResponse".equals(reader.getLocalName())) {
+                LOG.warn("Unexpected root element of wresult: '" + reader.getLocalName() + "'");
+                throw new ProcessingException(TYPE.INVALID_REQUEST);
+            }
+
+            while (nextElement(reader)) {
+                String ns = reader.getNamespaceURI();
+                String ln = reader.getLocalName();
+                if (!FederationConstants.WS_TRUST_13_NS.equals(ns)
+                    && !FederationConstants.WS_TRUST_2005_02_NS.equals(ns)) {
+                    skipElement(reader);
+                } else if ("RequestedSecurityToken".equals(ln) && !tokenFound) {
+                    readRequestedSecurityToken(reader, namespaces, secondPass);
+                    if (secondPass) {
+                        return;
+                    }
+                } else if (!secondPass && "Lifetime".equals(ln)) {
+                    readLifetime(reader);
+                } else if (!secondPass && "TokenType".equals(ln)) {
+                    tokenType = readContent(reader);
+                } else {
+                    skipElement(reader);
+                }
+            }
+
+            // Only the first RequestSecurityTokenResponse is processed, the remainder is checked for
+            // well-formedness only
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.DTD) {
+                    throw new XMLStreamException("DOCTYPE is not allowed");
+                }
+            }
+        } catch (XMLStreamException | DOMException e) {
+            LOG.warn("Failed to parse wresult: " + e.getMessage());
+            throw new ProcessingException(TYPE.INVALID_REQUEST);
+        } finally {
+            close(reader);
+        }
+    }
+
+    private void readRequestedSecurityToken(XMLStreamReader reader, Map<String, String> namespaces,
+        boolean secondPass) throws XMLStreamException {
+        String ns = reader.getNamespaceURI();
+        String qname = getQualifiedName(reader.getPrefix(), reader.getLocalName());
+        addNamespaces(reader, namespaces);
+
+        if (nextElement(reader)) {
+            if (secondPass || !detectExpiredTokens || lifetimeValidated) {
+                Document doc = DOMUtils.createDocument();
+                Element parent = doc.createElementNS(ns, qname);
+                for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+                    declareNamespace(parent, namespace.getKey(), namespace.getValue());
+                }
+                doc.appendChild(parent);
+                token = readElement(reader, doc, parent);
+            } else {
+                skipElement(reader);
+            }
+            tokenFound = true;
+            while (nextElement(reader)) {
+                skipElement(reader);
+            }
+        }
+    }
+
+    private void readLifetime(XMLStreamReader reader) throws XMLStreamException, ProcessingException {
+        String createdValue = null;
+        String expiresValue = null;
+        while (nextElement(reader)) {
+            if (WSConstants.WSU_NS.equals(reader.getNamespaceURI())
+                && WSConstants.CREATED_LN.equals(reader.getLocalName())) {
+                createdValue = readContent(reader);
+            } else if (WSConstants.WSU_NS.equals(reader.getNamespaceURI())
+                && WSConstants.EXPIRES_LN.equals(reader.getLocalName())) {
+                expiresValue = readContent(reader);
+            } else {
+                skipElement(reader);
+            }
+        }
+
+        try {
+            if (createdValue == null || expiresValue == null) {
+                throw new ParseException("Created or Expires missing", 0);
+            }
+            DateFormat zulu = new XmlSchemaDateFormat();
+            created = zulu.parse(createdValue);
+            expires = zulu.parse(expiresValue);
+        } catch (ParseException e) {
+            LOG.error("Failed to parse lifetime element in wresult: " + e.getMessage());
+            throw new ProcessingException(TYPE.BAD_REQUEST);
+        }
+
+        if (detectExpiredTokens) {
+            long currentTime = System.currentTimeMillis();
+            if (currentTime > expires.getTime()) {
+                LOG.warn("RSTR Lifetime expired");
+                throw new ProcessingException(TYPE.TOKEN_EXPIRED);
+            }
+            if (created.getTime() > currentTime + maximumClockSkew) {
+                LOG.debug("RSTR Lifetime not yet valid");
+                throw new ProcessingException(TYPE.TOKEN_INVALID);
+            }
+        }
+        lifetimeValidated = true;
+    }
+
+    /**
+     * Build the DOM of the current element and append it to the parent. The reader is left on the
+     * END_ELEMENT event of the element.
+     */
+    private static Element readElement(XMLStreamReader reader, Document doc, Element parent)
+        throws XMLStreamException {
+        Element root = null;
+        Node current = parent;
+        int depth = 0;
+        int event = reader.getEventType();
+        while (true) {
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                Element el = createElement(reader, doc);
+                current.appendChild(el);
+                if (root == null) {
+                    root = el;
+                }
+                current = el;
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                current = current.getParentNode();
+                depth--;
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+                Node last = current.getLastChild();
+                if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+                    ((Text)last).appendData(reader.getText());
+                } else {
+                    current.appendChild(doc.createTextNode(reader.getText()));
+                }
+                break;
+            case XMLStreamConstants.CDATA:
+                current.appendChild(doc.createCDATASection(reader.getText()));
+                break;
+            case XMLStreamConstants.COMMENT:
+                current.appendChild(doc.createComment(reader.getText()));
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                current.appendChild(doc.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+                break;
+            default:
+                break;
+            }
+            if (depth == 0) {
+                return root;
+            }
+            event = reader.next();
+        }
+    }
+
+    private static Element createElement(XMLStreamReader reader, Document doc) {
+        Element el = doc.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                                         getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            declareNamespace(el, reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            el.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                              getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                              reader.getAttributeValue(i));
+        }
+        return el;
+    }
+
+    /**
+     * Move to the next child element of the current element. Returns false if the end of the
+     * current element is reached instead. Child elements must be consumed up to their END_ELEMENT.
+     */
+    private static boolean nextElement(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            } else if (event == XMLStreamConstants.DTD) {
+                throw new XMLStreamException("DOCTYPE is not allowed");
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document");
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Read the trimmed text content of the current element (like DOMUtils.getContent)
+     */
+    private static String readContent(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder content = null;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+                if (content == null) {
+                    content = new StringBuilder();
+                }
+                content.append(reader.getText());
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                skipElement(reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return content == null ? null : content.toString().trim();
+            }
+        }
+    }
+
+    private static void addNamespaces(XMLStreamReader reader, Map<String, String> namespaces) {
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            String uri = reader.getNamespaceURI(i);
+            namespaces.put(prefix == null ? "" : prefix, uri == null ? "" : uri);
+        }
+    }
+
+    private static void declareNamespace(Element el, String prefix, String uri) {
+        if (prefix == null || prefix.isEmpty()) {
+            el.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE,
+                              uri == null ? "" : uri);
+        } else {
+            el.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                              XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, uri);
+        }
+    }
+
+    private static String getQualifiedName(String prefix, String localName) {
+        if (prefix == null || prefix.isEmpty()) {
+            return localName;
+        }
+        return prefix + ":" + localName;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static void close(XMLStreamReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                LOG.debug("Failed to close XMLStreamReader: " + e.getMessage());
+            }
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+}
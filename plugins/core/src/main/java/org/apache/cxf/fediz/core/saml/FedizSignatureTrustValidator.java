@@ -29,6 +29,7 @@ import java.util.Collection;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.cxf.fediz.core.cache.CertificateTrustCache;
 import org.apache.wss4j.common.crypto.Crypto;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.dom.handler.RequestData;
@@ -56,6 +57,11 @@ public class FedizSignatureTrustValidator implements Validator {
      */
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
     
+    /**
+     * Cache of successful certificate path validations
+     */
+    private CertificateTrustCache trustCache;
+    
     
     /**
      * Set the kind of trust. The default is CHAIN_TRUST.
@@ -75,6 +81,14 @@ public class FedizSignatureTrustValidator implements Validator {
         }
     }
     
+    /**
+     * Set the cache of successful certificate path validations. The certificate path
+     * is validated on every call if no cache is set.
+     */
+    public void setTrustCache(CertificateTrustCache trustCache) {
+        this.trustCache = trustCache;
+    }
+    
     /**
      * Validate the credential argument. It must contain either some Certificates or a PublicKey.
      * 
@@ -179,7 +193,14 @@ public class FedizSignatureTrustValidator implements Validator {
         // Use the validation method from the crypto to check whether the subjects' 
         // certificate was really signed by the issuer stated in the certificate
         //
+        if (trustCache != null && trustCache.isTrusted(certificates, crypto, enableRevocation)) {
+            LOG.debug("Certificate path has been verified before");
+            return;
+        }
         crypto.verifyTrust(certificates, enableRevocation, null);
+        if (trustCache != null) {
+            trustCache.setTrusted(certificates, crypto, enableRevocation);
+        }
         if (LOG.isDebugEnabled()) {
             String subjectString = certificates[0].getSubjectX500Principal().getName();
             LOG.debug(
@@ -20,13 +20,14 @@
 package org.apache.cxf.fediz.core.saml;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 import java.util.regex.Pattern;
 
 import org.w3c.dom.Element;
@@ -36,25 +37,32 @@ import org.apache.cxf.fediz.core.ClaimTypes;
 import org.apache.cxf.fediz.core.TokenValidator;
 import org.apache.cxf.fediz.core.TokenValidatorRequest;
 import org.apache.cxf.fediz.core.TokenValidatorResponse;
+import org.apache.cxf.fediz.core.cache.ValidatedTokenCache;
 import org.apache.cxf.fediz.core.config.CertificateValidationMethod;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.config.Protocol;
+import org.apache.cxf.fediz.core.config.TrustIndex;
 import org.apache.cxf.fediz.core.config.TrustManager;
 import org.apache.cxf.fediz.core.config.TrustedIssuer;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
 import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
 import org.apache.cxf.fediz.core.saml.FedizSignatureTrustValidator.TrustType;
+import org.apache.cxf.fediz.core.util.ClaimTypeUtils;
+import org.apache.cxf.fediz.core.util.DOMUtils;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.principal.SAMLTokenPrincipal;
 import org.apache.wss4j.common.principal.SAMLTokenPrincipalImpl;
+import org.apache.wss4j.common.saml.OpenSAMLUtil;
 import org.apache.wss4j.common.saml.SAMLKeyInfo;
 import org.apache.wss4j.common.saml.SamlAssertionWrapper;
+import org.apache.wss4j.common.util.DOM2Writer;
 import org.apache.wss4j.dom.WSConstants;
 import org.apache.wss4j.dom.WSDocInfo;
 import org.apache.wss4j.dom.WSSConfig;
 import org.apache.wss4j.dom.handler.RequestData;
 import org.apache.wss4j.dom.saml.WSSSAMLKeyInfoProcessor;
 import org.apache.wss4j.dom.validate.Credential;
+import org.apache.xml.security.utils.Base64;
 import org.joda.time.DateTime;
 import org.opensaml.core.xml.XMLObject;
 import org.opensaml.saml.common.SAMLVersion;
@@ -91,6 +99,19 @@ public class SAMLTokenValidator implements TokenValidator {
             FedizContext config) throws ProcessingException {
 
         Element token = request.getToken();
+        
+        // Check whether the same token has already been validated successfully
+        ValidatedTokenCache tokenCache = config.getValidatedTokenCache();
+        String cacheKey = tokenCache != null ? getCacheKey(token) : null;
+        byte[] contentDigest = cacheKey != null ? getContentDigest(request) : null;
+        if (cacheKey != null) {
+            TokenValidatorResponse cachedResponse = tokenCache.get(cacheKey, contentDigest);
+            if (cachedResponse != null) {
+                LOG.debug("Token '{}' already validated", cachedResponse.getUniqueTokenId());
+                return cachedResponse;
+            }
+        }
+        
         try {          
             RequestData requestData = new RequestData();
             WSSConfig wssConfig = WSSConfig.getNewInstance();
@@ -127,22 +148,23 @@ public class SAMLTokenValidator implements TokenValidator {
             trustCredential.setCertificates(samlKeyInfo.getCerts());
             trustCredential.setSamlAssertion(assertion);
 
-            SamlAssertionValidator trustValidator = new SamlAssertionValidator();
-            trustValidator.setFutureTTL(config.getMaximumClockSkew().intValue());
-            
             boolean trusted = false;
             String assertionIssuer = assertion.getIssuerString();
             
-            List<TrustedIssuer> trustedIssuers = config.getTrustedIssuers();
+            // Every trusted issuer which matches the signing certificate is tried with its own
+            // trust type, the index only defines the order of the issuers and certificate stores
+            TrustIndex trustIndex = config.getTrustIndex();
+            X509Certificate[] certs = samlKeyInfo.getCerts();
+            List<TrustedIssuer> trustedIssuers = trustIndex.getTrustedIssuers(certs);
             for (TrustedIssuer ti : trustedIssuers) {
-                Pattern subjectConstraint = ti.getCompiledSubject();
-                List<Pattern> subjectConstraints = new ArrayList<>(1);
-                if (subjectConstraint != null) {
-                    subjectConstraints.add(subjectConstraint);
-                }
-                
+                SamlAssertionValidator trustValidator = new SamlAssertionValidator();
+                trustValidator.setFutureTTL(config.getMaximumClockSkew().intValue());
+                trustValidator.setTrustCache(config.getCertificateTrustCache());
                 if (ti.getCertificateValidationMethod().equals(CertificateValidationMethod.CHAIN_TRUST)) {
-                    trustValidator.setSubjectConstraints(subjectConstraints);
+                    Pattern subjectConstraint = ti.getCompiledSubject();
+                    if (subjectConstraint != null) {
+                        trustValidator.setSubjectConstraints(Collections.singletonList(subjectConstraint));
+                    }
                     trustValidator.setSignatureTrustType(TrustType.CHAIN_TRUST_CONSTRAINTS);
                 } else if (ti.getCertificateValidationMethod().equals(CertificateValidationMethod.PEER_TRUST)) {
                     trustValidator.setSignatureTrustType(TrustType.PEER_TRUST);
@@ -150,28 +172,24 @@ public class SAMLTokenValidator implements TokenValidator {
                     throw new IllegalStateException("Unsupported certificate validation method: " 
                                                     + ti.getCertificateValidationMethod());
                 }
-                try {
-                    for (TrustManager tm: config.getCertificateStores()) {
-                        try {
-                            requestData.setSigVerCrypto(tm.getCrypto());
-                            trustValidator.validate(trustCredential, requestData);
-                            trusted = true;
-                            break;
-                        } catch (Exception ex) {
-                            LOG.debug("Issuer '{}' not validated in keystore '{}'",
-                                      ti.getName(), tm.getName());
-                        }
-                    }
-                    if (trusted) {
+                for (TrustManager tm: trustIndex.getCertificateStores(certs)) {
+                    try {
+                        requestData.setSigVerCrypto(tm.getCrypto());
+                        trustValidator.validate(trustCredential, requestData);
+                        trustIndex.setTrusted(certs, ti, tm);
+                        trusted = true;
                         break;
+                    } catch (Exception ex) {
+                        LOG.debug("Issuer '{}' not validated in keystore '{}'",
+                                  ti.getName(), tm.getName());
                     }
-                    
-                } catch (Exception ex) {
-                    if (LOG.isInfoEnabled()) {
-                        LOG.info("Issuer '" + assertionIssuer + "' doesn't match trusted issuer '" + ti.getName()
-                                 + "': " + ex.getMessage());
-                    }
                 }
+                if (trusted) {
+                    break;
+                }
+            }
+            if (trustedIssuers.isEmpty()) {
+                LOG.info("Issuer '{}' doesn't match any trusted issuer", assertionIssuer);
             }
             
             if (!trusted) {
@@ -213,6 +231,11 @@ public class SAMLTokenValidator implements TokenValidator {
             response.setExpires(getExpires(assertion));
             response.setCreated(getCreated(assertion));
             
+            // Holder-of-key assertions depend on the client certificate of the request
+            if (cacheKey != null && !isHolderOfKey(assertion)) {
+                tokenCache.put(cacheKey, contentDigest, response);
+            }
+            
             return response;
 
         } catch (WSSecurityException ex) {
@@ -221,11 +244,62 @@ public class SAMLTokenValidator implements TokenValidator {
         }
     }
     
+    /**
+     * Get the key of the token in the ValidatedTokenCache. The key consists of the
+     * assertion ID and the digest of the SignatureValue. Returns null if the token isn't signed.
+     */
+    protected String getCacheKey(Element token) {
+        String id = token.getAttributeNS(null, "ID");
+        if (id == null || id.isEmpty()) {
+            id = token.getAttributeNS(null, "AssertionID");
+        }
+        Element signature = 
+            DOMUtils.getFirstChildWithName(token, WSConstants.SIG_NS, WSConstants.SIG_LN);
+        if (id == null || id.isEmpty() || signature == null) {
+            return null;
+        }
+        Element signatureValue = 
+            DOMUtils.getFirstChildWithName(signature, WSConstants.SIG_NS, "SignatureValue");
+        String value = DOMUtils.getContent(signatureValue);
+        if (value == null) {
+            return null;
+        }
+        return id + "#" + Base64.encode(digest(value));
+    }
+    
+    /**
+     * Get the digest of the token content. The digest of the raw response is used if the
+     * processor provided it, otherwise the token is serialized.
+     */
+    protected byte[] getContentDigest(TokenValidatorRequest request) {
+        if (request.getContentDigest() != null) {
+            return request.getContentDigest();
+        }
+        return getContentDigest(request.getToken());
+    }
+    
+    protected byte[] getContentDigest(Element token) {
+        return digest(DOM2Writer.nodeToString(token));
+    }
+    
+    private static byte[] digest(String value) {
+        return ValidatedTokenCache.createDigest().digest(value.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static boolean isHolderOfKey(SamlAssertionWrapper assertion) {
+        for (String confirmationMethod : assertion.getConfirmationMethods()) {
+            if (OpenSAMLUtil.isMethodHolderOfKey(confirmationMethod)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     protected List<String> parseRoles(FedizContext config, List<Claim> claims) {
         List<String> roles = null;
         Protocol protocol = config.getProtocol();
         if (protocol.getRoleURI() != null) {
-            URI roleURI = URI.create(protocol.getRoleURI());
+            URI roleURI = ClaimTypeUtils.getClaimType(protocol.getRoleURI());
             String delim = protocol.getRoleDelimiter();
             for (Claim c : claims) {
                 if (roleURI.equals(c.getClaimType())) {
@@ -261,8 +335,8 @@ public class SAMLTokenValidator implements TokenValidator {
             LOG.debug("No attribute statements found");
             return Collections.emptyList();
         }
-        List<Claim> collection = new ArrayList<>();
-        Map<String, Claim> claimsMap = new HashMap<>();
+        // Claims by (interned) claim type in the order of the attributes
+        Map<URI, Claim> claimsMap = new LinkedHashMap<>();
 
         for (org.opensaml.saml.saml1.core.AttributeStatement statement : attributeStatements) {
             LOG.debug("parsing statement: {}", statement.getElementQName());
@@ -271,13 +345,10 @@ public class SAMLTokenValidator implements TokenValidator {
                     .getAttributes();
             for (org.opensaml.saml.saml1.core.Attribute attribute : attributes) {
                 LOG.debug("parsing attribute: {}", attribute.getAttributeName());
-                Claim c = new Claim();
-                c.setIssuer(assertion.getIssuer());
+                URI claimType = ClaimTypeUtils.getClaimType(attribute.getAttributeName());
                 if (attribute.getAttributeNamespace() != null) {
-                    URI attrName = URI.create(attribute.getAttributeName());
-                    if (attrName.isAbsolute()) {
+                    if (claimType.isAbsolute()) {
                         // Workaround for CXF-4484
-                        c.setClaimType(attrName);
                         if (attribute.getAttributeName().startsWith(attribute.getAttributeNamespace())) {
                             LOG.info("AttributeName fully qualified '" + attribute.getAttributeName()
                                      + "' but does match with AttributeNamespace '"
@@ -288,29 +359,23 @@ public class SAMLTokenValidator implements TokenValidator {
                                      + attribute.getAttributeNamespace() + "'");
                         }
                     } else {
-                        if (attribute.getAttributeNamespace().endsWith("/")) {
-                            c.setClaimType(URI.create(attribute.getAttributeNamespace()
-                                                      + attribute.getAttributeName()));
-                        } else {
-                            c.setClaimType(URI.create(attribute.getAttributeNamespace()
-                                                      + "/" + attribute.getAttributeName()));
-                        }
+                        claimType = ClaimTypeUtils.getClaimType(attribute.getAttributeNamespace(),
+                                                                attribute.getAttributeName());
                     }
-                } else {
-                    c.setClaimType(URI.create(attribute.getAttributeName()));
                 }
-                List<String> valueList = new ArrayList<>();
-                for (XMLObject attributeValue : attribute.getAttributeValues()) {
-                    Element attributeValueElement = attributeValue.getDOM();
-                    String value = attributeValueElement.getTextContent();
-                    LOG.debug(" [{}]", value);
-                    valueList.add(value);
+                Claim c = claimsMap.get(claimType);
+                if (c == null) {
+                    c = new Claim();
+                    c.setClaimType(claimType);
+                    c.setIssuer(assertion.getIssuer());
+                    c.setValue(getAttributeValues(attribute.getAttributeValues()));
+                    claimsMap.put(claimType, c);
+                } else {
+                    addAttributeValues(c, attribute.getAttributeValues());
                 }
-                mergeClaimToMap(claimsMap, c, valueList);
             }
         }
-        collection.addAll(claimsMap.values());
-        return collection;
+        return new ArrayList<>(claimsMap.values());
     }
 
 
@@ -324,46 +389,91 @@ public class SAMLTokenValidator implements TokenValidator {
             return Collections.emptyList();
         }
 
-        List<Claim> collection = new ArrayList<>();
-        Map<String, Claim> claimsMap = new HashMap<>();
+        // Claims by (interned) claim type in the order of the attributes
+        Map<URI, Claim> claimsMap = new LinkedHashMap<>();
+        String issuer = assertion.getIssuer().getNameQualifier();
+        String uriBase = ClaimTypes.URI_BASE.toString();
 
         for (org.opensaml.saml.saml2.core.AttributeStatement statement : attributeStatements) {
             LOG.debug("parsing statement: {}", statement.getElementQName());
             List<org.opensaml.saml.saml2.core.Attribute> attributes = statement
                     .getAttributes();
             for (org.opensaml.saml.saml2.core.Attribute attribute : attributes) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("parsing attribute: " + attribute.getName());
-                }
-                Claim c = new Claim();
+                LOG.debug("parsing attribute: {}", attribute.getName());
                 // Workaround for CXF-4484 
                 // Value of Attribute Name not fully qualified
                 // if NameFormat is http://schemas.xmlsoap.org/ws/2005/05/identity/claims
                 // but ClaimType value must be fully qualified as Namespace attribute goes away
-                URI attrName = URI.create(attribute.getName());
-                if (ClaimTypes.URI_BASE.toString().equals(attribute.getNameFormat())
-                    && !attrName.isAbsolute()) {
-                    c.setClaimType(URI.create(ClaimTypes.URI_BASE + "/" + attribute.getName()));
-                } else {
-                    c.setClaimType(URI.create(attribute.getName()));
+                URI claimType = ClaimTypeUtils.getClaimType(attribute.getName());
+                if (uriBase.equals(attribute.getNameFormat()) && !claimType.isAbsolute()) {
+                    claimType = ClaimTypeUtils.getClaimType(uriBase, attribute.getName());
                 }
-                c.setIssuer(assertion.getIssuer().getNameQualifier());
-                
-                List<String> valueList = new ArrayList<>();
-                for (XMLObject attributeValue : attribute.getAttributeValues()) {
-                    Element attributeValueElement = attributeValue.getDOM();
-                    String value = attributeValueElement.getTextContent();
-                    LOG.debug(" [{}]", value);
-                    valueList.add(value);
+                Claim c = claimsMap.get(claimType);
+                if (c == null) {
+                    c = new Claim();
+                    c.setClaimType(claimType);
+                    c.setIssuer(issuer);
+                    c.setValue(getAttributeValues(attribute.getAttributeValues()));
+                    claimsMap.put(claimType, c);
+                } else {
+                    addAttributeValues(c, attribute.getAttributeValues());
                 }
-                mergeClaimToMap(claimsMap, c, valueList);
             }
         }
-        collection.addAll(claimsMap.values());
-        return collection;
+        return new ArrayList<>(claimsMap.values());
 
     }
 
+    /**
+     * Return the value of an attribute with a single value, otherwise the list of values.
+     */
+    private static Object getAttributeValues(List<XMLObject> attributeValues) {
+        if (attributeValues.size() == 1) {
+            return getAttributeValue(attributeValues.get(0));
+        }
+        List<String> values = new ArrayList<>(attributeValues.size());
+        for (XMLObject attributeValue : attributeValues) {
+            values.add(getAttributeValue(attributeValue));
+        }
+        return values;
+    }
+
+    /**
+     * Add the values of an attribute to the claim of an attribute with the same name processed
+     * before.
+     */
+    private static void addAttributeValues(Claim claim, List<XMLObject> attributeValues) {
+        Object oValue = claim.getValue();
+        List<String> values;
+        if (oValue instanceof String) {
+            //one child element AttributeValue only
+            values = new ArrayList<>(attributeValues.size() + 1);
+            values.add((String)oValue);
+            claim.setValue(values);
+        } else if (oValue instanceof List<?>) {
+            //more than one child element AttributeValue
+            @SuppressWarnings("unchecked")
+            List<String> existing = (List<String>)oValue;
+            values = existing;
+        } else {
+            LOG.error("Unsupported value type of Claim value");
+            throw new IllegalStateException("Unsupported value type of Claim value");
+        }
+        for (XMLObject attributeValue : attributeValues) {
+            values.add(getAttributeValue(attributeValue));
+        }
+    }
+
+    private static String getAttributeValue(XMLObject attributeValue) {
+        String value = attributeValue.getDOM().getTextContent();
+        LOG.debug(" [{}]", value);
+        return value;
+    }
+
+    /**
+     * @deprecated claims are merged by claim type while the attributes are parsed
+     */
+    @Deprecated
     protected void mergeClaimToMap(Map<String, Claim> claimsMap, Claim c,
             List<String> valueList) {
         Claim t = claimsMap.get(c.getClaimType().toString());
@@ -397,12 +507,24 @@ public class SAMLTokenValidator implements TokenValidator {
         }
     }
     
+    /**
+     * Split the value at any of the delimiter characters, empty roles are skipped.
+     */
     protected List<String> parseRoles(String value, String delim) {
         List<String> roles = new ArrayList<>();
-        StringTokenizer st = new StringTokenizer(value, delim);
-        while (st.hasMoreTokens()) {
-            String role = st.nextToken();
-            roles.add(role);
+        int start = -1;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            boolean delimiter = delim.length() == 1 ? c == delim.charAt(0) : delim.indexOf(c) >= 0;
+            if (delimiter && start >= 0) {
+                roles.add(value.substring(start, i));
+                start = -1;
+            } else if (!delimiter && start < 0) {
+                start = i;
+            }
+        }
+        if (start >= 0) {
+            roles.add(value.substring(start));
         }
         return roles;
     }
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.regex.Pattern;
 
+import org.apache.cxf.fediz.core.cache.CertificateTrustCache;
 import org.apache.cxf.fediz.core.saml.FedizSignatureTrustValidator.TrustType;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.apache.wss4j.common.saml.SAMLKeyInfo;
@@ -44,6 +45,8 @@ public class SamlAssertionValidator extends org.apache.wss4j.dom.validate.SamlAs
      */
     private Collection<Pattern> subjectDNPatterns = new ArrayList<>();
     
+    private CertificateTrustCache trustCache;
+    
     /**
      * Set a list of Strings corresponding to regular expression constraints on
      * the subject DN of a certificate
@@ -62,6 +65,13 @@ public class SamlAssertionValidator extends org.apache.wss4j.dom.validate.SamlAs
         this.signatureTrustType = trustType;
     }
 
+    /**
+     * Set the cache of successful certificate path validations.
+     */
+    public void setTrustCache(CertificateTrustCache trustCache) {
+        this.trustCache = trustCache;
+    }
+
     /**
      * Verify trust in the signature of a signed Assertion. This method is separate so that
      * the user can override if if they want.
@@ -83,6 +93,7 @@ public class SamlAssertionValidator extends org.apache.wss4j.dom.validate.SamlAs
         FedizSignatureTrustValidator trustValidator = new FedizSignatureTrustValidator();
         trustValidator.setSignatureTrustType(signatureTrustType);
         trustValidator.setSubjectConstraints(subjectDNPatterns);
+        trustValidator.setTrustCache(trustCache);
         
         return trustValidator.validate(credential, data);
     }
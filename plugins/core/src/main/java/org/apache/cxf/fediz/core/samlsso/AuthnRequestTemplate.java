@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.samlsso;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.wss4j.common.ext.WSSecurityException;
+import org.apache.wss4j.common.saml.OpenSAMLUtil;
+import org.apache.wss4j.common.util.DOM2Writer;
+import org.apache.xml.security.utils.Base64;
+import org.joda.time.DateTime;
+import org.opensaml.saml.config.SAMLConfigurationSupport;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+
+/**
+ * A serialized AuthnRequest in which only the ID, the IssueInstant and the
+ * AssertionConsumerServiceURL are substituted for each request. The AuthnRequest is
+ * marshalled once when the template is created, creating a request is then a matter of
+ * concatenating bytes and deflating them.
+ */
+public class AuthnRequestTemplate {
+
+    private static final int ID = 0;
+    private static final int ISSUE_INSTANT = 1;
+    private static final int ASSERTION_CONSUMER_SERVICE_URL = 2;
+    private static final String[] ATTRIBUTES = {"ID", "IssueInstant", "AssertionConsumerServiceURL"};
+
+    private final byte[][] segments;
+    private final int[] variables;
+    private final int size;
+
+    /**
+     * Create a template of the given AuthnRequest, its ID, IssueInstant and
+     * AssertionConsumerServiceURL are ignored.
+     */
+    public AuthnRequestTemplate(AuthnRequest authnRequest) throws WSSecurityException {
+        Document doc = DOMUtils.createDocument();
+        doc.appendChild(doc.createElement("root"));
+        Element element = OpenSAMLUtil.toDom(authnRequest, doc);
+
+        // Replace the attributes by unique placeholders and split the request around them
+        String[] placeholders = new String[ATTRIBUTES.length];
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            placeholders[i] = UUID.randomUUID().toString();
+            element.setAttributeNS(null, ATTRIBUTES[i], placeholders[i]);
+        }
+        String request = DOM2Writer.nodeToString(element);
+
+        int[] positions = new int[ATTRIBUTES.length];
+        for (int i = 0; i < ATTRIBUTES.length; i++) {
+            positions[i] = request.indexOf(placeholders[i]);
+            if (positions[i] == -1) {
+                throw new IllegalStateException("Missing attribute " + ATTRIBUTES[i]);
+            }
+        }
+        variables = new int[ATTRIBUTES.length];
+        int[] sorted = positions.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            for (int j = 0; j < positions.length; j++) {
+                if (positions[j] == sorted[i]) {
+                    variables[i] = j;
+                }
+            }
+        }
+
+        segments = new byte[ATTRIBUTES.length + 1][];
+        int start = 0;
+        int length = 0;
+        for (int i = 0; i < variables.length; i++) {
+            segments[i] = request.substring(start, sorted[i]).getBytes(StandardCharsets.UTF_8);
+            length += segments[i].length;
+            start = sorted[i] + placeholders[variables[i]].length();
+        }
+        segments[ATTRIBUTES.length] = request.substring(start).getBytes(StandardCharsets.UTF_8);
+        size = length + segments[ATTRIBUTES.length].length;
+    }
+
+    /**
+     * Create the AuthnRequest with the given ID for the given AssertionConsumerServiceURL, issued now.
+     */
+    public byte[] createRequest(String id, String assertionConsumerServiceURL) {
+        return createRequest(id, new DateTime(), assertionConsumerServiceURL);
+    }
+
+    public byte[] createRequest(String id, DateTime issueInstant, String assertionConsumerServiceURL) {
+        String[] values = new String[ATTRIBUTES.length];
+        values[ID] = escape(id);
+        values[ISSUE_INSTANT] = SAMLConfigurationSupport.getSAMLDateFormatter().print(issueInstant);
+        values[ASSERTION_CONSUMER_SERVICE_URL] = escape(assertionConsumerServiceURL);
+
+        byte[][] valueBytes = new byte[values.length][];
+        int length = size;
+        for (int i = 0; i < values.length; i++) {
+            valueBytes[i] = values[variables[i]].getBytes(StandardCharsets.UTF_8);
+            length += valueBytes[i].length;
+        }
+        byte[] request = new byte[length];
+        int position = 0;
+        for (int i = 0; i < valueBytes.length; i++) {
+            System.arraycopy(segments[i], 0, request, position, segments[i].length);
+            position += segments[i].length;
+            System.arraycopy(valueBytes[i], 0, request, position, valueBytes[i].length);
+            position += valueBytes[i].length;
+        }
+        System.arraycopy(segments[valueBytes.length], 0, request, position, segments[valueBytes.length].length);
+        return request;
+    }
+
+    /**
+     * Create the AuthnRequest and return it deflated and Base64 encoded, as it is sent to the IdP.
+     */
+    public String encodeRequest(String id, String assertionConsumerServiceURL) {
+        byte[] request = createRequest(id, assertionConsumerServiceURL);
+        return Base64.encode(CompressionUtils.deflate(request));
+    }
+
+    private static String escape(String value) {
+        StringBuilder sb = null;
+        for (int i = 0; i < value.length(); i++) {
+            String replacement = null;
+            switch (value.charAt(i)) {
+            case '&':
+                replacement = "&amp;";
+                break;
+            case '<':
+                replacement = "&lt;";
+                break;
+            case '>':
+                replacement = "&gt;";
+                break;
+            case '"':
+                replacement = "&quot;";
+                break;
+            default:
+                break;
+            }
+            if (replacement != null && sb == null) {
+                sb = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            if (replacement != null) {
+                sb.append(replacement);
+            } else if (sb != null) {
+                sb.append(value.charAt(i));
+            }
+        }
+        return sb == null ? value : sb.toString();
+    }
+
+}
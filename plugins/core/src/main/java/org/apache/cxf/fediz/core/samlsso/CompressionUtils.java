@@ -19,70 +19,189 @@
 package org.apache.cxf.fediz.core.samlsso;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
+/**
+ * Deflates and inflates (raw deflate) SAML messages. The Deflaters and Inflaters are taken from
+ * a small pool and explicitly released, rather than holding native memory until they are
+ * finalized. Tokens are inflated while they are read, and reading fails once the inflated size
+ * exceeds the maximum inflation ratio, to protect against decompression bombs.
+ */
 public final class CompressionUtils {
+    
+    /**
+     * The default maximum ratio of the inflated size to the deflated size of a token
+     */
+    public static final int DEFAULT_MAX_INFLATION_RATIO = 100;
+    
+    /**
+     * Tokens up to this size may be inflated regardless of their inflation ratio
+     */
+    public static final int MIN_INFLATION_LIMIT = 64 * 1024;
+    
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+    private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    
     private CompressionUtils() {
         
     }
+    
+    /**
+     * Return a stream of the inflated token. Invalid data is reported when the stream is read.
+     */
     public static InputStream inflate(byte[] deflatedToken) 
         throws DataFormatException {
         return inflate(deflatedToken, true);
     }
+    
     public static InputStream inflate(byte[] deflatedToken, boolean nowrap) 
         throws DataFormatException {
-        Inflater inflater = new Inflater(nowrap);
-        inflater.setInput(deflatedToken);
-        
-        byte[] input = new byte[deflatedToken.length * 2];
-        int inflatedLen = 0;
-        int inputLen = 0;
-        byte[] inflatedToken = input;
-        while (!inflater.finished()) {
-            inputLen = inflater.inflate(input);
-            if (!inflater.finished()) {
-                
-                if (inputLen == 0) {
-                    if (inflater.needsInput()) {
-                        throw new DataFormatException("Inflater can not inflate all the token bytes");
-                    } else {
-                        break;
-                    }
+        return inflate(new ByteArrayInputStream(deflatedToken), nowrap, DEFAULT_MAX_INFLATION_RATIO);
+    }
+    
+    /**
+     * Inflate the (raw deflate) token while it is read from the returned stream, the Inflater
+     * is released when the stream is closed.
+     */
+    public static InputStream inflate(InputStream deflatedToken) {
+        return inflate(deflatedToken, true, DEFAULT_MAX_INFLATION_RATIO);
+    }
+    
+    /**
+     * Inflate the token while it is read from the returned stream. Reading fails with an
+     * IOException once more than MIN_INFLATION_LIMIT bytes have been inflated at a ratio above
+     * maxInflationRatio, a value less than 1 disables the check. The Inflater is released when
+     * the stream is closed.
+     */
+    public static InputStream inflate(InputStream deflatedToken, boolean nowrap, int maxInflationRatio) {
+        Inflater inflater = nowrap ? acquireInflater() : new Inflater(false);
+        return new BoundedInflaterInputStream(deflatedToken, inflater, nowrap, maxInflationRatio);
+    }
+    
+    public static byte[] deflate(byte[] tokenBytes) {
+        return deflate(tokenBytes, true);
+    }
+    
+    public static byte[] deflate(byte[] tokenBytes, boolean nowrap) {
+        return deflate(tokenBytes, 0, tokenBytes.length, nowrap);
+    }
+    
+    /**
+     * Deflate a part of the given array.
+     */
+    public static byte[] deflate(byte[] tokenBytes, int offset, int length, boolean nowrap) {
+        Deflater compresser = nowrap ? acquireDeflater() : new Deflater(Deflater.DEFAULT_COMPRESSION, false);
+        try {
+            compresser.setInput(tokenBytes, offset, length);
+            compresser.finish();
+            
+            byte[] output = new byte[length / 2 + 64];
+            int compressedDataLength = 0;
+            while (!compresser.finished()) {
+                if (compressedDataLength == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
                 }
-                
-                inflatedToken = new byte[input.length + inflatedLen];
-                System.arraycopy(input, 0, inflatedToken, inflatedLen, inputLen);
-                inflatedLen += inputLen;
+                compressedDataLength += 
+                    compresser.deflate(output, compressedDataLength, output.length - compressedDataLength);
+            }
+            return Arrays.copyOf(output, compressedDataLength);
+        } finally {
+            if (nowrap) {
+                release(compresser);
+            } else {
+                compresser.end();
             }
         }
-        InputStream is = new ByteArrayInputStream(input, 0, inputLen);
-        if (inflatedToken != input) {
-            is = new SequenceInputStream(new ByteArrayInputStream(inflatedToken, 0, inflatedLen),
-                                         is);
+    }
+    
+    /**
+     * Return a raw deflate (nowrap) Deflater with the default compression level, which must be
+     * given back with release(Deflater).
+     */
+    public static Deflater acquireDeflater() {
+        Deflater deflater = DEFLATERS.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+    
+    /**
+     * Reset the Deflater and return it to the pool, or end it if the pool is full. The Deflater
+     * must not be used afterwards.
+     */
+    public static void release(Deflater deflater) {
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater)) {
+            deflater.end();
         }
-        return is;
     }
     
-    public static byte[] deflate(byte[] tokenBytes) {
-        return deflate(tokenBytes, true);
+    /**
+     * Return a raw deflate (nowrap) Inflater, which must be given back with release(Inflater).
+     */
+    public static Inflater acquireInflater() {
+        Inflater inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater(true);
     }
     
-    public static byte[] deflate(byte[] tokenBytes, boolean nowrap) {
-        Deflater compresser = new Deflater(Deflater.DEFLATED, nowrap);
-        
-        compresser.setInput(tokenBytes);
-        compresser.finish();
+    /**
+     * Reset the Inflater and return it to the pool, or end it if the pool is full. The Inflater
+     * must not be used afterwards.
+     */
+    public static void release(Inflater inflater) {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) {
+            inflater.end();
+        }
+    }
+    
+    private static final class BoundedInflaterInputStream extends InflaterInputStream {
+        private final Inflater inflater;
+        private final boolean pooled;
+        private final int maxInflationRatio;
+        private boolean closed;
         
-        byte[] output = new byte[tokenBytes.length * 2];
+        BoundedInflaterInputStream(InputStream in, Inflater inflater, boolean pooled, int maxInflationRatio) {
+            super(in, inflater);
+            this.inflater = inflater;
+            this.pooled = pooled;
+            this.maxInflationRatio = maxInflationRatio;
+        }
         
-        int compressedDataLength = compresser.deflate(output);
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            long inflated = inflater.getBytesWritten();
+            if (maxInflationRatio > 0 && inflated > MIN_INFLATION_LIMIT
+                && inflated > maxInflationRatio * Math.max(1L, inflater.getBytesRead())) {
+                throw new IOException("The inflated token exceeds the maximum inflation ratio of " 
+                                      + maxInflationRatio);
+            }
+            return count;
+        }
         
-        byte[] result = new byte[compressedDataLength];
-        System.arraycopy(output, 0, result, 0, compressedDataLength);
-        return result;
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                if (pooled) {
+                    release(inflater);
+                } else {
+                    inflater.end();
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.samlsso;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.xml.security.utils.Base64;
+
+/**
+ * Signs requests according to the redirect binding spec for Web SSO. The signature algorithm is
+ * detected once from the private key, and the Signature engines (initialized with the key) are
+ * reused, so that signing does not access the keystore.
+ */
+public class RedirectBindingSigner {
+
+    private static final int POOL_SIZE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final PrivateKey privateKey;
+    private final String signatureAlgorithm;
+    private final String jceSignatureAlgorithm;
+    private final String encodedSignatureAlgorithm;
+    private final BlockingQueue<Signature> engines = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    public RedirectBindingSigner(PrivateKey privateKey) {
+        this.privateKey = privateKey;
+        if ("DSA".equalsIgnoreCase(privateKey.getAlgorithm())) {
+            signatureAlgorithm = WSConstants.DSA;
+            jceSignatureAlgorithm = "SHA1withDSA";
+        } else {
+            signatureAlgorithm = WSConstants.RSA_SHA1;
+            jceSignatureAlgorithm = "SHA1withRSA";
+        }
+        try {
+            encodedSignatureAlgorithm = URLEncoder.encode(signatureAlgorithm, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Return the URI of the signature algorithm (the SigAlg parameter)
+     */
+    public String getSignatureAlgorithm() {
+        return signatureAlgorithm;
+    }
+
+    /**
+     * Return the URL-encoded URI of the signature algorithm
+     */
+    public String getEncodedSignatureAlgorithm() {
+        return encodedSignatureAlgorithm;
+    }
+
+    /**
+     * Sign the (URL-encoded) query string and return the Base64 encoded signature.
+     */
+    public String sign(String requestToSign) throws GeneralSecurityException {
+        Signature signature = engines.poll();
+        if (signature == null) {
+            signature = Signature.getInstance(jceSignatureAlgorithm);
+            signature.initSign(privateKey);
+        }
+        signature.update(requestToSign.getBytes(StandardCharsets.UTF_8));
+        // sign() resets the engine to its initialized state, so it can be used again
+        byte[] signBytes = signature.sign();
+        engines.offer(signature);
+        return Base64.encode(signBytes);
+    }
+
+}
@@ -18,13 +18,14 @@
  */
 package org.apache.cxf.fediz.core.samlsso;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
 import java.util.regex.Pattern;
 
 import org.w3c.dom.Document;
 import org.apache.cxf.fediz.core.config.CertificateValidationMethod;
 import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.TrustIndex;
 import org.apache.cxf.fediz.core.config.TrustManager;
 import org.apache.cxf.fediz.core.config.TrustedIssuer;
 import org.apache.cxf.fediz.core.saml.FedizSignatureTrustValidator;
@@ -188,20 +189,20 @@ public class SAMLProtocolResponseValidator {
         trustCredential.setPublicKey(samlKeyInfo.getPublicKey());
         trustCredential.setCertificates(samlKeyInfo.getCerts());
 
-        FedizSignatureTrustValidator trustValidator = new FedizSignatureTrustValidator();
-        
         boolean trusted = false;
         
-        List<TrustedIssuer> trustedIssuers = config.getTrustedIssuers();
-        for (TrustedIssuer ti : trustedIssuers) {
-            Pattern subjectConstraint = ti.getCompiledSubject();
-            List<Pattern> subjectConstraints = new ArrayList<>(1);
-            if (subjectConstraint != null) {
-                subjectConstraints.add(subjectConstraint);
-            }
-            
+        // Every trusted issuer which matches the signing certificate is tried with its own
+        // trust type, the index only defines the order of the issuers and certificate stores
+        TrustIndex trustIndex = config.getTrustIndex();
+        X509Certificate[] certs = samlKeyInfo.getCerts();
+        for (TrustedIssuer ti : trustIndex.getTrustedIssuers(certs)) {
+            FedizSignatureTrustValidator trustValidator = new FedizSignatureTrustValidator();
+            trustValidator.setTrustCache(config.getCertificateTrustCache());
             if (ti.getCertificateValidationMethod().equals(CertificateValidationMethod.CHAIN_TRUST)) {
-                trustValidator.setSubjectConstraints(subjectConstraints);
+                Pattern subjectConstraint = ti.getCompiledSubject();
+                if (subjectConstraint != null) {
+                    trustValidator.setSubjectConstraints(Collections.singletonList(subjectConstraint));
+                }
                 trustValidator.setSignatureTrustType(TrustType.CHAIN_TRUST_CONSTRAINTS);
             } else if (ti.getCertificateValidationMethod().equals(CertificateValidationMethod.PEER_TRUST)) {
                 trustValidator.setSignatureTrustType(TrustType.PEER_TRUST);
@@ -209,25 +210,20 @@ public class SAMLProtocolResponseValidator {
                 throw new IllegalStateException("Unsupported certificate validation method: " 
                                                 + ti.getCertificateValidationMethod());
             }
-            try {
-                for (TrustManager tm: config.getCertificateStores()) {
-                    try {
-                        requestData.setSigVerCrypto(tm.getCrypto());
-                        trustValidator.validate(trustCredential, requestData);
-                        trusted = true;
-                        break;
-                    } catch (Exception ex) {
-                        LOG.debug("Issuer '{}' not validated in keystore '{}'",
-                                  ti.getName(), tm.getName());
-                    }
-                }
-                if (trusted) {
+            for (TrustManager tm: trustIndex.getCertificateStores(certs)) {
+                try {
+                    requestData.setSigVerCrypto(tm.getCrypto());
+                    trustValidator.validate(trustCredential, requestData);
+                    trustIndex.setTrusted(certs, ti, tm);
+                    trusted = true;
                     break;
+                } catch (Exception ex) {
+                    LOG.debug("Issuer '{}' not validated in keystore '{}'",
+                              ti.getName(), tm.getName());
                 }
-                
-            } catch (Exception ex) {
-                LOG.info("Error in validating signature on SAML Response: " + ex.getMessage(), ex);
-                throw new WSSecurityException(WSSecurityException.ErrorCode.FAILURE, "invalidSAMLsecurity");
+            }
+            if (trusted) {
+                break;
             }
         }
         
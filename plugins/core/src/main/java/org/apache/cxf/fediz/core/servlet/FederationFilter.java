@@ -30,7 +30,6 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 
-import org.w3c.dom.Element;
 import org.apache.cxf.fediz.core.FedizPrincipal;
 import org.apache.cxf.fediz.core.SecurityTokenThreadLocal;
 
@@ -52,14 +51,13 @@ public class FederationFilter implements Filter {
         if (request instanceof HttpServletRequest) {
             HttpServletRequest hrequest = (HttpServletRequest)request;
             Principal p = hrequest.getUserPrincipal();
-            FedizPrincipal fedPrinc = (FedizPrincipal)p;
-            if (fedPrinc != null && fedPrinc.getLoginToken() != null) {
-                Element el = (Element)fedPrinc.getLoginToken();
+            if (p instanceof FedizPrincipal) {
+                // The login token is only resolved if the application asks for it
                 try {
-                    SecurityTokenThreadLocal.setToken(el);
+                    SecurityTokenThreadLocal.setPrincipal((FedizPrincipal)p);
                     chain.doFilter(request, response);
                 } finally {
-                    SecurityTokenThreadLocal.setToken(null);
+                    SecurityTokenThreadLocal.setPrincipal(null);
                 }
             } else {
                 chain.doFilter(request, response);
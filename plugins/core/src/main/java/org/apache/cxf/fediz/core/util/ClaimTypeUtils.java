@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.util;
+
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cxf.fediz.core.ClaimTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Intern table of claim type URIs. The URI of a claim type is only parsed the first time it is
+ * seen, afterwards the same instance is returned. The table is seeded with the constants of
+ * {@link ClaimTypes} and bounded, claim types beyond the limit are parsed on each call.
+ */
+public final class ClaimTypeUtils {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClaimTypeUtils.class);
+
+    private static final int MAX_CLAIM_TYPES = 4096;
+    private static final int MAX_NAMESPACES = 64;
+
+    private static final ConcurrentMap<String, URI> CLAIM_TYPES = new ConcurrentHashMap<>();
+
+    // Claim types by namespace and (unqualified) name
+    private static final ConcurrentMap<String, ConcurrentMap<String, URI>> QUALIFIED_CLAIM_TYPES =
+        new ConcurrentHashMap<>();
+
+    static {
+        String base = ClaimTypes.URI_BASE.toString();
+        ConcurrentMap<String, URI> baseNames = new ConcurrentHashMap<>();
+        for (Field field : ClaimTypes.class.getFields()) {
+            if (URI.class.equals(field.getType())) {
+                try {
+                    URI claimType = (URI)field.get(null);
+                    CLAIM_TYPES.put(claimType.toString(), claimType);
+                    if (claimType.toString().startsWith(base + "/")) {
+                        baseNames.put(claimType.toString().substring(base.length() + 1), claimType);
+                    }
+                } catch (IllegalAccessException e) {
+                    LOG.debug("Failed to read claim type {}", field.getName());
+                }
+            }
+        }
+        QUALIFIED_CLAIM_TYPES.put(base, baseNames);
+    }
+
+    private ClaimTypeUtils() {
+        super();
+    }
+
+    /**
+     * Return the (interned) URI of the given claim type.
+     */
+    public static URI getClaimType(String claimType) {
+        URI uri = CLAIM_TYPES.get(claimType);
+        if (uri == null) {
+            uri = URI.create(claimType);
+            if (CLAIM_TYPES.size() < MAX_CLAIM_TYPES) {
+                URI existing = CLAIM_TYPES.putIfAbsent(claimType, uri);
+                if (existing != null) {
+                    uri = existing;
+                }
+            }
+        }
+        return uri;
+    }
+
+    /**
+     * Return the (interned) URI of the claim type qualified with the given namespace, i.e.
+     * namespace + "/" + name. The separator is omitted if the namespace ends with a slash.
+     */
+    public static URI getClaimType(String namespace, String name) {
+        ConcurrentMap<String, URI> names = QUALIFIED_CLAIM_TYPES.get(namespace);
+        if (names != null) {
+            URI uri = names.get(name);
+            if (uri != null) {
+                return uri;
+            }
+        }
+        URI uri = namespace.endsWith("/")
+            ? getClaimType(namespace + name) : getClaimType(namespace + "/" + name);
+        if (names == null && QUALIFIED_CLAIM_TYPES.size() < MAX_NAMESPACES) {
+            names = new ConcurrentHashMap<>();
+            ConcurrentMap<String, URI> existing = QUALIFIED_CLAIM_TYPES.putIfAbsent(namespace, names);
+            if (existing != null) {
+                names = existing;
+            }
+        }
+        if (names != null && names.size() < MAX_CLAIM_TYPES) {
+            names.putIfAbsent(name, uri);
+        }
+        return uri;
+    }
+
+}
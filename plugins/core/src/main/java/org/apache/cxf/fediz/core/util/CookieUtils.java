@@ -29,6 +29,18 @@ import java.util.TimeZone;
  */
 public final class CookieUtils  {
     
+    private static final ThreadLocal<SimpleDateFormat> HTTP_DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return getHttpDateFormat();
+        }
+    };
+    
+    /**
+     * The most recently formatted date, which is reused for all times within the same second
+     */
+    private static volatile FormattedDate lastFormattedDate = new FormattedDate(Long.MIN_VALUE, null);
+    
     private CookieUtils() {
         // complete
     }
@@ -39,32 +51,35 @@ public final class CookieUtils  {
                                   String domain,
                                   long stateTimeToLive) { 
         
-        String contextCookie = name + "=" + value;
+        StringBuilder contextCookie = new StringBuilder(128).append(name).append('=').append(value);
         // Setting a specific path restricts the browsers
         // to return a cookie only to the web applications
         // listening on that specific context path
         if (path != null) {
-            contextCookie += ";Path=" + path;
+            contextCookie.append(";Path=").append(path);
         }
         
         // Setting a specific domain further restricts the browsers
         // to return a cookie only to the web applications
         // listening on the specific context path within a particular domain
         if (domain != null) {
-            contextCookie += ";Domain=" + domain;
+            contextCookie.append(";Domain=").append(domain);
         }
         
         // Keep the cookie across the browser restarts until it actually expires.
         // Note that the Expires property has been deprecated but apparently is 
         // supported better than 'max-age' property by different browsers 
         // (Firefox, IE, etc)
-        Date expiresDate = new Date(System.currentTimeMillis() + stateTimeToLive);
-        String cookieExpires = getHttpDateFormat().format(expiresDate);
-        contextCookie += ";Expires=" + cookieExpires;
+        String cookieExpires = formatHttpDate(System.currentTimeMillis() + stateTimeToLive);
+        contextCookie.append(";Expires=").append(cookieExpires);
         
-        return contextCookie;
+        return contextCookie.toString();
     }
     
+    /**
+     * Return a new (RFC 1123) HTTP date format. Use formatHttpDate(long) to format dates without
+     * creating a new format each time.
+     */
     public static SimpleDateFormat getHttpDateFormat() {
         SimpleDateFormat dateFormat =
             new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
@@ -73,17 +88,42 @@ public final class CookieUtils  {
         return dateFormat;
     }
     
+    /**
+     * Format the given time (in milliseconds) as HTTP date. The formatted date is reused for
+     * all times within the same second.
+     */
+    public static String formatHttpDate(long time) {
+        long second = time / 1000L;
+        FormattedDate formattedDate = lastFormattedDate;
+        if (formattedDate.second != second) {
+            String value = HTTP_DATE_FORMAT.get().format(new Date(time));
+            formattedDate = new FormattedDate(second, value);
+            lastFormattedDate = formattedDate;
+        }
+        return formattedDate.value;
+    }
+    
     public static boolean isStateExpired(long stateCreatedAt, long expiresAt, long stateTTL) {
-        Date currentTime = new Date();
-        if (currentTime.after(new Date(stateCreatedAt + stateTTL))) {
+        long currentTime = System.currentTimeMillis();
+        if (currentTime > stateCreatedAt + stateTTL) {
             return true;
         }
         
-        if (expiresAt > 0 && currentTime.after(new Date(expiresAt))) {
+        if (expiresAt > 0 && currentTime > expiresAt) {
             return true;
         }
         
         return false;
     }
     
+    private static final class FormattedDate {
+        private final long second;
+        private final String value;
+        
+        FormattedDate(long second, String value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+    
 }
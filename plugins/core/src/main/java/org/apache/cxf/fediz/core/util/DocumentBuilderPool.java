@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.EntityResolver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, thread-safe pool of hardened DocumentBuilder instances. One pool is kept per
+ * ClassLoader so that the configured DocumentBuilderFactory is only looked up and configured once.
+ * Builders are reset when they are returned to the pool. If the pool is empty a new builder is
+ * created (a miss); if the pool is full a returned builder is simply dropped.
+ */
+public final class DocumentBuilderPool {
+
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentBuilderPool.class);
+
+    private static final String DISALLOW_DOCTYPE_DECL =
+        "http://apache.org/xml/features/disallow-doctype-decl";
+
+    private static final EntityResolver NULL_RESOLVER = new DOMUtils.NullResolver();
+
+    private static final Map<ClassLoader, DocumentBuilderPool> POOLS = Collections
+        .synchronizedMap(new WeakHashMap<ClassLoader, DocumentBuilderPool>());
+
+    private final DocumentBuilderFactory factory;
+    private final BlockingQueue<DocumentBuilder> builders;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public DocumentBuilderPool(int poolSize) throws ParserConfigurationException {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be greater than zero");
+        }
+        this.factory = createFactory();
+        this.builders = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Get the pool associated with the context ClassLoader of the current thread.
+     */
+    public static DocumentBuilderPool getInstance() throws ParserConfigurationException {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = DocumentBuilderPool.class.getClassLoader();
+        }
+        if (loader == null) {
+            return new DocumentBuilderPool(1);
+        }
+        synchronized (POOLS) {
+            DocumentBuilderPool pool = POOLS.get(loader);
+            if (pool == null) {
+                pool = new DocumentBuilderPool(DEFAULT_POOL_SIZE);
+                POOLS.put(loader, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Take a DocumentBuilder from the pool or create a new one if the pool is empty.
+     * The caller must hand it back via {@link #release(DocumentBuilder)} once parsing has finished.
+     */
+    public DocumentBuilder borrow() throws ParserConfigurationException {
+        DocumentBuilder builder = builders.poll();
+        if (builder != null) {
+            hits.incrementAndGet();
+            return builder;
+        }
+        misses.incrementAndGet();
+        return newDocumentBuilder();
+    }
+
+    /**
+     * Reset the DocumentBuilder and return it to the pool.
+     */
+    public void release(DocumentBuilder builder) {
+        if (builder == null) {
+            return;
+        }
+        try {
+            builder.reset();
+            builder.setEntityResolver(NULL_RESOLVER);
+        } catch (UnsupportedOperationException ex) {
+            LOG.debug("DocumentBuilder can't be reset, not returned to pool");
+            return;
+        }
+        builders.offer(builder);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getIdleCount() {
+        return builders.size();
+    }
+
+    private DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        builder.setEntityResolver(NULL_RESOLVER);
+        return builder;
+    }
+
+    private static DocumentBuilderFactory createFactory() throws ParserConfigurationException {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setValidating(false);
+        dbf.setIgnoringComments(false);
+        dbf.setIgnoringElementContentWhitespace(true);
+        dbf.setNamespaceAware(true);
+        dbf.setExpandEntityReferences(false);
+        dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        try {
+            dbf.setFeature(DISALLOW_DOCTYPE_DECL, true);
+        } catch (ParserConfigurationException ex) {
+            LOG.debug("DocumentBuilderFactory doesn't support feature '{}'", DISALLOW_DOCTYPE_DECL);
+        }
+        return dbf;
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Date;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.processor.FedizResponse;
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.junit.Assert;
+
+public class FedizSessionTokenTest {
+
+    private static final String RESPONSE = 
+        "<wst:RequestSecurityTokenResponse xmlns:wst=\"http://docs.oasis-open.org/ws-sx/ws-trust/200512\""
+        + " xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\"><wst:RequestedSecurityToken>"
+        + "<saml:Assertion ID=\"_123\"><saml:Issuer>http://idp</saml:Issuer></saml:Assertion>"
+        + "</wst:RequestedSecurityToken></wst:RequestSecurityTokenResponse>";
+
+    @org.junit.Test
+    public void testSerializeSessionToken() throws Exception {
+        Document doc = DOMUtils.readXml(new StringReader(RESPONSE));
+        Element assertion = (Element)doc.getElementsByTagNameNS("urn:oasis:names:tc:SAML:2.0:assertion", 
+                                                                 "Assertion").item(0);
+        Claim claim = new Claim();
+        claim.setClaimType(URI.create(ClaimTypes.EMAILADDRESS.toString()));
+        claim.setIssuer(new String("http://idp"));
+        claim.setValue("alice@example.com");
+        Date expires = new Date(System.currentTimeMillis() + 60000L);
+        FedizResponse response = new FedizResponse("alice", "http://idp", Collections.singletonList("User"),
+            Collections.singletonList(claim), "http://sp", new Date(), expires, assertion, "_123");
+
+        FedizSessionToken sessionToken = new FedizSessionToken(response);
+        Assert.assertSame(ClaimTypes.EMAILADDRESS, sessionToken.getClaims().get(0).getClaimType());
+        Assert.assertFalse(sessionToken.isExpired(System.currentTimeMillis()));
+        Assert.assertTrue(sessionToken.isExpired(expires.getTime() + 1));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(sessionToken);
+        }
+        FedizSessionToken copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (FedizSessionToken)in.readObject();
+        }
+
+        Assert.assertEquals("alice", copy.getUsername());
+        Assert.assertEquals(Collections.singletonList("User"), copy.getRoles());
+        Assert.assertEquals("alice@example.com", copy.getClaims().get(0).getValue());
+        Assert.assertEquals(expires.getTime(), copy.getTokenExpires());
+        Assert.assertEquals("_123", copy.getUniqueTokenId());
+
+        // The token is parsed on its own, including the namespace declared on its parent
+        Element token = copy.getToken();
+        Assert.assertEquals("Assertion", token.getLocalName());
+        Assert.assertEquals("urn:oasis:names:tc:SAML:2.0:assertion", token.getNamespaceURI());
+        Assert.assertEquals("_123", token.getAttributeNS(null, "ID"));
+        Assert.assertSame(token, copy.getToken());
+    }
+
+    @org.junit.Test
+    public void testClaimsOfResponseUnchanged() throws Exception {
+        URI claimType = URI.create(ClaimTypes.EMAILADDRESS.toString());
+        String issuer = new String("http://idp");
+        Claim claim = new Claim();
+        claim.setClaimType(claimType);
+        claim.setIssuer(issuer);
+        claim.setValue("alice@example.com");
+        FedizResponse response = new FedizResponse("alice", "http://idp", Collections.singletonList("User"),
+            Collections.singletonList(claim), "http://sp", new Date(), null, null, "_123");
+
+        FedizSessionToken sessionToken = new FedizSessionToken(response);
+        Claim copy = sessionToken.getClaims().get(0);
+        Assert.assertNotSame(claim, copy);
+        Assert.assertSame(ClaimTypes.EMAILADDRESS, copy.getClaimType());
+        Assert.assertSame(issuer.intern(), copy.getIssuer());
+        Assert.assertEquals("alice@example.com", copy.getValue());
+        // The claims of the response are interned into copies
+        Assert.assertSame(claimType, claim.getClaimType());
+        Assert.assertSame(issuer, claim.getIssuer());
+        Assert.assertEquals(0L, sessionToken.getTokenExpires());
+    }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.apache.wss4j.common.crypto.CertificateStore;
+import org.apache.wss4j.common.crypto.Crypto;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+
+public class CertificateTrustCacheTest {
+
+    private static final long ONE_HOUR = 60L * 60L * 1000L;
+
+    @org.junit.Test
+    public void testCachedTrust() throws Exception {
+        X509Certificate[] certs = new X509Certificate[] {
+            createCertificate(new byte[] {1}, ONE_HOUR)
+        };
+        Crypto crypto = new CertificateStore(certs);
+        CertificateTrustCache cache = new CertificateTrustCache(ONE_HOUR);
+
+        Assert.assertFalse(cache.isTrusted(certs, crypto, false));
+        cache.setTrusted(certs, crypto, false);
+        Assert.assertTrue(cache.isTrusted(certs, crypto, false));
+        Assert.assertEquals(1L, cache.getHits());
+        Assert.assertEquals(1L, cache.getMisses());
+
+        // Trust is only cached for the Crypto which has verified the certificate path
+        Assert.assertFalse(cache.isTrusted(certs, new CertificateStore(certs), false));
+        // and the revocation setting
+        Assert.assertFalse(cache.isTrusted(certs, crypto, true));
+
+        X509Certificate[] otherCerts = new X509Certificate[] {
+            createCertificate(new byte[] {2}, ONE_HOUR)
+        };
+        Assert.assertFalse(cache.isTrusted(otherCerts, crypto, false));
+        Assert.assertEquals(1L, cache.getHits());
+        Assert.assertEquals(4L, cache.getMisses());
+    }
+
+    @org.junit.Test
+    public void testExpiredCertificateNotCached() throws Exception {
+        X509Certificate[] certs = new X509Certificate[] {
+            createCertificate(new byte[] {1}, -1000L)
+        };
+        Crypto crypto = new CertificateStore(certs);
+        CertificateTrustCache cache = new CertificateTrustCache(ONE_HOUR);
+        cache.setTrusted(certs, crypto, false);
+        Assert.assertEquals(0, cache.size());
+        Assert.assertFalse(cache.isTrusted(certs, crypto, false));
+    }
+
+    @org.junit.Test
+    public void testTimeToLive() throws Exception {
+        X509Certificate[] certs = new X509Certificate[] {
+            createCertificate(new byte[] {1}, ONE_HOUR)
+        };
+        Crypto crypto = new CertificateStore(certs);
+        CertificateTrustCache cache = new CertificateTrustCache(50L);
+        cache.setTrusted(certs, crypto, false);
+        Assert.assertTrue(cache.isTrusted(certs, crypto, false));
+        Thread.sleep(100L);
+        Assert.assertFalse(cache.isTrusted(certs, crypto, false));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    private static X509Certificate createCertificate(byte[] encoded, long validity) throws Exception {
+        X509Certificate cert = EasyMock.createMock(X509Certificate.class);
+        EasyMock.expect(cert.getEncoded()).andReturn(encoded).anyTimes();
+        EasyMock.expect(cert.getNotAfter())
+            .andReturn(new Date(System.currentTimeMillis() + validity)).anyTimes();
+        EasyMock.replay(cert);
+        return cert;
+    }
+
+}
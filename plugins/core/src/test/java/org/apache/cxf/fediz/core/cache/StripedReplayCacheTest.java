@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.io.File;
+import java.net.URL;
+
+import org.apache.cxf.fediz.core.config.FedizConfigurator;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.jaxb.ContextConfig;
+import org.junit.Assert;
+
+public class StripedReplayCacheTest {
+
+    private static final long START = 1000000000000L;
+
+    @org.junit.Test
+    public void testAddAndExpire() throws Exception {
+        TestReplayCache cache = new TestReplayCache();
+        cache.add("id-1", 10L);
+        cache.add("id-2");
+        Assert.assertTrue(cache.contains("id-1"));
+        Assert.assertTrue(cache.contains("id-2"));
+        Assert.assertFalse(cache.contains("id-3"));
+
+        cache.time += 10000L;
+        Assert.assertFalse(cache.contains("id-1"));
+        Assert.assertTrue(cache.contains("id-2"));
+
+        cache.time += StripedReplayCache.DEFAULT_TTL * 1000L;
+        Assert.assertFalse(cache.contains("id-2"));
+        cache.close();
+    }
+
+    @org.junit.Test
+    public void testAddIfAbsent() throws Exception {
+        TestReplayCache cache = new TestReplayCache();
+        Assert.assertTrue(cache.addIfAbsent("id", 10L));
+        Assert.assertFalse(cache.addIfAbsent("id", 10L));
+
+        cache.time += 11000L;
+        Assert.assertTrue(cache.addIfAbsent("id", 10L));
+        cache.close();
+    }
+
+    @org.junit.Test
+    public void testEviction() throws Exception {
+        TestReplayCache cache = new TestReplayCache();
+        for (int i = 0; i < 1000; i++) {
+            cache.add("short-" + i, 10L);
+            cache.add("long-" + i, 100L);
+        }
+        Assert.assertEquals(2000, cache.size());
+
+        // Evicted once the tick of the expiry has passed
+        cache.time += 10000L + StripedReplayCache.DEFAULT_TICK;
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertFalse(cache.contains("short-" + i));
+            Assert.assertTrue(cache.contains("long-" + i));
+        }
+        Assert.assertEquals(1000, cache.size());
+
+        cache.time += 2 * StripedReplayCache.MAX_TTL * 1000L;
+        cache.add("other", 10L);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertFalse(cache.contains("long-" + i));
+        }
+        Assert.assertEquals(1, cache.size());
+        cache.close();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testConfiguredReplayCache() throws Exception {
+        FedizConfigurator configurator = new FedizConfigurator();
+        URL resource = Thread.currentThread().getContextClassLoader().getResource("fediz_test_config.xml");
+        configurator.loadConfig(new File(resource.toURI()));
+        ContextConfig config = configurator.getContextConfig("ROOT");
+        config.setTokenReplayCache(StripedReplayCache.class.getName());
+
+        FedizContext fedContext = new FedizContext(config);
+        Assert.assertTrue(fedContext.getTokenReplayCache() instanceof StripedReplayCache);
+        fedContext.close();
+    }
+
+    private static class TestReplayCache extends StripedReplayCache {
+        private long time = START;
+
+        @Override
+        protected long currentTime() {
+            return time;
+        }
+    }
+
+}
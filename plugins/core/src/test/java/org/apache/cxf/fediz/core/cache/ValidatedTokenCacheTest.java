@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.cache;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.TokenValidatorResponse;
+import org.junit.Assert;
+
+public class ValidatedTokenCacheTest {
+
+    private static final long ONE_HOUR = 60L * 60L * 1000L;
+
+    @org.junit.Test
+    public void testContentDigest() {
+        ValidatedTokenCache cache = new ValidatedTokenCache(10);
+        byte[] digest = digest("token");
+        cache.put("id", digest, createResponse(System.currentTimeMillis() + ONE_HOUR));
+
+        Assert.assertNotNull(cache.get("id", digest("token")));
+        // A modified token with the same id is not taken from the cache
+        Assert.assertNull(cache.get("id", digest("modified token")));
+        Assert.assertNull(cache.get("other", digest));
+        Assert.assertEquals(1L, cache.getHits());
+        Assert.assertEquals(2L, cache.getMisses());
+    }
+
+    @org.junit.Test
+    public void testExpiredToken() {
+        ValidatedTokenCache cache = new ValidatedTokenCache(10);
+        cache.put("id", digest("token"), createResponse(System.currentTimeMillis() - 1));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @org.junit.Test
+    public void testResponseCopies() {
+        ValidatedTokenCache cache = new ValidatedTokenCache(10);
+        byte[] digest = digest("token");
+        TokenValidatorResponse response = createResponse(System.currentTimeMillis() + ONE_HOUR);
+        cache.put("id", digest, response);
+
+        // Changes of the validated response don't affect the cache
+        response.getRoles().add("Admin");
+        response.getClaims().get(0).setValue("mallory");
+
+        TokenValidatorResponse cached = cache.get("id", digest);
+        Assert.assertNotSame(response, cached);
+        Assert.assertEquals(Collections.singletonList("User"), cached.getRoles());
+        Assert.assertEquals("alice", cached.getClaims().get(0).getValue());
+        Assert.assertEquals("alice", cached.getUsername());
+
+        // Every request gets its own copy
+        cached.getRoles().clear();
+        cached.getClaims().get(0).setValue("mallory");
+        cached.getExpires().setTime(0L);
+
+        TokenValidatorResponse next = cache.get("id", digest);
+        Assert.assertNotSame(cached, next);
+        Assert.assertEquals(Collections.singletonList("User"), next.getRoles());
+        Assert.assertEquals("alice", next.getClaims().get(0).getValue());
+        Assert.assertTrue(next.getExpires().getTime() > System.currentTimeMillis());
+    }
+
+    private static TokenValidatorResponse createResponse(long expires) {
+        List<String> roles = new ArrayList<>();
+        roles.add("User");
+        Claim claim = new Claim();
+        claim.setClaimType(URI.create("http://schemas.xmlsoap.org/ws/2005/05/identity/claims/givenname"));
+        claim.setValue("alice");
+        List<Claim> claims = new ArrayList<>();
+        claims.add(claim);
+        TokenValidatorResponse response =
+            new TokenValidatorResponse("id", "alice", "issuer", roles, claims, "audience");
+        response.setCreated(new Date());
+        response.setExpires(new Date(expires));
+        return response;
+    }
+
+    private static byte[] digest(String token) {
+        return ValidatedTokenCache.createDigest().digest(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Properties;
+
+import org.apache.wss4j.common.crypto.Crypto;
+import org.junit.Assert;
+
+public class CryptoRegistryTest {
+
+    private static final String CONFIG_FILE = "fediz_test_config.xml";
+
+    @org.junit.Test
+    public void testSharedCrypto() throws Exception {
+        CryptoRegistry registry = CryptoRegistry.getInstance();
+        Crypto crypto1 = registry.getCrypto(createProperties("ststrust.jks", "storepass"));
+        Crypto crypto2 = registry.getCrypto(createProperties("ststrust.jks", "storepass"));
+        Assert.assertSame(crypto1, crypto2);
+        Assert.assertEquals(2, registry.getReferenceCount(crypto1));
+
+        Crypto other = registry.getCrypto(createProperties("stsstore.jks", "stsspass"));
+        Assert.assertNotSame(crypto1, other);
+
+        registry.release(crypto1);
+        registry.release(crypto2);
+        registry.release(other);
+        Assert.assertEquals(0, registry.getReferenceCount(crypto1));
+
+        // Loaded again once all references are released
+        Crypto crypto3 = registry.getCrypto(createProperties("ststrust.jks", "storepass"));
+        Assert.assertNotSame(crypto1, crypto3);
+        registry.release(crypto3);
+    }
+
+    @org.junit.Test
+    public void testContextsShareCrypto() throws Exception {
+        FedizConfigurator configurator1 = new FedizConfigurator();
+        configurator1.loadConfig(getConfigFile());
+        FedizConfigurator configurator2 = new FedizConfigurator();
+        configurator2.loadConfig(getConfigFile());
+
+        FedizContext context1 = configurator1.getFedizContext("ROOT_DECRYPTION");
+        FedizContext context2 = configurator2.getFedizContext("ROOT_DECRYPTION");
+        Crypto trustStore = context1.getCertificateStores().get(0).getCrypto();
+        Crypto decryptionKey = context1.getDecryptionKey().getCrypto();
+        Assert.assertSame(trustStore, context2.getCertificateStores().get(0).getCrypto());
+        Assert.assertSame(decryptionKey, context2.getDecryptionKey().getCrypto());
+
+        CryptoRegistry registry = CryptoRegistry.getInstance();
+        int references = registry.getReferenceCount(decryptionKey);
+        context1.close();
+        Assert.assertEquals(references - 1, registry.getReferenceCount(decryptionKey));
+        context2.close();
+        Assert.assertEquals(references - 2, registry.getReferenceCount(decryptionKey));
+    }
+
+    private static Properties createProperties(String file, String password) {
+        Properties p = new Properties();
+        p.put("org.apache.ws.security.crypto.provider", "org.apache.ws.security.components.crypto.Merlin");
+        p.put("org.apache.ws.security.crypto.merlin.keystore.type", "jks");
+        p.put("org.apache.ws.security.crypto.merlin.keystore.password", password);
+        p.put("org.apache.ws.security.crypto.merlin.keystore.file", file);
+        return p;
+    }
+
+    private static File getConfigFile() throws Exception {
+        URL resource = Thread.currentThread().getContextClassLoader().getResource(CONFIG_FILE);
+        return new File(resource.toURI());
+    }
+
+}
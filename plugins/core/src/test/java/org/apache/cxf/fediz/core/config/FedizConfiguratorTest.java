@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+
+public class FedizConfiguratorTest {
+
+    private static final String CONFIG_FILE = "fediz_test_config.xml";
+    private static final String RELOAD_CONFIG_FILE = "./target/fediz_reload_config.xml";
+
+    @org.junit.Test
+    public void testLazyContexts() throws Exception {
+        FedizConfigurator configurator = new FedizConfigurator();
+        configurator.loadConfig(getConfigFile());
+
+        FedizContext root = configurator.getFedizContext("ROOT");
+        Assert.assertNotNull(root);
+        Assert.assertSame(root, configurator.getFedizContext("ROOT"));
+        Assert.assertNull(configurator.getFedizContext("UNKNOWN"));
+        Assert.assertTrue(configurator.getFedizContextList().contains(root));
+    }
+
+    @org.junit.Test
+    public void testWarmUp() throws Exception {
+        FedizConfigurator configurator = new FedizConfigurator();
+        configurator.loadConfig(getConfigFile());
+
+        List<Future<FedizContext>> futures = configurator.warmUp(4);
+        Assert.assertEquals(configurator.getFedizContextList().size(), futures.size());
+        for (Future<FedizContext> future : futures) {
+            future.get();
+        }
+
+        FedizContext context = configurator.getFedizContext("ROOT_DECRYPTION");
+        CryptoRegistry registry = CryptoRegistry.getInstance();
+        Assert.assertTrue(registry.getReferenceCount(context.getCertificateStores().get(0).getCrypto()) > 0);
+        Assert.assertTrue(registry.getReferenceCount(context.getDecryptionKey().getCrypto()) > 0);
+
+        for (FedizContext fedContext : configurator.getFedizContextList()) {
+            fedContext.close();
+        }
+    }
+
+    @org.junit.Test
+    public void testReloadModifiedContextsOnly() throws Exception {
+        File configFile = new File(RELOAD_CONFIG_FILE);
+        String config = new String(Files.readAllBytes(getConfigFile().toPath()), StandardCharsets.UTF_8);
+        Files.write(configFile.toPath(), config.getBytes(StandardCharsets.UTF_8));
+
+        FedizConfigurator configurator = new FedizConfigurator();
+        configurator.loadConfig(configFile);
+        FedizContext root = configurator.getFedizContext("ROOT");
+        FedizContext root2 = configurator.getFedizContext("ROOT2");
+        long generation = configurator.getGeneration();
+
+        Assert.assertTrue(configurator.reloadConfig().isEmpty());
+        Assert.assertSame(root2, configurator.getFedizContext("ROOT2"));
+        Assert.assertEquals(generation, configurator.getGeneration());
+
+        config = config.replace("<contextConfig name=\"ROOT2\">\n\t\t<audienceUris>",
+                                "<contextConfig name=\"ROOT2\">\n\t\t<audienceUris>"
+                                + "<audienceItem>http://host_two:port/url</audienceItem>");
+        Files.write(configFile.toPath(), config.getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertEquals(Collections.singletonList("ROOT2"), configurator.reloadConfig());
+        Assert.assertTrue(configurator.getGeneration() > generation);
+        Assert.assertSame(root, configurator.getFedizContext("ROOT"));
+        FedizContext newRoot2 = configurator.getFedizContext("ROOT2");
+        Assert.assertNotSame(root2, newRoot2);
+        Assert.assertEquals(2, newRoot2.getAudienceUris().size());
+        configurator.close();
+    }
+
+    @org.junit.Test
+    public void testDeferredCloseOfReplacedContexts() throws Exception {
+        File configFile = new File(RELOAD_CONFIG_FILE);
+        String config = new String(Files.readAllBytes(getConfigFile().toPath()), StandardCharsets.UTF_8);
+        Files.write(configFile.toPath(), config.getBytes(StandardCharsets.UTF_8));
+
+        FedizConfigurator configurator = new FedizConfigurator();
+        configurator.setContextCloseDelay(200L);
+        configurator.loadConfig(configFile);
+        FedizContext root = configurator.getFedizContext("ROOT");
+
+        // Loading the configuration again replaces all contexts
+        configurator.loadConfig(configFile);
+        Assert.assertNotSame(root, configurator.getFedizContext("ROOT"));
+        // In-flight requests may still use the replaced context
+        Assert.assertFalse(root.isClosed());
+
+        long timeout = System.currentTimeMillis() + 10000L;
+        while (!root.isClosed() && System.currentTimeMillis() < timeout) {
+            Thread.sleep(20L);
+        }
+        Assert.assertTrue(root.isClosed());
+    }
+
+    @org.junit.Test
+    public void testCloseFedizContexts() throws Exception {
+        File configFile = new File(RELOAD_CONFIG_FILE);
+        String config = new String(Files.readAllBytes(getConfigFile().toPath()), StandardCharsets.UTF_8);
+        Files.write(configFile.toPath(), config.getBytes(StandardCharsets.UTF_8));
+
+        FedizConfigurator configurator = new FedizConfigurator();
+        configurator.loadConfig(configFile);
+        FedizContext replaced = configurator.getFedizContext("ROOT");
+        configurator.loadConfig(configFile);
+        FedizContext root = configurator.getFedizContext("ROOT");
+
+        // Closes the created and the pending replaced contexts
+        configurator.closeFedizContexts();
+        Assert.assertTrue(root.isClosed());
+        Assert.assertTrue(replaced.isClosed());
+        configurator.close();
+    }
+
+    private static File getConfigFile() throws Exception {
+        URL resource = Thread.currentThread().getContextClassLoader().getResource(CONFIG_FILE);
+        return new File(resource.toURI());
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.config;
+
+import java.io.File;
+import java.net.URL;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+import org.apache.wss4j.common.crypto.CryptoType;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+
+public class TrustIndexTest {
+
+    private static final String CONFIG_FILE = "fediz_test_config.xml";
+
+    private static FedizConfigurator configurator;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        configurator = new FedizConfigurator();
+        final URL resource = Thread.currentThread().getContextClassLoader()
+                .getResource(CONFIG_FILE);
+        configurator.loadConfig(new File(resource.toURI()));
+    }
+
+    @org.junit.Test
+    public void testStoreContainingCertificateFirst() throws Exception {
+        FedizContext config = configurator.getFedizContext("ROOT2");
+        List<TrustManager> stores = config.getCertificateStores();
+        Assert.assertEquals(2, stores.size());
+        TrustIndex index = config.getTrustIndex();
+
+        X509Certificate[] stsCerts = getCertificates(stores.get(1), "mystskey");
+        List<TrustManager> orderedStores = index.getCertificateStores(stsCerts);
+        Assert.assertEquals(2, orderedStores.size());
+        Assert.assertSame(stores.get(1), orderedStores.get(0));
+        Assert.assertSame(stores.get(0), orderedStores.get(1));
+
+        X509Certificate[] realmCerts = getCertificates(stores.get(0), "realma");
+        Assert.assertSame(stores.get(0), index.getCertificateStores(realmCerts).get(0));
+    }
+
+    @org.junit.Test
+    public void testTrustedStoreFirst() throws Exception {
+        FedizContext config = configurator.getFedizContext("ROOT3");
+        List<TrustManager> stores = config.getCertificateStores();
+        TrustIndex index = config.getTrustIndex();
+
+        X509Certificate[] realmCerts = getCertificates(stores.get(0), "realma");
+        index.setTrusted(realmCerts, config.getTrustedIssuers().get(0), stores.get(1));
+        List<TrustManager> orderedStores = index.getCertificateStores(realmCerts);
+        Assert.assertEquals(2, orderedStores.size());
+        Assert.assertSame(stores.get(1), orderedStores.get(0));
+    }
+
+    @org.junit.Test
+    public void testTrustedIssuers() throws Exception {
+        FedizContext config = configurator.getFedizContext("CHAIN_TRUST");
+        X509Certificate[] stsCerts = getCertificates(config.getCertificateStores().get(0), "mystskey");
+        List<TrustedIssuer> issuers = config.getTrustIndex().getTrustedIssuers(stsCerts);
+        Assert.assertEquals(1, issuers.size());
+        Assert.assertEquals(CertificateValidationMethod.CHAIN_TRUST, issuers.get(0).getCertificateValidationMethod());
+
+        config = configurator.getFedizContext("CHAIN_TRUST2");
+        Assert.assertTrue(config.getTrustIndex().getTrustedIssuers(stsCerts).isEmpty());
+    }
+
+    @org.junit.Test
+    public void testMixedTrustedIssuers() throws Exception {
+        FedizContext config = configurator.getFedizContext("MIXED_TRUST");
+        TrustIndex index = config.getTrustIndex();
+        TrustManager store = config.getCertificateStores().get(0);
+        X509Certificate[] stsCerts = getCertificates(store, "mystskey");
+
+        // Peer trust matches every certificate, but the chain trust issuer is tried as well
+        List<TrustedIssuer> issuers = index.getTrustedIssuers(stsCerts);
+        Assert.assertEquals(2, issuers.size());
+        Assert.assertEquals("peer", issuers.get(0).getName());
+        Assert.assertEquals("sts", issuers.get(1).getName());
+
+        // The issuer which has established trust is tried first
+        index.setTrusted(stsCerts, issuers.get(1), store);
+        issuers = index.getTrustedIssuers(stsCerts);
+        Assert.assertEquals(2, issuers.size());
+        Assert.assertEquals("sts", issuers.get(0).getName());
+        Assert.assertEquals("peer", issuers.get(1).getName());
+        Assert.assertSame(store, index.getCertificateStores(stsCerts).get(0));
+    }
+
+    private static X509Certificate[] getCertificates(TrustManager tm, String alias) throws Exception {
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(alias);
+        X509Certificate[] certs = tm.getCrypto().getX509Certificates(cryptoType);
+        Assert.assertNotNull(certs);
+        return certs;
+    }
+
+}
@@ -19,6 +19,7 @@
 
 package org.apache.cxf.fediz.core.federation;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.net.URL;
 
@@ -33,6 +34,8 @@ import org.apache.cxf.fediz.common.SecurityTestUtil;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.metadata.MetadataCache;
+import org.apache.cxf.fediz.core.metadata.MetadataDocument;
 import org.apache.cxf.fediz.core.processor.FederationProcessorImpl;
 import org.apache.cxf.fediz.core.processor.FedizProcessor;
 import org.apache.cxf.fediz.core.util.DOMUtils;
@@ -139,5 +142,36 @@ public class FederationMetaDataTest {
             fail("Exception not expected: " + e.getMessage()); 
         }
     }
+    
+    @org.junit.Test
+    public void validateCachedMetaData() throws Exception {
+
+        FedizContext config = loadConfig("ROOT");
+
+        HttpServletRequest req = EasyMock.createMock(HttpServletRequest.class);
+        EasyMock.expect(req.getRequestURL()).andReturn(new StringBuffer(TEST_REQUEST_URL)).anyTimes();
+        EasyMock.expect(req.getContextPath()).andReturn(CONTEXT_PATH).anyTimes();
+        EasyMock.replay(req);
+        
+        MetadataCache cache = config.getMetadataCache();
+        MetadataDocument metadata = cache.getDocument(req, config);
+        Assert.assertNotNull(metadata);
+        Assert.assertSame(metadata, cache.getDocument(req, config));
+        Assert.assertEquals(1, cache.size());
+        
+        // The document is cached in its signed form
+        Document doc = DOMUtils.readXml(new ByteArrayInputStream(metadata.getContent()));
+        Assert.assertNotNull(doc.getElementsByTagName("Signature").item(0));
+        
+        Assert.assertTrue(metadata.matches(metadata.getETag()));
+        Assert.assertTrue(metadata.matches("\"other\", W/" + metadata.getETag()));
+        Assert.assertTrue(metadata.matches("*"));
+        Assert.assertFalse(metadata.matches("\"other\""));
+        Assert.assertFalse(metadata.matches(null));
+        
+        // Closing the context (e.g. on reload) drops the document
+        config.close();
+        Assert.assertEquals(0, cache.size());
+    }
 
 }
@@ -44,6 +44,8 @@ import org.apache.cxf.fediz.core.KeystoreCallbackHandler;
 import org.apache.cxf.fediz.core.SAML1CallbackHandler;
 import org.apache.cxf.fediz.core.SAML2CallbackHandler;
 import org.apache.cxf.fediz.core.TokenValidator;
+import org.apache.cxf.fediz.core.cache.CertificateTrustCache;
+import org.apache.cxf.fediz.core.cache.ValidatedTokenCache;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.config.Protocol;
@@ -294,6 +296,14 @@ public class FederationResponseTest {
         Assert.assertEquals("Issuer wrong", TEST_RSTR_ISSUER, wfRes.getIssuer());
         Assert.assertEquals("Audience wrong", TEST_AUDIENCE, wfRes.getAudience());
         
+        // The certificate path is validated only once
+        CertificateTrustCache trustCache = config.getCertificateTrustCache();
+        Assert.assertNotNull(trustCache);
+        Assert.assertEquals(1, trustCache.size());
+        config.setDetectReplayedTokens(false);
+        wfProc.processRequest(wfReq, config);
+        Assert.assertEquals(1L, trustCache.getHits());
+        
         // Test unsuccessful trust validation (bad subject cert constraint)
         configurator = null;
         config = getFederationConfigurator().getFedizContext("CHAIN_TRUST2");
@@ -307,6 +317,43 @@ public class FederationResponseTest {
         }
     }
     
+    @org.junit.Test
+    public void testMixedTrust() throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.ATTR);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer(TEST_RSTR_ISSUER);
+        callbackHandler.setSubjectName(TEST_USER);
+        ConditionsBean cp = new ConditionsBean();
+        AudienceRestrictionBean audienceRestriction = new AudienceRestrictionBean();
+        audienceRestriction.getAudienceURIs().add(TEST_AUDIENCE);
+        cp.setAudienceRestrictions(Collections.singletonList(audienceRestriction));
+        callbackHandler.setConditions(cp);
+        
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        SamlAssertionWrapper assertion = new SamlAssertionWrapper(samlCallback);
+        String rstr = createSamlToken(assertion, "mystskey", true);
+        
+        FedizRequest wfReq = new FedizRequest();
+        wfReq.setAction(FederationConstants.ACTION_SIGNIN);
+        wfReq.setResponseToken(rstr);
+        
+        // Peer trust and chain trust issuers (one of them with a subject constraint
+        // which doesn't match) are configured for the same certificate store
+        configurator = null;
+        FedizContext config = getFederationConfigurator().getFedizContext("MIXED_TRUST");
+        
+        FedizProcessor wfProc = new FederationProcessorImpl();
+        FedizResponse wfRes = wfProc.processRequest(wfReq, config);
+        Assert.assertEquals("Principal name wrong", TEST_USER, wfRes.getUsername());
+        
+        // The issuer which has established trust is remembered
+        config.setDetectReplayedTokens(false);
+        wfRes = wfProc.processRequest(wfReq, config);
+        Assert.assertEquals("Principal name wrong", TEST_USER, wfRes.getUsername());
+    }
+    
     /**
      * Validate SAML 2 token which includes the role attribute with 2 values
      * Roles are encoded as a multi-value saml attribute
@@ -808,6 +855,74 @@ public class FederationResponseTest {
     }
     
     
+    /**
+     * Validate SAML 2 token twice with the validated token cache enabled. The second
+     * validation is served from the cache but the replay attack is still detected.
+     */
+    @org.junit.Test
+    public void testValidatedTokenCache() throws Exception {
+        SAML2CallbackHandler callbackHandler = new SAML2CallbackHandler();
+        callbackHandler.setStatement(SAML2CallbackHandler.Statement.ATTR);
+        callbackHandler.setConfirmationMethod(SAML2Constants.CONF_BEARER);
+        callbackHandler.setIssuer(TEST_RSTR_ISSUER);
+        callbackHandler.setSubjectName(TEST_USER);
+        ConditionsBean cp = new ConditionsBean();
+        AudienceRestrictionBean audienceRestriction = new AudienceRestrictionBean();
+        audienceRestriction.getAudienceURIs().add(TEST_AUDIENCE);
+        cp.setAudienceRestrictions(Collections.singletonList(audienceRestriction));
+        callbackHandler.setConditions(cp);
+        
+        SAMLCallback samlCallback = new SAMLCallback();
+        SAMLUtil.doSAMLCallback(callbackHandler, samlCallback);
+        SamlAssertionWrapper assertion = new SamlAssertionWrapper(samlCallback);
+        
+        String rstr = createSamlToken(assertion, "mystskey", true);
+        
+        FedizRequest wfReq = new FedizRequest();
+        wfReq.setAction(FederationConstants.ACTION_SIGNIN);
+        wfReq.setResponseToken(rstr);
+        
+        configurator = null;
+        FedizContext config = getFederationConfigurator().getFedizContext("TOKEN_CACHE");
+        ValidatedTokenCache tokenCache = config.getValidatedTokenCache();
+        Assert.assertNotNull(tokenCache);
+
+        FedizProcessor wfProc = new FederationProcessorImpl();
+        FedizResponse wfRes = wfProc.processRequest(wfReq, config);
+        Assert.assertEquals("Principal name wrong", TEST_USER,
+                wfRes.getUsername());
+        Assert.assertEquals(1, tokenCache.size());
+        Assert.assertEquals(0L, tokenCache.getHits());
+        
+        try {
+            wfProc.processRequest(wfReq, config);
+            fail("Failure expected on a replay attack");
+        } catch (ProcessingException ex) {
+            if (!TYPE.TOKEN_REPLAY.equals(ex.getType())) {
+                fail("Expected ProcessingException with TOKEN_REPLAY type");
+            }
+        }
+        Assert.assertEquals(1L, tokenCache.getHits());
+        
+        config.setDetectReplayedTokens(false);
+        wfRes = wfProc.processRequest(wfReq, config);
+        Assert.assertEquals("Principal name wrong", TEST_USER,
+                wfRes.getUsername());
+        Assert.assertEquals(2L, tokenCache.getHits());
+        
+        // A modified token with the same ID and SignatureValue must not be served from the cache
+        FedizRequest modifiedReq = new FedizRequest();
+        modifiedReq.setAction(FederationConstants.ACTION_SIGNIN);
+        modifiedReq.setResponseToken(rstr.replace(">" + TEST_USER + "<", ">bob<"));
+        try {
+            wfProc.processRequest(modifiedReq, config);
+            fail("Failure expected on signature validation");
+        } catch (ProcessingException ex) {
+            // expected
+        }
+        Assert.assertEquals(2L, tokenCache.getHits());
+    }
+    
     /**
      * Validate SAML 2 token which includes the role attribute with 2 values
      * The configured subject of the trusted issuer doesn't match with
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.federation;
+
+import java.util.Date;
+
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.jaxb.ContextConfig;
+import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.exception.ProcessingException.TYPE;
+import org.apache.cxf.fediz.core.processor.WResultParser;
+import org.apache.wss4j.dom.WSConstants;
+import org.apache.wss4j.dom.util.XmlSchemaDateFormat;
+import org.junit.Assert;
+
+public class WResultParserTest {
+
+    private static final String TOKEN =
+        "<saml2:Assertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"_1\">"
+        + "<saml2:Issuer>STS</saml2:Issuer><!-- comment --><xs:foo/>"
+        + "</saml2:Assertion>";
+
+    @org.junit.Test
+    public void testLifetimeAfterToken() throws Exception {
+        String wresult = createRSTR(createRequestedSecurityToken(TOKEN) + createLifetime(-60000L, 60000L));
+
+        WResultParser parser = new WResultParser(wresult, createContext(true));
+        parser.parse();
+
+        Element token = parser.getToken();
+        Assert.assertEquals("Assertion", token.getLocalName());
+        Assert.assertEquals("_1", token.getAttributeNS(null, "ID"));
+        Assert.assertEquals("STS", token.getFirstChild().getTextContent());
+
+        // The namespaces in scope of the RequestedSecurityToken are declared on the parent of the token
+        Element parent = (Element)token.getParentNode();
+        Assert.assertEquals("RequestedSecurityToken", parent.getLocalName());
+        Assert.assertEquals(FederationConstants.WS_TRUST_13_NS, parent.getNamespaceURI());
+        Assert.assertEquals("urn:xs", token.getLastChild().getNamespaceURI());
+
+        Assert.assertEquals(WSConstants.WSS_SAML2_TOKEN_TYPE, parser.getTokenType());
+        Assert.assertNotNull(parser.getCreated());
+        Assert.assertNotNull(parser.getExpires());
+    }
+
+    @org.junit.Test
+    public void testExpiredLifetime() throws Exception {
+        String wresult = createRSTR(createRequestedSecurityToken(TOKEN) + createLifetime(-120000L, -60000L));
+        assertFailure(wresult, createContext(true), TYPE.TOKEN_EXPIRED);
+
+        // No expiry detection
+        WResultParser parser = new WResultParser(wresult, createContext(false));
+        parser.parse();
+        Assert.assertNotNull(parser.getToken());
+    }
+
+    @org.junit.Test
+    public void testLifetimeNotYetValid() throws Exception {
+        String wresult = createRSTR(createLifetime(600000L, 1200000L) + createRequestedSecurityToken(TOKEN));
+        assertFailure(wresult, createContext(true), TYPE.TOKEN_INVALID);
+    }
+
+    @org.junit.Test
+    public void testCollection() throws Exception {
+        String wresult = "<wst:RequestSecurityTokenResponseCollection xmlns:wst=\""
+            + FederationConstants.WS_TRUST_13_NS + "\">"
+            + createRSTR(createRequestedSecurityToken(TOKEN))
+            + createRSTR(createRequestedSecurityToken("<second/>"))
+            + "</wst:RequestSecurityTokenResponseCollection>";
+
+        WResultParser parser = new WResultParser(wresult, createContext(true));
+        parser.parse();
+        Assert.assertEquals("Assertion", parser.getToken().getLocalName());
+    }
+
+    @org.junit.Test
+    public void testInvalidResponses() throws Exception {
+        FedizContext config = createContext(true);
+        assertFailure(createRSTR(createRequestedSecurityToken("")), config, TYPE.BAD_REQUEST);
+        assertFailure(createRSTR(createRequestedSecurityToken(TOKEN) + "<unclosed>"), config, TYPE.INVALID_REQUEST);
+        assertFailure("<RequestSecurityToken/>", config, TYPE.INVALID_REQUEST);
+        assertFailure("<!DOCTYPE foo [<!ENTITY e \"x\">]>"
+            + createRSTR(createRequestedSecurityToken(TOKEN)), config, TYPE.INVALID_REQUEST);
+        assertFailure(null, config, TYPE.INVALID_REQUEST);
+    }
+
+    private static void assertFailure(String wresult, FedizContext config, TYPE type) {
+        try {
+            new WResultParser(wresult, config).parse();
+            Assert.fail("Failure expected on invalid wresult");
+        } catch (ProcessingException ex) {
+            Assert.assertEquals(type, ex.getType());
+        }
+    }
+
+    private static String createRSTR(String content) {
+        return "<wst:RequestSecurityTokenResponse xmlns:wst=\"" + FederationConstants.WS_TRUST_13_NS
+            + "\" xmlns:xs=\"urn:xs\">"
+            + "<wst:TokenType>" + WSConstants.WSS_SAML2_TOKEN_TYPE + "</wst:TokenType>"
+            + content
+            + "</wst:RequestSecurityTokenResponse>";
+    }
+
+    private static String createRequestedSecurityToken(String token) {
+        return "<wst:RequestedSecurityToken>" + token + "</wst:RequestedSecurityToken>";
+    }
+
+    private static String createLifetime(long created, long expires) {
+        XmlSchemaDateFormat fmt = new XmlSchemaDateFormat();
+        long now = System.currentTimeMillis();
+        return "<wst:Lifetime xmlns:wsu=\"" + WSConstants.WSU_NS + "\">"
+            + "<wsu:Created>" + fmt.format(new Date(now + created)) + "</wsu:Created>"
+            + "<wsu:Expires>" + fmt.format(new Date(now + expires)) + "</wsu:Expires>"
+            + "</wst:Lifetime>";
+    }
+
+    private static FedizContext createContext(boolean detectExpiredTokens) {
+        FedizContext config = new FedizContext(new ContextConfig());
+        config.setDetectExpiredTokens(detectExpiredTokens);
+        return config;
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.handler;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.common.SecurityTestUtil;
+import org.apache.cxf.fediz.core.handler.RequestRouter.Route;
+import org.apache.cxf.fediz.core.processor.RedirectionResponse;
+import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.easymock.EasyMock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+
+import static org.apache.cxf.fediz.core.handler.HandlerTestUtil.loadConfig;
+import static org.apache.cxf.fediz.core.handler.HandlerTestUtil.mockRequest;
+
+public class FedizEngineTest {
+
+    @AfterClass
+    public static void cleanup() {
+        SecurityTestUtil.cleanup();
+    }
+
+    @org.junit.Test
+    public void testRouteCounts() throws Exception {
+        FedizEngine engine = new FedizEngine(loadConfig("fediz_meta_test_config.xml"), "/fedizhelloworld");
+        Assert.assertNotNull(engine.getProcessor());
+
+        engine.route(
+            mockRequest("GET", "/fedizhelloworld/FederationMetadata/2007-06/FederationMetadata.xml", null, null));
+        engine.route(mockRequest("GET", "/fedizhelloworld/secure", "wa=wsignin1.0", null));
+        engine.route(mockRequest("GET", "/fedizhelloworld/secure", null, null));
+        engine.route(mockRequest("GET", "/fedizhelloworld/other", null, null));
+
+        Assert.assertEquals(1L, engine.getRequestCount(Route.METADATA));
+        Assert.assertEquals(0L, engine.getRequestCount(Route.LOGOUT));
+        Assert.assertEquals(1L, engine.getRequestCount(Route.SIGNIN));
+        Assert.assertEquals(2L, engine.getRequestCount(Route.NONE));
+
+        // Other requests are left to the container
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+        EasyMock.replay(response);
+        Assert.assertFalse(
+            engine.handle(Route.NONE, mockRequest("GET", "/fedizhelloworld/secure", null, null), response));
+        EasyMock.verify(response);
+    }
+
+    @org.junit.Test
+    public void testRedirect() throws Exception {
+        RedirectionResponse redirectionResponse = new RedirectionResponse();
+        redirectionResponse.setRedirectionURL("https://localhost/idp?wa=wsignin1.0");
+        redirectionResponse.addHeader("Cache-Control", "no-cache, no-store");
+
+        HttpServletResponse response = EasyMock.createMock(HttpServletResponse.class);
+        response.addHeader("Cache-Control", "no-cache, no-store");
+        response.sendRedirect("https://localhost/idp?wa=wsignin1.0");
+        EasyMock.replay(response);
+        Assert.assertTrue(FedizEngine.redirect(response, redirectionResponse));
+        EasyMock.verify(response);
+
+        // Nothing is sent without a redirection URL
+        response = EasyMock.createMock(HttpServletResponse.class);
+        EasyMock.replay(response);
+        Assert.assertFalse(FedizEngine.redirect(response, new RedirectionResponse()));
+        EasyMock.verify(response);
+    }
+
+    @org.junit.Test
+    public void testGetToken() throws Exception {
+        Element token = DOMUtils.createDocument().createElement("Assertion");
+        Assert.assertSame(token, FedizEngine.getToken(token));
+        Assert.assertNull(FedizEngine.getToken(null));
+    }
+
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.fediz.core.handler;
+
+import java.io.File;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.cxf.fediz.core.config.FedizConfigurator;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.easymock.EasyMock;
+
+/**
+ * A utility class for the request handling tests
+ */
+final class HandlerTestUtil {
+
+    private HandlerTestUtil() {
+        // complete
+    }
+
+    /**
+     * Mock a request, getParameter is not expected as it would read the body of a POST.
+     */
+    static HttpServletRequest mockRequest(String method, String uri, String query, String contentType) {
+        HttpServletRequest request = EasyMock.createMock(HttpServletRequest.class);
+        EasyMock.expect(request.getMethod()).andReturn(method).anyTimes();
+        EasyMock.expect(request.getRequestURI()).andReturn(uri).anyTimes();
+        EasyMock.expect(request.getQueryString()).andReturn(query).anyTimes();
+        EasyMock.expect(request.getContentType()).andReturn(contentType).anyTimes();
+        EasyMock.replay(request);
+        return request;
+    }
+
+    /**
+     * Load the "ROOT" context of the given configuration file.
+     */
+    static FedizContext loadConfig(String configFile) throws Exception {
+        FedizConfigurator configurator = new FedizConfigurator();
+        File f = new File(HandlerTestUtil.class.getClassLoader().getResource(configFile).toURI());
+        configurator.loadConfig(f);
+        return configurator.getFedizContext("ROOT");
+    }
+
+}
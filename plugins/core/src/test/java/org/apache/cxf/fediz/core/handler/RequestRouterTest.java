@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.handler;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.cxf.fediz.common.SecurityTestUtil;
+import org.apache.cxf.fediz.core.FederationConstants;
+import org.apache.cxf.fediz.core.SAMLSSOConstants;
+import org.apache.cxf.fediz.core.handler.RequestRouter.Route;
+import org.easymock.EasyMock;
+import org.junit.AfterClass;
+import org.junit.Assert;
+
+import static org.apache.cxf.fediz.core.handler.HandlerTestUtil.loadConfig;
+import static org.apache.cxf.fediz.core.handler.HandlerTestUtil.mockRequest;
+
+public class RequestRouterTest {
+
+    @AfterClass
+    public static void cleanup() {
+        SecurityTestUtil.cleanup();
+    }
+
+    @org.junit.Test
+    public void testFederationRoutes() throws Exception {
+        RequestRouter router = new RequestRouter(loadConfig("fediz_meta_test_config.xml"), "/fedizhelloworld");
+
+        Assert.assertEquals(Route.METADATA, router.route(
+            mockRequest("GET", "/fedizhelloworld/FederationMetadata/2007-06/FederationMetadata.xml", null, null)));
+        Assert.assertEquals(Route.LOGOUT, router.route(
+            mockRequest("GET", "/fedizhelloworld/secure", "wa=wsignout1.0", null)));
+        Assert.assertEquals(Route.LOGOUT, router.route(
+            mockRequest("GET", "/fedizhelloworld/secure", "a=b&wa=wsignoutcleanup1.0&wreply=x", null)));
+        Assert.assertEquals(Route.NONE, router.route(
+            mockRequest("GET", "/fedizhelloworld/secure", "xwa=wsignout1.0", null)));
+        Assert.assertEquals(Route.SIGNIN, router.route(
+            mockRequest("GET", "/fedizhelloworld/secure", "wa=wsignin1.0", null)));
+        Assert.assertEquals(Route.NONE, router.route(
+            mockRequest("GET", "/fedizhelloworld/secure", null, null)));
+        // Only form posts are parsed, a JSON body is never read
+        Assert.assertEquals(Route.NONE, router.route(
+            mockRequest("POST", "/fedizhelloworld/secure", null, "application/json")));
+    }
+
+    @org.junit.Test
+    public void testDefaultMetadataPath() throws Exception {
+        RequestRouter router = new RequestRouter(loadConfig("fediz_meta_test_config_saml.xml"), "/fedizhelloworld");
+
+        HttpServletRequest request = 
+            mockRequest("GET", "/fedizhelloworld/" + FederationConstants.METADATA_PATH_URI, null, null);
+        // The WS-Federation path is only served in addition to the metadata URI of the context
+        Assert.assertFalse(router.isMetadataRequest(request));
+        Assert.assertTrue(router.isAnyMetadataRequest(request));
+
+        request = mockRequest("GET", "/fedizhelloworld/" + SAMLSSOConstants.FEDIZ_SAML_METADATA_PATH_URI, null, null);
+        Assert.assertTrue(router.isMetadataRequest(request));
+        Assert.assertTrue(router.isAnyMetadataRequest(request));
+        Assert.assertEquals(Route.METADATA, router.route(request));
+
+        request = mockRequest("GET", "/fedizhelloworld/secure", null, null);
+        Assert.assertFalse(router.isAnyMetadataRequest(request));
+
+        // The paths of JAX-RS requests are relative to the base path of the service
+        Assert.assertTrue(router.isAnyMetadataPath(FederationConstants.METADATA_PATH_URI));
+        Assert.assertTrue(router.isAnyMetadataPath(SAMLSSOConstants.FEDIZ_SAML_METADATA_PATH_URI));
+        Assert.assertFalse(router.isAnyMetadataPath("secure"));
+        Assert.assertFalse(router.isAnyMetadataPath(null));
+    }
+
+    @org.junit.Test
+    public void testFormPost() throws Exception {
+        RequestRouter router = new RequestRouter(loadConfig("fediz_meta_test_config.xml"), "/fedizhelloworld");
+
+        HttpServletRequest request = EasyMock.createNiceMock(HttpServletRequest.class);
+        EasyMock.expect(request.getMethod()).andReturn("POST").anyTimes();
+        EasyMock.expect(request.getRequestURI()).andReturn("/fedizhelloworld/secure").anyTimes();
+        EasyMock.expect(request.getContentType())
+            .andReturn("application/x-www-form-urlencoded; charset=UTF-8").anyTimes();
+        EasyMock.expect(request.getParameter("wa")).andReturn("wsignin1.0").anyTimes();
+        EasyMock.replay(request);
+        Assert.assertEquals(Route.SIGNIN, router.route(request));
+    }
+
+    @org.junit.Test
+    public void testQueryParameter() {
+        Assert.assertEquals("wsignin1.0", RequestRouter.getQueryParameter("wa=wsignin1.0", "wa"));
+        Assert.assertEquals("a b/c", RequestRouter.getQueryParameter("x=1&RelayState=a+b%2Fc", "RelayState"));
+        Assert.assertEquals("", RequestRouter.getQueryParameter("x=1&wa", "wa"));
+        Assert.assertNull(RequestRouter.getQueryParameter("wax=1", "wa"));
+        Assert.assertNull(RequestRouter.getQueryParameter(null, "wa"));
+    }
+
+}
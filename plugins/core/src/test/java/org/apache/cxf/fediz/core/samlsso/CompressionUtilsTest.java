@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.fediz.core.samlsso;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import org.junit.Assert;
+
+public class CompressionUtilsTest {
+
+    @org.junit.Test
+    public void testDeflateAndInflate() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("<saml:Attribute Name=\"role\">").append(i).append("</saml:Attribute>");
+        }
+        byte[] token = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        // Run more often than the pool size, so that pooled Deflaters and Inflaters are reused
+        for (int i = 0; i < 100; i++) {
+            byte[] deflated = CompressionUtils.deflate(token);
+            Assert.assertTrue(deflated.length < token.length);
+            try (InputStream is = CompressionUtils.inflate(deflated)) {
+                Assert.assertArrayEquals(token, readAll(is));
+            }
+        }
+    }
+
+    @org.junit.Test
+    public void testMaxInflationRatio() throws Exception {
+        byte[] deflated = CompressionUtils.deflate(new byte[10 * 1024 * 1024]);
+        try (InputStream is = CompressionUtils.inflate(new ByteArrayInputStream(deflated))) {
+            readAll(is);
+            Assert.fail("Failure expected on exceeding the maximum inflation ratio");
+        } catch (IOException ex) {
+            // expected
+        }
+
+        // The check can be disabled
+        try (InputStream is = CompressionUtils.inflate(new ByteArrayInputStream(deflated), true, 0)) {
+            Assert.assertEquals(10 * 1024 * 1024, readAll(is).length);
+        }
+    }
+
+    @org.junit.Test
+    public void testSmallTokenWithHighRatio() throws Exception {
+        byte[] token = new byte[CompressionUtils.MIN_INFLATION_LIMIT];
+        byte[] deflated = CompressionUtils.deflate(token);
+        Assert.assertTrue(token.length > CompressionUtils.DEFAULT_MAX_INFLATION_RATIO * deflated.length);
+        try (InputStream is = CompressionUtils.inflate(deflated)) {
+            Assert.assertArrayEquals(token, readAll(is));
+        }
+    }
+
+    @org.junit.Test
+    public void testDefaultCompressionLevel() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("<saml:Attribute Name=\"").append(i % 7).append("\">").append(i * 31 % 1009)
+                .append("</saml:Attribute>");
+        }
+        byte[] token = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        // The pooled Deflaters compress with the default level, as a new Deflater does
+        byte[] expected = deflate(new Deflater(Deflater.DEFAULT_COMPRESSION, true), token);
+        Assert.assertArrayEquals(expected, CompressionUtils.deflate(token));
+        Deflater deflater = CompressionUtils.acquireDeflater();
+        try {
+            Assert.assertArrayEquals(expected, deflate(deflater, token));
+        } finally {
+            CompressionUtils.release(deflater);
+        }
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] token) {
+        deflater.setInput(token);
+        deflater.finish();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            bos.write(buffer, 0, count);
+        }
+        return bos.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = is.read(buffer)) != -1) {
+            bos.write(buffer, 0, count);
+        }
+        return bos.toByteArray();
+    }
+
+}
@@ -24,6 +24,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
@@ -35,11 +37,14 @@ import org.apache.cxf.fediz.common.SecurityTestUtil;
 import org.apache.cxf.fediz.core.RequestState;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.SAMLProtocol;
 import org.apache.cxf.fediz.core.processor.FedizProcessor;
 import org.apache.cxf.fediz.core.processor.RedirectionResponse;
 import org.apache.cxf.fediz.core.processor.SAMLProcessorImpl;
 import org.apache.cxf.fediz.core.util.DOMUtils;
+import org.apache.wss4j.common.crypto.CryptoType;
 import org.apache.wss4j.common.saml.OpenSAMLUtil;
+import org.apache.wss4j.common.util.DOM2Writer;
 import org.apache.xml.security.utils.Base64;
 import org.easymock.EasyMock;
 import org.junit.AfterClass;
@@ -178,6 +183,68 @@ public class SAMLRequestTest {
 
         Assert.assertEquals(TEST_REQUEST_URL, request.getIssuer().getValue());
         Assert.assertEquals(TEST_REQUEST_URL, request.getAssertionConsumerServiceURL());
+        Assert.assertEquals(response.getRequestState().getRequestId(), request.getID());
+    }
+    
+    @org.junit.Test
+    public void testAuthnRequestTemplate() throws Exception {
+        String serviceURL = TEST_REQUEST_URL + "?a=b&c=d";
+        AuthnRequest authnRequest = 
+            new DefaultSAMLPRequestBuilder().createAuthnRequest(TEST_REQUEST_URL, serviceURL);
+        authnRequest.setDestination(TEST_IDP_ISSUER);
+        
+        Document doc = DOMUtils.createDocument();
+        doc.appendChild(doc.createElement("root"));
+        String expected = DOM2Writer.nodeToString(OpenSAMLUtil.toDom(authnRequest, doc));
+        
+        AuthnRequestTemplate template = new AuthnRequestTemplate(authnRequest);
+        byte[] request = 
+            template.createRequest(authnRequest.getID(), authnRequest.getIssueInstant(), serviceURL);
+        Assert.assertEquals(expected, new String(request, "UTF-8"));
+    }
+    
+    @org.junit.Test
+    public void testAuthnRequestTemplateBuilderSettings() throws Exception {
+        FedizContext config = getFederationConfigurator().getFedizContext("ROOT");
+        SAMLProtocol protocol = (SAMLProtocol)config.getProtocol();
+        DefaultSAMLPRequestBuilder builder = new DefaultSAMLPRequestBuilder();
+        protocol.setSAMLPRequestBuilder(builder);
+        try {
+            AuthnRequestTemplate template = protocol.getAuthnRequestTemplate(TEST_REQUEST_URL, TEST_IDP_ISSUER);
+            Assert.assertSame(template, protocol.getAuthnRequestTemplate(TEST_REQUEST_URL, TEST_IDP_ISSUER));
+            String request = new String(template.createRequest("_1", TEST_REQUEST_URL), "UTF-8");
+            Assert.assertFalse(request.contains("ForceAuthn=\"true\""));
+
+            // Changing the builder after the first request must not reuse the stale template
+            builder.setForceAuthn(true);
+            AuthnRequestTemplate forceAuthnTemplate = 
+                protocol.getAuthnRequestTemplate(TEST_REQUEST_URL, TEST_IDP_ISSUER);
+            Assert.assertNotSame(template, forceAuthnTemplate);
+            request = new String(forceAuthnTemplate.createRequest("_1", TEST_REQUEST_URL), "UTF-8");
+            Assert.assertTrue(request.contains("ForceAuthn=\"true\""));
+        } finally {
+            protocol.setSAMLPRequestBuilder(null);
+        }
+    }
+    
+    @org.junit.Test
+    public void testAuthnRequestTemplateLimit() throws Exception {
+        FedizContext config = getFederationConfigurator().getFedizContext("ROOT");
+        SAMLProtocol protocol = (SAMLProtocol)config.getProtocol();
+        protocol.setSAMLPRequestBuilder(new DefaultSAMLPRequestBuilder());
+        try {
+            int templates = 0;
+            while (templates < 100
+                && protocol.getAuthnRequestTemplate(TEST_REQUEST_URL + templates, TEST_IDP_ISSUER) != null) {
+                templates++;
+            }
+            // New keys fall back to marshalling the request once the cache is full
+            Assert.assertEquals(16, templates);
+            Assert.assertNull(protocol.getAuthnRequestTemplate(TEST_REQUEST_URL + templates, TEST_IDP_ISSUER));
+            Assert.assertNotNull(protocol.getAuthnRequestTemplate(TEST_REQUEST_URL + 0, TEST_IDP_ISSUER));
+        } finally {
+            protocol.setSAMLPRequestBuilder(null);
+        }
     }
     
     @org.junit.Test
@@ -200,6 +267,42 @@ public class SAMLRequestTest {
         Assert.assertTrue(signature != null && signature.length() > 0);
     }
     
+    @org.junit.Test
+    public void testSignerIsReused() throws Exception {
+        FedizContext config = getFederationConfigurator().getFedizContext("SIGNED_ROOT");
+        FedizProcessor wfProc = new SAMLProcessorImpl();
+        
+        CryptoType cryptoType = new CryptoType(CryptoType.TYPE.ALIAS);
+        cryptoType.setAlias(config.getSigningKey().getKeyAlias());
+        X509Certificate cert = config.getSigningKey().getCrypto().getX509Certificates(cryptoType)[0];
+        
+        RedirectBindingSigner signer = null;
+        for (int i = 0; i < 3; i++) {
+            HttpServletRequest req = EasyMock.createMock(HttpServletRequest.class);
+            EasyMock.expect(req.getRequestURL()).andReturn(new StringBuffer(TEST_REQUEST_URL)).times(1, 2);
+            EasyMock.expect(req.getContextPath()).andReturn(TEST_REQUEST_URI);
+            EasyMock.expect(req.getRequestURI()).andReturn(TEST_REQUEST_URI).times(1, 2);
+            EasyMock.replay(req);
+            
+            String redirectionURL = wfProc.createSignInRequest(req, config).getRedirectionURL();
+            if (signer == null) {
+                signer = config.getSigningKey().getRedirectBindingSigner();
+                Assert.assertNotNull(signer);
+            }
+            Assert.assertSame(signer, config.getSigningKey().getRedirectBindingSigner());
+            
+            // The signature covers the query string up to the Signature parameter
+            String query = redirectionURL.substring(redirectionURL.indexOf('?') + 1);
+            int signatureIndex = query.indexOf("&Signature=");
+            byte[] signatureBytes = 
+                Base64.decode(URLDecoder.decode(query.substring(signatureIndex + "&Signature=".length()), "UTF-8"));
+            Signature verifier = Signature.getInstance("SHA1withRSA");
+            verifier.initVerify(cert.getPublicKey());
+            verifier.update(query.substring(0, signatureIndex).getBytes("UTF-8"));
+            Assert.assertTrue(verifier.verify(signatureBytes));
+        }
+    }
+    
     @org.junit.Test
     public void createSAMLLogoutRequest() throws Exception {
         // Mock up a Request
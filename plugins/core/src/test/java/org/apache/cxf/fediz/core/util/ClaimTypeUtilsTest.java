@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.util;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cxf.fediz.core.ClaimTypes;
+import org.apache.cxf.fediz.core.saml.SAMLTokenValidator;
+import org.junit.Assert;
+
+public class ClaimTypeUtilsTest {
+
+    @org.junit.Test
+    public void testKnownClaimTypes() {
+        Assert.assertSame(ClaimTypes.EMAILADDRESS, ClaimTypeUtils.getClaimType(ClaimTypes.EMAILADDRESS.toString()));
+        Assert.assertSame(ClaimTypes.EMAILADDRESS,
+                          ClaimTypeUtils.getClaimType(ClaimTypes.URI_BASE.toString(), "emailaddress"));
+        Assert.assertSame(ClaimTypes.EMAILADDRESS,
+                          ClaimTypeUtils.getClaimType(ClaimTypes.URI_BASE.toString() + "/", "emailaddress"));
+    }
+
+    @org.junit.Test
+    public void testInternedClaimTypes() {
+        URI claimType = ClaimTypeUtils.getClaimType("http://example.com/claims/group");
+        Assert.assertEquals(URI.create("http://example.com/claims/group"), claimType);
+        Assert.assertSame(claimType, ClaimTypeUtils.getClaimType("http://example.com/claims/group"));
+        Assert.assertSame(claimType, ClaimTypeUtils.getClaimType("http://example.com/claims", "group"));
+        Assert.assertSame(claimType, ClaimTypeUtils.getClaimType("http://example.com/claims", "group"));
+    }
+
+    @org.junit.Test
+    public void testParseRoles() {
+        TestTokenValidator validator = new TestTokenValidator();
+        Assert.assertEquals(Arrays.asList("User", "Admin", "Manager"), validator.parseRoles("User,Admin,Manager", ","));
+        Assert.assertEquals(Arrays.asList("User", "Admin"), validator.parseRoles(",User,,Admin,", ","));
+        Assert.assertEquals(Arrays.asList("User", "Admin"), validator.parseRoles("User; Admin", "; "));
+        Assert.assertEquals(Arrays.asList("User"), validator.parseRoles("User", ","));
+        Assert.assertTrue(validator.parseRoles(",,", ",").isEmpty());
+    }
+
+    private static class TestTokenValidator extends SAMLTokenValidator {
+        @Override
+        public List<String> parseRoles(String value, String delim) {
+            return super.parseRoles(value, delim);
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.util;
+
+import java.util.Date;
+
+import org.junit.Assert;
+
+public class CookieUtilsTest {
+
+    @org.junit.Test
+    public void testFormatHttpDate() {
+        long time = 1500000000123L;
+        String expected = CookieUtils.getHttpDateFormat().format(new Date(time));
+        Assert.assertEquals("Fri, 14 Jul 2017 02:40:00 GMT", expected);
+        Assert.assertEquals(expected, CookieUtils.formatHttpDate(time));
+        // Times within the same second share the formatted date
+        Assert.assertSame(CookieUtils.formatHttpDate(time), CookieUtils.formatHttpDate(time + 500L));
+        Assert.assertEquals(CookieUtils.getHttpDateFormat().format(new Date(time + 1000L)),
+                            CookieUtils.formatHttpDate(time + 1000L));
+    }
+
+    @org.junit.Test
+    public void testCreateCookie() {
+        String cookie = CookieUtils.createCookie("FedizState", "abc", "/fedizhelloworld", null, 60000L);
+        Assert.assertTrue(cookie.startsWith("FedizState=abc;Path=/fedizhelloworld;Expires="));
+        Assert.assertTrue(cookie.endsWith(" GMT"));
+    }
+
+    @org.junit.Test
+    public void testIsStateExpired() {
+        long now = System.currentTimeMillis();
+        Assert.assertFalse(CookieUtils.isStateExpired(now, 0, 60000L));
+        Assert.assertFalse(CookieUtils.isStateExpired(now, now + 60000L, 60000L));
+        Assert.assertTrue(CookieUtils.isStateExpired(now - 120000L, 0, 60000L));
+        Assert.assertTrue(CookieUtils.isStateExpired(now, now - 1000L, 60000L));
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.core.util;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilder;
+
+import org.w3c.dom.Document;
+
+import org.xml.sax.SAXException;
+
+import org.junit.Assert;
+
+public class DocumentBuilderPoolTest {
+
+    @org.junit.Test
+    public void testBuilderIsReused() throws Exception {
+        DocumentBuilderPool pool = new DocumentBuilderPool(1);
+        DocumentBuilder builder = pool.borrow();
+        Assert.assertEquals(0L, pool.getHits());
+        Assert.assertEquals(1L, pool.getMisses());
+        pool.release(builder);
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        Assert.assertSame(builder, pool.borrow());
+        Assert.assertEquals(1L, pool.getHits());
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+    @org.junit.Test
+    public void testPoolIsBounded() throws Exception {
+        DocumentBuilderPool pool = new DocumentBuilderPool(1);
+        DocumentBuilder builder1 = pool.borrow();
+        DocumentBuilder builder2 = pool.borrow();
+        Assert.assertNotSame(builder1, builder2);
+        pool.release(builder1);
+        pool.release(builder2);
+        Assert.assertEquals(1, pool.getIdleCount());
+    }
+
+    @org.junit.Test
+    public void testReadXml() throws Exception {
+        Document doc = DOMUtils.readXml(new StringReader("<a:root xmlns:a=\"urn:a\"><a:child/></a:root>"));
+        Assert.assertEquals("urn:a", doc.getDocumentElement().getNamespaceURI());
+        Assert.assertEquals("root", doc.getDocumentElement().getLocalName());
+    }
+
+    @org.junit.Test
+    public void testDoctypeRejected() throws Exception {
+        String xml = "<?xml version=\"1.0\"?><!DOCTYPE root [<!ENTITY e \"x\">]><root>&e;</root>";
+        try {
+            DOMUtils.readXml(new StringReader(xml));
+            Assert.fail("Failure expected on DOCTYPE declaration");
+        } catch (SAXException ex) {
+            // expected
+        }
+        // The builder must still be usable afterwards
+        Assert.assertNotNull(DOMUtils.readXml(new StringReader("<root/>")));
+    }
+
+}
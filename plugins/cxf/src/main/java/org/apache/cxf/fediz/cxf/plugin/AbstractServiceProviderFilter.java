@@ -20,11 +20,9 @@ package org.apache.cxf.fediz.cxf.plugin;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
 
@@ -39,6 +37,7 @@ import javax.xml.bind.JAXBException;
 import org.w3c.dom.Element;
 import org.apache.cxf.common.classloader.ClassLoaderUtils;
 import org.apache.cxf.common.i18n.BundleUtils;
+import org.apache.cxf.fediz.core.FedizPrincipal;
 import org.apache.cxf.fediz.core.SecurityTokenThreadLocal;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
@@ -48,9 +47,9 @@ import org.apache.cxf.fediz.cxf.plugin.state.ResponseState;
 import org.apache.cxf.fediz.cxf.plugin.state.SPStateManager;
 import org.apache.cxf.jaxrs.impl.HttpHeadersImpl;
 import org.apache.cxf.jaxrs.impl.UriInfoImpl;
+import org.apache.cxf.jaxrs.utils.HttpUtils;
 import org.apache.cxf.message.Message;
 import org.apache.cxf.security.SecurityContext;
-import org.apache.cxf.staxutils.StaxUtils;
 import org.apache.wss4j.common.ext.WSSecurityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -75,6 +74,10 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
     private SPStateManager stateManager;
     private long stateTimeToLive = 120000;
     private String webAppDomain;
+    private long securityContextCacheTimeToLive = SecurityContextCache.DEFAULT_TTL;
+    private SecurityContextCache securityContextCache;
+    private FedizContextCache fedizContextCache;
+    private boolean webAppContextOverridden;
     
     public String getConfigFile() {
         return configFile;
@@ -114,24 +117,31 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
         if (stateManager == null) {
             stateManager = new EHCacheSPStateManager("fediz-ehcache.xml");
         } 
+        
+        if (securityContextCache == null && securityContextCacheTimeToLive > 0) {
+            securityContextCache = new SecurityContextCache(securityContextCacheTimeToLive,
+                                                            SecurityContextCache.DEFAULT_MAX_ENTRIES);
+        }
+        
+        if (fedizContextCache == null) {
+            fedizContextCache = new FedizContextCache();
+        }
+        webAppContextOverridden = overridesWebAppContext(getClass());
     }
     
     @PreDestroy
     public synchronized void cleanup() throws IOException {
         if (configurator != null) {
-            List<FedizContext> fedContextList = configurator.getFedizContextList();
-            if (fedContextList != null) {
-                for (FedizContext fedContext : fedContextList) {
-                    try {
-                        fedContext.close();
-                    } catch (IOException ex) {
-                        //
-                    }
-                }
-            }
+            configurator.closeFedizContexts();
         }
         
         stateManager.close();
+        if (securityContextCache != null) {
+            securityContextCache.clear();
+        }
+        if (fedizContextCache != null) {
+            fedizContextCache.clear();
+        }
     }
     
     protected boolean checkSecurityContext(Message m) {
@@ -157,29 +167,46 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
             return false;
         }
         
-        // Create SecurityContext
-        try {
-            Element token = 
-                StaxUtils.read(new StringReader(responseState.getAssertion())).getDocumentElement();
-            setSecurityContext(responseState, m, token);
-        } catch (Exception ex) {
-            reportError("INVALID_RESPONSE_STATE");
-            return false;
+        // Reuse the SecurityContext created by a previous request of the same ResponseState
+        String contextKey = securityContextCookie.getValue();
+        if (securityContextCache != null) {
+            FedizSecurityContext context = securityContextCache.get(contextKey, responseState);
+            if (context != null) {
+                setSecurityContext(context, m);
+                return true;
+            }
         }
         
+        // Create SecurityContext, the token is only parsed when it is requested
+        CXFFedizPrincipal principal = 
+            new CXFFedizPrincipal(responseState.getSubject(), responseState.getClaims(), 
+                                  responseState.getAssertion());
+        FedizSecurityContext context = new FedizSecurityContext(principal, responseState.getRoles());
+        if (securityContextCache != null) {
+            securityContextCache.put(contextKey, responseState, context);
+        }
+        setSecurityContext(context, m);
         return true;
     }
     
+    protected void setSecurityContext(FedizSecurityContext context, Message m) {
+        if (context.getUserPrincipal() instanceof FedizPrincipal) {
+            SecurityTokenThreadLocal.setPrincipal((FedizPrincipal)context.getUserPrincipal());
+        }
+        m.put(SecurityContext.class, context);
+    }
+    
+    /**
+     * @deprecated the filter no longer calls this method, override
+     *             {@link #setSecurityContext(FedizSecurityContext, Message)} instead.
+     */
+    @Deprecated
     protected void setSecurityContext(
         ResponseState responseState, Message m, Element token
     ) throws WSSecurityException {
         CXFFedizPrincipal principal = 
             new CXFFedizPrincipal(responseState.getSubject(), responseState.getClaims(), token);
-        
-        SecurityTokenThreadLocal.setToken(principal.getLoginToken());
-        FedizSecurityContext context = 
-            new FedizSecurityContext(principal, responseState.getRoles());
-        m.put(SecurityContext.class, context);
+        setSecurityContext(new FedizSecurityContext(principal, responseState.getRoles()), m);
     }
     
     protected ResponseState getValidResponseState(Cookie securityContextCookie, 
@@ -203,7 +230,7 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
         if (CookieUtils.isStateExpired(responseState.getCreatedAt(), responseState.getExpiresAt(), 
                                     getStateTimeToLive())) {
             reportError("EXPIRED_RESPONSE_STATE");
-            stateManager.removeResponseState(contextKey);
+            removeResponseState(contextKey);
             return null;
         }
         
@@ -213,7 +240,7 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
                 || !webAppDomain.equals(responseState.getWebAppDomain()))
                 || responseState.getWebAppContext() == null
                 || !webAppContext.equals(responseState.getWebAppContext())) {
-            stateManager.removeResponseState(contextKey);
+            removeResponseState(contextKey);
             reportError("INVALID_RESPONSE_STATE");
             return null;
         }
@@ -224,7 +251,29 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
         return responseState;
     }
     
+    protected void removeResponseState(String contextKey) {
+        stateManager.removeResponseState(contextKey);
+        if (securityContextCache != null) {
+            securityContextCache.remove(contextKey);
+        }
+    }
+    
     protected FedizContext getFedizContext(Message message) {
+        // The resolved context is cached per base path until the configuration is reloaded
+        String key = webAppContextOverridden ? null : getContextCacheKey(message);
+        if (fedizContextCache == null || configurator == null || key == null) {
+            return resolveFedizContext(message);
+        }
+        long generation = configurator.getGeneration();
+        FedizContext config = fedizContextCache.get(key, generation);
+        if (config == null) {
+            config = resolveFedizContext(message);
+            fedizContextCache.put(key, generation, config);
+        }
+        return config;
+    }
+    
+    private FedizContext resolveFedizContext(Message message) {
         String contextName = getWebAppContext(message);
         String[] contextPath = contextName.split("/");
         if (contextPath.length > 0) {
@@ -233,6 +282,40 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
         return getContextConfiguration(contextName);
     }
     
+    /**
+     * Return the key of the FedizContextCache, i.e. what the default getWebAppContext depends on.
+     * The key is made of the raw values, so that it's cheaper to compute than getWebAppContext
+     * itself. The cache is bypassed if a subclass overrides getWebAppContext.
+     */
+    private String getContextCacheKey(Message m) {
+        if (!addWebAppContext) {
+            return "/";
+        }
+        String basePath = (String)m.get("http.base.path");
+        if (addEndpointAddressToContext) {
+            // The base URI of the request is derived from the base path and the endpoint address
+            String endpointAddress = HttpUtils.getEndpointAddress(m);
+            return basePath == null || endpointAddress == null ? null : basePath + ' ' + endpointAddress;
+        }
+        return basePath;
+    }
+    
+    /**
+     * Return true if the filter class overrides getWebAppContext, whose result may then depend on
+     * anything in the message.
+     */
+    static boolean overridesWebAppContext(Class<?> filterClass) {
+        for (Class<?> c = filterClass; c != AbstractServiceProviderFilter.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("getWebAppContext", Message.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                continue;
+            }
+        }
+        return false;
+    }
+    
     protected FedizContext getContextConfiguration(String contextName) {
         if (configurator == null) {
             throw new IllegalStateException("No Fediz configuration available");
@@ -263,6 +346,10 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
         }
     }
     
+    /**
+     * Return the context path of the application. The FedizContext of a request is cached by the
+     * values the default implementation depends on, the cache isn't used if it is overridden.
+     */
     protected String getWebAppContext(Message m) {
         if (addWebAppContext) {
             if (addEndpointAddressToContext) {
@@ -303,4 +390,35 @@ public abstract class AbstractServiceProviderFilter implements ContainerRequestF
     public void setStateTimeToLive(long stateTimeToLive) {
         this.stateTimeToLive = stateTimeToLive;
     }
+
+    public long getSecurityContextCacheTimeToLive() {
+        return securityContextCacheTimeToLive;
+    }
+
+    /**
+     * Set the time to live in milliseconds of the cached security contexts. The cache is
+     * disabled if the value is 0.
+     */
+    public void setSecurityContextCacheTimeToLive(long securityContextCacheTimeToLive) {
+        this.securityContextCacheTimeToLive = securityContextCacheTimeToLive;
+    }
+
+    public SecurityContextCache getSecurityContextCache() {
+        return securityContextCache;
+    }
+
+    public void setSecurityContextCache(SecurityContextCache securityContextCache) {
+        this.securityContextCache = securityContextCache;
+    }
+
+    /**
+     * Return the cache of the resolved FedizContexts, e.g. to monitor its hits and misses.
+     */
+    public FedizContextCache getFedizContextCache() {
+        return fedizContextCache;
+    }
+
+    public void setFedizContextCache(FedizContextCache fedizContextCache) {
+        this.fedizContextCache = fedizContextCache;
+    }
 }
@@ -18,23 +18,43 @@
  */
 package org.apache.cxf.fediz.cxf.plugin;
 
+import java.io.StringReader;
 import java.util.List;
 
 import org.w3c.dom.Element;
 import org.apache.cxf.fediz.core.Claim;
 import org.apache.cxf.fediz.core.ClaimCollection;
 import org.apache.cxf.fediz.core.FedizPrincipal;
+import org.apache.cxf.staxutils.StaxUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class CXFFedizPrincipal implements FedizPrincipal {
     
+    private static final Logger LOG = LoggerFactory.getLogger(CXFFedizPrincipal.class);
+    
     private final String subject;
     private final List<Claim> claims;
-    private Element token;
+    private final String assertion;
+    private final Element token;
     
     public CXFFedizPrincipal(String subject, List<Claim> claims, Element token) {
         this.subject = subject;
         this.claims = claims;
         this.token = token;
+        this.assertion = null;
+    }
+    
+    /**
+     * The login token is parsed from the serialized assertion when it is requested. The principal
+     * may be shared between requests, so every call returns a token of its own, as a DOM tree
+     * must not be used by several threads.
+     */
+    public CXFFedizPrincipal(String subject, List<Claim> claims, String assertion) {
+        this.subject = subject;
+        this.claims = claims;
+        this.assertion = assertion;
+        this.token = null;
     }
 
     @Override
@@ -49,6 +69,13 @@ public class CXFFedizPrincipal implements FedizPrincipal {
 
     @Override
     public Element getLoginToken() {
+        if (token == null && assertion != null) {
+            try {
+                return StaxUtils.read(new StringReader(assertion)).getDocumentElement();
+            } catch (Exception ex) {
+                LOG.warn("Failed to parse the login token of '" + subject + "': " + ex.getMessage());
+            }
+        }
         return token;
     }
     
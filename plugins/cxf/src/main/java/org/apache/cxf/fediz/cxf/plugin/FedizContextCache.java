@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+
+/**
+ * Caches the FedizContext resolved for the base path (and endpoint address) of a request. An
+ * entry is only returned for the configuration generation it has been resolved with, so that
+ * the entries are invalidated when the FedizConfigurator reloads the configuration. The number
+ * of entries is bounded, since the base path of a request includes the requested host.
+ */
+public class FedizContextCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public FedizContextCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public FedizContextCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be greater than zero");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Return the FedizContext resolved for the key with the given configuration generation or null.
+     */
+    public FedizContext get(String key, long generation) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.generation != generation) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.context;
+    }
+
+    public void put(String key, long generation, FedizContext context) {
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            // Drop the entries of previous generations before giving up
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().generation != generation) {
+                    iterator.remove();
+                }
+            }
+            if (entries.size() >= maxEntries) {
+                return;
+            }
+        }
+        entries.put(key, new Entry(context, generation));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private static final class Entry {
+        private final FedizContext context;
+        private final long generation;
+
+        Entry(FedizContext context, long generation) {
+            this.context = context;
+            this.generation = generation;
+        }
+    }
+
+}
@@ -18,14 +18,16 @@
  */
 package org.apache.cxf.fediz.cxf.plugin;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.URI;
 import java.security.cert.X509Certificate;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -35,11 +37,12 @@ import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Cookie;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
 
-import org.w3c.dom.Document;
 import org.apache.cxf.fediz.core.FederationConstants;
 import org.apache.cxf.fediz.core.RequestState;
 import org.apache.cxf.fediz.core.SAMLSSOConstants;
@@ -47,16 +50,18 @@ import org.apache.cxf.fediz.core.config.FederationProtocol;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.config.SAMLProtocol;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
-import org.apache.cxf.fediz.core.processor.FedizProcessor;
-import org.apache.cxf.fediz.core.processor.FedizProcessorFactory;
+import org.apache.cxf.fediz.core.handler.FedizEngine;
+import org.apache.cxf.fediz.core.metadata.MetadataCache;
+import org.apache.cxf.fediz.core.metadata.MetadataDocument;
 import org.apache.cxf.fediz.core.processor.FedizRequest;
 import org.apache.cxf.fediz.core.processor.FedizResponse;
 import org.apache.cxf.fediz.core.processor.RedirectionResponse;
 import org.apache.cxf.fediz.core.util.CookieUtils;
+import org.apache.cxf.fediz.cxf.plugin.FormParameterReader.FormTooLargeException;
 import org.apache.cxf.fediz.cxf.plugin.state.ResponseState;
-import org.apache.cxf.helpers.IOUtils;
 import org.apache.cxf.jaxrs.ext.MessageContext;
 import org.apache.cxf.jaxrs.impl.HttpHeadersImpl;
+import org.apache.cxf.jaxrs.impl.MetadataMap;
 import org.apache.cxf.jaxrs.impl.UriInfoImpl;
 import org.apache.cxf.jaxrs.utils.ExceptionUtils;
 import org.apache.cxf.jaxrs.utils.JAXRSUtils;
@@ -72,33 +77,30 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter {
     @Context 
     private MessageContext messageContext;
     
+    private long maxFormSize = FormParameterReader.DEFAULT_MAX_SIZE;
+    private final ConcurrentMap<String, FedizEngine> engines = new ConcurrentHashMap<>();
+    
     public void filter(ContainerRequestContext context) {
         Message m = JAXRSUtils.getCurrentMessage();
         FedizContext fedConfig = getFedizContext(m);
+        FedizEngine engine = getEngine(fedConfig);
         
         // See if it is a Metadata request
-        if (isMetadataRequest(context, fedConfig)) {
+        if (isMetadataRequest(context, engine)) {
             return;
         }
 
         // See if it is a Logout request
-        if (isLogoutRequest(context, m, fedConfig)) {
+        if (isLogoutRequest(context, m, engine)) {
             return;
         }
         
         String httpMethod = context.getMethod();
         MultivaluedMap<String, String> params = null;
+        InputStream responseTokenStream = null;
         
-        try {
-            if (HttpMethod.GET.equals(httpMethod)) {
-                params = context.getUriInfo().getQueryParameters();
-            } else if (HttpMethod.POST.equals(httpMethod)) {
-                String strForm = IOUtils.toString(context.getEntityStream());
-                params = JAXRSUtils.getStructuredParams(strForm, "&", true, false);
-            }
-        } catch (Exception ex) {
-            LOG.debug(ex.getMessage(), ex);
-            throw ExceptionUtils.toInternalServerErrorException(ex, null);
+        if (HttpMethod.GET.equals(httpMethod)) {
+            params = context.getUriInfo().getQueryParameters();
         }
         
         if (isSignoutCleanupRequest(fedConfig, m, params)) {
@@ -106,25 +108,25 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter {
         } else if (checkSecurityContext(m)) {
             return;
         } else {
+            if (HttpMethod.POST.equals(httpMethod)) {
+                // Only the form of an unauthenticated request is read (with a size limit), the
+                // body of other POST requests (e.g. uploads or JSON) is left to the application
+                FormParameterReader reader = createFormReader(fedConfig);
+                params = isFormRequest(context) 
+                    ? readForm(context, reader) : new MetadataMap<String, String>();
+                responseTokenStream = reader.getDecodedField();
+                if (isSignoutCleanupRequest(fedConfig, m, params)) {
+                    return;
+                }
+            }
+            
             if (isSignInRequired(fedConfig, params)) {
                 // Unauthenticated -> redirect
-                FedizProcessor processor = 
-                    FedizProcessorFactory.newFedizProcessor(fedConfig.getProtocol());
-
                 HttpServletRequest request = messageContext.getHttpServletRequest();
                 try {
-                    RedirectionResponse redirectionResponse = 
-                        processor.createSignInRequest(request, fedConfig);
-                    String redirectURL = redirectionResponse.getRedirectionURL();
-                    if (redirectURL != null) {
-                        ResponseBuilder response = Response.seeOther(new URI(redirectURL));
-                        Map<String, String> headers = redirectionResponse.getHeaders();
-                        if (!headers.isEmpty()) {
-                            for (String headerName : headers.keySet()) {
-                                response.header(headerName, headers.get(headerName));
-                            }
-                        }
-    
+                    RedirectionResponse redirectionResponse = engine.createSignInRequest(request);
+                    ResponseBuilder response = FedizResponseAdapter.redirect(redirectionResponse);
+                    if (response != null) {
                         // Save the RequestState
                         RequestState requestState = redirectionResponse.getRequestState();
                         if (requestState != null && requestState.getState() != null) {
@@ -152,7 +154,7 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter {
                 String responseToken = getResponseToken(fedConfig, params);
                 String state = getState(fedConfig, params);
 
-                if (responseToken == null) {
+                if (responseToken == null && responseTokenStream == null) {
                     if (LOG.isDebugEnabled()) {
                         LOG.debug("SignIn request must contain a response token from the IdP");
                     }
@@ -165,7 +167,7 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter {
                     }
 
                     FedizResponse wfRes = 
-                        validateSignInRequest(fedConfig, params, responseToken, state);
+                        validateSignInRequest(engine, params, responseToken, responseTokenStream, state);
 
                     // Validate AudienceRestriction
                     List<String> audienceURIs = fedConfig.getAudienceUris();
@@ -228,24 +230,78 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter {
         }
     }
     
-    private boolean isMetadataRequest(ContainerRequestContext context, FedizContext fedConfig) {
-        String requestPath = context.getUriInfo().getPath();
+    public long getMaxFormSize() {
+        return maxFormSize;
+    }
+
+    /**
+     * Set the maximum size in bytes of a POSTed sign-in form, a value less than 1 disables the check.
+     * Larger forms are rejected with a 413 status before they are read completely. The limit only
+     * applies to the forms of unauthenticated requests.
+     */
+    public void setMaxFormSize(long maxFormSize) {
+        this.maxFormSize = maxFormSize;
+    }
+    
+    private FormParameterReader createFormReader(FedizContext fedConfig) {
+        // The SAMLResponse is Base64-decoded while the form is read
+        String base64Field = fedConfig.getProtocol() instanceof SAMLProtocol 
+            ? SAMLSSOConstants.SAML_RESPONSE : null;
+        return new FormParameterReader(maxFormSize, base64Field);
+    }
+    
+    static boolean isFormRequest(ContainerRequestContext context) {
+        MediaType mediaType = context.getMediaType();
+        return mediaType != null && MediaType.APPLICATION_FORM_URLENCODED_TYPE.isCompatible(mediaType);
+    }
+    
+    MultivaluedMap<String, String> readForm(ContainerRequestContext context, 
+                                            FormParameterReader reader) {
+        try {
+            if (maxFormSize > 0 && context.getLength() > maxFormSize) {
+                throw new FormTooLargeException(maxFormSize);
+            }
+            return reader.read(context.getEntityStream());
+        } catch (FormTooLargeException ex) {
+            LOG.warn(ex.getMessage());
+            throw ExceptionUtils.toHttpException(ex, Response.status(Status.REQUEST_ENTITY_TOO_LARGE).build());
+        } catch (IOException ex) {
+            LOG.debug("Failed to read the form: " + ex.getMessage(), ex);
+            throw ExceptionUtils.toBadRequestException(ex, null);
+        } catch (Exception ex) {
+            LOG.debug(ex.getMessage(), ex);
+            throw ExceptionUtils.toInternalServerErrorException(ex, null);
+        }
+    }
+    
+    /**
+     * Return the engine of the FedizContext, it is created once per (reloaded) FedizContext. The
+     * filter detects logout requests relative to the base path of the service, so the engine is
+     * created without a servlet context path.
+     */
+    protected FedizEngine getEngine(FedizContext fedConfig) {
+        FedizEngine engine = engines.get(fedConfig.getName());
+        if (engine == null || engine.getFedizContext() != fedConfig) {
+            engine = new FedizEngine(fedConfig, null);
+            engines.put(fedConfig.getName(), engine);
+        }
+        return engine;
+    }
+    
+    private boolean isMetadataRequest(ContainerRequestContext context, FedizEngine engine) {
         // See if it is a Metadata request
-        if (requestPath.indexOf(FederationConstants.METADATA_PATH_URI) != -1
-            || requestPath.indexOf(getMetadataURI(fedConfig)) != -1) {
+        if (engine.isAnyMetadataPath(context.getUriInfo().getPath())) {
             if (LOG.isInfoEnabled()) {
                 LOG.info("Metadata document requested");
             }
             
-            FedizProcessor wfProc = 
-                FedizProcessorFactory.newFedizProcessor(fedConfig.getProtocol());
+            FedizContext fedConfig = engine.getFedizContext();
+            MetadataCache cache = fedConfig.getMetadataCache();
             try {
                 HttpServletRequest request = messageContext.getHttpServletRequest();
-                Document metadata = wfProc.getMetaData(request, fedConfig);
-                String metadataStr = DOM2Writer.nodeToString(metadata);
-                
-                ResponseBuilder response = Response.ok(metadataStr, "text/xml");
-                context.abortWith(response.build());
+                MetadataDocument metadata = cache.getDocument(request, fedConfig);
+                String ifNoneMatch = context.getHeaderString(MetadataDocument.IF_NONE_MATCH);
+                context.abortWith(FedizResponseAdapter.metadata(metadata, cache, ifNoneMatch).build());
                 return true;
             } catch (Exception ex) {
                 LOG.error("Failed to get metadata document: " + ex.getMessage());
@@ -257,31 +313,20 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter {
     }
     
     private boolean isLogoutRequest(ContainerRequestContext context, Message message,
-                                    FedizContext fedConfig) {
+                                    FedizEngine engine) {
         //logout
-        String logoutUrl = fedConfig.getLogoutURL();
+        String logoutUrl = engine.getFedizContext().getLogoutURL();
         if (logoutUrl != null && !logoutUrl.isEmpty()) {
             String requestPath = "/" + context.getUriInfo().getPath();
             if (requestPath.equals(logoutUrl) || requestPath.equals(logoutUrl + "/")) {
                 cleanupContext(message);
                 
                 try {
-                    FedizProcessor processor = 
-                        FedizProcessorFactory.newFedizProcessor(fedConfig.getProtocol());
-                    
                     HttpServletRequest request = messageContext.getHttpServletRequest();
                     RedirectionResponse redirectionResponse = 
-                        processor.createSignOutRequest(request, null, fedConfig); //TODO
-                    String redirectURL = redirectionResponse.getRedirectionURL();
-                    if (redirectURL != null) {
-                        ResponseBuilder response = Response.seeOther(new URI(redirectURL));
-                        Map<String, String> headers = redirectionResponse.getHeaders();
-                        if (!headers.isEmpty()) {
-                            for (String headerName : headers.keySet()) {
-                                response.header(headerName, headers.get(headerName));
-                            }
-                        }
-    
+                        engine.createSignOutRequest(request, null); //TODO
+                    ResponseBuilder response = FedizResponseAdapter.redirect(redirectionResponse);
+                    if (response != null) {
                         context.abortWith(response.build());
     
                         return true;
@@ -301,7 +346,7 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter {
         Map<String, Cookie> cookies = headers.getCookies();
         if (cookies.containsKey(SECURITY_CONTEXT_TOKEN)) {
             String contextKey = cookies.get(SECURITY_CONTEXT_TOKEN).getValue();
-            getStateManager().removeResponseState(contextKey);
+            removeResponseState(contextKey);
         }
         if (cookies.containsKey(SECURITY_CONTEXT_STATE)) {
             String contextKey = cookies.get(SECURITY_CONTEXT_STATE).getValue();
@@ -309,18 +354,6 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter {
         }
     }
     
-    private String getMetadataURI(FedizContext fedConfig) {
-        if (fedConfig.getProtocol().getMetadataURI() != null) {
-            return fedConfig.getProtocol().getMetadataURI();
-        } else if (fedConfig.getProtocol() instanceof FederationProtocol) {
-            return FederationConstants.METADATA_PATH_URI;
-        } else if (fedConfig.getProtocol() instanceof SAMLProtocol) {
-            return SAMLSSOConstants.FEDIZ_SAML_METADATA_PATH_URI;
-        }
-        
-        return FederationConstants.METADATA_PATH_URI;
-    }
-    
     private boolean isSignInRequired(FedizContext fedConfig, MultivaluedMap<String, String> params) {
         if (params != null && fedConfig.getProtocol() instanceof FederationProtocol
             && params.getFirst(FederationConstants.PARAM_ACTION) == null) {
@@ -412,14 +445,16 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter {
     }
     
     private FedizResponse validateSignInRequest(
-        FedizContext fedConfig,
+        FedizEngine engine,
         MultivaluedMap<String, String> params,
         String responseToken,
+        InputStream responseTokenStream,
         String state
     ) {
         FedizRequest wfReq = new FedizRequest();
         wfReq.setAction(params.getFirst(FederationConstants.PARAM_ACTION));
         wfReq.setResponseToken(responseToken);
+        wfReq.setResponseTokenStream(responseTokenStream);
         
         if (state == null || state.getBytes().length <= 0) {
             LOG.error("Invalid RelayState/WCTX");
@@ -447,10 +482,8 @@ public class FedizRedirectBindingFilter extends AbstractServiceProviderFilter {
             (X509Certificate[])request.getAttribute("javax.servlet.request.X509Certificate");
         wfReq.setCerts(certs);
 
-        FedizProcessor wfProc = 
-            FedizProcessorFactory.newFedizProcessor(fedConfig.getProtocol());
         try {
-            return wfProc.processRequest(wfReq, fedConfig);
+            return engine.getProcessor().processRequest(wfReq, engine.getFedizContext());
         } catch (ProcessingException ex) {
             LOG.error("Federation processing failed: " + ex.getMessage());
             throw ExceptionUtils.toNotAuthorizedException(ex, null);
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+import org.apache.cxf.fediz.core.metadata.MetadataCache;
+import org.apache.cxf.fediz.core.metadata.MetadataDocument;
+import org.apache.cxf.fediz.core.processor.RedirectionResponse;
+
+/**
+ * Adapts the results of the FedizEngine to JAX-RS responses. The servlet based plugins write
+ * them to the HttpServletResponse (see FedizEngine.redirect and MetadataDocument.write).
+ */
+final class FedizResponseAdapter {
+
+    private FedizResponseAdapter() {
+    }
+
+    /**
+     * Return a 303 response to the URL of the RedirectionResponse with its headers, or null if the
+     * RedirectionResponse has no URL.
+     */
+    static ResponseBuilder redirect(RedirectionResponse redirectionResponse) throws URISyntaxException {
+        String redirectURL = redirectionResponse.getRedirectionURL();
+        if (redirectURL == null) {
+            return null;
+        }
+        ResponseBuilder response = Response.seeOther(new URI(redirectURL));
+        for (Map.Entry<String, String> header : redirectionResponse.getHeaders().entrySet()) {
+            response.header(header.getKey(), header.getValue());
+        }
+        return response;
+    }
+
+    /**
+     * Return the response of a metadata request, which is 304 if the client has the current
+     * version of the document.
+     */
+    static ResponseBuilder metadata(MetadataDocument metadata, MetadataCache cache, String ifNoneMatch) {
+        ResponseBuilder response;
+        if (metadata.matches(ifNoneMatch)) {
+            response = Response.notModified();
+        } else {
+            response = Response.ok(metadata.getContent(), MetadataDocument.CONTENT_TYPE);
+        }
+        response.header(MetadataDocument.ETAG, metadata.getETag());
+        if (cache.getCacheControl() != null) {
+            response.header(MetadataDocument.CACHE_CONTROL, cache.getCacheControl());
+        }
+        return response;
+    }
+
+}
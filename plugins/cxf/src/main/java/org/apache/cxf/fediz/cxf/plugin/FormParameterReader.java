@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.apache.cxf.jaxrs.impl.MetadataMap;
+
+/**
+ * Reads an "application/x-www-form-urlencoded" entity in a single pass over the stream. The
+ * fields are URL-decoded while they are read. The value of one field (e.g. the SAMLResponse)
+ * can be Base64-decoded on the fly as well, so that neither the entity nor the encoded value
+ * is ever held as a String. Reading fails as soon as the entity exceeds the maximum size.
+ */
+public class FormParameterReader {
+
+    public static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int[] BASE64 = new int[128];
+
+    static {
+        Arrays.fill(BASE64, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final long maxSize;
+    private final String base64Field;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private InputStream in;
+    private int position;
+    private int limit;
+    private long total;
+    private ByteArrayOutputStream decodedField;
+
+    /**
+     * @param maxSize the maximum size of the entity in bytes, a value less than 1 disables the check
+     * @param base64Field the name of the field to Base64-decode, or null
+     */
+    public FormParameterReader(long maxSize, String base64Field) {
+        this.maxSize = maxSize;
+        this.base64Field = base64Field;
+    }
+
+    /**
+     * Read the form fields. The Base64-decoded field is not part of the returned parameters,
+     * but is available from getDecodedField().
+     */
+    public MultivaluedMap<String, String> read(InputStream entity) throws IOException {
+        in = entity;
+        MultivaluedMap<String, String> params = new MetadataMap<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int c = next();
+        while (c != -1) {
+            bytes.reset();
+            while (c != -1 && c != '=' && c != '&') {
+                bytes.write(decode(c));
+                c = next();
+            }
+            String name = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            if (c == '=') {
+                c = next();
+            }
+            if (name.equals(base64Field) && decodedField == null) {
+                decodedField = new ByteArrayOutputStream(BUFFER_SIZE);
+                c = readBase64(c, decodedField);
+            } else {
+                bytes.reset();
+                while (c != -1 && c != '&') {
+                    bytes.write(decode(c));
+                    c = next();
+                }
+                if (!name.isEmpty()) {
+                    params.add(name, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+                }
+            }
+            if (c == '&') {
+                c = next();
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Return the Base64-decoded value of the field, or null if the form did not contain it.
+     */
+    public InputStream getDecodedField() {
+        if (decodedField == null) {
+            return null;
+        }
+        return new ByteArrayInputStream(decodedField.toByteArray());
+    }
+
+    private int readBase64(int first, ByteArrayOutputStream out) throws IOException {
+        int bits = 0;
+        int bitCount = 0;
+        boolean padded = false;
+        int c = first;
+        while (c != -1 && c != '&') {
+            // A '+' is not URL-encoded by some clients, a space is never part of Base64 anyway
+            int b = c == '+' ? '+' : decode(c);
+            if (b == '=') {
+                padded = true;
+            } else if (b != ' ' && b != '\r' && b != '\n' && b != '\t') {
+                int value = b < BASE64.length ? BASE64[b] : -1;
+                if (value == -1 || padded) {
+                    throw new IOException("Invalid Base64 encoding");
+                }
+                bits = (bits << 6) | value;
+                bitCount += 6;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    out.write(bits >> bitCount);
+                    bits &= (1 << bitCount) - 1;
+                }
+            }
+            c = next();
+        }
+        return c;
+    }
+
+    /**
+     * URL-decode the current character, reading the two hex digits of an escape sequence.
+     */
+    private int decode(int c) throws IOException {
+        if (c == '+') {
+            return ' ';
+        } else if (c != '%') {
+            return c;
+        }
+        int high = Character.digit(next(), 16);
+        int low = Character.digit(next(), 16);
+        if (high == -1 || low == -1) {
+            throw new IOException("Invalid URL encoding");
+        }
+        return (high << 4) | low;
+    }
+
+    private int next() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+            total += limit;
+            if (maxSize > 0 && total > maxSize) {
+                throw new FormTooLargeException(maxSize);
+            }
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Thrown when the form exceeds the maximum size.
+     */
+    public static class FormTooLargeException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public FormTooLargeException(long maxSize) {
+            super("The form exceeds the maximum size of " + maxSize + " bytes");
+        }
+    }
+
+}
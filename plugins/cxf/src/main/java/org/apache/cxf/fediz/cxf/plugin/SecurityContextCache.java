@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cxf.fediz.cxf.plugin.state.ResponseState;
+
+/**
+ * An in-process cache of the FedizSecurityContext created for a ResponseState, keyed by the
+ * security context cookie. An entry is only returned for the ResponseState it has been created
+ * for (same assertion and subject), the ResponseState itself must still be validated on each
+ * request. Entries expire after the configured time to live.
+ */
+public class SecurityContextCache {
+
+    public static final long DEFAULT_TTL = 5L * 60L * 1000L;
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long timeToLive;
+    private final int maxEntries;
+
+    public SecurityContextCache() {
+        this(DEFAULT_TTL, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param timeToLive the time to live of an entry in milliseconds
+     */
+    public SecurityContextCache(long timeToLive, int maxEntries) {
+        if (timeToLive < 1) {
+            throw new IllegalArgumentException("Time to live must be greater than zero");
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache size must be greater than zero");
+        }
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Return the security context created for the given ResponseState or null.
+     */
+    public FedizSecurityContext get(String contextKey, ResponseState responseState) {
+        Entry entry = entries.get(contextKey);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= System.currentTimeMillis() || !entry.matches(responseState)) {
+            entries.remove(contextKey, entry);
+            return null;
+        }
+        return entry.context;
+    }
+
+    public void put(String contextKey, ResponseState responseState, FedizSecurityContext context) {
+        long now = System.currentTimeMillis();
+        if (entries.size() >= maxEntries) {
+            removeExpired(now);
+            if (entries.size() >= maxEntries) {
+                return;
+            }
+        }
+        entries.put(contextKey, new Entry(responseState, context, now + timeToLive));
+    }
+
+    public void remove(String contextKey) {
+        entries.remove(contextKey);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private void removeExpired(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAt <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String assertion;
+        private final String subject;
+        private final FedizSecurityContext context;
+        private final long expiresAt;
+
+        Entry(ResponseState responseState, FedizSecurityContext context, long expiresAt) {
+            this.assertion = responseState.getAssertion();
+            this.subject = responseState.getSubject();
+            this.context = context;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean matches(ResponseState responseState) {
+            return assertion.equals(responseState.getAssertion())
+                && (subject == null ? responseState.getSubject() == null
+                    : subject.equals(responseState.getSubject()));
+        }
+    }
+
+}
@@ -33,7 +33,8 @@ import org.apache.wss4j.common.util.Loader;
 
 /**
  * An in-memory EHCache implementation of the SPStateManager interface. 
- * The default TTL is 5 minutes.
+ * The default TTL is 5 minutes. If a SPStateCodec is set, the states are stored in their
+ * compact binary encoding instead of as objects.
  */
 public class EHCacheSPStateManager implements SPStateManager {
 
@@ -41,10 +42,14 @@ public class EHCacheSPStateManager implements SPStateManager {
     public static final String REQUEST_CACHE_KEY = "cxf.fediz.samlp.request.state.cache";
     public static final String RESPONSE_CACHE_KEY = "cxf.fediz.samlp.response.state.cache";
     
+    // Decoding doesn't depend on the settings of the codec used for encoding
+    private static final SPStateCodec DECODER = new SPStateCodec();
+    
     private Ehcache requestCache;
     private Ehcache responseCache;
     private CacheManager cacheManager;
     private long ttl = DEFAULT_TTL;
+    private SPStateCodec codec;
     
     public EHCacheSPStateManager(String configFile) {
         this(getConfigFileURL(configFile));
@@ -101,6 +106,17 @@ public class EHCacheSPStateManager implements SPStateManager {
         return ttl;
     }
     
+    public SPStateCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Store the states encoded with the given codec, null stores the state objects.
+     */
+    public void setCodec(SPStateCodec codec) {
+        this.codec = codec;
+    }
+    
     public void setRequestState(String relayState, RequestState state) {
         if (relayState == null || "".equals(relayState)) {
             return;
@@ -112,7 +128,7 @@ public class EHCacheSPStateManager implements SPStateManager {
             parsedTTL = 3600;
         }
         
-        Element element = new Element(relayState, state);
+        Element element = new Element(relayState, encode(state));
         element.setTimeToLive(parsedTTL);
         element.setTimeToIdle(parsedTTL);
         requestCache.put(element);
@@ -122,7 +138,7 @@ public class EHCacheSPStateManager implements SPStateManager {
         Element element = requestCache.get(relayState);
         if (element != null) {
             requestCache.remove(relayState);
-            return (RequestState)element.getObjectValue();
+            return decodeRequestState(element.getObjectValue());
         }
         return null;
     }
@@ -134,7 +150,7 @@ public class EHCacheSPStateManager implements SPStateManager {
                 responseCache.remove(securityContextKey);
                 return null;
             }
-            return (ResponseState)element.getObjectValue();
+            return decodeResponseState(element.getObjectValue());
         }
         return null;
     }
@@ -143,7 +159,7 @@ public class EHCacheSPStateManager implements SPStateManager {
         Element element = responseCache.get(securityContextKey);
         if (element != null) {
             responseCache.remove(securityContextKey);
-            return (ResponseState)element.getObjectValue();
+            return decodeResponseState(element.getObjectValue());
         }
         return null;
     }
@@ -158,13 +174,57 @@ public class EHCacheSPStateManager implements SPStateManager {
             // Fall back to 5 minutes if the default TTL is set incorrectly
             parsedTTL = 60 * 5;
         }
-        Element element = new Element(securityContextKey, state);
+        Element element = new Element(securityContextKey, encode(state));
         element.setTimeToLive(parsedTTL);
         element.setTimeToIdle(parsedTTL);
         
         responseCache.put(element);
     }
     
+    private Object encode(RequestState state) {
+        if (codec == null) {
+            return state;
+        }
+        try {
+            return codec.encode(state);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode the request state", e);
+        }
+    }
+    
+    private Object encode(ResponseState state) {
+        if (codec == null) {
+            return state;
+        }
+        try {
+            return codec.encode(state);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode the response state", e);
+        }
+    }
+    
+    private RequestState decodeRequestState(Object value) {
+        if (!(value instanceof byte[])) {
+            return (RequestState)value;
+        }
+        try {
+            return DECODER.decodeRequestState((byte[])value);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to decode the request state", e);
+        }
+    }
+    
+    private ResponseState decodeResponseState(Object value) {
+        if (!(value instanceof byte[])) {
+            return (ResponseState)value;
+        }
+        try {
+            return DECODER.decodeResponseState((byte[])value);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to decode the response state", e);
+        }
+    }
+    
     public void close() throws IOException {
         if (cacheManager != null) {
             cacheManager.shutdown();
@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A SPStateStore which keeps every state in a file of a directory. The directory can be shared
+ * between the nodes of a cluster (e.g. on a network file system). A file is named after the
+ * SHA-256 digest of the key and holds the expiry time followed by the value. Files are written
+ * to a temporary file first and then moved into place, so readers never see partial states.
+ * A state is removed by atomically moving its file to a unique name before it is read, so that
+ * only one node (or thread) consumes it. Expired files are deleted when they are read and by a
+ * purge of the directory, which runs periodically on a background thread. The purge also deletes
+ * the temporary files which a crashed write left behind.
+ */
+public class FileSPStateStore implements SPStateStore {
+
+    public static final long DEFAULT_PURGE_INTERVAL = 60000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileSPStateStore.class);
+
+    private static final String SUFFIX = ".state";
+    private static final String CLAIMED_SUFFIX = ".claimed";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String PURGE_GLOB = "*{" + SUFFIX + "," + CLAIMED_SUFFIX + "}";
+    // A write takes far less, older temporary files have been left behind by a crashed write
+    private static final long TMP_FILE_MAX_AGE = 60000L;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final AtomicInteger PURGE_THREADS = new AtomicInteger();
+
+    private final Path directory;
+    private final ScheduledExecutorService purgeExecutor;
+
+    public FileSPStateStore(String directory) throws IOException {
+        this(Paths.get(directory));
+    }
+
+    public FileSPStateStore(Path directory) throws IOException {
+        this(directory, DEFAULT_PURGE_INTERVAL);
+    }
+
+    /**
+     * @param purgeInterval the interval of the purge of expired states in milliseconds, a value
+     *        less than 1 disables the background purge
+     */
+    public FileSPStateStore(Path directory, long purgeInterval) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        if (purgeInterval > 0) {
+            purgeExecutor = Executors.newSingleThreadScheduledExecutor(new PurgeThreadFactory());
+            purgeExecutor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    purgeExpired();
+                }
+            }, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
+        } else {
+            purgeExecutor = null;
+        }
+    }
+
+    public void put(String key, byte[] value, long expiresAt) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + value.length);
+        buffer.putLong(expiresAt).put(value);
+        Path file = getFile(key);
+        Path tmpFile = Files.createTempFile(directory, null, TMP_SUFFIX);
+        try {
+            Files.write(tmpFile, buffer.array());
+            Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    public byte[] get(String key) throws IOException {
+        Path file = getFile(key);
+        byte[] content = read(file);
+        if (content == null) {
+            return null;
+        }
+        byte[] value = getValue(content);
+        if (value == null) {
+            Files.deleteIfExists(file);
+        }
+        return value;
+    }
+
+    public byte[] remove(String key) throws IOException {
+        // Claim the state first, only one caller succeeds in moving the file away
+        Path file = getFile(key);
+        Path claimed = directory.resolve(file.getFileName() + "." + UUID.randomUUID() + CLAIMED_SUFFIX);
+        try {
+            Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            byte[] content = read(claimed);
+            return content == null ? null : getValue(content);
+        } finally {
+            Files.deleteIfExists(claimed);
+        }
+    }
+
+    public void close() {
+        if (purgeExecutor != null) {
+            purgeExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Delete the files of all expired states and the temporary files left behind by crashed writes.
+     */
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PURGE_GLOB)) {
+            for (Path file : files) {
+                if (readExpiry(file) <= now) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to purge expired states in " + directory + ": " + e.getMessage());
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + TMP_SUFFIX)) {
+            for (Path file : files) {
+                if (getLastModified(file) < now - TMP_FILE_MAX_AGE) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to purge temporary files in " + directory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Return the last modification time of a file, or Long.MAX_VALUE if it has been moved away.
+     */
+    private static long getLastModified(Path file) throws IOException {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (NoSuchFileException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Read the expiry time of a state file, a missing or truncated file is treated as expired.
+     */
+    private static long readExpiry(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                continue;
+            }
+        } catch (NoSuchFileException e) {
+            return Long.MIN_VALUE;
+        }
+        return buffer.hasRemaining() ? Long.MIN_VALUE : buffer.getLong(0);
+    }
+
+    /**
+     * Return the value of the content of a state file, or null if it has expired.
+     */
+    private static byte[] getValue(byte[] content) {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        if (content.length < 8 || buffer.getLong() <= System.currentTimeMillis()) {
+            return null;
+        }
+        byte[] value = new byte[buffer.remaining()];
+        buffer.get(value);
+        return value;
+    }
+
+    private static byte[] read(Path file) throws IOException {
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private Path getFile(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        char[] name = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            name[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            name[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        return directory.resolve(new String(name) + SUFFIX);
+    }
+
+    private static class PurgeThreadFactory implements ThreadFactory {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "fediz-state-purge-" + PURGE_THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,571 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.ClaimTypes;
+import org.apache.cxf.fediz.core.RequestState;
+import org.apache.cxf.fediz.core.samlsso.CompressionUtils;
+
+/**
+ * A compact, versioned binary encoding of RequestState and ResponseState.
+ *
+ * Numbers are written as variable length integers and strings as UTF-8. Each string is written
+ * once per state, repeated strings (claim types, roles, issuers, claim values) refer to their
+ * first occurrence. The well-known claim types are predefined and never written. The
+ * assertion of a ResponseState is deflated if it is longer than the compression threshold.
+ * Claim principals and claim values which are neither strings nor lists of strings are
+ * written with Java serialization. Only the classes of java.lang, java.util, java.net.URI
+ * and org.apache.cxf.fediz are decoded, a state which contains other classes is rejected
+ * when it is encoded.
+ *
+ * Instances are thread-safe.
+ */
+public class SPStateCodec {
+
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+
+    private static final int MAGIC = 0xFE;
+    private static final int VERSION = 1;
+    private static final int REQUEST_STATE = 1;
+    private static final int RESPONSE_STATE = 2;
+
+    private static final int ASSERTION_PLAIN = 0;
+    private static final int ASSERTION_DEFLATED = 1;
+
+    private static final int VALUE_NULL = 0;
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_LIST = 2;
+    private static final int VALUE_SERIALIZED = 3;
+
+    private static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    // The order must never change, new entries may only be appended (with a new VERSION)
+    private static final String[] WELL_KNOWN_STRINGS = {
+        ClaimTypes.URI_BASE.toString(),
+        ClaimTypes.FIRSTNAME.toString(),
+        ClaimTypes.LASTNAME.toString(),
+        ClaimTypes.EMAILADDRESS.toString(),
+        ClaimTypes.STREETADDRESS.toString(),
+        ClaimTypes.LOCALITY.toString(),
+        ClaimTypes.STATE_PROVINCE.toString(),
+        ClaimTypes.POSTALCODE.toString(),
+        ClaimTypes.COUNTRY.toString(),
+        ClaimTypes.HOMEPHONE.toString(),
+        ClaimTypes.OTHERPHONE.toString(),
+        ClaimTypes.MOBILEPHONE.toString(),
+        ClaimTypes.DATEOFBIRTH.toString(),
+        ClaimTypes.GENDER.toString(),
+        ClaimTypes.PRIVATE_PERSONAL_IDENTIFIER.toString(),
+        ClaimTypes.WEB_PAGE.toString(),
+        ClaimTypes.URI_BASE.toString() + "/role",
+    };
+
+    private static final Map<String, Integer> WELL_KNOWN_INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < WELL_KNOWN_STRINGS.length; i++) {
+            WELL_KNOWN_INDEX.put(WELL_KNOWN_STRINGS[i], i);
+        }
+    }
+
+    private final int compressionThreshold;
+
+    public SPStateCodec() {
+        this(DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * @param compressionThreshold the minimum length of an assertion to be deflated, a negative
+     * value disables compression
+     */
+    public SPStateCodec(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public byte[] encode(RequestState state) throws IOException {
+        Writer writer = new Writer(REQUEST_STATE);
+        writer.writeString(state.getTargetAddress());
+        writer.writeString(state.getIdpServiceAddress());
+        writer.writeString(state.getRequestId());
+        writer.writeString(state.getIssuerId());
+        writer.writeString(state.getWebAppContext());
+        writer.writeString(state.getWebAppDomain());
+        writer.writeString(state.getState());
+        writer.writeLong(state.getCreatedAt());
+        return writer.toByteArray();
+    }
+
+    public RequestState decodeRequestState(byte[] data) throws IOException {
+        if (data == null) {
+            return null;
+        }
+        Reader reader = new Reader(data, REQUEST_STATE);
+        RequestState state = new RequestState();
+        state.setTargetAddress(reader.readString());
+        state.setIdpServiceAddress(reader.readString());
+        state.setRequestId(reader.readString());
+        state.setIssuerId(reader.readString());
+        state.setWebAppContext(reader.readString());
+        state.setWebAppDomain(reader.readString());
+        state.setState(reader.readString());
+        state.setCreatedAt(reader.readLong());
+        return state;
+    }
+
+    public byte[] encode(ResponseState state) throws IOException {
+        Writer writer = new Writer(RESPONSE_STATE);
+        writeAssertion(writer, state.getAssertion());
+        writer.writeString(state.getState());
+        writer.writeString(state.getWebAppContext());
+        writer.writeString(state.getWebAppDomain());
+        writer.writeLong(state.getCreatedAt());
+        writer.writeLong(state.getExpiresAt());
+        writer.writeString(state.getIssuer());
+        writer.writeString(state.getSubject());
+        writer.writeStrings(state.getRoles());
+
+        List<Claim> claims = state.getClaims();
+        if (claims == null) {
+            writer.writeInt(0);
+        } else {
+            writer.writeInt(claims.size() + 1);
+            for (Claim claim : claims) {
+                writeClaim(writer, claim);
+            }
+        }
+        return writer.toByteArray();
+    }
+
+    public ResponseState decodeResponseState(byte[] data) throws IOException {
+        if (data == null) {
+            return null;
+        }
+        Reader reader = new Reader(data, RESPONSE_STATE);
+        String assertion = readAssertion(reader);
+        String relayState = reader.readString();
+        String webAppContext = reader.readString();
+        String webAppDomain = reader.readString();
+        long createdAt = reader.readLong();
+        long expiresAt = reader.readLong();
+        ResponseState state =
+            new ResponseState(assertion, relayState, webAppContext, webAppDomain, createdAt, expiresAt);
+        state.setIssuer(reader.readString());
+        state.setSubject(reader.readString());
+        state.setRoles(reader.readStrings());
+
+        int count = reader.readInt();
+        if (count > 0) {
+            List<Claim> claims = new ArrayList<>(Math.min(count - 1, data.length));
+            for (int i = 1; i < count; i++) {
+                claims.add(readClaim(reader));
+            }
+            state.setClaims(claims);
+        }
+        return state;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void writeClaim(Writer writer, Claim claim) throws IOException {
+        writer.writeString(claim.getClaimType() == null ? null : claim.getClaimType().toString());
+        writer.writeString(claim.getNamespace() == null ? null : claim.getNamespace().toString());
+        writer.writeString(claim.getIssuer());
+        writer.writeString(claim.getOriginalIssuer());
+        if (claim.getPrincipal() == null) {
+            writer.writeInt(VALUE_NULL);
+        } else {
+            writer.writeInt(VALUE_SERIALIZED);
+            writer.writeBytes(serialize(claim.getPrincipal()));
+        }
+
+        Object value = claim.getValue();
+        if (value == null) {
+            writer.writeInt(VALUE_NULL);
+        } else if (value instanceof String) {
+            writer.writeInt(VALUE_STRING);
+            writer.writeString((String)value);
+        } else if (isStringList(value)) {
+            writer.writeInt(VALUE_LIST);
+            @SuppressWarnings("unchecked")
+            List<String> values = (List<String>)value;
+            writer.writeStrings(values);
+        } else {
+            writer.writeInt(VALUE_SERIALIZED);
+            writer.writeBytes(serialize(value));
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Claim readClaim(Reader reader) throws IOException {
+        Claim claim = new Claim();
+        String claimType = reader.readString();
+        claim.setClaimType(claimType == null ? null : URI.create(claimType));
+        String namespace = reader.readString();
+        claim.setNamespace(namespace == null ? null : URI.create(namespace));
+        claim.setIssuer(reader.readString());
+        claim.setOriginalIssuer(reader.readString());
+        if (reader.readInt() == VALUE_SERIALIZED) {
+            claim.setPrincipal((Principal)deserialize(reader.readBytes()));
+        }
+
+        int valueType = reader.readInt();
+        if (valueType == VALUE_STRING) {
+            claim.setValue(reader.readString());
+        } else if (valueType == VALUE_LIST) {
+            claim.setValue(reader.readStrings());
+        } else if (valueType == VALUE_SERIALIZED) {
+            claim.setValue(deserialize(reader.readBytes()));
+        }
+        return claim;
+    }
+
+    private void writeAssertion(Writer writer, String assertion) throws IOException {
+        if (assertion == null || compressionThreshold < 0 || assertion.length() < compressionThreshold) {
+            writer.writeInt(ASSERTION_PLAIN);
+            writer.writeString(assertion);
+            return;
+        }
+        byte[] bytes = assertion.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = CompressionUtils.acquireDeflater();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length / 4);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                bos.write(buffer, 0, count);
+            }
+            writer.writeInt(ASSERTION_DEFLATED);
+            writer.writeInt(bytes.length);
+            writer.writeBytes(bos.toByteArray());
+        } finally {
+            CompressionUtils.release(deflater);
+        }
+    }
+
+    private static String readAssertion(Reader reader) throws IOException {
+        int type = reader.readInt();
+        if (type == ASSERTION_PLAIN) {
+            return reader.readString();
+        } else if (type != ASSERTION_DEFLATED) {
+            throw new IOException("Unknown assertion encoding " + type);
+        }
+        int length = reader.readLength();
+        byte[] deflated = reader.readBytes();
+        Inflater inflater = CompressionUtils.acquireInflater();
+        try {
+            inflater.setInput(deflated);
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int count = inflater.inflate(bytes, offset, length - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += count;
+            }
+            if (offset != length) {
+                throw new IOException("Invalid deflated assertion");
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid deflated assertion", e);
+        } finally {
+            CompressionUtils.release(inflater);
+        }
+    }
+
+    private static boolean isStringList(Object value) {
+        if (!(value instanceof List<?>)) {
+            return false;
+        }
+        for (Object item : (List<?>)value) {
+            if (item != null && !(item instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new StateOutputStream(bos)) {
+            oos.writeObject(object);
+        }
+        return bos.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data) throws IOException {
+        try (ObjectInputStream ois = new StateInputStream(new ByteArrayInputStream(data))) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes the header, numbers and strings of a state.
+     */
+    private static final class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(int type) {
+            out.write(MAGIC);
+            out.write(VERSION);
+            out.write(type);
+        }
+
+        void writeInt(int value) {
+            int v = value;
+            while ((v & ~0x7F) != 0) {
+                out.write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+        }
+
+        void writeLong(long value) {
+            long v = value;
+            while ((v & ~0x7FL) != 0) {
+                out.write((int)((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int)v);
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * 0 is null, 1 is followed by a new string, n > 1 refers to the well-known string n - 2
+         * or to the string written before.
+         */
+        void writeString(String value) {
+            if (value == null) {
+                writeInt(0);
+                return;
+            }
+            Integer index = WELL_KNOWN_INDEX.get(value);
+            if (index == null) {
+                index = strings.get(value);
+            }
+            if (index != null) {
+                writeInt(index + 2);
+                return;
+            }
+            writeInt(1);
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+            strings.put(value, WELL_KNOWN_STRINGS.length + strings.size());
+        }
+
+        void writeStrings(List<String> values) {
+            if (values == null) {
+                writeInt(0);
+                return;
+            }
+            writeInt(values.size() + 1);
+            for (String value : values) {
+                writeString(value);
+            }
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Reads the header, numbers and strings written by the Writer.
+     */
+    private static final class Reader {
+        private final byte[] data;
+        private final List<String> strings = new ArrayList<>();
+        private int position;
+
+        Reader(byte[] data, int type) throws IOException {
+            this.data = data;
+            if (data.length < 3 || (data[0] & 0xFF) != MAGIC) {
+                throw new IOException("Not an encoded SP state");
+            }
+            if (data[1] > VERSION) {
+                throw new IOException("Unsupported SP state version " + data[1]);
+            }
+            if (data[2] != type) {
+                throw new IOException("Unexpected SP state type " + data[2]);
+            }
+            position = 3;
+            strings.addAll(Arrays.asList(WELL_KNOWN_STRINGS));
+        }
+
+        int readInt() throws IOException {
+            long value = readLong();
+            if (value > Integer.MAX_VALUE || value < 0) {
+                throw new IOException("Invalid SP state");
+            }
+            return (int)value;
+        }
+
+        int readLength() throws IOException {
+            int length = readInt();
+            if (length > MAX_LENGTH) {
+                throw new IOException("Invalid SP state");
+            }
+            return length;
+        }
+
+        long readLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= data.length) {
+                    throw new IOException("Truncated SP state");
+                }
+                int b = data[position++];
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid SP state");
+        }
+
+        byte[] readBytes() throws IOException {
+            int length = readInt();
+            if (length > data.length - position) {
+                throw new IOException("Truncated SP state");
+            }
+            byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        String readString() throws IOException {
+            int ref = readInt();
+            if (ref == 0) {
+                return null;
+            } else if (ref > 1) {
+                if (ref - 2 >= strings.size()) {
+                    throw new IOException("Invalid SP state");
+                }
+                return strings.get(ref - 2);
+            }
+            int length = readInt();
+            if (length > data.length - position) {
+                throw new IOException("Truncated SP state");
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            strings.add(value);
+            return value;
+        }
+
+        List<String> readStrings() throws IOException {
+            int count = readInt();
+            if (count == 0) {
+                return null;
+            }
+            List<String> values = new ArrayList<>(Math.min(count - 1, data.length));
+            for (int i = 1; i < count; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Only writes the classes which the StateInputStream resolves, so that a state which can't be
+     * decoded fails when it is encoded.
+     */
+    static final class StateOutputStream extends ObjectOutputStream {
+
+        StateOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void annotateClass(Class<?> cl) throws IOException {
+            if (!StateInputStream.isAllowed(cl.getName())) {
+                throw new InvalidClassException(cl.getName(), "Unexpected class in SP state");
+            }
+        }
+
+        @Override
+        protected void annotateProxyClass(Class<?> cl) throws IOException {
+            throw new InvalidClassException(cl.getName(), "Unexpected class in SP state");
+        }
+    }
+
+    /**
+     * Only resolves the classes which make up the SP states.
+     */
+    static final class StateInputStream extends ObjectInputStream {
+
+        StateInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (isAllowed(desc.getName())) {
+                return super.resolveClass(desc);
+            }
+            throw new InvalidClassException(desc.getName(), "Unexpected class in SP state");
+        }
+
+        private static boolean isAllowed(String className) {
+            String name = className;
+            if (name.startsWith("[")) {
+                // Arrays of primitives or of the allowed classes
+                name = name.substring(name.lastIndexOf('[') + 1);
+                if (name.length() == 1) {
+                    return true;
+                }
+                name = name.substring(1, name.length() - 1);
+            }
+            return name.startsWith("java.lang.") || name.startsWith("java.util.")
+                || "java.net.URI".equals(name) || name.startsWith("org.apache.cxf.fediz.");
+        }
+    }
+
+}
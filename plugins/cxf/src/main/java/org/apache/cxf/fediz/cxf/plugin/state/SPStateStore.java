@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A key/value store of serialized SP states used by the SharedSPStateManager. Implementations
+ * may be shared between the nodes of a cluster.
+ */
+public interface SPStateStore extends Closeable {
+
+    /**
+     * Store the value, it expires at the given time (in milliseconds since the epoch).
+     */
+    void put(String key, byte[] value, long expiresAt) throws IOException;
+
+    /**
+     * Return the value or null if it doesn't exist or has expired.
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Remove the value and return it or null if it doesn't exist or has expired. A value is
+     * returned to only one caller, even if several callers (or nodes) remove it concurrently.
+     */
+    byte[] remove(String key) throws IOException;
+
+    void close() throws IOException;
+}
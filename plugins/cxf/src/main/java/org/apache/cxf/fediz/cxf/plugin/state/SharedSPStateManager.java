@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cxf.fediz.core.RequestState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A SPStateManager which keeps the states in a SPStateStore shared by the nodes of a cluster,
+ * so that a RelayState or security context cookie created on one node is accepted by the
+ * others without sticky sessions. The ResponseStates read from the store are kept in a small
+ * local near-cache for a short time (10 seconds by default), so that the lookup of each
+ * authenticated request does not hit the store. Note that a ResponseState removed on another
+ * node may still be accepted by this node until its near-cache entry expires.
+ * The states are stored in the compact encoding of the SPStateCodec.
+ * The default TTL of the states is 5 minutes.
+ */
+public class SharedSPStateManager implements SPStateManager {
+
+    public static final long DEFAULT_TTL = 60L * 5L;
+    public static final long DEFAULT_NEAR_CACHE_TTL = 10000L;
+    public static final int DEFAULT_NEAR_CACHE_SIZE = 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedSPStateManager.class);
+
+    private static final String REQUEST_PREFIX = "request.";
+    private static final String RESPONSE_PREFIX = "response.";
+
+    private final SPStateStore store;
+    private final ConcurrentMap<String, NearCacheEntry> nearCache = new ConcurrentHashMap<>();
+    private long ttl = DEFAULT_TTL;
+    private long nearCacheTimeToLive = DEFAULT_NEAR_CACHE_TTL;
+    private int nearCacheSize = DEFAULT_NEAR_CACHE_SIZE;
+    private SPStateCodec codec = new SPStateCodec();
+
+    public SharedSPStateManager(SPStateStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Set a new (default) TTL value in seconds
+     * @param newTtl a new (default) TTL value in seconds
+     */
+    public void setTTL(long newTtl) {
+        ttl = newTtl;
+    }
+
+    /**
+     * Get the (default) TTL value in seconds
+     * @return the (default) TTL value in seconds
+     */
+    public long getTTL() {
+        return ttl;
+    }
+
+    /**
+     * Set the time in milliseconds a ResponseState is kept in the near-cache, 0 disables it.
+     */
+    public void setNearCacheTimeToLive(long nearCacheTimeToLive) {
+        this.nearCacheTimeToLive = nearCacheTimeToLive;
+    }
+
+    public long getNearCacheTimeToLive() {
+        return nearCacheTimeToLive;
+    }
+
+    public void setNearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+    }
+
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
+
+    public SPStateCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(SPStateCodec codec) {
+        this.codec = codec;
+    }
+
+    public void setRequestState(String relayState, RequestState state) {
+        if (relayState == null || "".equals(relayState)) {
+            return;
+        }
+        try {
+            put(REQUEST_PREFIX + relayState, codec.encode(state));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode the request state", e);
+        }
+    }
+
+    public RequestState removeRequestState(String relayState) {
+        try {
+            return codec.decodeRequestState(store.remove(REQUEST_PREFIX + relayState));
+        } catch (IOException e) {
+            LOG.warn("Failed to read the request state: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void setResponseState(String securityContextKey, ResponseState state) {
+        if (securityContextKey == null || "".equals(securityContextKey)) {
+            return;
+        }
+        try {
+            put(RESPONSE_PREFIX + securityContextKey, codec.encode(state));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode the response state", e);
+        }
+        putNearCache(securityContextKey, state);
+    }
+
+    public ResponseState getResponseState(String securityContextKey) {
+        NearCacheEntry entry = nearCache.get(securityContextKey);
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            return entry.state;
+        } else if (entry != null) {
+            nearCache.remove(securityContextKey, entry);
+        }
+        try {
+            ResponseState state = codec.decodeResponseState(store.get(RESPONSE_PREFIX + securityContextKey));
+            if (state != null) {
+                putNearCache(securityContextKey, state);
+            }
+            return state;
+        } catch (IOException e) {
+            LOG.warn("Failed to read the response state: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public ResponseState removeResponseState(String securityContextKey) {
+        nearCache.remove(securityContextKey);
+        try {
+            return codec.decodeResponseState(store.remove(RESPONSE_PREFIX + securityContextKey));
+        } catch (IOException e) {
+            LOG.warn("Failed to remove the response state: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void close() throws IOException {
+        nearCache.clear();
+        store.close();
+    }
+
+    private void put(String key, byte[] state) {
+        long expiresAt = System.currentTimeMillis() + ttl * 1000L;
+        try {
+            store.put(key, state, expiresAt);
+        } catch (IOException e) {
+            LOG.error("Failed to store the state: " + e.getMessage());
+            throw new IllegalStateException("Failed to store the state", e);
+        }
+    }
+
+    private void putNearCache(String securityContextKey, ResponseState state) {
+        if (nearCacheTimeToLive <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (nearCache.size() >= nearCacheSize) {
+            Iterator<NearCacheEntry> iterator = nearCache.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().expiresAt <= now) {
+                    iterator.remove();
+                }
+            }
+            if (nearCache.size() >= nearCacheSize) {
+                return;
+            }
+        }
+        nearCache.put(securityContextKey, new NearCacheEntry(state, now + nearCacheTimeToLive));
+    }
+
+    private static final class NearCacheEntry {
+        private final ResponseState state;
+        private final long expiresAt;
+
+        NearCacheEntry(ResponseState state, long expiresAt) {
+            this.state = state;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
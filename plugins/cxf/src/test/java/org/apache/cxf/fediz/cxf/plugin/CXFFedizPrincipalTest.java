@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin;
+
+import java.util.Collections;
+
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.SecurityTokenThreadLocal;
+import org.junit.Assert;
+
+public class CXFFedizPrincipalTest {
+
+    private static final String ASSERTION =
+        "<saml2:Assertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"_1\">"
+        + "<saml2:Issuer>issuer</saml2:Issuer></saml2:Assertion>";
+
+    @org.junit.Test
+    public void testLoginTokenPerCaller() {
+        CXFFedizPrincipal principal =
+            new CXFFedizPrincipal("alice", Collections.<Claim>emptyList(), ASSERTION);
+
+        Element token = principal.getLoginToken();
+        Assert.assertEquals("Assertion", token.getLocalName());
+        // A (cached) principal never hands out the same DOM tree twice
+        Assert.assertNotSame(token, principal.getLoginToken());
+        Assert.assertNotSame(token.getOwnerDocument(), principal.getLoginToken().getOwnerDocument());
+    }
+
+    @org.junit.Test
+    public void testThreadLocalToken() {
+        CXFFedizPrincipal principal =
+            new CXFFedizPrincipal("alice", Collections.<Claim>emptyList(), ASSERTION);
+        try {
+            SecurityTokenThreadLocal.setPrincipal(principal);
+            Element token = SecurityTokenThreadLocal.getToken();
+            Assert.assertNotNull(token);
+            // The token is parsed once per thread
+            Assert.assertSame(token, SecurityTokenThreadLocal.getToken());
+        } finally {
+            SecurityTokenThreadLocal.setToken(null);
+        }
+        Assert.assertNull(SecurityTokenThreadLocal.getToken());
+    }
+
+}
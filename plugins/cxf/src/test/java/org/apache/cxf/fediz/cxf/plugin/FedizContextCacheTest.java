@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin;
+
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.jaxb.ContextConfig;
+import org.apache.cxf.fediz.core.config.jaxb.FederationProtocolType;
+import org.apache.cxf.message.Message;
+import org.junit.Assert;
+
+public class FedizContextCacheTest {
+
+    @org.junit.Test
+    public void testHitAndMiss() {
+        FedizContextCache cache = new FedizContextCache();
+        FedizContext context = createContext("ROOT");
+
+        Assert.assertNull(cache.get("/fedizhelloworld", 1));
+        cache.put("/fedizhelloworld", 1, context);
+        Assert.assertSame(context, cache.get("/fedizhelloworld", 1));
+        Assert.assertNull(cache.get("/other", 1));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+    }
+
+    @org.junit.Test
+    public void testNewGeneration() {
+        FedizContextCache cache = new FedizContextCache();
+        cache.put("/fedizhelloworld", 1, createContext("ROOT"));
+
+        // The configuration has been reloaded
+        Assert.assertNull(cache.get("/fedizhelloworld", 2));
+        FedizContext reloaded = createContext("ROOT");
+        cache.put("/fedizhelloworld", 2, reloaded);
+        Assert.assertSame(reloaded, cache.get("/fedizhelloworld", 2));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @org.junit.Test
+    public void testMaxEntries() {
+        FedizContextCache cache = new FedizContextCache(2);
+        FedizContext context = createContext("ROOT");
+        cache.put("/a", 1, context);
+        cache.put("/b", 1, context);
+
+        // A full cache doesn't take new keys of the current generation
+        cache.put("/c", 1, context);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get("/c", 1));
+        Assert.assertSame(context, cache.get("/a", 1));
+
+        // but drops the entries of previous generations for them
+        cache.put("/c", 2, context);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertSame(context, cache.get("/c", 2));
+    }
+
+    @org.junit.Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxEntries() {
+        new FedizContextCache(0);
+    }
+
+    @org.junit.Test
+    public void testOverriddenWebAppContext() {
+        Assert.assertFalse(AbstractServiceProviderFilter.overridesWebAppContext(FedizRedirectBindingFilter.class));
+        FedizRedirectBindingFilter filter = new FedizRedirectBindingFilter() {
+            @Override
+            protected String getWebAppContext(Message m) {
+                return "/" + m.get(Message.PROTOCOL_HEADERS);
+            }
+        };
+        // The cache is bypassed then
+        Assert.assertTrue(AbstractServiceProviderFilter.overridesWebAppContext(filter.getClass()));
+    }
+
+    private static FedizContext createContext(String name) {
+        ContextConfig contextConfig = new ContextConfig();
+        contextConfig.setName(name);
+        contextConfig.setProtocol(new FederationProtocolType());
+        return new FedizContext(contextConfig);
+    }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.fediz.cxf.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriInfo;
+
+import org.w3c.dom.Element;
+
+import org.apache.cxf.fediz.core.SecurityTokenThreadLocal;
+import org.apache.cxf.fediz.core.config.FedizContext;
+import org.apache.cxf.fediz.core.config.jaxb.ContextConfig;
+import org.apache.cxf.fediz.core.config.jaxb.FederationProtocolType;
+import org.apache.cxf.fediz.cxf.plugin.state.ResponseState;
+import org.apache.cxf.helpers.DOMUtils;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.message.MessageImpl;
+import org.apache.cxf.security.SecurityContext;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+
+public class FedizRedirectBindingFilterTest {
+
+    @org.junit.Test
+    public void testReadForm() throws Exception {
+        FedizRedirectBindingFilter filter = new FedizRedirectBindingFilter();
+        Assert.assertEquals("wsignin1.0", filter.readForm(
+            mockContext("wa=wsignin1.0", -1), new FormParameterReader(0, null)).getFirst("wa"));
+    }
+
+    @org.junit.Test
+    public void testMalformedForm() throws Exception {
+        assertStatus(400, "wa=wsignin1.0&wctx=%zz", -1, 0);
+        assertStatus(400, "SAMLResponse=YW*j", -1, 0);
+    }
+
+    @org.junit.Test
+    public void testFormTooLarge() throws Exception {
+        // By the Content-Length and while reading the form
+        assertStatus(413, "wa=wsignin1.0", 100, 10);
+        assertStatus(413, "wa=wsignin1.0", -1, 10);
+    }
+
+    @org.junit.Test
+    public void testAuthenticatedPost() throws Exception {
+        // The body of an authenticated request is neither read nor limited
+        assertNotRead(MediaType.APPLICATION_JSON_TYPE, 2 * FormParameterReader.DEFAULT_MAX_SIZE);
+        assertNotRead(MediaType.APPLICATION_FORM_URLENCODED_TYPE, 2 * FormParameterReader.DEFAULT_MAX_SIZE);
+    }
+
+    @org.junit.Test
+    public void testIsFormRequest() throws Exception {
+        Assert.assertTrue(FedizRedirectBindingFilter.isFormRequest(
+            mockContext(MediaType.valueOf("application/x-www-form-urlencoded; charset=UTF-8"))));
+        Assert.assertFalse(FedizRedirectBindingFilter.isFormRequest(mockContext(MediaType.APPLICATION_JSON_TYPE)));
+        Assert.assertFalse(FedizRedirectBindingFilter.isFormRequest(mockContext(null)));
+    }
+
+    @org.junit.Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedSetSecurityContext() throws Exception {
+        Element token = DOMUtils.createDocument().createElementNS("urn:oasis:names:tc:SAML:2.0:assertion", 
+                                                                 "saml2:Assertion");
+        ResponseState responseState = new ResponseState();
+        responseState.setSubject("alice");
+        responseState.setRoles(Collections.singletonList("User"));
+        Message m = new MessageImpl();
+
+        // The overload delegates to setSecurityContext(FedizSecurityContext, Message)
+        try {
+            new FedizRedirectBindingFilter().setSecurityContext(responseState, m, token);
+            SecurityContext context = m.get(SecurityContext.class);
+            Assert.assertEquals("alice", context.getUserPrincipal().getName());
+            Assert.assertTrue(context.isUserInRole("User"));
+            Assert.assertSame(token, SecurityTokenThreadLocal.getToken());
+        } finally {
+            SecurityTokenThreadLocal.setToken(null);
+        }
+    }
+
+    private static void assertNotRead(MediaType mediaType, int length) {
+        ContextConfig contextConfig = new ContextConfig();
+        contextConfig.setName("ROOT");
+        contextConfig.setProtocol(new FederationProtocolType());
+        final FedizContext fedConfig = new FedizContext(contextConfig);
+        FedizRedirectBindingFilter filter = new FedizRedirectBindingFilter() {
+            @Override
+            protected FedizContext getFedizContext(Message message) {
+                return fedConfig;
+            }
+
+            @Override
+            protected boolean checkSecurityContext(Message m) {
+                return true;
+            }
+        };
+
+        UriInfo uriInfo = EasyMock.createMock(UriInfo.class);
+        EasyMock.expect(uriInfo.getPath()).andReturn("secure/upload").anyTimes();
+        EasyMock.replay(uriInfo);
+        // The entity stream isn't expected
+        ContainerRequestContext context = EasyMock.createMock(ContainerRequestContext.class);
+        EasyMock.expect(context.getUriInfo()).andReturn(uriInfo).anyTimes();
+        EasyMock.expect(context.getMethod()).andReturn("POST").anyTimes();
+        EasyMock.expect(context.getMediaType()).andReturn(mediaType).anyTimes();
+        EasyMock.expect(context.getLength()).andReturn(length).anyTimes();
+        EasyMock.replay(context);
+
+        filter.setMaxFormSize(FormParameterReader.DEFAULT_MAX_SIZE);
+        filter.filter(context);
+        EasyMock.verify(context);
+    }
+
+    private static ContainerRequestContext mockContext(MediaType mediaType) {
+        ContainerRequestContext context = EasyMock.createMock(ContainerRequestContext.class);
+        EasyMock.expect(context.getMediaType()).andReturn(mediaType).anyTimes();
+        EasyMock.replay(context);
+        return context;
+    }
+
+    private static void assertStatus(int status, String form, int length, long maxFormSize) {
+        FedizRedirectBindingFilter filter = new FedizRedirectBindingFilter();
+        filter.setMaxFormSize(maxFormSize);
+        try {
+            filter.readForm(mockContext(form, length), new FormParameterReader(maxFormSize, "SAMLResponse"));
+            Assert.fail("Invalid form: " + form);
+        } catch (WebApplicationException ex) {
+            Assert.assertEquals(status, ex.getResponse().getStatus());
+        }
+    }
+
+    private static ContainerRequestContext mockContext(String form, int length) {
+        ContainerRequestContext context = EasyMock.createMock(ContainerRequestContext.class);
+        EasyMock.expect(context.getLength()).andReturn(length).anyTimes();
+        EasyMock.expect(context.getEntityStream())
+            .andReturn(new ByteArrayInputStream(form.getBytes(StandardCharsets.UTF_8))).anyTimes();
+        EasyMock.replay(context);
+        return context;
+    }
+
+}
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin;
+
+import javax.ws.rs.core.Response;
+
+import org.apache.cxf.fediz.core.metadata.MetadataCache;
+import org.apache.cxf.fediz.core.metadata.MetadataDocument;
+import org.apache.cxf.fediz.core.processor.RedirectionResponse;
+import org.junit.Assert;
+
+public class FedizResponseAdapterTest {
+
+    @org.junit.Test
+    public void testRedirect() throws Exception {
+        RedirectionResponse redirectionResponse = new RedirectionResponse();
+        Assert.assertNull(FedizResponseAdapter.redirect(redirectionResponse));
+
+        redirectionResponse.setRedirectionURL("https://localhost:9443/fediz-idp/federation?wa=wsignin1.0");
+        redirectionResponse.addHeader("Cache-Control", "no-cache, no-store");
+        Response response = FedizResponseAdapter.redirect(redirectionResponse).build();
+        Assert.assertEquals(303, response.getStatus());
+        Assert.assertEquals("https://localhost:9443/fediz-idp/federation?wa=wsignin1.0",
+                            response.getLocation().toString());
+        Assert.assertEquals("no-cache, no-store", response.getHeaderString("Cache-Control"));
+    }
+
+    @org.junit.Test
+    public void testMetadata() throws Exception {
+        MetadataDocument metadata = new MetadataDocument("<EntityDescriptor/>");
+        MetadataCache cache = new MetadataCache();
+
+        Response response = FedizResponseAdapter.metadata(metadata, cache, null).build();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals(metadata.getETag(), response.getHeaderString(MetadataDocument.ETAG));
+        Assert.assertEquals(cache.getCacheControl(), response.getHeaderString(MetadataDocument.CACHE_CONTROL));
+
+        // The client has the current version of the document
+        response = FedizResponseAdapter.metadata(metadata, cache, metadata.getETag()).build();
+        Assert.assertEquals(304, response.getStatus());
+        Assert.assertFalse(response.hasEntity());
+    }
+
+}
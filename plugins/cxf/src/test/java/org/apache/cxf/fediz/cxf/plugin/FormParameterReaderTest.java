@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.fediz.cxf.plugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.ws.rs.core.MultivaluedMap;
+
+import org.apache.cxf.fediz.cxf.plugin.FormParameterReader.FormTooLargeException;
+import org.apache.xml.security.utils.Base64;
+import org.junit.Assert;
+
+public class FormParameterReaderTest {
+
+    @org.junit.Test
+    public void testReadForm() throws Exception {
+        FormParameterReader reader = new FormParameterReader(0, null);
+        MultivaluedMap<String, String> params =
+            reader.read(stream("wa=wsignin1.0&wctx=a+b%2Bc&wresult=%3Cx%2F%3E&wa=other&empty=&=ignored"));
+        Assert.assertEquals(Arrays.asList("wsignin1.0", "other"), params.get("wa"));
+        // A '+' is a space, an encoded '+' is a plus
+        Assert.assertEquals("a b+c", params.getFirst("wctx"));
+        Assert.assertEquals("<x/>", params.getFirst("wresult"));
+        Assert.assertEquals("", params.getFirst("empty"));
+        Assert.assertFalse(params.containsKey(""));
+        Assert.assertNull(reader.getDecodedField());
+    }
+
+    @org.junit.Test
+    public void testUTF8() throws Exception {
+        FormParameterReader reader = new FormParameterReader(0, null);
+        MultivaluedMap<String, String> params = reader.read(stream("name=%C3%A4%E2%82%AC"));
+        Assert.assertEquals("ä€", params.getFirst("name"));
+    }
+
+    @org.junit.Test
+    public void testBase64Field() throws Exception {
+        // Every padding length, and a value with '+' and '/' in its encoding
+        byte[][] values = {
+            "a".getBytes(StandardCharsets.UTF_8),
+            "ab".getBytes(StandardCharsets.UTF_8),
+            "abc".getBytes(StandardCharsets.UTF_8),
+            {(byte)0xFB, (byte)0xFF, (byte)0xBF, 0x3E},
+        };
+        for (byte[] value : values) {
+            String encoded = Base64.encode(value);
+            assertDecoded(value, "SAMLResponse=" + encoded + "&RelayState=abc");
+            // Some clients don't URL-encode the Base64 value
+            assertDecoded(value, "SAMLResponse=" + encoded.replace("=", "%3D") + "&RelayState=abc");
+            assertDecoded(value, "RelayState=abc&SAMLResponse="
+                + encoded.replace("+", "%2B").replace("/", "%2F").replace("=", "%3D"));
+        }
+        // Line breaks of a MIME encoder are skipped
+        byte[] value = new byte[100];
+        Arrays.fill(value, (byte)'x');
+        String encoded = Base64.encode(value).replaceAll("\\s", "");
+        StringBuilder form = new StringBuilder("SAMLResponse=");
+        for (int i = 0; i < encoded.length(); i += 20) {
+            form.append(encoded, i, Math.min(i + 20, encoded.length())).append("%0D%0A");
+        }
+        assertDecoded(value, form.append("&RelayState=abc").toString());
+    }
+
+    @org.junit.Test
+    public void testInvalidBase64() throws Exception {
+        assertInvalid("SAMLResponse", "SAMLResponse=YW*j");
+        // Data after the padding
+        assertInvalid("SAMLResponse", "SAMLResponse=YQ==YQ==");
+    }
+
+    @org.junit.Test
+    public void testMalformedEscape() throws Exception {
+        assertInvalid(null, "wa=wsignin1.0&wctx=%zz");
+        assertInvalid(null, "wa=wsignin1.0&wctx=%2");
+        assertInvalid(null, "wa=wsignin1.0&wctx=%");
+        assertInvalid(null, "w%g1=wsignin1.0");
+        assertInvalid("SAMLResponse", "SAMLResponse=YW%Jj");
+    }
+
+    @org.junit.Test
+    public void testMaxSize() throws Exception {
+        byte[] form = new byte[20000];
+        Arrays.fill(form, (byte)'a');
+        form[0] = 'x';
+        form[1] = '=';
+
+        Assert.assertEquals(19998, new FormParameterReader(form.length, null).read(new ByteArrayInputStream(form))
+            .getFirst("x").length());
+        try {
+            new FormParameterReader(form.length - 1, null).read(new ByteArrayInputStream(form));
+            Assert.fail("The form exceeds the maximum size");
+        } catch (FormTooLargeException ex) {
+            // expected
+        }
+        // The size is checked while reading, the rest of the entity is never read
+        CountingInputStream in = new CountingInputStream(new ByteArrayInputStream(new byte[1024 * 1024]));
+        try {
+            new FormParameterReader(10000, null).read(in);
+            Assert.fail("The form exceeds the maximum size");
+        } catch (FormTooLargeException ex) {
+            Assert.assertTrue(in.count < 20000);
+        }
+    }
+
+    private static void assertDecoded(byte[] expected, String form) throws IOException {
+        FormParameterReader reader = new FormParameterReader(0, "SAMLResponse");
+        MultivaluedMap<String, String> params = reader.read(stream(form));
+        Assert.assertFalse(params.containsKey("SAMLResponse"));
+        Assert.assertEquals("abc", params.getFirst("RelayState"));
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        InputStream in = reader.getDecodedField();
+        int c = in.read();
+        while (c != -1) {
+            decoded.write(c);
+            c = in.read();
+        }
+        Assert.assertArrayEquals(form, expected, decoded.toByteArray());
+    }
+
+    private static void assertInvalid(String base64Field, String form) {
+        try {
+            new FormParameterReader(0, base64Field).read(stream(form));
+            Assert.fail("Invalid form: " + form);
+        } catch (FormTooLargeException ex) {
+            Assert.fail("Invalid form: " + form);
+        } catch (IOException ex) {
+            // expected, the filter answers with a 400
+        }
+    }
+
+    private static InputStream stream(String form) {
+        return new ByteArrayInputStream(form.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class CountingInputStream extends InputStream {
+        private final InputStream in;
+        private int count;
+
+        CountingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = in.read();
+            if (c != -1) {
+                count++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+
+public class FileSPStateStoreTest {
+
+    private static final long HOUR = 3600000L;
+
+    private Path directory;
+    private FileSPStateStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("fediz-state");
+        store = new FileSPStateStore(directory, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @org.junit.Test
+    public void testPutGetRemove() throws Exception {
+        byte[] value = "state".getBytes(StandardCharsets.UTF_8);
+        store.put("key", value, System.currentTimeMillis() + HOUR);
+
+        Assert.assertArrayEquals(value, store.get("key"));
+        // A state can be read more than once
+        Assert.assertArrayEquals(value, store.get("key"));
+        Assert.assertNull(store.get("other"));
+
+        Assert.assertArrayEquals(value, store.remove("key"));
+        Assert.assertNull(store.get("key"));
+        Assert.assertEquals(0, countFiles());
+    }
+
+    @org.junit.Test
+    public void testRemoveTwice() throws Exception {
+        byte[] value = "state".getBytes(StandardCharsets.UTF_8);
+        store.put("key", value, System.currentTimeMillis() + HOUR);
+
+        Assert.assertArrayEquals(value, store.remove("key"));
+        Assert.assertNull(store.remove("key"));
+    }
+
+    @org.junit.Test
+    public void testConcurrentRemove() throws Exception {
+        final byte[] value = "state".getBytes(StandardCharsets.UTF_8);
+        final int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < 20; i++) {
+                final String key = "key" + i;
+                store.put(key, value, System.currentTimeMillis() + HOUR);
+
+                final CountDownLatch start = new CountDownLatch(1);
+                final AtomicInteger consumed = new AtomicInteger();
+                List<Future<Void>> results = new ArrayList<>();
+                for (int j = 0; j < threads; j++) {
+                    results.add(executor.submit(new Callable<Void>() {
+                        public Void call() throws Exception {
+                            start.await();
+                            if (store.remove(key) != null) {
+                                consumed.incrementAndGet();
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                start.countDown();
+                for (Future<Void> result : results) {
+                    result.get();
+                }
+                // A single-use state is consumed exactly once
+                Assert.assertEquals(1, consumed.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(0, countFiles());
+    }
+
+    @org.junit.Test
+    public void testExpiry() throws Exception {
+        byte[] value = "state".getBytes(StandardCharsets.UTF_8);
+        store.put("expired", value, System.currentTimeMillis() - 1);
+        store.put("expired2", value, System.currentTimeMillis() - 1);
+        store.put("valid", value, System.currentTimeMillis() + HOUR);
+
+        Assert.assertNull(store.get("expired"));
+        Assert.assertEquals(2, countFiles());
+
+        store.purgeExpired();
+        Assert.assertEquals(1, countFiles());
+        Assert.assertNull(store.remove("expired2"));
+        Assert.assertArrayEquals(value, store.remove("valid"));
+    }
+
+    @org.junit.Test
+    public void testPurgeTemporaryFiles() throws Exception {
+        // The temporary files of a crashed write and of a write in progress
+        Path crashed = Files.createTempFile(directory, null, ".tmp");
+        Files.setLastModifiedTime(crashed, FileTime.fromMillis(System.currentTimeMillis() - HOUR));
+        Path inProgress = Files.createTempFile(directory, null, ".tmp");
+
+        store.purgeExpired();
+        Assert.assertFalse(Files.exists(crashed));
+        Assert.assertTrue(Files.exists(inProgress));
+    }
+
+    @org.junit.Test
+    public void testBackgroundPurge() throws Exception {
+        FileSPStateStore purgingStore = new FileSPStateStore(directory, 10);
+        try {
+            purgingStore.put("expired", "state".getBytes(StandardCharsets.UTF_8), System.currentTimeMillis() - 1);
+            long timeout = System.currentTimeMillis() + 10000L;
+            while (countFiles() > 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0, countFiles());
+        } finally {
+            purgingStore.close();
+        }
+    }
+
+    private int countFiles() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            Iterator<Path> iterator = files.iterator();
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.fediz.cxf.plugin.state;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.cxf.fediz.core.Claim;
+import org.apache.cxf.fediz.core.ClaimTypes;
+import org.apache.cxf.fediz.core.RequestState;
+import org.junit.Assert;
+
+public class SPStateCodecTest {
+
+    private static final String ASSERTION;
+
+    static {
+        StringBuilder sb = new StringBuilder("<saml2:Assertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\">");
+        for (int i = 0; i < 50; i++) {
+            sb.append("<saml2:Attribute Name=\"attribute").append(i).append("\"/>");
+        }
+        ASSERTION = sb.append("</saml2:Assertion>").toString();
+    }
+
+    @org.junit.Test
+    public void testRequestState() throws Exception {
+        RequestState state = new RequestState("https://localhost/target", "https://localhost/idp", "_123",
+            "https://localhost/sp", "/fedizhelloworld", "localhost", "relay-state", 1234567890L);
+
+        SPStateCodec codec = new SPStateCodec();
+        RequestState decoded = codec.decodeRequestState(codec.encode(state));
+        Assert.assertEquals(state.getTargetAddress(), decoded.getTargetAddress());
+        Assert.assertEquals(state.getIdpServiceAddress(), decoded.getIdpServiceAddress());
+        Assert.assertEquals(state.getRequestId(), decoded.getRequestId());
+        Assert.assertEquals(state.getIssuerId(), decoded.getIssuerId());
+        Assert.assertEquals(state.getWebAppContext(), decoded.getWebAppContext());
+        Assert.assertEquals(state.getWebAppDomain(), decoded.getWebAppDomain());
+        Assert.assertEquals(state.getState(), decoded.getState());
+        Assert.assertEquals(state.getCreatedAt(), decoded.getCreatedAt());
+
+        try {
+            codec.decodeResponseState(codec.encode(state));
+            Assert.fail("A request state is not a response state");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @org.junit.Test
+    public void testResponseStateDeflated() throws Exception {
+        SPStateCodec codec = new SPStateCodec();
+        ResponseState state = createResponseState();
+        byte[] encoded = codec.encode(state);
+        Assert.assertTrue(encoded.length < ASSERTION.length());
+        assertResponseState(state, codec.decodeResponseState(encoded));
+    }
+
+    @org.junit.Test
+    public void testResponseStateUncompressed() throws Exception {
+        SPStateCodec codec = new SPStateCodec(-1);
+        ResponseState state = createResponseState();
+        byte[] encoded = codec.encode(state);
+        Assert.assertTrue(encoded.length > ASSERTION.length());
+        assertResponseState(state, codec.decodeResponseState(encoded));
+
+        // The compression is read from the state, not from the configuration of the codec
+        assertResponseState(state, new SPStateCodec().decodeResponseState(encoded));
+    }
+
+    @org.junit.Test
+    public void testResponseStateWithoutClaims() throws Exception {
+        SPStateCodec codec = new SPStateCodec();
+        ResponseState state = new ResponseState(null, null, null, null, 0L, 0L);
+        ResponseState decoded = codec.decodeResponseState(codec.encode(state));
+        Assert.assertNull(decoded.getAssertion());
+        Assert.assertNull(decoded.getRoles());
+        Assert.assertNull(decoded.getClaims());
+    }
+
+    @org.junit.Test
+    public void testUnsupportedPrincipal() throws Exception {
+        ResponseState state = createResponseState();
+        Claim claim = new Claim();
+        claim.setClaimType(ClaimTypes.PRIVATE_PERSONAL_IDENTIFIER);
+        claim.setPrincipal(new X500Principal("CN=alice"));
+        claim.setValue("alice");
+        state.getClaims().add(claim);
+        try {
+            new SPStateCodec().encode(state);
+            Assert.fail("A principal which can't be decoded must be rejected");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @org.junit.Test
+    public void testUnsupportedValue() throws Exception {
+        ResponseState state = createResponseState();
+        Claim claim = new Claim();
+        claim.setClaimType(ClaimTypes.DATEOFBIRTH);
+        claim.setValue(Collections.singletonList(new X500Principal("CN=alice")));
+        state.getClaims().add(claim);
+        try {
+            new SPStateCodec().encode(state);
+            Assert.fail("A value which can't be decoded must be rejected");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    @org.junit.Test
+    public void testInvalidState() throws Exception {
+        SPStateCodec codec = new SPStateCodec();
+        byte[] encoded = codec.encode(createResponseState());
+        try {
+            codec.decodeResponseState(Arrays.copyOf(encoded, encoded.length / 2));
+            Assert.fail("A truncated state must be rejected");
+        } catch (IOException ex) {
+            // expected
+        }
+        Assert.assertNull(codec.decodeResponseState(null));
+    }
+
+    private static ResponseState createResponseState() {
+        ResponseState state = new ResponseState(ASSERTION, "relay-state", "/fedizhelloworld", "localhost",
+            1234567890L, 1234567890L + 3600000L);
+        state.setIssuer("https://localhost/idp");
+        state.setSubject("alice");
+        state.setRoles(Arrays.asList("User", "Admin"));
+
+        List<Claim> claims = new ArrayList<>();
+        Claim email = new Claim();
+        email.setClaimType(ClaimTypes.EMAILADDRESS);
+        email.setIssuer("https://localhost/idp");
+        email.setValue("alice@example.com");
+        claims.add(email);
+
+        Claim roles = new Claim();
+        roles.setClaimType(URI.create(ClaimTypes.URI_BASE + "/role"));
+        roles.setIssuer("https://localhost/idp");
+        roles.setOriginalIssuer("https://localhost/other-idp");
+        roles.setValue(Arrays.asList("User", "Admin"));
+        claims.add(roles);
+
+        Claim date = new Claim();
+        date.setClaimType(ClaimTypes.DATEOFBIRTH);
+        date.setValue(new Date(0L));
+        claims.add(date);
+        state.setClaims(claims);
+        return state;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void assertResponseState(ResponseState expected, ResponseState actual) {
+        Assert.assertEquals(expected.getAssertion(), actual.getAssertion());
+        Assert.assertEquals(expected.getState(), actual.getState());
+        Assert.assertEquals(expected.getWebAppContext(), actual.getWebAppContext());
+        Assert.assertEquals(expected.getWebAppDomain(), actual.getWebAppDomain());
+        Assert.assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+        Assert.assertEquals(expected.getExpiresAt(), actual.getExpiresAt());
+        Assert.assertEquals(expected.getIssuer(), actual.getIssuer());
+        Assert.assertEquals(expected.getSubject(), actual.getSubject());
+        Assert.assertEquals(expected.getRoles(), actual.getRoles());
+
+        Assert.assertEquals(expected.getClaims().size(), actual.getClaims().size());
+        for (int i = 0; i < expected.getClaims().size(); i++) {
+            Claim expectedClaim = expected.getClaims().get(i);
+            Claim claim = actual.getClaims().get(i);
+            Assert.assertEquals(expectedClaim.getClaimType(), claim.getClaimType());
+            Assert.assertEquals(expectedClaim.getNamespace(), claim.getNamespace());
+            Assert.assertEquals(expectedClaim.getIssuer(), claim.getIssuer());
+            Assert.assertEquals(expectedClaim.getOriginalIssuer(), claim.getOriginalIssuer());
+            Assert.assertEquals(expectedClaim.getValue(), claim.getValue());
+        }
+    }
+
+}
@@ -22,10 +22,10 @@ package org.apache.cxf.fediz.jetty;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.security.cert.X509Certificate;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
@@ -35,21 +35,18 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import javax.xml.bind.JAXBException;
 
-import org.w3c.dom.Document;
-
 import org.apache.cxf.fediz.core.FederationConstants;
 import org.apache.cxf.fediz.core.SAMLSSOConstants;
 import org.apache.cxf.fediz.core.config.FederationProtocol;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.config.SAMLProtocol;
-import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.handler.FedizEngine;
+import org.apache.cxf.fediz.core.handler.RequestRouter;
+import org.apache.cxf.fediz.core.handler.RequestRouter.Route;
 import org.apache.cxf.fediz.core.processor.FedizProcessor;
-import org.apache.cxf.fediz.core.processor.FedizProcessorFactory;
 import org.apache.cxf.fediz.core.processor.FedizRequest;
 import org.apache.cxf.fediz.core.processor.FedizResponse;
-import org.apache.cxf.fediz.core.processor.RedirectionResponse;
-import org.apache.wss4j.common.util.DOM2Writer;
 import org.eclipse.jetty.http.HttpMethods;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.security.ServerAuthException;
@@ -93,6 +90,8 @@ public class FederationAuthenticator extends LoginAuthenticator {
     private String configFile;
     private FedizConfigurator configurator;
     private String encoding = "UTF-8";
+    private boolean lazySession = true;
+    private final ConcurrentMap<String, FedizEngine> engines = new ConcurrentHashMap<>();
 
     public FederationAuthenticator() {
     }
@@ -148,6 +147,20 @@ public class FederationAuthenticator extends LoginAuthenticator {
         this.encoding = encoding;
     }
     
+    public boolean isLazySession() {
+        return lazySession;
+    }
+
+    /**
+     * If true (default), a session is only created once it is needed to remember the requested
+     * URI before the redirect to the IdP, or to hold the authentication after a successful login.
+     * Metadata requests and requests which do not (yet) require authentication don't create a
+     * session.
+     */
+    public void setLazySession(boolean lazySession) {
+        this.lazySession = lazySession;
+    }
+    
     /* ------------------------------------------------------------ */
     public Authentication validateRequest(ServletRequest req, ServletResponse res, boolean mandatory)
         throws ServerAuthException {
@@ -155,38 +168,19 @@ public class FederationAuthenticator extends LoginAuthenticator {
         HttpServletRequest request = (HttpServletRequest)req;
         HttpServletResponse response = (HttpServletResponse)res;
 
-        HttpSession session = request.getSession(true);
+        HttpSession session = request.getSession(!lazySession);
         
-        String contextName = request.getSession().getServletContext().getContextPath();
+        String contextName = request.getContextPath();
         if (contextName == null || contextName.isEmpty()) {
             contextName = "/";
         }
         FedizContext fedConfig = getContextConfiguration(contextName);
+        FedizEngine engine = getEngine(contextName, fedConfig);
         
         // Check to see if it is a metadata request
-        try {
-            if (request.getRequestURL().indexOf(FederationConstants.METADATA_PATH_URI) != -1
-                || request.getRequestURL().indexOf(getMetadataURI(fedConfig)) != -1) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Metadata document requested");
-                }
-                response.setContentType("text/xml");
-                PrintWriter out = response.getWriter();
-                
-                FedizProcessor wfProc = 
-                    FedizProcessorFactory.newFedizProcessor(fedConfig.getProtocol());
-                try {
-                    Document metadata = wfProc.getMetaData(request, fedConfig);
-                    out.write(DOM2Writer.nodeToString(metadata));
-                    return Authentication.SEND_CONTINUE;
-                } catch (Exception ex) {
-                    LOG.warn("Failed to get metadata document: " + ex.getMessage());
-                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                    return Authentication.SEND_FAILURE;
-                }            
-            }
-        } catch (IOException e) {
-            throw new ServerAuthException(e);
+        if (engine.isAnyMetadataRequest(request)) {
+            return engine.handleMetadata(request, response) 
+                ? Authentication.SEND_CONTINUE : Authentication.SEND_FAILURE;
         }
 
         if (!mandatory) {
@@ -205,16 +199,18 @@ public class FederationAuthenticator extends LoginAuthenticator {
         }
 
         try {
-            String action = request.getParameter(FederationConstants.PARAM_ACTION);
-            String responseToken = getResponseToken(request, fedConfig);
+            Route route = engine.route(request);
+            String action = route == Route.NONE ? null 
+                : RequestRouter.getParameter(request, FederationConstants.PARAM_ACTION);
             
             // Handle a request for authentication.
-            if (isSignInRequest(request, fedConfig)) {
+            if (route == Route.SIGNIN) {
 
                 FedizResponse wfRes = null;
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("SignIn request found");
                 }
+                String responseToken = getResponseToken(request, fedConfig);
 
                 if (responseToken == null) {
                     if (LOG.isDebugEnabled()) {
@@ -239,9 +235,12 @@ public class FederationAuthenticator extends LoginAuthenticator {
                     if (user != null)
                     {
                         session=renewSession(request,response);
+                        if (session == null) {
+                            session = request.getSession(true);
+                        }
 
                         FederationUserIdentity  fui = (FederationUserIdentity)user;
-                        session.setAttribute(SECURITY_TOKEN_ATTR, fui.getToken());
+                        session.setAttribute(SECURITY_TOKEN_ATTR, fui.getSessionToken());
 
                         // Redirect to original request
                         String nuri;
@@ -279,7 +278,9 @@ public class FederationAuthenticator extends LoginAuthenticator {
                     LOG.debug("SignOutCleanup request found");
                     LOG.debug("SignOutCleanup action...");
                 }
-                session.invalidate();
+                if (session != null) {
+                    session.invalidate();
+                }
 
                 final ServletOutputStream responseOutputStream = response.getOutputStream();
                 InputStream inputStream = this.getClass().getClassLoader().getResourceAsStream("logout.jpg");
@@ -302,7 +303,8 @@ public class FederationAuthenticator extends LoginAuthenticator {
             }
 
             // Look for cached authentication
-            Authentication authentication = (Authentication) session.getAttribute(SessionAuthentication.__J_AUTHENTICATED);
+            Authentication authentication = session == null ? null
+                : (Authentication) session.getAttribute(SessionAuthentication.__J_AUTHENTICATED);
             if (authentication != null) 
             {
                 // Has authentication been revoked?
@@ -320,9 +322,7 @@ public class FederationAuthenticator extends LoginAuthenticator {
                     if (logoutUrl != null && !logoutUrl.isEmpty() && uri.equals(contextName + logoutUrl)) {
                         session.invalidate();
 
-                        FedizProcessor wfProc = 
-                            FedizProcessorFactory.newFedizProcessor(fedConfig.getProtocol());
-                        signOutRedirectToIssuer(request, response, wfProc);
+                        signOutRedirectToIssuer(request, response, engine);
 
                         return Authentication.SEND_CONTINUE;
                     }
@@ -362,10 +362,15 @@ public class FederationAuthenticator extends LoginAuthenticator {
             // if we can't send challenge
             if (DeferredAuthentication.isDeferred(response))
             {
-                LOG.debug("auth deferred {}",session.getId());
+                LOG.debug("auth deferred {}",session == null ? null : session.getId());
                 return Authentication.UNAUTHENTICATED;
             }
             
+            // The session is needed to remember the current URI
+            if (session == null) {
+                session = request.getSession(true);
+            }
+            
             // remember the current URI
             synchronized (session)
             {
@@ -387,9 +392,7 @@ public class FederationAuthenticator extends LoginAuthenticator {
                 }
             }
             
-            FedizProcessor wfProc = 
-                FedizProcessorFactory.newFedizProcessor(fedConfig.getProtocol());
-            signInRedirectToIssuer(request, response, wfProc);
+            signInRedirectToIssuer(request, response, engine);
 
             return Authentication.SEND_CONTINUE;
 
@@ -401,19 +404,6 @@ public class FederationAuthenticator extends LoginAuthenticator {
          */
     }
 
-    private boolean isSignInRequest(ServletRequest request, FedizContext fedConfig) {
-        if (fedConfig.getProtocol() instanceof FederationProtocol
-            && FederationConstants.ACTION_SIGNIN.equals(
-                request.getParameter(FederationConstants.PARAM_ACTION))) {
-            return true;
-        } else if (fedConfig.getProtocol() instanceof SAMLProtocol
-            && request.getParameter(SAMLSSOConstants.RELAY_STATE) != null) {
-            return true;
-        }
-
-        return false;
-    }
-    
     private String getResponseToken(ServletRequest request, FedizContext fedConfig) {
         if (fedConfig.getProtocol() instanceof FederationProtocol) {
             return request.getParameter(FederationConstants.PARAM_RESULT);
@@ -423,18 +413,6 @@ public class FederationAuthenticator extends LoginAuthenticator {
         return null;
     }
     
-    private String getMetadataURI(FedizContext fedConfig) {
-        if (fedConfig.getProtocol().getMetadataURI() != null) {
-            return fedConfig.getProtocol().getMetadataURI();
-        } else if (fedConfig.getProtocol() instanceof FederationProtocol) {
-            return FederationConstants.METADATA_PATH_URI;
-        } else if (fedConfig.getProtocol() instanceof SAMLProtocol) {
-            return SAMLSSOConstants.FEDIZ_SAML_METADATA_PATH_URI;
-        }
-        
-        return FederationConstants.METADATA_PATH_URI;
-    }
-
     /* ------------------------------------------------------------ */
     public boolean secureResponse(ServletRequest req, ServletResponse res, boolean mandatory,
                                   User validatedUser) throws ServerAuthException {
@@ -448,81 +426,61 @@ public class FederationAuthenticator extends LoginAuthenticator {
      *            Request we are processing
      * @param response
      *            Response we are populating
-     * @param processor
-     *            FederationProcessor
+     * @param engine
+     *            FedizEngine of the context
      * @throws IOException
      *             If the forward to the login page fails and the call to
      *             {@link HttpServletResponse#sendError(int, String)} throws an
      *             {@link IOException}
      */
-    protected void signInRedirectToIssuer(HttpServletRequest request, HttpServletResponse response, FedizProcessor processor)
+    protected void signInRedirectToIssuer(HttpServletRequest request, HttpServletResponse response, FedizEngine engine)
         throws IOException {
+        engine.signInRedirect(request, response);
+    }
 
-        //Not supported in jetty 7.6
-        //String contextName = request.getServletContext().getContextPath();
-        String contextName = request.getSession().getServletContext().getContextPath();
-        if (contextName == null || contextName.isEmpty()) {
-            contextName = "/";
-        }
-        FedizContext fedCtx = this.configurator.getFedizContext(contextName);
-        try {
-            RedirectionResponse redirectionResponse = processor.createSignInRequest(request, fedCtx);
-            String redirectURL = redirectionResponse.getRedirectionURL();
-            if (redirectURL != null) {
-                Map<String, String> headers = redirectionResponse.getHeaders();
-                if (!headers.isEmpty()) {
-                    for (String headerName : headers.keySet()) {
-                        response.addHeader(headerName, headers.get(headerName));
-                    }
-                }
-                
-                response.sendRedirect(redirectURL);
-            } else {
-                LOG.warn("Failed to create SignInRequest.");
-                response.sendError(
-                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to create SignInRequest.");
-            }
-        } catch (ProcessingException ex) {
-            LOG.warn("Failed to create SignInRequest: " + ex.getMessage());
-            response.sendError(
-                               HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to create SignInRequest.");
-        }
-        
+    protected void signOutRedirectToIssuer(HttpServletRequest request, HttpServletResponse response, FedizEngine engine)
+        throws IOException {
+        engine.signOutRedirect(request, response, null); //TODO
+    }
+
+    /**
+     * @deprecated use {@link #signInRedirectToIssuer(HttpServletRequest, HttpServletResponse, FedizEngine)};
+     *             the processor argument is ignored, the engine of the context is used instead.
+     */
+    @Deprecated
+    protected void signInRedirectToIssuer(HttpServletRequest request, HttpServletResponse response,
+                                          FedizProcessor processor) throws IOException {
+        signInRedirectToIssuer(request, response, getEngine(request));
     }
 
-    protected void signOutRedirectToIssuer(HttpServletRequest request, HttpServletResponse response, FedizProcessor processor)
-            throws IOException {
+    /**
+     * @deprecated use {@link #signOutRedirectToIssuer(HttpServletRequest, HttpServletResponse, FedizEngine)};
+     *             the processor argument is ignored, the engine of the context is used instead.
+     */
+    @Deprecated
+    protected void signOutRedirectToIssuer(HttpServletRequest request, HttpServletResponse response,
+                                           FedizProcessor processor) throws IOException {
+        signOutRedirectToIssuer(request, response, getEngine(request));
+    }
 
-        //Not supported in jetty 7.6
-        //String contextName = request.getServletContext().getContextPath();
-        String contextName = request.getSession().getServletContext().getContextPath();
+    private FedizEngine getEngine(HttpServletRequest request) {
+        String contextName = request.getContextPath();
         if (contextName == null || contextName.isEmpty()) {
             contextName = "/";
         }
-        FedizContext fedCtx = this.configurator.getFedizContext(contextName);
-        try {
-            RedirectionResponse redirectionResponse = 
-                processor.createSignOutRequest(request, null, fedCtx); //TODO
-            String redirectURL = redirectionResponse.getRedirectionURL();
-            if (redirectURL != null) {
-                Map<String, String> headers = redirectionResponse.getHeaders();
-                if (!headers.isEmpty()) {
-                    for (String headerName : headers.keySet()) {
-                        response.addHeader(headerName, headers.get(headerName));
-                    }
-                }
-                
-                response.sendRedirect(redirectURL);
-            } else {
-                LOG.warn("Failed to create SignOutRequest.");
-                response.sendError(
-                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to create SignOutRequest.");
-            }
-        } catch (ProcessingException ex) {
-            LOG.warn("Failed to create SignOutRequest: " + ex.getMessage());
-            response.sendError(
-                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to create SignOutRequest.");
+        return getEngine(contextName, getContextConfiguration(contextName));
+    }
+
+    /**
+     * Return the engine of the context, it is created once per (reloaded) FedizContext.
+     */
+    protected FedizEngine getEngine(String contextName, FedizContext fedConfig) {
+        FedizEngine engine = engines.get(contextName);
+        if (engine == null || engine.getFedizContext() != fedConfig) {
+            engine = new FedizEngine(fedConfig, contextName);
+            engines.put(contextName, engine);
         }
+        return engine;
     }
     
     private FedizContext getContextConfiguration(String contextName) {
@@ -20,11 +20,11 @@
 package org.apache.cxf.fediz.jetty;
 
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
 
 import javax.security.auth.Subject;
 
+import org.apache.cxf.fediz.core.FedizSessionToken;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
 import org.apache.cxf.fediz.core.processor.FedizProcessor;
@@ -119,7 +119,8 @@ public class FederationLoginService extends AbstractLifeCycle implements LoginSe
                 roles = Collections.singletonList("Authenticated");
             }
             
-            FederationUserPrincipal user = new FederationUserPrincipal(wfRes.getUsername(), wfRes);
+            FederationUserPrincipal user = 
+                new FederationUserPrincipal(wfRes.getUsername(), new FedizSessionToken(wfRes, roles));
 
             Subject subject = new Subject();
             subject.getPrincipals().add(user);
@@ -139,7 +140,7 @@ public class FederationLoginService extends AbstractLifeCycle implements LoginSe
     public boolean validate(UserIdentity user) {
         try {
             FederationUserIdentity fui = (FederationUserIdentity)user;
-            return fui.getExpiryDate().after(new Date());
+            return !fui.getSessionToken().isExpired(System.currentTimeMillis());
         } catch (ClassCastException ex) {
             LOG.warn("UserIdentity must be instance of FederationUserIdentity");
             throw new IllegalStateException("UserIdentity must be instance of FederationUserIdentity");
@@ -26,6 +26,7 @@ import java.util.Date;
 import javax.security.auth.Subject;
 
 import org.w3c.dom.Element;
+import org.apache.cxf.fediz.core.FedizSessionToken;
 import org.apache.cxf.fediz.core.processor.FedizResponse;
 import org.eclipse.jetty.server.UserIdentity;
 
@@ -34,14 +35,19 @@ public class FederationUserIdentity implements UserIdentity {
     private Subject subject;
     private Principal principal;
     private String[] roles;
-    private FedizResponse fedResponse;
+    private FedizSessionToken sessionToken;
 
     public FederationUserIdentity(Subject subject, Principal principal,
                                   String[] roles, FedizResponse fedResponse) {
+        this(subject, principal, roles, new FedizSessionToken(fedResponse));
+    }
+
+    public FederationUserIdentity(Subject subject, Principal principal,
+                                  String[] roles, FedizSessionToken sessionToken) {
         this.subject = subject;
         this.principal = principal;
         this.roles = roles;
-        this.fedResponse = fedResponse;
+        this.sessionToken = sessionToken;
     }
 
 
@@ -67,23 +73,28 @@ public class FederationUserIdentity implements UserIdentity {
     }
     
     public Date getExpiryDate() {
-        return fedResponse.getTokenExpires();
+        long expires = sessionToken.getTokenExpires();
+        return expires == 0 ? null : new Date(expires);
     }
     
     public String getIssuer() {
-        return fedResponse.getIssuer();
+        return sessionToken.getIssuer();
     }
     
     public String getAudience() {
-        return fedResponse.getAudience();
+        return sessionToken.getAudience();
     }
     
     public String getId() {
-        return fedResponse.getUniqueTokenId();
+        return sessionToken.getUniqueTokenId();
     }
     
     public Element getToken() {
-        return fedResponse.getToken();
+        return sessionToken.getToken();
+    }
+
+    public FedizSessionToken getSessionToken() {
+        return sessionToken;
     }
 
 }
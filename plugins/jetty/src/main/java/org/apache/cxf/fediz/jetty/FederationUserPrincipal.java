@@ -22,18 +22,21 @@ package org.apache.cxf.fediz.jetty;
 import org.w3c.dom.Element;
 import org.apache.cxf.fediz.core.ClaimCollection;
 import org.apache.cxf.fediz.core.FederationPrincipal;
+import org.apache.cxf.fediz.core.FedizSessionToken;
 import org.apache.cxf.fediz.core.processor.FedizResponse;
 
 @SuppressWarnings("deprecation")
 public class FederationUserPrincipal implements FederationPrincipal {
     private String name;
-    private ClaimCollection claims;
-    private FedizResponse response;
+    private FedizSessionToken sessionToken;
 
     public FederationUserPrincipal(String name, FedizResponse response) {
+        this(name, new FedizSessionToken(response));
+    }
+
+    public FederationUserPrincipal(String name, FedizSessionToken sessionToken) {
         this.name = name;
-        this.response = response;
-        this.claims = new ClaimCollection(response.getClaims());
+        this.sessionToken = sessionToken;
     }
 
     @Override
@@ -44,18 +47,18 @@ public class FederationUserPrincipal implements FederationPrincipal {
 
     @Override
     public ClaimCollection getClaims() {
-        return claims;
+        return sessionToken.getClaims();
     }
     
     // not public available
     //[TODO] maybe find better approach, custom UserIdentity
-    FedizResponse getFedizResponse() {
-        return response;
+    FedizSessionToken getSessionToken() {
+        return sessionToken;
     }
 
     @Override
     public Element getLoginToken() {
-        return response.getToken();
+        return sessionToken.getToken();
     }
     
 
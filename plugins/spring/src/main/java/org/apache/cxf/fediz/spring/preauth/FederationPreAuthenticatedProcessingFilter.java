@@ -22,6 +22,7 @@ package org.apache.cxf.fediz.spring.preauth;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.cxf.fediz.core.FedizPrincipal;
+import org.apache.cxf.fediz.core.handler.FedizEngine;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
 
 /**
@@ -32,8 +33,6 @@ import org.springframework.security.web.authentication.preauth.AbstractPreAuthen
  */
 public class FederationPreAuthenticatedProcessingFilter extends AbstractPreAuthenticatedProcessingFilter {
 
-    private static final String SECURITY_TOKEN_ATTR = "org.apache.fediz.SECURITY_TOKEN";
-        
     /**
      * Return the J2EE user name.
      */
@@ -54,7 +53,9 @@ public class FederationPreAuthenticatedProcessingFilter extends AbstractPreAuthe
     protected Object getPreAuthenticatedCredentials(HttpServletRequest httpRequest) {
         Object principal = httpRequest.getUserPrincipal() == null ? null : httpRequest.getUserPrincipal();
         if (principal instanceof FedizPrincipal) {
-            Object obj = httpRequest.getSession(false).getAttribute(SECURITY_TOKEN_ATTR);
+            // The session holds a FedizSessionToken, the credentials are still the token Element
+            Object obj = FedizEngine.getToken(
+                httpRequest.getSession(false).getAttribute(FedizEngine.SECURITY_TOKEN_ATTR));
             if (obj != null)  {
                 return obj;
             } else {
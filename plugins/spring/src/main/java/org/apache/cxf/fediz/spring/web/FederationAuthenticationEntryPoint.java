@@ -20,26 +20,16 @@
 package org.apache.cxf.fediz.spring.web;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.w3c.dom.Document;
-
-import org.apache.cxf.fediz.core.FederationConstants;
-import org.apache.cxf.fediz.core.SAMLSSOConstants;
-import org.apache.cxf.fediz.core.config.FederationProtocol;
 import org.apache.cxf.fediz.core.config.FedizContext;
-import org.apache.cxf.fediz.core.config.SAMLProtocol;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
-import org.apache.cxf.fediz.core.processor.FedizProcessor;
-import org.apache.cxf.fediz.core.processor.FedizProcessorFactory;
+import org.apache.cxf.fediz.core.handler.FedizEngine;
 import org.apache.cxf.fediz.core.processor.RedirectionResponse;
 import org.apache.cxf.fediz.spring.FederationConfig;
-import org.apache.wss4j.common.util.DOM2Writer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,6 +56,7 @@ public class FederationAuthenticationEntryPoint implements AuthenticationEntryPo
     
     private ApplicationContext appContext;
     private FederationConfig federationConfig;
+    private volatile FedizEngine engine;
 
     public FederationConfig getFederationConfig() {
         return federationConfig;
@@ -86,69 +77,42 @@ public class FederationAuthenticationEntryPoint implements AuthenticationEntryPo
         FedizContext fedContext = federationConfig.getFedizContext();
         LOG.debug("Federation context: {}", fedContext);
         
-        if (servletRequest.getRequestURL().indexOf(FederationConstants.METADATA_PATH_URI) != -1
-            || servletRequest.getRequestURL().indexOf(getMetadataURI(fedContext)) != -1) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Metadata document requested");
-            }
-            response.setContentType("text/xml");
-            PrintWriter out = response.getWriter();
-            
-            FedizProcessor wfProc = 
-                FedizProcessorFactory.newFedizProcessor(fedContext.getProtocol());
-            try {
-                Document metadata = wfProc.getMetaData(servletRequest, fedContext);
-                out.write(DOM2Writer.nodeToString(metadata));
-                return;
-            } catch (Exception ex) {
-                LOG.warn("Failed to get metadata document: " + ex.getMessage());
-                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                return;
-            }            
+        FedizEngine fedizEngine = getEngine(servletRequest, fedContext);
+        if (fedizEngine.isAnyMetadataRequest(servletRequest)) {
+            fedizEngine.handleMetadata(servletRequest, response);
+            return;
         }
         
-        String redirectUrl = null;
+        RedirectionResponse redirectionResponse = null;
         try {
-            FedizProcessor wfProc = 
-                FedizProcessorFactory.newFedizProcessor(fedContext.getProtocol());
-            RedirectionResponse redirectionResponse =
-                wfProc.createSignInRequest(servletRequest, fedContext);
-            redirectUrl = redirectionResponse.getRedirectionURL();
-            
-            if (redirectUrl == null) {
-                LOG.warn("Failed to create SignInRequest. Redirect URL null");
-                throw new ServletException("Failed to create SignInRequest. Redirect URL null");
-            }
-            
-            Map<String, String> headers = redirectionResponse.getHeaders();
-            if (!headers.isEmpty()) {
-                for (String headerName : headers.keySet()) {
-                    response.addHeader(headerName, headers.get(headerName));
-                }
-            }
-            
+            redirectionResponse = fedizEngine.createSignInRequest(servletRequest);
         } catch (ProcessingException ex) {
             LOG.warn("Failed to create SignInRequest", ex);
             throw new ServletException("Failed to create SignInRequest: " + ex.getMessage());
         }
+        String redirectUrl = redirectionResponse.getRedirectionURL();
+        if (redirectUrl == null) {
+            LOG.warn("Failed to create SignInRequest. Redirect URL null");
+            throw new ServletException("Failed to create SignInRequest. Redirect URL null");
+        }
         
         preCommence(servletRequest, response);
         if (LOG.isInfoEnabled()) {
             LOG.info("Redirecting to IDP: " + redirectUrl);
         }
-        response.sendRedirect(redirectUrl);
+        FedizEngine.redirect(response, redirectionResponse);
     }
 
-    private String getMetadataURI(FedizContext fedConfig) {
-        if (fedConfig.getProtocol().getMetadataURI() != null) {
-            return fedConfig.getProtocol().getMetadataURI();
-        } else if (fedConfig.getProtocol() instanceof FederationProtocol) {
-            return FederationConstants.METADATA_PATH_URI;
-        } else if (fedConfig.getProtocol() instanceof SAMLProtocol) {
-            return SAMLSSOConstants.FEDIZ_SAML_METADATA_PATH_URI;
+    /**
+     * Return the engine of the FedizContext, it is created once per (reloaded) FedizContext.
+     */
+    private FedizEngine getEngine(HttpServletRequest request, FedizContext fedContext) {
+        FedizEngine current = engine;
+        if (current == null || current.getFedizContext() != fedContext) {
+            current = new FedizEngine(fedContext, request.getContextPath());
+            engine = current;
         }
-        
-        return FederationConstants.METADATA_PATH_URI;
+        return current;
     }
 
     /**
@@ -22,9 +22,8 @@ package org.apache.cxf.fediz.tomcat;
 import java.io.File;
 import java.io.IOException;
 import java.security.Principal;
-import java.util.Date;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -43,14 +42,12 @@ import org.apache.catalina.connector.Response;
 import org.apache.catalina.deploy.LoginConfig;
 import org.apache.cxf.fediz.core.FederationConstants;
 import org.apache.cxf.fediz.core.FedizPrincipal;
+import org.apache.cxf.fediz.core.FedizSessionToken;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
-import org.apache.cxf.fediz.core.handler.LogoutHandler;
-import org.apache.cxf.fediz.core.metadata.MetadataDocumentHandler;
-import org.apache.cxf.fediz.core.processor.FedizProcessor;
-import org.apache.cxf.fediz.core.processor.FedizProcessorFactory;
-import org.apache.cxf.fediz.core.processor.FedizResponse;
+import org.apache.cxf.fediz.core.handler.FedizEngine;
+import org.apache.cxf.fediz.core.handler.RequestRouter.Route;
 import org.apache.cxf.fediz.core.processor.RedirectionResponse;
 import org.apache.cxf.fediz.tomcat.handler.TomcatLogoutHandler;
 import org.apache.cxf.fediz.tomcat.handler.TomcatSigninHandler;
@@ -62,14 +59,19 @@ public class FederationAuthenticator extends FormAuthenticator {
     public static final String SESSION_SAVED_REQUEST_PREFIX = "SAVED_REQUEST_";
     public static final String SESSION_SAVED_URI_PREFIX = "SAVED_URI_";
     public static final String FEDERATION_NOTE = "org.apache.cxf.fediz.tomcat.FEDERATION";
+    /**
+     * Session note with the expiry of the token (Long, milliseconds since the epoch, 0 if the token doesn't expire)
+     */
+    public static final String TOKEN_EXPIRES_NOTE = "org.apache.cxf.fediz.tomcat.TOKEN_EXPIRES";
     public static final String REQUEST_STATE = "org.apache.cxf.fediz.REQUEST_STATE";
-    public static final String SECURITY_TOKEN = "org.apache.fediz.SECURITY_TOKEN";
+    public static final String SECURITY_TOKEN = FedizEngine.SECURITY_TOKEN_ATTR;
 
     /**
      * Descriptive information about this implementation.
      */
     protected static final String INFO = "org.apache.cxf.fediz.tomcat.WsFedAuthenticator/1.0";
     protected static final String TRUSTED_ISSUER = "org.apache.cxf.fediz.tomcat.TRUSTED_ISSUER";
+    protected static final String ROUTE_NOTE = "org.apache.cxf.fediz.tomcat.ROUTE";
 
     private static final Logger LOG = LoggerFactory.getLogger(FormAuthenticator.class);
 
@@ -79,8 +81,27 @@ public class FederationAuthenticator extends FormAuthenticator {
     protected String configFile;
     protected String encoding = "UTF-8";
 
+    /**
+     * Number of threads which load the keystores of all contexts in the background on startup
+     * (0 disables the warm-up, the keystores are loaded on the first request of a context)
+     */
+    protected int warmUpThreads;
+
+    /**
+     * Reload the modified contexts when the configuration file changes
+     */
+    protected boolean watchConfigFile;
+
+    /**
+     * Expire the sessions whose token has expired in the background, rather than when the user
+     * returns or the session times out
+     */
+    protected boolean sweepExpiredSessions;
+
     private FedizConfigurator configurator;
 
+    private final ConcurrentMap<String, ContextRouter> routers = new ConcurrentHashMap<>();
+
     public FederationAuthenticator() {
         LOG.debug("WsFedAuthenticator()");
     }
@@ -109,6 +130,30 @@ public class FederationAuthenticator extends FormAuthenticator {
         this.encoding = encoding;
     }
 
+    public int getWarmUpThreads() {
+        return warmUpThreads;
+    }
+
+    public void setWarmUpThreads(int warmUpThreads) {
+        this.warmUpThreads = warmUpThreads;
+    }
+
+    public boolean isWatchConfigFile() {
+        return watchConfigFile;
+    }
+
+    public void setWatchConfigFile(boolean watchConfigFile) {
+        this.watchConfigFile = watchConfigFile;
+    }
+
+    public boolean isSweepExpiredSessions() {
+        return sweepExpiredSessions;
+    }
+
+    public void setSweepExpiredSessions(boolean sweepExpiredSessions) {
+        this.sweepExpiredSessions = sweepExpiredSessions;
+    }
+
     @Override
     protected synchronized void startInternal() throws LifecycleException {
 
@@ -123,9 +168,21 @@ public class FederationAuthenticator extends FormAuthenticator {
             configurator = new FedizConfigurator();
             configurator.loadConfig(f);
             LOG.debug("Fediz configuration read from " + f.getAbsolutePath());
-        } catch (JAXBException e) {
+            if (watchConfigFile) {
+                configurator.watch();
+            }
+        } catch (JAXBException | IOException e) {
             throw new LifecycleException("Failed to load Fediz configuration", e);
         }
+        if (warmUpThreads > 0) {
+            String catalinaBase = System.getProperty("catalina.base");
+            if (catalinaBase != null && catalinaBase.length() > 0) {
+                for (FedizContext fedContext : configurator.getFedizContextList()) {
+                    fedContext.setRelativePath(catalinaBase);
+                }
+            }
+            configurator.warmUp(warmUpThreads);
+        }
         super.startInternal();
 
     }
@@ -133,20 +190,67 @@ public class FederationAuthenticator extends FormAuthenticator {
     @Override
     protected synchronized void stopInternal() throws LifecycleException {
         if (configurator != null) {
-            List<FedizContext> fedContextList = configurator.getFedizContextList();
-            if (fedContextList != null) {
-                for (FedizContext fedContext : fedContextList) {
-                    try {
-                        fedContext.close();
-                    } catch (IOException ex) {
-                        //
-                    }
-                }
+            try {
+                configurator.close();
+            } catch (IOException ex) {
+                //
             }
+            configurator.closeFedizContexts();
         }
         super.stopInternal();
     }
 
+    /**
+     * Called periodically by the container (see backgroundProcessorDelay), expires the sessions
+     * of the context whose token has expired if sweepExpiredSessions is enabled.
+     */
+    @Override
+    public void backgroundProcess() {
+        super.backgroundProcess();
+        if (sweepExpiredSessions) {
+            expireSessions(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Expire the sessions whose token expires before the given time, return the number of
+     * expired sessions.
+     */
+    protected int expireSessions(long currentTime) {
+        if (configurator == null || context == null || context.getManager() == null) {
+            return 0;
+        }
+        String contextName = context.getServletContext().getContextPath();
+        if (contextName == null || contextName.isEmpty()) {
+            contextName = "/";
+        }
+        FedizContext fedCtx = configurator.getFedizContext(contextName);
+        if (fedCtx == null || !fedCtx.isDetectExpiredTokens()) {
+            return 0;
+        }
+        int expired = expireSessions(context.getManager().findSessions(), currentTime);
+        if (expired > 0) {
+            LOG.debug("Expired {} sessions of context {} with an expired token", expired, contextName);
+        }
+        return expired;
+    }
+
+    static int expireSessions(Session[] sessions, long currentTime) {
+        int expired = 0;
+        for (Session session : sessions) {
+            if (!session.isValid()) {
+                continue;
+            }
+            // Sessions without a token (not yet authenticated) are left to the session timeout
+            Long tokenExpires = getTokenExpires(session);
+            if (tokenExpires != null && tokenExpires > 0 && currentTime > tokenExpires) {
+                session.expire();
+                expired++;
+            }
+        }
+        return expired;
+    }
+
     protected FedizContext getContextConfiguration(String contextName) {
         if (configurator == null) {
             throw new IllegalStateException("No Fediz configuration available");
@@ -162,6 +266,18 @@ public class FederationAuthenticator extends FormAuthenticator {
         return config;
     }
 
+    /**
+     * Return the router of the context, it is created once per (reloaded) FedizContext.
+     */
+    protected ContextRouter getRouter(String contextName, FedizContext fedConfig) {
+        ContextRouter router = routers.get(contextName);
+        if (router == null || router.getFedizContext() != fedConfig) {
+            router = new ContextRouter(fedConfig, contextName, landingPage);
+            routers.put(contextName, router);
+        }
+        return router;
+    }
+
     @Override
     public void invoke(final Request request, final Response response) throws IOException, ServletException {
 
@@ -173,21 +289,14 @@ public class FederationAuthenticator extends FormAuthenticator {
             contextName = "/";
         }
         FedizContext fedConfig = getContextConfiguration(contextName);
+        ContextRouter router = getRouter(contextName, fedConfig);
 
-        MetadataDocumentHandler mdHandler = new MetadataDocumentHandler(fedConfig);
-        if (mdHandler.canHandleRequest(request)) {
-            mdHandler.handleRequest(request, response);
-            return;
-        }
-
-        LogoutHandler logoutHandler = new TomcatLogoutHandler(fedConfig, contextName, request);
-        if (logoutHandler.canHandleRequest(request)) {
-            Element token = (Element)request.getSession().getAttribute(SECURITY_TOKEN);
-            logoutHandler.setToken(token);
-            logoutHandler.handleRequest(request, response);
+        Route route = router.route(request);
+        if (router.handle(route, request, response)) {
             return;
         }
 
+        request.setNote(ROUTE_NOTE, route);
         super.invoke(request, response);
     }
 
@@ -205,10 +314,13 @@ public class FederationAuthenticator extends FormAuthenticator {
         FedizContext fedCtx = getContextConfiguration(contextName);
         
         // Handle Signin requests
-        TomcatSigninHandler signinHandler = new TomcatSigninHandler(fedCtx);
-        signinHandler.setLandingPage(landingPage);
-        if (signinHandler.canHandleRequest(request)) {
-            FedizPrincipal principal = signinHandler.handleRequest(request, response);
+        ContextRouter router = getRouter(contextName, fedCtx);
+        Route route = (Route)request.getNote(ROUTE_NOTE);
+        if (route == null) {
+            route = router.route(request);
+        }
+        if (route == Route.SIGNIN) {
+            FedizPrincipal principal = router.signinHandler.handleRequest(request, response);
             if (principal != null) {
                 LOG.debug("Authentication of '{}' was successful", principal);
                 resumeRequest(request, response);
@@ -231,7 +343,7 @@ public class FederationAuthenticator extends FormAuthenticator {
         }
 
         LOG.info("No valid principal found in existing session. Redirecting to IDP");
-        redirectToIdp(request, response, fedCtx);
+        redirectToIdp(request, response, router);
         return false;
     }
 
@@ -288,21 +400,26 @@ public class FederationAuthenticator extends FormAuthenticator {
         }
     }
 
-    protected void redirectToIdp(Request request, HttpServletResponse response, FedizContext fedCtx) 
+    /**
+     * @deprecated use {@link #redirectToIdp(Request, HttpServletResponse, FedizEngine)}, the
+     *             router of the context is used to create the SignIn request.
+     */
+    @Deprecated
+    protected void redirectToIdp(Request request, HttpServletResponse response, FedizContext fedCtx)
         throws IOException {
+        String contextName = request.getServletContext().getContextPath();
+        if (contextName == null || contextName.isEmpty()) {
+            contextName = "/";
+        }
+        redirectToIdp(request, response, getRouter(contextName, fedCtx));
+    }
 
-        FedizProcessor processor = FedizProcessorFactory.newFedizProcessor(fedCtx.getProtocol());
-        try {
-            RedirectionResponse redirectionResponse = processor.createSignInRequest(request, fedCtx);
-            String redirectURL = redirectionResponse.getRedirectionURL();
-            if (redirectURL != null) {
-                Map<String, String> headers = redirectionResponse.getHeaders();
-                if (!headers.isEmpty()) {
-                    for (String headerName : headers.keySet()) {
-                        response.addHeader(headerName, headers.get(headerName));
-                    }
-                }
+    protected void redirectToIdp(Request request, HttpServletResponse response, FedizEngine engine) 
+        throws IOException {
 
+        try {
+            RedirectionResponse redirectionResponse = engine.createSignInRequest(request);
+            if (redirectionResponse.getRedirectionURL() != null) {
                 // Save original request in our session
                 try {
                     saveRequest(request, redirectionResponse.getRequestState().getState());
@@ -312,7 +429,7 @@ public class FederationAuthenticator extends FormAuthenticator {
                         .getString("authenticator.requestBodyTooBig"));
                 }
 
-                response.sendRedirect(redirectURL);
+                FedizEngine.redirect(response, redirectionResponse);
             } else {
                 LOG.warn("Failed to create SignInRequest.");
                 response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to create SignInRequest.");
@@ -402,28 +519,80 @@ public class FederationAuthenticator extends FormAuthenticator {
         Session session;
         session = request.getSessionInternal();
         if (session != null) {
+            return validateToken(session, System.currentTimeMillis());
+        } else {
+            LOG.debug("Session should not be null after authentication");
+        }
+        return false;
+    }
 
-            FedizResponse wfRes = (FedizResponse)session.getNote(FEDERATION_NOTE);
-            Date tokenExpires = wfRes.getTokenExpires();
-            if (tokenExpires == null) {
-                LOG.debug("Token doesn't expire");
-                return true;
-            }
+    /**
+     * Return true if the token of the session hasn't expired. Otherwise, or if the session holds no
+     * token, the authentication of the session is cleaned up.
+     */
+    static boolean validateToken(Session session, long currentTime) {
+        // The expiry is kept as note of its own, so that the check doesn't allocate anything
+        Long tokenExpires = getTokenExpires(session);
+        if (tokenExpires == null) {
+            LOG.warn("Token expiry not found in session. Clean up and redirect");
+        } else if (tokenExpires == 0L) {
+            LOG.debug("Token doesn't expire");
+            return true;
+        } else if (currentTime <= tokenExpires) {
+            return true;
+        } else {
+            LOG.warn("Token already expired. Clean up and redirect");
+        }
 
-            Date currentTime = new Date();
-            if (!currentTime.after(wfRes.getTokenExpires())) {
-                return true;
-            } else {
-                LOG.warn("Token already expired. Clean up and redirect");
+        session.removeNote(FEDERATION_NOTE);
+        session.removeNote(TOKEN_EXPIRES_NOTE);
+        session.setPrincipal(null);
+        session.getSession().removeAttribute(SECURITY_TOKEN);
+        return false;
+    }
 
-                session.removeNote(FEDERATION_NOTE);
-                session.setPrincipal(null);
-                request.getSession().removeAttribute(SECURITY_TOKEN);
+    /**
+     * Return the expiry of the token of the session in milliseconds since the epoch, 0 if the
+     * token doesn't expire or null if the session doesn't hold a token. Session notes are neither
+     * persisted nor replicated, so the note is restored from the (replicated) principal or the
+     * SECURITY_TOKEN session attribute after a failover or restart.
+     */
+    protected static Long getTokenExpires(Session session) {
+        Object tokenExpires = session.getNote(TOKEN_EXPIRES_NOTE);
+        if (tokenExpires instanceof Long) {
+            return (Long)tokenExpires;
+        }
+
+        FedizSessionToken sessionToken = null;
+        if (session.getPrincipal() instanceof FederationPrincipalImpl) {
+            sessionToken = ((FederationPrincipalImpl)session.getPrincipal()).getSessionToken();
+        }
+        if (sessionToken == null) {
+            Object securityToken;
+            try {
+                securityToken = session.getSession().getAttribute(SECURITY_TOKEN);
+            } catch (IllegalStateException ex) {
+                // The session has been invalidated in the meantime (e.g. during a sweep)
+                return null;
+            }
+            if (securityToken instanceof FedizSessionToken) {
+                sessionToken = (FedizSessionToken)securityToken;
             }
-        } else {
-            LOG.debug("Session should not be null after authentication");
         }
-        return false;
+        if (sessionToken == null) {
+            return null;
+        }
+        Long expires = sessionToken.getTokenExpires();
+        session.setNote(TOKEN_EXPIRES_NOTE, expires);
+        return expires;
+    }
+
+    /**
+     * Return the token of the SECURITY_TOKEN session attribute, which holds the compact
+     * FedizSessionToken (or the token itself, if it was set by an application).
+     */
+    public static Element getToken(Object securityToken) {
+        return FedizEngine.getToken(securityToken);
     }
 
     @Override
@@ -431,4 +600,17 @@ public class FederationAuthenticator extends FormAuthenticator {
         return FederationConstants.WSFED_METHOD;
     }
 
+    /**
+     * The engine of a context together with the sign-in handler, which is shared between requests.
+     */
+    protected static class ContextRouter extends FedizEngine {
+        private final TomcatSigninHandler signinHandler;
+
+        ContextRouter(FedizContext fedConfig, String contextName, String landingPage) {
+            super(fedConfig, contextName, new TomcatLogoutHandler(fedConfig, contextName));
+            signinHandler = new TomcatSigninHandler(fedConfig);
+            signinHandler.setLandingPage(landingPage);
+        }
+    }
+
 }
@@ -26,12 +26,14 @@ import org.apache.catalina.realm.GenericPrincipal;
 import org.apache.cxf.fediz.core.Claim;
 import org.apache.cxf.fediz.core.ClaimCollection;
 import org.apache.cxf.fediz.core.FederationPrincipal;
+import org.apache.cxf.fediz.core.FedizSessionToken;
 
 @SuppressWarnings("deprecation")
 public class FederationPrincipalImpl extends GenericPrincipal implements FederationPrincipal {
 
     protected ClaimCollection claims;
     protected Element loginToken;
+    protected FedizSessionToken sessionToken;
 
     public FederationPrincipalImpl(String username, List<String> roles,
             List<Claim> claims, Element loginToken) {
@@ -40,13 +42,30 @@ public class FederationPrincipalImpl extends GenericPrincipal implements Federat
         this.loginToken = loginToken;
     }
 
+    /**
+     * Create a principal which holds the token in its compact form, it is only parsed when
+     * getLoginToken() is called.
+     */
+    public FederationPrincipalImpl(FedizSessionToken sessionToken) {
+        super(sessionToken.getUsername(), null, sessionToken.getRoles());
+        this.claims = sessionToken.getClaims();
+        this.sessionToken = sessionToken;
+    }
+
     public ClaimCollection getClaims() {
         return this.claims;
     }
 
     @Override
     public Element getLoginToken() {
+        if (loginToken == null && sessionToken != null) {
+            return sessionToken.getToken();
+        }
         return loginToken;
     }
 
+    public FedizSessionToken getSessionToken() {
+        return sessionToken;
+    }
+
 }
@@ -21,6 +21,9 @@ package org.apache.cxf.fediz.tomcat.handler;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import org.w3c.dom.Element;
 
 import org.apache.catalina.Session;
 import org.apache.catalina.connector.Request;
@@ -31,6 +34,13 @@ import org.apache.cxf.fediz.tomcat.FederationAuthenticator;
 public class TomcatLogoutHandler extends LogoutHandler {
     private final Request request;
 
+    /**
+     * Create a handler which can be shared between requests, the token is read from the session.
+     */
+    public TomcatLogoutHandler(FedizContext fedConfig, String servletContextPath) {
+        this(fedConfig, servletContextPath, null);
+    }
+
     public TomcatLogoutHandler(FedizContext fedConfig, String servletContextPath, Request request) {
         super(fedConfig, servletContextPath);
         this.request = request;
@@ -39,20 +49,39 @@ public class TomcatLogoutHandler extends LogoutHandler {
     @Override
     protected boolean signoutCleanup(HttpServletRequest req, HttpServletResponse resp) {
         // Cleanup session internal
-        Session session = request.getSessionInternal();
+        Request tomcatRequest = getRequest(req);
+        Session session = tomcatRequest.getSessionInternal();
         session.removeNote(FederationAuthenticator.FEDERATION_NOTE);
+        session.removeNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE);
         session.setPrincipal(null);
         super.signoutCleanup(req, resp);
-        request.clearCookies();
+        tomcatRequest.clearCookies();
         return true;
     }
 
     @Override
     protected boolean signout(HttpServletRequest req, HttpServletResponse resp) {
         // Direct Logout
-        Session session = request.getSessionInternal();
+        Session session = getRequest(req).getSessionInternal();
         session.removeNote(FederationAuthenticator.FEDERATION_NOTE);
+        session.removeNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE);
         session.setPrincipal(null);
         return super.signout(req, resp);
     }
-}
\ No newline at end of file
+
+    @Override
+    protected Element getToken(HttpServletRequest req) {
+        Element token = super.getToken(req);
+        if (token == null && request == null) {
+            HttpSession session = req.getSession(false);
+            if (session != null) {
+                token = FederationAuthenticator.getToken(session.getAttribute(FederationAuthenticator.SECURITY_TOKEN));
+            }
+        }
+        return token;
+    }
+
+    private Request getRequest(HttpServletRequest req) {
+        return request != null ? request : (Request)req;
+    }
+}
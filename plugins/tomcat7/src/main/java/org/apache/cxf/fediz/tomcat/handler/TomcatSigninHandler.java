@@ -30,6 +30,7 @@ import org.apache.catalina.authenticator.Constants;
 import org.apache.catalina.connector.Request;
 import org.apache.cxf.fediz.core.FederationConstants;
 import org.apache.cxf.fediz.core.FedizPrincipal;
+import org.apache.cxf.fediz.core.FedizSessionToken;
 import org.apache.cxf.fediz.core.SAMLSSOConstants;
 import org.apache.cxf.fediz.core.config.FederationProtocol;
 import org.apache.cxf.fediz.core.config.FedizContext;
@@ -59,9 +60,11 @@ public class TomcatSigninHandler extends SigninHandler<FedizPrincipal> {
             roles = Collections.singletonList("Authenticated");
         }
 
+        // Keep the compact form of the response instead of the DOM tree of the token
+        FedizSessionToken sessionToken = new FedizSessionToken(wfRes, roles);
+
         // proceed creating the JAAS Subject
-        FedizPrincipal principal = new FederationPrincipalImpl(wfRes.getUsername(), roles,
-                                                               wfRes.getClaims(), wfRes.getToken());
+        FedizPrincipal principal = new FederationPrincipalImpl(sessionToken);
 
         Session session = ((Request)request).getSessionInternal();
 
@@ -69,10 +72,12 @@ public class TomcatSigninHandler extends SigninHandler<FedizPrincipal> {
         session.setNote(Constants.FORM_PRINCIPAL_NOTE, principal);
 
         // Save Federation response in our session
-        session.setNote(FederationAuthenticator.FEDERATION_NOTE, wfRes);
+        session.setNote(FederationAuthenticator.FEDERATION_NOTE, sessionToken);
+        // 0 if the token doesn't expire
+        session.setNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE, sessionToken.getTokenExpires());
 
         // Save Federation response in public session
-        request.getSession(true).setAttribute(FederationAuthenticator.SECURITY_TOKEN, wfRes.getToken());
+        request.getSession(true).setAttribute(FederationAuthenticator.SECURITY_TOKEN, sessionToken);
 
         LOG.debug("UserPrincipal was created successfully for {}", principal);
         return principal;
@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.fediz.tomcat;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Date;
+
+import javax.servlet.http.HttpSession;
+
+import org.apache.catalina.Session;
+import org.apache.cxf.fediz.core.FedizSessionToken;
+import org.apache.cxf.fediz.core.processor.FedizResponse;
+import org.easymock.EasyMock;
+import org.junit.Assert;
+
+public class FederationAuthenticatorTest {
+
+    private static final long NOW = 1000000000000L;
+
+    @org.junit.Test
+    public void testTokenExpiresNote() {
+        Session session = EasyMock.createMock(Session.class);
+        EasyMock.expect(session.getNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE)).andReturn(NOW);
+        EasyMock.replay(session);
+
+        Assert.assertEquals(Long.valueOf(NOW), FederationAuthenticator.getTokenExpires(session));
+        EasyMock.verify(session);
+    }
+
+    @org.junit.Test
+    public void testTokenExpiresRestoredFromPrincipal() {
+        // Session notes aren't replicated, the principal is
+        FedizSessionToken token = createSessionToken(NOW);
+        Session session = mockSession(new FederationPrincipalImpl(token), null);
+        session.setNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE, NOW);
+        EasyMock.replay(session);
+
+        Assert.assertEquals(Long.valueOf(NOW), FederationAuthenticator.getTokenExpires(session));
+        EasyMock.verify(session);
+    }
+
+    @org.junit.Test
+    public void testTokenExpiresRestoredFromAttribute() {
+        HttpSession httpSession = mockHttpSession(createSessionToken(0L));
+        Session session = mockSession(null, httpSession);
+        session.setNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE, 0L);
+        EasyMock.replay(session);
+
+        // A token without expiry is restored as 0
+        Assert.assertEquals(Long.valueOf(0L), FederationAuthenticator.getTokenExpires(session));
+        EasyMock.verify(session);
+    }
+
+    @org.junit.Test
+    public void testTokenExpiresInvalidatedSession() {
+        HttpSession httpSession = EasyMock.createMock(HttpSession.class);
+        EasyMock.expect(httpSession.getAttribute(FederationAuthenticator.SECURITY_TOKEN))
+            .andThrow(new IllegalStateException("getAttribute: Session already invalidated"));
+        EasyMock.replay(httpSession);
+        Session session = mockSession(null, httpSession);
+        EasyMock.replay(session);
+
+        Assert.assertNull(FederationAuthenticator.getTokenExpires(session));
+        EasyMock.verify(session);
+    }
+
+    @org.junit.Test
+    public void testValidateTokenWithoutToken() {
+        HttpSession httpSession = EasyMock.createMock(HttpSession.class);
+        EasyMock.expect(httpSession.getAttribute(FederationAuthenticator.SECURITY_TOKEN)).andReturn(null);
+        httpSession.removeAttribute(FederationAuthenticator.SECURITY_TOKEN);
+        EasyMock.replay(httpSession);
+        Session session = mockSession(null, httpSession);
+        // The authentication of the session is cleaned up
+        session.removeNote(FederationAuthenticator.FEDERATION_NOTE);
+        session.removeNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE);
+        session.setPrincipal(null);
+        EasyMock.replay(session);
+
+        Assert.assertFalse(FederationAuthenticator.validateToken(session, NOW));
+        EasyMock.verify(session, httpSession);
+    }
+
+    @org.junit.Test
+    public void testValidateToken() {
+        Session session = mockSession(new FederationPrincipalImpl(createSessionToken(NOW)), null);
+        session.setNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE, NOW);
+        EasyMock.replay(session);
+
+        Assert.assertTrue(FederationAuthenticator.validateToken(session, NOW));
+        EasyMock.verify(session);
+    }
+
+    @org.junit.Test
+    public void testExpireSessions() {
+        Session expired = mockSession(new FederationPrincipalImpl(createSessionToken(NOW - 1)), null);
+        expired.setNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE, NOW - 1);
+        expired.expire();
+        Session valid = mockSession(new FederationPrincipalImpl(createSessionToken(NOW + 1)), null);
+        valid.setNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE, NOW + 1);
+        Session notExpiring = mockSession(new FederationPrincipalImpl(createSessionToken(0L)), null);
+        notExpiring.setNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE, 0L);
+        // Not yet authenticated
+        Session anonymous = mockSession(null, mockHttpSession(null));
+        Session invalid = EasyMock.createMock(Session.class);
+        EasyMock.expect(invalid.isValid()).andReturn(false);
+        EasyMock.replay(expired, valid, notExpiring, anonymous, invalid);
+
+        Assert.assertEquals(1, FederationAuthenticator.expireSessions(
+            new Session[] {expired, valid, notExpiring, anonymous, invalid}, NOW));
+        EasyMock.verify(expired, valid, notExpiring, anonymous, invalid);
+    }
+
+    /**
+     * Return a session without TOKEN_EXPIRES_NOTE, e.g. after a failover, the mock isn't replayed yet.
+     */
+    private static Session mockSession(Principal principal, HttpSession httpSession) {
+        Session session = EasyMock.createMock(Session.class);
+        EasyMock.expect(session.isValid()).andReturn(true).anyTimes();
+        EasyMock.expect(session.getNote(FederationAuthenticator.TOKEN_EXPIRES_NOTE)).andReturn(null).anyTimes();
+        EasyMock.expect(session.getPrincipal()).andReturn(principal).anyTimes();
+        if (httpSession != null) {
+            EasyMock.expect(session.getSession()).andReturn(httpSession).anyTimes();
+        }
+        return session;
+    }
+
+    private static HttpSession mockHttpSession(Object securityToken) {
+        HttpSession httpSession = EasyMock.createNiceMock(HttpSession.class);
+        EasyMock.expect(httpSession.getAttribute(FederationAuthenticator.SECURITY_TOKEN))
+            .andReturn(securityToken).anyTimes();
+        EasyMock.replay(httpSession);
+        return httpSession;
+    }
+
+    private static FedizSessionToken createSessionToken(long expires) {
+        FedizResponse response = 
+            new FedizResponse("alice", "https://localhost:9443/fediz-idp", Collections.singletonList("User"),
+                              null, "urn:org:apache:cxf:fediz:fedizhelloworld", new Date(NOW - 60000L),
+                              expires == 0L ? null : new Date(expires), null, "_1234");
+        return new FedizSessionToken(response);
+    }
+
+}
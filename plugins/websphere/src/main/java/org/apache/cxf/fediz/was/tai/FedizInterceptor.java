@@ -27,6 +27,8 @@ import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -50,11 +52,10 @@ import org.apache.cxf.fediz.core.RequestState;
 import org.apache.cxf.fediz.core.config.FedizConfigurator;
 import org.apache.cxf.fediz.core.config.FedizContext;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.handler.FedizEngine;
 import org.apache.cxf.fediz.core.handler.LogoutHandler;
+import org.apache.cxf.fediz.core.handler.RequestRouter.Route;
 import org.apache.cxf.fediz.core.handler.SigninHandler;
-import org.apache.cxf.fediz.core.metadata.MetadataDocumentHandler;
-import org.apache.cxf.fediz.core.processor.FederationProcessorImpl;
-import org.apache.cxf.fediz.core.processor.FedizProcessor;
 import org.apache.cxf.fediz.core.processor.FedizResponse;
 import org.apache.cxf.fediz.core.processor.RedirectionResponse;
 import org.apache.cxf.fediz.was.Constants;
@@ -79,6 +80,7 @@ public class FedizInterceptor implements TrustAssociationInterceptor {
      * @see org.apache.cxf.fediz.was.Constants#PROPERTY_KEY_DIRECT_GROUP_MAPPING
      */
     private boolean directGroupMapping;
+    private final ConcurrentMap<String, ContextEngine> engines = new ConcurrentHashMap<>();
 
     public String getConfigFile() {
         return configFile;
@@ -190,6 +192,19 @@ public class FedizInterceptor implements TrustAssociationInterceptor {
         return 0;
     }
 
+    /**
+     * Return the engine of the context, it is created once per (reloaded) FedizContext.
+     */
+    protected ContextEngine getEngine(HttpServletRequest req, FedizContext fedCtx) {
+        String contextPath = req.getContextPath();
+        ContextEngine engine = engines.get(contextPath);
+        if (engine == null || engine.getFedizContext() != fedCtx) {
+            engine = new ContextEngine(fedCtx, contextPath);
+            engines.put(contextPath, engine);
+        }
+        return engine;
+    }
+
     protected FedizContext getFederationContext(HttpServletRequest req) {
         String contextPath = req.getContextPath();
         if (contextPath == null || contextPath.isEmpty()) {
@@ -218,24 +233,10 @@ public class FedizInterceptor implements TrustAssociationInterceptor {
                 return true;
             }
 
-            // Handle Metadata Document requests
-            MetadataDocumentHandler mddHandler = new MetadataDocumentHandler(fedCtx);
-            if (mddHandler.canHandleRequest(req)) {
-                LOG.debug("MetadataDocument request detected");
-                return true;
-            }
-
-            // Handle Logout requests
-            LogoutHandler logoutHandler = new LogoutHandler(fedCtx);
-            if (logoutHandler.canHandleRequest(req)) {
-                LOG.debug("Logout URL request detected");
-                return true;
-            }
-
-            // Handle Signin requests
-            SigninHandler<TAIResult> signinHandler = new SigninHandler<TAIResult>(fedCtx);
-            if (signinHandler.canHandleRequest(req)) {
-                LOG.debug("SignIn request detected");
+            // Handle Metadata Document, Logout and Signin requests
+            Route route = getEngine(req, fedCtx).route(req);
+            if (route != Route.NONE) {
+                LOG.debug("{} request detected", route);
                 return true;
             }
             HttpSession session = req.getSession(false);
@@ -289,46 +290,26 @@ public class FedizInterceptor implements TrustAssociationInterceptor {
         }
 
         try {
+            ContextEngine engine = getEngine(req, fedCtx);
+            Route route = engine.route(req);
+
             // Handle Metadata Document requests
-            MetadataDocumentHandler mddHandler = new MetadataDocumentHandler(fedCtx);
-            if (mddHandler.canHandleRequest(req)) {
-                return TAIResult.create(mddHandler.handleRequest(req, resp)
+            if (route == Route.METADATA) {
+                return TAIResult.create(engine.handleMetadata(req, resp)
                     ? HttpServletResponse.SC_OK
                     : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             }
 
             // Handle Logout requests
-            LogoutHandler logoutHandler = new LogoutHandler(fedCtx);
-            if (logoutHandler.canHandleRequest(req)) {
-                return TAIResult.create(logoutHandler.handleRequest(req, resp)
+            if (route == Route.LOGOUT) {
+                return TAIResult.create(engine.getLogoutHandler().handleRequest(req, resp)
                     ? HttpServletResponse.SC_OK
                     : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             }
 
             // Handle Signin requests
-            SigninHandler<TAIResult> signinHandler = new SigninHandler<TAIResult>(fedCtx) {
-
-                @Override
-                protected TAIResult createPrincipal(HttpServletRequest request, HttpServletResponse response,
-                    FedizResponse federationResponse) {
-                    // proceed creating the JAAS Subject
-                    HttpSession session = request.getSession(true);
-                    session.setAttribute(Constants.SECURITY_TOKEN_SESSION_ATTRIBUTE_KEY, federationResponse);
-                    String username = federationResponse.getUsername();
-                    // List<String> groupsIds = groupIdsFromTokenRoles(federationResponse);
-                    // Subject subject = createSubject(federationResponse, groupsIds, session.getId());
-                    // LOG.info("UserPrincipal was created successfully for {}", username);
-                    try {
-                        // return TAIResult.create(HttpServletResponse.SC_FOUND, username, subject);
-                        return TAIResult.create(HttpServletResponse.SC_FOUND);
-                    } catch (WebTrustAssociationFailedException e) {
-                        LOG.error("TAIResult for user '" + username + "' could not be created", e);
-                        return null;
-                    }
-                }
-            };
-            if (signinHandler.canHandleRequest(req)) {
-                TAIResult taiResult = signinHandler.handleRequest(req, resp);
+            if (route == Route.SIGNIN) {
+                TAIResult taiResult = engine.signinHandler.handleRequest(req, resp);
                 if (taiResult != null) {
                     resumeRequest(req, resp);
                 }
@@ -342,7 +323,7 @@ public class FedizInterceptor implements TrustAssociationInterceptor {
             }
 
             LOG.info("No valid principal found in existing session. Redirecting to IDP");
-            redirectToIdp(req, resp, fedCtx);
+            redirectToIdp(req, resp, engine);
             return TAIResult.create(HttpServletResponse.SC_FOUND);
 
         } catch (Exception e) {
@@ -397,27 +378,28 @@ public class FedizInterceptor implements TrustAssociationInterceptor {
         return result;
     }
 
+    /**
+     * @deprecated use {@link #redirectToIdp(HttpServletRequest, HttpServletResponse, FedizEngine)}, the
+     *             engine of the context is used to create the SignIn request.
+     */
+    @Deprecated
     protected void redirectToIdp(HttpServletRequest request, HttpServletResponse response, FedizContext fedCtx)
         throws IOException, WebTrustAssociationFailedException {
-        FedizProcessor processor = new FederationProcessorImpl();
+        redirectToIdp(request, response, getEngine(request, fedCtx));
+    }
 
+    protected void redirectToIdp(HttpServletRequest request, HttpServletResponse response, FedizEngine engine)
+        throws IOException, WebTrustAssociationFailedException {
         try {
-            RedirectionResponse redirectionResponse = processor.createSignInRequest(request, fedCtx);
-            String redirectURL = redirectionResponse.getRedirectionURL();
-            if (redirectURL != null) {
-                Map<String, String> headers = redirectionResponse.getHeaders();
-                if (!headers.isEmpty()) {
-                    for (String headerName : headers.keySet()) {
-                        response.addHeader(headerName, headers.get(headerName));
-                    }
-                }
+            RedirectionResponse redirectionResponse = engine.createSignInRequest(request);
+            if (redirectionResponse.getRedirectionURL() != null) {
                 // Save request in our session before redirect to IDP
                 RequestState requestState = redirectionResponse.getRequestState();
                 if (requestState != null) {
                     HttpSession session = request.getSession(true);
                     session.setAttribute(requestState.getState(), requestState);
                 }
-                response.sendRedirect(redirectURL);
+                FedizEngine.redirect(response, redirectionResponse);
             } else {
                 LOG.error("RedirectUrl is null. Failed to create SignInRequest.");
                 response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to create SignInRequest.");
@@ -543,4 +525,42 @@ public class FedizInterceptor implements TrustAssociationInterceptor {
         CustomRegistryException, RemoteException {
         return reg.getUniqueGroupId(group);
     }
+
+    /**
+     * The engine of a context together with the sign-in handler, which is shared between requests.
+     */
+    protected static class ContextEngine extends FedizEngine {
+        private final SigninHandler<TAIResult> signinHandler;
+
+        ContextEngine(FedizContext fedCtx, String contextPath) {
+            super(fedCtx, contextPath, new LogoutHandler(fedCtx, contextPath));
+            signinHandler = new TAISigninHandler(fedCtx);
+        }
+    }
+
+    private static class TAISigninHandler extends SigninHandler<TAIResult> {
+
+        TAISigninHandler(FedizContext fedCtx) {
+            super(fedCtx);
+        }
+
+        @Override
+        protected TAIResult createPrincipal(HttpServletRequest request, HttpServletResponse response,
+            FedizResponse federationResponse) {
+            // proceed creating the JAAS Subject
+            HttpSession session = request.getSession(true);
+            session.setAttribute(Constants.SECURITY_TOKEN_SESSION_ATTRIBUTE_KEY, federationResponse);
+            String username = federationResponse.getUsername();
+            // List<String> groupsIds = groupIdsFromTokenRoles(federationResponse);
+            // Subject subject = createSubject(federationResponse, groupsIds, session.getId());
+            // LOG.info("UserPrincipal was created successfully for {}", username);
+            try {
+                // return TAIResult.create(HttpServletResponse.SC_FOUND, username, subject);
+                return TAIResult.create(HttpServletResponse.SC_FOUND);
+            } catch (WebTrustAssociationFailedException e) {
+                LOG.error("TAIResult for user '" + username + "' could not be created", e);
+                return null;
+            }
+        }
+    }
 }
@@ -23,6 +23,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -33,7 +34,6 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Map;
-import java.util.zip.DataFormatException;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -48,6 +48,7 @@ import org.apache.cxf.common.util.Base64Utility;
 import org.apache.cxf.common.util.StringUtils;
 import org.apache.cxf.fediz.core.FederationConstants;
 import org.apache.cxf.fediz.core.exception.ProcessingException;
+import org.apache.cxf.fediz.core.samlsso.CompressionUtils;
 import org.apache.cxf.fediz.core.util.CertsUtils;
 import org.apache.cxf.fediz.service.idp.domain.Idp;
 import org.apache.cxf.fediz.service.idp.domain.TrustedIdp;
@@ -55,7 +56,6 @@ import org.apache.cxf.fediz.service.idp.spi.TrustedIdpProtocolHandler;
 import org.apache.cxf.fediz.service.idp.util.WebUtils;
 import org.apache.cxf.helpers.DOMUtils;
 import org.apache.cxf.jaxrs.utils.ExceptionUtils;
-import org.apache.cxf.rs.security.saml.DeflateEncoderDecoder;
 import org.apache.cxf.rs.security.saml.sso.AuthnRequestBuilder;
 import org.apache.cxf.rs.security.saml.sso.DefaultAuthnRequestBuilder;
 import org.apache.cxf.rs.security.saml.sso.SAMLProtocolResponseValidator;
@@ -110,6 +110,12 @@ public class TrustedIdpSAMLProtocolHandler implements TrustedIdpProtocolHandler
      * Whether we support Deflate encoding or not. The default is "false".
      */
     public static final String SUPPORT_DEFLATE_ENCODING = "support.deflate.encoding";
+    
+    /**
+     * The maximum ratio of the inflated to the deflated size of a (deflated) response. The default
+     * is CompressionUtils.DEFAULT_MAX_INFLATION_RATIO, a value less than 1 disables the check.
+     */
+    public static final String MAX_INFLATION_RATIO = "max.inflation.ratio";
 
     public static final String PROTOCOL = "urn:oasis:names:tc:SAML:2.0:profiles:SSO:browser";
 
@@ -239,8 +245,7 @@ public class TrustedIdpSAMLProtocolHandler implements TrustedIdpProtocolHandler
             LOG.debug(requestMessage);
         }
 
-        DeflateEncoderDecoder encoder = new DeflateEncoderDecoder();
-        byte[] deflatedBytes = encoder.deflateToken(requestMessage.getBytes("UTF-8"));
+        byte[] deflatedBytes = CompressionUtils.deflate(requestMessage.getBytes("UTF-8"));
 
         return Base64Utility.encode(deflatedBytes);
     }
@@ -348,13 +353,12 @@ public class TrustedIdpSAMLProtocolHandler implements TrustedIdpProtocolHandler
         if (isPropertyConfigured(trustedIdp, SUPPORT_BASE64_ENCODING, true)) {
             try {
                 byte[] deflatedToken = Base64Utility.decode(samlResponseDecoded);
-                tokenStream = isPropertyConfigured(trustedIdp, SUPPORT_DEFLATE_ENCODING, false)
-                    ? new DeflateEncoderDecoder().inflateToken(deflatedToken)
-                    : new ByteArrayInputStream(deflatedToken); 
+                tokenStream = new ByteArrayInputStream(deflatedToken);
+                if (isPropertyConfigured(trustedIdp, SUPPORT_DEFLATE_ENCODING, false)) {
+                    tokenStream = CompressionUtils.inflate(tokenStream, true, getMaxInflationRatio(trustedIdp));
+                }
             } catch (Base64Exception ex) {
                 throw ExceptionUtils.toBadRequestException(ex, null);
-            } catch (DataFormatException ex) {
-                throw ExceptionUtils.toBadRequestException(ex, null);
             }
         } else {
             try {
@@ -365,13 +369,15 @@ public class TrustedIdpSAMLProtocolHandler implements TrustedIdpProtocolHandler
         }
 
         Document responseDoc = null;
-        try {
-            responseDoc = StaxUtils.read(new InputStreamReader(tokenStream, "UTF-8"));
+        try (Reader reader = new InputStreamReader(tokenStream, "UTF-8")) {
+            responseDoc = StaxUtils.read(reader);
         } catch (Exception ex) {
             throw new WebApplicationException(400);
         }
         
-        LOG.debug("Received response: " + DOM2Writer.nodeToString(responseDoc.getDocumentElement()));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Received response: " + DOM2Writer.nodeToString(responseDoc.getDocumentElement()));
+        }
         
         XMLObject responseObject = null;
         try {
@@ -439,6 +445,16 @@ public class TrustedIdpSAMLProtocolHandler implements TrustedIdpProtocolHandler
         }
     }
 
+    private int getMaxInflationRatio(TrustedIdp trustedIdp) {
+        Map<String, String> parameters = trustedIdp.getParameters();
+        
+        if (parameters != null && parameters.containsKey(MAX_INFLATION_RATIO)) {
+            return Integer.parseInt(parameters.get(MAX_INFLATION_RATIO));
+        }
+        
+        return CompressionUtils.DEFAULT_MAX_INFLATION_RATIO;
+    }
+
     // Is a property configured. Defaults to "true" if not
     private boolean isPropertyConfigured(TrustedIdp trustedIdp, String property, boolean defaultValue) {
         Map<String, String> parameters = trustedIdp.getParameters();